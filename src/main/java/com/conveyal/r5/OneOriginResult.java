@@ -35,7 +35,11 @@ public class OneOriginResult {
         } else {
             result = new RegionalWorkResult(task.jobId, task.taskId, accessibility.grids.length,
                     accessibility.percentiles.length, accessibility.cutoffs.length);
-            result.setAcccessibilityValue(0, 0, 0, (int) accessibility.getAccessibility(0, 0, 0));
+            for (int p = 0; p < accessibility.percentiles.length; p++) {
+                for (int c = 0; c < accessibility.cutoffs.length; c++) {
+                    result.setAcccessibilityValue(0, p, c, (int) accessibility.getAccessibility(0, c, p));
+                }
+            }
         }
         return result;
     }
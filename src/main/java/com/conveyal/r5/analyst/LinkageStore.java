@@ -0,0 +1,202 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.common.R5Version;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.streets.LinkedPointSet;
+import com.conveyal.r5.streets.PackedDistanceTables;
+import com.conveyal.r5.streets.StreetLayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves linkages of gridded PointSets to files on the local filesystem, and reads them back when they are needed
+ * again, so that restarting a worker, evicting a linkage from the in-memory cache of its PointSet or switching back to
+ * a scenario doesn't require linking the grid to the streets and building the distance tables from scratch.
+ *
+ * Linkages are identified by the network, the scenario, the extents of the grid, the street mode and the R5 version
+ * (which determines how linking is done). Scenarios are identified only by their ID, like the scenarios themselves in
+ * TransportNetworkCache. Each linkage is a file of big-endian ints and bytes, which are read back into arrays on the
+ * heap, where the linkage would be if it had been built:
+ *
+ * FORMAT_VERSION, number of points, number of stops,
+ * edges, distances0_mm, distances1_mm (one int per point),
+ * then for each stop the length in bytes of its encoded distance table (-1 if null) followed by the table itself,
+ * as encoded by PackedDistanceTables.
+ *
+ * Linkages to old networks, scenarios and R5 versions are never needed again, so the directory is kept under a size
+ * limit by deleting the least recently used files each time a linkage is saved.
+ */
+public class LinkageStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LinkageStore.class);
+
+    /** Increment this when changing the format of the files. */
+    private static final int FORMAT_VERSION = 2;
+
+    /** The default limit on the total size of the saved linkages. */
+    public static final long DEFAULT_MAX_MEGABYTES = 10 * 1024;
+
+    /** Temporary files older than this were left behind by a worker that stopped while saving a linkage. */
+    private static final long STALE_TEMP_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final File directory;
+
+    /** When the linkage files take up more than this many bytes, the least recently used ones are deleted. */
+    private final long maxBytes;
+
+    public LinkageStore (File directory) {
+        this(directory, DEFAULT_MAX_MEGABYTES);
+    }
+
+    public LinkageStore (File directory, long maxMegabytes) {
+        this.directory = directory;
+        this.maxBytes = maxMegabytes * 1024 * 1024;
+    }
+
+    /**
+     * @return the file for the linkage of the given PointSet to the given street layer, or null if such a linkage
+     * cannot be saved because the PointSet is not a grid or the network has no ID.
+     */
+    private File getFile (PointSet pointSet, StreetLayer streetLayer, StreetMode streetMode) {
+        if (!(pointSet instanceof WebMercatorGridPointSet) || streetLayer.parentNetwork == null) return null;
+        String scenarioId = streetLayer.parentNetwork.scenarioId;
+        StreetLayer baseStreetLayer = streetLayer.isScenarioCopy() ? streetLayer.baseStreetLayer : streetLayer;
+        String networkId = baseStreetLayer.parentNetwork == null ? null : baseStreetLayer.parentNetwork.scenarioId;
+        if (scenarioId == null || networkId == null) return null;
+        WebMercatorGridPointSet grid = (WebMercatorGridPointSet) pointSet;
+        return new File(directory, String.format("%s_%s_%d_%d_%d_%d_%d_%s_%s.linkage", networkId, scenarioId,
+                grid.zoom, grid.west, grid.north, grid.width, grid.height, streetMode, R5Version.version));
+    }
+
+    /**
+     * @return the saved linkage of the given PointSet to the given street layer, or null if there is none or it could
+     * not be read.
+     */
+    public LinkedPointSet read (PointSet pointSet, StreetLayer streetLayer, StreetMode streetMode) {
+        File file = getFile(pointSet, streetLayer, streetMode);
+        if (file == null || !file.exists()) return null;
+        LOG.info("Reading linkage from {}", file);
+        // Mark the file as recently used, so it is not the first to be deleted when the directory is full.
+        file.setLastModified(System.currentTimeMillis());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int nPoints = pointSet.featureCount();
+            int nStops = streetLayer.parentNetwork.transitLayer.getStopCount();
+            if (in.readInt() != FORMAT_VERSION || in.readInt() != nPoints || in.readInt() != nStops) {
+                LOG.warn("Saved linkage {} does not match the network, it will be rebuilt.", file);
+                return null;
+            }
+            int[] edges = readInts(in, nPoints);
+            int[] distances0_mm = readInts(in, nPoints);
+            int[] distances1_mm = readInts(in, nPoints);
+            List<byte[]> stopToPointDistanceTables = new ArrayList<>(nStops);
+            for (int s = 0; s < nStops; s++) {
+                int length = in.readInt();
+                if (length < 0) {
+                    stopToPointDistanceTables.add(null);
+                } else {
+                    byte[] table = new byte[length];
+                    in.readFully(table);
+                    stopToPointDistanceTables.add(table);
+                }
+            }
+            return new LinkedPointSet(pointSet, streetLayer, streetMode, edges, distances0_mm, distances1_mm,
+                    new PackedDistanceTables(stopToPointDistanceTables));
+        } catch (Exception e) {
+            LOG.error("Could not read saved linkage {}, it will be rebuilt.", file, e);
+            return null;
+        }
+    }
+
+    /** Save the given linkage, if it is of a gridded PointSet to an identified network. */
+    public void write (LinkedPointSet linkage) {
+        File file = getFile(linkage.pointSet, linkage.streetLayer, linkage.streetMode);
+        if (file == null) return;
+        LOG.info("Saving linkage to {}", file);
+        directory.mkdirs();
+        // Write to a temporary file with a unique name then move it into place, so other workers sharing the directory
+        // never see a partial file, even when they are saving the same linkage at the same time.
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(linkage.size());
+                out.writeInt(linkage.stopToPointDistanceTables.size());
+                for (int[] array : new int[][] { linkage.edges, linkage.distances0_mm, linkage.distances1_mm }) {
+                    for (int value : array) out.writeInt(value);
+                }
+                for (int s = 0; s < linkage.stopToPointDistanceTables.size(); s++) {
+                    byte[] table = linkage.stopToPointDistanceTables.getEncoded(s);
+                    if (table == null) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(table.length);
+                        out.write(table);
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Don't fail here, we have the linkage in memory, we just couldn't save it.
+            LOG.error("Error saving linkage {}", file, e);
+            if (tempFile != null) tempFile.delete();
+        }
+        deleteLeastRecentlyUsed(file);
+    }
+
+    private static int[] readInts (DataInputStream in, int length) throws IOException {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++) result[i] = in.readInt();
+        return result;
+    }
+
+    /**
+     * Delete the least recently read or written linkage files (other than the one just saved) until the rest fit
+     * within maxBytes, and any temporary files that are too old to still be in the middle of being written. Other
+     * workers sharing the directory may be reading a file as it is deleted, but on the filesystems we use it remains
+     * readable until it is closed.
+     */
+    private synchronized void deleteLeastRecentlyUsed (File savedFile) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        long now = System.currentTimeMillis();
+        List<File> linkageFiles = new ArrayList<>();
+        long totalBytes = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".linkage")) {
+                linkageFiles.add(file);
+                totalBytes += file.length();
+            } else if (file.getName().endsWith(".tmp") && now - file.lastModified() > STALE_TEMP_FILE_MILLIS) {
+                file.delete();
+            }
+        }
+        linkageFiles.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : linkageFiles) {
+            if (totalBytes <= maxBytes) break;
+            if (file.equals(savedFile)) continue;
+            long length = file.length();
+            if (file.delete()) {
+                LOG.info("Deleted saved linkage {} to keep the linkage directory under {} MB.", file,
+                        maxBytes / 1024 / 1024);
+                totalBytes -= length;
+            }
+        }
+    }
+
+}
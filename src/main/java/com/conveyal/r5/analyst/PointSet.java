@@ -5,20 +5,21 @@ import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.streets.IntHashGrid;
 import com.conveyal.r5.streets.LinkedPointSet;
 import com.conveyal.r5.streets.StreetLayer;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Point;
 import org.mapdb.Fun.Tuple2;
+import org.mapdb.Fun.Tuple3;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.conveyal.r5.streets.VertexStore.floatingDegreesToFixed;
 
@@ -35,66 +36,120 @@ public abstract class PointSet {
     private static final Logger LOG = LoggerFactory.getLogger(PointSet.class);
 
     /**
-     * Maximum number of street network linkages to cache per PointSet. This is a crude way of limiting memory
-     * consumption, and should eventually be replaced with a WeighingCache. Since every Scenario has its own StreetLayer
-     * instance now, this means we can hold e.g. walk and bike linkages (with distance tables) for 3 scenarios at once.
-     * Note that the baseline scenario also uses up slots in the cache, but is very quick to re-load because it's an
-     * exact copy of the pre-built base linkage saved with the network.
+     * Maximum total estimated size of the linkages in the linkage cache, in kilobytes, by default a quarter of the
+     * maximum heap size. The cache is shared by all PointSets, and linkages take up room in proportion to their
+     * size, so it can hold many small walk linkages or a few large car linkages with their distance tables. Change it
+     * with setLinkageCacheKilobytes.
      */
-    public static int LINKAGE_CACHE_SIZE = 6;
+    private static final long DEFAULT_LINKAGE_CACHE_KILOBYTES = Runtime.getRuntime().maxMemory() / 4 / 1024;
 
     /**
-     * When this PointSet is connected to the street network, the resulting data are cached in this Map to speed up
+     * If non-null, linkages that are not found in the linkage cache are read from this store before being built, and
+     * saved to it once built, so they survive eviction from the cache and restarting the worker.
+     */
+    public static LinkageStore linkageStore = null;
+
+    /**
+     * When a PointSet is connected to a scenario's street network, the resulting data are cached here to speed up
      * later reuse. Different linkages are produced for different street networks and for different on-street modes
      * of travel. At first we were careful to key this cache on the StreetNetwork itself (rather than the
      * TransportNetwork or Scenario) to ensure that linkages were re-used for multiple scenarios that have the same
      * street network. However, selectively re-linking to the street network is now usually fast, and StreetNetworks
      * must be copied for every scenario due to references to their containing TransportNetwork.
-     * Note that this cache will be serialized with the PointSet, but serializing a Guava cache only serializes the
-     * cache instance and its settings, not the contents of the cache. We consider this sane behavior.
+     * Linkages to base (non-scenario) street networks are also held here, except the network's own walk linkage which
+     * is in the linkageMap of its grid PointSet. A scenario linkage is built from the base linkage in the same mode,
+     * so linkages are built outside the cache (see getLinkage) and then put in it, rather than loaded by the cache.
+     * Entries are weighed by the size of the linkage only. The street layers in the keys (and the networks they
+     * belong to) are kept in memory by the TransportNetworkCache and the scenarios of its networks anyway, and when a
+     * network is evicted from there, evictLinkages removes all the linkages to it and its scenarios from this cache,
+     * so the cache never keeps a network alive by itself.
      * TODO replace linkage cache with a manually managed, non-transient map outside the pointSets themselves.
      */
-    protected transient LoadingCache<Tuple2<StreetLayer, StreetMode>, LinkedPointSet> linkageCache;
+    protected static final Cache<Tuple3<PointSet, StreetLayer, StreetMode>, LinkedPointSet> linkageCache =
+            Caffeine.newBuilder()
+                    .maximumWeight(DEFAULT_LINKAGE_CACHE_KILOBYTES)
+                    .weigher((Tuple3<PointSet, StreetLayer, StreetMode> key, LinkedPointSet linkage) ->
+                            (int) Math.min(Integer.MAX_VALUE, linkage.estimateBytes() / 1024))
+                    .recordStats()
+                    .removalListener((key, linkage, cause) -> {
+                        if (cause.wasEvicted()) LOG.warn("Linkage cache evicted {}, cause: {}", key, cause);
+                    })
+                    .build();
 
     /**
-     * This Map augments the LoadingCache with linkages that should never be evicted.
-     * The original base linkage for a network (a walk mode linkage for the entire region) should never be evicted.
-     * There is a reference to it in the Network instance, so that linkage (and its distance tables) are always using
-     * space in memory. So there is zero additional cost to keep them in cache forever.
+     * Linkages being built, so that a thread needing a linkage that another thread is already building waits for it
+     * instead of building it again. No lock is held while building, so threads needing other linkages are not held up.
+     */
+    private static final Map<Tuple3<PointSet, StreetLayer, StreetMode>, CompletableFuture<LinkedPointSet>>
+            linkagesInProgress = new ConcurrentHashMap<>();
+
+    /**
+     * This Map holds the linkages built by buildUnevictableLinkage, which are never evicted. The original base linkage
+     * for a network (a walk mode linkage for the entire region) is always needed. There is a reference to it in the
+     * Network instance, so that linkage (and its distance tables) are always using space in memory. So there is zero
+     * additional cost to keep it forever. Other linkages, even to the base network, go in the weighted linkageCache.
      */
     protected Map<Tuple2<StreetLayer, StreetMode>, LinkedPointSet> linkageMap = new HashMap<>();
 
     /**
      * Build a linkage and store it, bypassing the PointSet's internal cache of linkages because we want this particular
-     * linkage to be serialized with the network (the Guava cache does not serialize its contents) and never evicted.
+     * linkage to be serialized with the network (the linkage cache is not serialized) and never evicted.
      */
     public void buildUnevictableLinkage(StreetLayer streetLayer, StreetMode mode) {
         Tuple2<StreetLayer, StreetMode> key = new Tuple2<>(streetLayer, mode);
-        if (linkageMap.containsKey(key) || linkageCache.getIfPresent(key) != null) {
-            LOG.error("Un-evictable linkage is being built more than once.");
-        }
         LinkedPointSet newLinkage = new LinkedPointSet(this, streetLayer, mode, null);
-        linkageMap.put(key, newLinkage);
+        synchronized (linkageMap) {
+            if (linkageMap.containsKey(key)) {
+                LOG.error("Un-evictable linkage is being built more than once.");
+            }
+            linkageMap.put(key, newLinkage);
+        }
     }
 
     /**
-     * The logic for lazy-loading linkages into the cache.
+     * Read a linkage from the linkage store if possible, otherwise build it (and save it to the store).
      */
-    private class LinkageCacheLoader extends CacheLoader<Tuple2<StreetLayer, StreetMode>, LinkedPointSet> implements Serializable {
-        @Override
-        public LinkedPointSet load(Tuple2<StreetLayer, StreetMode> key) {
-            LOG.info("Linkage for ({}, {}) was not found in cache, building it now.", key.a, key.b);
-            // If this StreetLayer is a part of a scenario and is therefore wrapping a base StreetLayer we need
-            // to recursively fetch / create a linkage for that base StreetLayer so we don't duplicate work.
-            // PointSet.this accesses the instance of the outer class.
-            LinkedPointSet baseLinkage = null;
-            if (key.a.isScenarioCopy()) {
-                baseLinkage = PointSet.this.getLinkage(key.a.baseStreetLayer, key.b);
+    private LinkedPointSet buildLinkage (StreetLayer streetLayer, StreetMode streetMode) {
+        LOG.info("Linkage for ({}, {}) was not found in cache, building it now.", streetLayer, streetMode);
+        LinkedPointSet derivedLinkage = deriveLinkage(streetLayer, streetMode);
+        if (derivedLinkage != null) return derivedLinkage;
+        if (linkageStore != null) {
+            LinkedPointSet savedLinkage = linkageStore.read(this, streetLayer, streetMode);
+            if (savedLinkage != null) return savedLinkage;
+        }
+        // If this StreetLayer is a part of a scenario and is therefore wrapping a base StreetLayer we need
+        // to recursively fetch / create a linkage for that base StreetLayer so we don't duplicate work.
+        LinkedPointSet baseLinkage = null;
+        if (streetLayer.isScenarioCopy()) {
+            baseLinkage = getLinkage(streetLayer.baseStreetLayer, streetMode);
+        }
+        // Build a new linkage from this PointSet to the supplied StreetNetwork,
+        // initialized with the existing linkage to the base StreetNetwork when relevant.
+        LinkedPointSet linkage = new LinkedPointSet(this, streetLayer, streetMode, baseLinkage);
+        if (linkageStore != null) linkageStore.write(linkage);
+        return linkage;
+    }
+
+    /**
+     * @return a linkage derived from an existing linkage of another PointSet, which is much faster than building one
+     * from scratch, or null if that is not possible. By default there is no other PointSet to derive linkages from.
+     */
+    protected LinkedPointSet deriveLinkage (StreetLayer streetLayer, StreetMode streetMode) {
+        return null;
+    }
+
+    /**
+     * @return the linkage of this PointSet to the given street layer if it is already in memory, otherwise null.
+     * Unlike getLinkage, this never builds a linkage.
+     */
+    protected LinkedPointSet getLinkageIfPresent (StreetLayer streetLayer, StreetMode streetMode) {
+        if (!streetLayer.isScenarioCopy()) {
+            synchronized (linkageMap) {
+                LinkedPointSet linkage = linkageMap.get(new Tuple2<>(streetLayer, streetMode));
+                if (linkage != null) return linkage;
             }
-            // Build a new linkage from this PointSet to the supplied StreetNetwork,
-            // initialized with the existing linkage to the base StreetNetwork when relevant.
-            return new LinkedPointSet(PointSet.this, key.a, key.b, baseLinkage);
         }
+        return linkageCache.getIfPresent(new Tuple3<>(this, streetLayer, streetMode));
     }
 
     /**
@@ -107,35 +162,66 @@ public abstract class PointSet {
      */
     public transient IntHashGrid spatialIndex;
 
-    /**
-     * Constructor for a PointSet that initializes its cache of linkages upon deserialization.
-     */
-    public PointSet() {
-        this.linkageCache = CacheBuilder.newBuilder().maximumSize(LINKAGE_CACHE_SIZE)
-                .removalListener(notification -> LOG.warn("Linkage cache evicted {}, cause: {}",
-                        notification.getKey(), notification.getCause()))
-                .build(new LinkageCacheLoader());
-    }
-
     /**
      * Find or build a linkage associating each feature in this PointSet with a nearby edge in the StreetLayer.
      * This is a rather slow operation involving a lot of geometry calculations, so we cache the resulting
      * LinkedPointSets. This method returns a linkage from the cache if this operation has already been performed.
+     * Building a linkage can take minutes, so it is done without holding any lock. Only threads needing the same
+     * linkage wait for it, and a scenario linkage can get the base linkage it is built from in the same way.
      */
     public LinkedPointSet getLinkage (StreetLayer streetLayer, StreetMode streetMode) {
+        LOG.info("Seeking linkage for ({}, {}) in cache...", streetLayer, streetMode);
+        LinkedPointSet linkage = getLinkageIfPresent(streetLayer, streetMode);
+        if (linkage != null) return linkage;
+        Tuple3<PointSet, StreetLayer, StreetMode> key = new Tuple3<>(this, streetLayer, streetMode);
+        CompletableFuture<LinkedPointSet> future = new CompletableFuture<>();
+        CompletableFuture<LinkedPointSet> otherFuture = linkagesInProgress.putIfAbsent(key, future);
+        if (otherFuture != null) return otherFuture.join();
         try {
-            Tuple2<StreetLayer, StreetMode> key = new Tuple2<>(streetLayer, streetMode);
-            LOG.info("Seeking linkage for ({}, {}) in cache...", streetLayer, streetMode);
-            LinkedPointSet value = linkageMap.get(key);
-            if (value == null) {
-                value = linkageCache.get(new Tuple2<>(streetLayer, streetMode));
+            // Another thread may have finished building it since we last looked.
+            linkage = getLinkageIfPresent(streetLayer, streetMode);
+            if (linkage == null) {
+                linkage = buildLinkage(streetLayer, streetMode);
+                linkageCache.put(key, linkage);
             }
-            return value;
-        } catch (ExecutionException e) {
-            throw new RuntimeException("Failed to link PointSet to StreetLayer.", e);
+            future.complete(linkage);
+            return linkage;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            linkagesInProgress.remove(key);
         }
     }
 
+    /**
+     * Change the maximum total estimated size of the linkages in the linkage cache shared by all PointSets,
+     * evicting linkages if needed.
+     */
+    public static void setLinkageCacheKilobytes (long kilobytes) {
+        linkageCache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(kilobytes));
+    }
+
+    /**
+     * Remove all the linkages of any PointSet to the given base street layer or to scenario copies of it from the
+     * linkage cache shared by all PointSets. Called when its network is evicted, so that the cache doesn't keep it in
+     * memory.
+     */
+    public static void evictLinkages (StreetLayer baseStreetLayer) {
+        linkageCache.asMap().keySet().removeIf(
+                key -> key.b == baseStreetLayer || key.b.baseStreetLayer == baseStreetLayer);
+    }
+
+    /** @return the hit, miss and eviction counts of the linkage cache shared by all PointSets. */
+    public static CacheStats getLinkageCacheStats () {
+        return linkageCache.stats();
+    }
+
+    /** @return the total estimated size of the linkages in the linkage cache, in kilobytes. */
+    public static long getLinkageCacheKilobytes () {
+        return linkageCache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
     public abstract double getLat(int i);
 
     public abstract double getLon(int i);
@@ -22,25 +22,39 @@ import java.util.zip.GZIPInputStream;
  * When storing bootstrap replications of travel time, we also store the point estimate (using all Monte Carlo draws
  * equally weighted) as the first value, so a SelectingGridReducer(0) can be used to retrieve the point estimate.
  *
+ * Version 1 access grids hold accessibility for several percentiles of travel time and travel time cutoffs at each
+ * origin instead, in percentile-major order, and the percentile and cutoff to select are given separately.
+ *
  * DEPRECATED because this has been copied into analysis-backend where it belongs.
  */
 @Deprecated
 public class SelectingGridReducer {
 
-    private static final AmazonS3 s3 = AmazonS3ClientBuilder.defaultClient();
+    /** Created when first needed, so that grids can be read from other sources without access to S3. */
+    private static AmazonS3 s3;
 
-    /** Version of the access grid format we read */
-    private static final int ACCESS_GRID_VERSION = 0;
+    /** Latest version of the access grid format we read. Version 0 grids can be read as well. */
+    private static final int ACCESS_GRID_VERSION = 1;
 
+    /** The index of the value to extract in version 0 grids, or of the percentile to extract in version 1 grids. */
     public final int index;
 
+    /** The index of the travel time cutoff to extract in version 1 grids. */
+    public final int cutoffIndex;
+
     /** Initialize with the index to extract */
     public SelectingGridReducer(int index) {
-        this.index = index;
+        this(index, 0);
+    }
+
+    /** Initialize with the indexes of the percentile and the travel time cutoff to extract from version 1 grids. */
+    public SelectingGridReducer(int percentileIndex, int cutoffIndex) {
+        this.index = percentileIndex;
+        this.cutoffIndex = cutoffIndex;
     }
 
     public Grid compute(String resultsBucket, String key) throws IOException {
-        S3Object accessGrid = s3.getObject(resultsBucket, key);
+        S3Object accessGrid = getS3().getObject(resultsBucket, key);
 
         return compute(accessGrid.getObjectContent());
     }
@@ -59,8 +73,9 @@ public class SelectingGridReducer {
 
         int version = input.readInt();
 
-        if (version != ACCESS_GRID_VERSION) {
-            throw new IllegalArgumentException(String.format("Version mismatch of access grids, expected %s, found %s", ACCESS_GRID_VERSION, version));
+        if (version < 0 || version > ACCESS_GRID_VERSION) {
+            throw new IllegalArgumentException(String.format(
+                    "Version mismatch of access grids, expected at most %s, found %s", ACCESS_GRID_VERSION, version));
         }
 
         int zoom = input.readInt();
@@ -69,10 +84,28 @@ public class SelectingGridReducer {
         int width = input.readInt();
         int height = input.readInt();
 
-        // The number of samples stored at each origin; these could be instantaneous accessibility values for each
-        // Monte Carlo draw, or they could be bootstrap replications of a sampling distribution of accessibility given
-        // median travel time.
-        int nSamples = input.readInt();
+        int nSamples;
+        int valueIndex;
+        if (version == 0) {
+            // The number of samples stored at each origin; these could be instantaneous accessibility values for each
+            // Monte Carlo draw, or they could be bootstrap replications of a sampling distribution of accessibility
+            // given median travel time.
+            nSamples = input.readInt();
+            valueIndex = index;
+            if (cutoffIndex != 0) {
+                throw new IllegalArgumentException("Version 0 access grids do not have multiple cutoffs.");
+            }
+        } else {
+            int nPercentiles = input.readInt();
+            int nCutoffs = input.readInt();
+            if (index < 0 || index >= nPercentiles || cutoffIndex < 0 || cutoffIndex >= nCutoffs) {
+                throw new IllegalArgumentException(String.format(
+                        "Cannot select percentile %d and cutoff %d from access grid with %d percentiles and %d cutoffs",
+                        index, cutoffIndex, nPercentiles, nCutoffs));
+            }
+            nSamples = nPercentiles * nCutoffs;
+            valueIndex = index * nCutoffs + cutoffIndex;
+        }
 
         Grid outputGrid = new Grid(zoom, width, height, north, west);
 
@@ -85,11 +118,16 @@ public class SelectingGridReducer {
                     valuesThisOrigin[iteration] = (val += input.readInt());
                 }
                 // compute percentiles
-                outputGrid.grid[x][y] = valuesThisOrigin[index];
+                outputGrid.grid[x][y] = valuesThisOrigin[valueIndex];
             }
         }
         input.close();
         return outputGrid;
     }
 
+    private static synchronized AmazonS3 getS3 () {
+        if (s3 == null) s3 = AmazonS3ClientBuilder.defaultClient();
+        return s3;
+    }
+
 }
@@ -11,8 +11,12 @@ import com.conveyal.r5.profile.FareDominatingList;
 import com.conveyal.r5.profile.FastRaptorWorker;
 import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
 import com.conveyal.r5.profile.PerTargetPropagater;
+import com.conveyal.r5.profile.SpilledTravelTimeMatrix;
 import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.streets.ContractionHierarchy;
 import com.conveyal.r5.streets.LinkedPointSet;
+import com.conveyal.r5.streets.Split;
+import com.conveyal.r5.streets.StreetLayer;
 import com.conveyal.r5.streets.StreetRouter;
 import com.conveyal.r5.transit.TransportNetwork;
 import gnu.trove.iterator.TIntIntIterator;
@@ -21,6 +25,7 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.CharBuffer;
 import java.util.Arrays;
 import java.util.function.IntFunction;
 
@@ -40,6 +45,18 @@ public class TravelTimeComputer {
     public final TransportNetwork network;
     public final GridCache gridCache;
 
+    /**
+     * If true, travel times to transit stops are stored in 16-bit rather than 32-bit arrays during routing and
+     * propagation. This halves the memory needed for the largest structures in a transit search.
+     */
+    public boolean compactTravelTimes = false;
+
+    /**
+     * If non-null, travel times to transit stops are written in compact stop-major form to a reused per-thread buffer
+     * outside the heap, so the size of the travel time matrix does not limit how many origins can be handled at once.
+     */
+    public SpilledTravelTimeMatrix.Mode spillTravelTimes = null;
+
     public TravelTimeComputer(AnalysisTask request, TransportNetwork network, GridCache gridCache) {
         this.request = request;
         this.network = network;
@@ -53,6 +70,20 @@ public class TravelTimeComputer {
      * depending on what's in the task it's given.
      */
     public OneOriginResult computeTravelTimes() {
+        StreetRouter sr = new StreetRouter(network.streetLayer);
+        try {
+            return computeTravelTimes(sr);
+        } finally {
+            // Return the per-edge storage of the street searches to the street layer for the next origin.
+            sr.release();
+        }
+    }
+
+    /**
+     * @param sr a new StreetRouter for the searches from the origin, which may be replaced for park and ride searches
+     *           but will be chained as the previousRouter of the replacement.
+     */
+    private OneOriginResult computeTravelTimes (StreetRouter sr) {
 
         // If this request includes a fare calculator, inject the transport network's transit layer into it.
         // This is threadsafe because deserializing each incoming request creates a new fare calculator instance.
@@ -81,7 +112,6 @@ public class TravelTimeComputer {
         // This allows us to skip routing calculations if the network is entirely inaccessible. In the CAR_PARK
         // case this StreetRouter will be replaced but this still serves to bypass unnecessary computation.
         // The request must be provided to the StreetRouter before setting the origin point.
-        StreetRouter sr = new StreetRouter(network.streetLayer);
         sr.profileRequest = request;
         sr.streetMode = accessMode;
         boolean foundOriginPoint = sr.setOrigin(request.fromLat, request.fromLon);
@@ -101,21 +131,28 @@ public class TravelTimeComputer {
             // searches which use distance as the quantity to minimize (because they are precalculated and stored as distance,
             // and then converted to times by dividing by speed without regard to weights/penalties for things like stairs).
             // This does mean that walk-only results will not match the walking portion of walk+transit results.
-            sr.timeLimitSeconds = request.maxTripDurationMinutes * 60;
-            sr.streetMode = directMode;
-            sr.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
-            sr.route();
-
             int offstreetTravelSpeedMillimetersPerSecond = (int) (request.getSpeedForMode(directMode) * 1000);
-
             LinkedPointSet directModeLinkedDestinations = destinations.getLinkage(network.streetLayer, directMode);
+
+            int[] carTravelTimes = directMode == StreetMode.CAR ?
+                    findCarTravelTimesToVertices(request.getRoutingLimitMinutes() * 60) : null;
+            LinkedPointSet.TravelTimeFunction travelTimeToVertex;
+            if (carTravelTimes != null) {
+                travelTimeToVertex = v -> carTravelTimes[v];
+            } else {
+                sr.timeLimitSeconds = request.getRoutingLimitMinutes() * 60;
+                sr.streetMode = directMode;
+                sr.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+                sr.route();
+                travelTimeToVertex = sr::getTravelTimeToVertex;
+            }
+
             int[] travelTimesToTargets = directModeLinkedDestinations
-                    .eval(sr::getTravelTimeToVertex, offstreetTravelSpeedMillimetersPerSecond).travelTimes;
+                    .eval(travelTimeToVertex, offstreetTravelSpeedMillimetersPerSecond).travelTimes;
 
             // Iterate over all destinations ("targets") and at each destination, save the same travel time for all percentiles.
             for (int d = 0; d < travelTimesToTargets.length; d++) {
-                final int travelTimeSeconds = travelTimesToTargets[d];
-                travelTimeReducer.recordTravelTimesForTarget(d, new int[] { travelTimeSeconds });
+                travelTimeReducer.recordUnvaryingTravelTimeAtTarget(d, travelTimesToTargets[d]);
             }
             return travelTimeReducer.finish();
         } else {
@@ -145,6 +182,10 @@ public class TravelTimeComputer {
             // The request has the speed in float meters per second, internally we use integer millimeters per second.
             int offstreetTravelSpeedMillimetersPerSecond = (int) (request.getSpeedForMode(accessMode) * 1000);
 
+            // Car travel times to all street vertices, if they can be found with the contraction hierarchy.
+            int[] carTravelTimes = accessMode == StreetMode.CAR && !request.accessModes.contains(LegMode.CAR_PARK) ?
+                    findCarTravelTimesToVertices(request.getMaxAccessTimeForMode(accessMode) * 60) : null;
+
             if (request.accessModes.contains(LegMode.CAR_PARK)) {
                 // Currently first search from origin to P+R is hardcoded as time dominance variable for Max car time seconds
                 // Second search from P+R to stops is not actually a search we just return list of all reached stops for each found P+R.
@@ -193,6 +234,17 @@ public class TravelTimeComputer {
                                     else return state.distance / offstreetTravelSpeedMillimetersPerSecond;
                                 },
                                 offstreetTravelSpeedMillimetersPerSecond).travelTimes;
+            } else if (carTravelTimes != null) {
+                // Car access times to every vertex at once from the contraction hierarchy, already in seconds.
+                accessTimes = new TIntIntHashMap();
+                for (TIntIntIterator it = network.transitLayer.stopForStreetVertex.iterator(); it.hasNext(); ) {
+                    it.advance();
+                    if (it.key() != -1 && carTravelTimes[it.key()] != Integer.MAX_VALUE) {
+                        accessTimes.put(it.value(), carTravelTimes[it.key()]);
+                    }
+                }
+                nonTransitTravelTimesToDestinations = accessModeLinkedDestinations
+                        .eval(v -> carTravelTimes[v], offstreetTravelSpeedMillimetersPerSecond).travelTimes;
             } else {
                 // Other modes are already asymmetric with the egress/stop trees, so just do a time-based on street
                 // search and don't worry about distance limiting.
@@ -205,19 +257,28 @@ public class TravelTimeComputer {
                                 .travelTimes;
             }
 
+            // Everything needed from the access search has been extracted, so its storage can be reused during transit
+            // routing and propagation.
+            if (sr != null) sr.release();
+
             // Short circuit unnecessary transit routing: If the origin was linked to a road, but no transit stations
             // were reached, return the non-transit grid as the final result.
             if (accessTimes.isEmpty()) {
                 LOG.info("Skipping transit search since no transit stops were reached.");
                 for (int target = 0; target < nonTransitTravelTimesToDestinations.length; target++) {
                     // TODO abstraction for travel time grid, with method to write it directly to reducer
-                    final int travelTimeSeconds = nonTransitTravelTimesToDestinations[target];
-                    travelTimeReducer.recordTravelTimesForTarget(target, new int[] { travelTimeSeconds });
+                    travelTimeReducer.recordUnvaryingTravelTimeAtTarget(target, nonTransitTravelTimesToDestinations[target]);
                 }
                 return travelTimeReducer.finish();
             }
 
-            int[][] transitTravelTimesToStops;
+            // Only one of these will be set, depending on whether we're storing travel times in compact form and
+            // whether we're spilling them outside the heap.
+            int[][] transitTravelTimesToStops = null;
+            char[][] compactTransitTravelTimesToStops = null;
+            CharBuffer spilledTransitTravelTimesToStops = null;
+            int nIterations = 0;
+            int nStops = network.transitLayer.getStopCount();
             FastRaptorWorker worker = null;
             if (request.inRoutingFareCalculator == null) {
                 worker = new FastRaptorWorker(network.transitLayer, request, accessTimes);
@@ -230,25 +291,56 @@ public class TravelTimeComputer {
                 // Run the main RAPTOR algorithm to find paths and travel times to all stops in the network.
                 // Returns the total travel times as a 2D array of [searchIteration][destinationStopIndex].
                 // Additional detailed path information is retained in the FastRaptorWorker after routing.
-                transitTravelTimesToStops = worker.route();
+                if (spillTravelTimes != null) {
+                    nIterations = worker.nMinutes * worker.monteCarloDrawsPerMinute;
+                    spilledTransitTravelTimesToStops =
+                            SpilledTravelTimeMatrix.forThread(spillTravelTimes, nStops, nIterations);
+                    worker.routeCompactStopMajor(spilledTransitTravelTimesToStops);
+                } else if (compactTravelTimes) {
+                    compactTransitTravelTimesToStops = worker.routeCompact();
+                } else {
+                    transitTravelTimesToStops = worker.route();
+                }
             } else {
                 // TODO maxClockTime could provide a tighter bound, as it could be based on the actual departure time, not the last possible
                 IntFunction<DominatingList> listSupplier =
                         (departureTime) -> new FareDominatingList(
                                 request.inRoutingFareCalculator,
                                 request.maxFare,
-                                departureTime + request.maxTripDurationMinutes * 60);
+                                departureTime + request.getRoutingLimitMinutes() * 60);
                 McRaptorSuboptimalPathProfileRouter mcRaptorWorker = new McRaptorSuboptimalPathProfileRouter(network,
                         request, null, null, listSupplier, InRoutingFareCalculator.getCollator(request));
                 mcRaptorWorker.route();
                 transitTravelTimesToStops = mcRaptorWorker.getBestTimes();
+                if (spillTravelTimes != null) {
+                    nIterations = transitTravelTimesToStops.length;
+                    spilledTransitTravelTimesToStops =
+                            SpilledTravelTimeMatrix.forThread(spillTravelTimes, nStops, nIterations);
+                    SpilledTravelTimeMatrix.transposeInto(spilledTransitTravelTimesToStops, transitTravelTimesToStops);
+                    transitTravelTimesToStops = null;
+                } else if (compactTravelTimes) {
+                    compactTransitTravelTimesToStops = FastRaptorWorker.compactTravelTimes(transitTravelTimesToStops);
+                    transitTravelTimesToStops = null;
+                }
+            }
+            PerTargetPropagater perTargetPropagater;
+            if (spilledTransitTravelTimesToStops != null) {
+                perTargetPropagater = new PerTargetPropagater(egressModeLinkedDestinations, request,
+                        spilledTransitTravelTimesToStops, nIterations, nonTransitTravelTimesToDestinations);
+            } else if (compactTransitTravelTimesToStops != null) {
+                perTargetPropagater = new PerTargetPropagater(egressModeLinkedDestinations, request,
+                        compactTransitTravelTimesToStops, nonTransitTravelTimesToDestinations);
+            } else {
+                perTargetPropagater = new PerTargetPropagater(egressModeLinkedDestinations, request,
+                        transitTravelTimesToStops, nonTransitTravelTimesToDestinations);
             }
-            PerTargetPropagater perTargetPropagater = new PerTargetPropagater(egressModeLinkedDestinations, request,
-                    transitTravelTimesToStops, nonTransitTravelTimesToDestinations);
 
             // We cannot yet merge the functionality of the TravelTimeReducer into the PerTargetPropagator
             // because in the non-transit case we call the reducer directly (see above).
             perTargetPropagater.travelTimeReducer = travelTimeReducer;
+            // Destinations a smooth decay function still gives weight to may lie beyond the default propagation cutoff.
+            perTargetPropagater.cutoffSeconds =
+                    Math.max(perTargetPropagater.cutoffSeconds, request.getRoutingLimitMinutes() * 60);
 
             if (request.returnPaths || request.travelTimeBreakdown) {
                 perTargetPropagater.pathsToStopsForIteration = worker.pathsPerIteration;
@@ -258,4 +350,19 @@ public class TravelTimeComputer {
             return perTargetPropagater.propagate();
         }
     }
+
+    /**
+     * Find car travel times from the origin to every street vertex using the network's contraction hierarchy, which
+     * is much faster than a car search over the whole area reachable within the time limit.
+     * @return the travel time to each vertex as in StreetRouter.getTravelTimeToVertex, or null if there is no valid
+     *         hierarchy and a normal street search is needed.
+     */
+    private int[] findCarTravelTimesToVertices (int timeLimitSeconds) {
+        ContractionHierarchy hierarchy = network.streetLayer.carContractionHierarchy;
+        if (hierarchy == null || !hierarchy.isValidFor(network.streetLayer)) return null;
+        Split origin = network.streetLayer.findSplit(request.fromLat, request.fromLon, StreetLayer.LINK_RADIUS_METERS,
+                StreetMode.CAR);
+        if (origin == null) return null;
+        return hierarchy.findTravelTimesToVertices(network.streetLayer, origin, timeLimitSeconds);
+    }
 }
@@ -7,6 +7,7 @@ import com.conveyal.r5.analyst.cluster.Origin;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
 import com.conveyal.r5.analyst.cluster.TimeGrid;
 import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.analyst.decay.DecayFunction;
 import com.conveyal.r5.profile.FastRaptorWorker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,14 +17,29 @@ import java.util.Arrays;
 /**
  * Given a bunch of travel times from an origin to a single destination grid cell, this collapses that long list into a
  * limited number of percentiles, then optionally accumulates that destination's opportunity count into the appropriate
- * cumulative opportunities accessibility indicators at that origin.
+ * accessibility indicators at that origin, for one or more travel time cutoffs. The indicators are cumulative
+ * opportunities by default, or weighted by a decay function of travel time.
  */
 public class TravelTimeReducer {
 
     private static final Logger LOG = LoggerFactory.getLogger(TravelTimeReducer.class);
 
-    /** The task used to create travel times being reduced herein. */
-    private int maxTripDurationMinutes;
+    /** The travel time cutoffs for which we compute accessibility, in ascending order. */
+    private int[] cutoffsMinutes;
+
+    /**
+     * For each percentile, the number of opportunities reached at each whole minute of travel time below the maximum
+     * trip duration. Accessibility for every cutoff is derived from this in a single pass over the destinations, by
+     * summing the opportunities reached at each minute times the weight for that minute when the reducer finishes.
+     */
+    private double[][] opportunitiesPerMinute;
+
+    /**
+     * For each cutoff, the weight of an opportunity reached at each whole minute of travel time, precomputed from the
+     * task's decay function. With the default step function these weights are just one below the cutoff and zero
+     * above it, giving cumulative opportunities. Decay-weighted indicators thus cost the same as cumulative ones.
+     */
+    private double[][] weightsPerMinute;
 
     /** Travel time results for a whole grid of destinations. May be null if we're only recording accessibility. */
     private TimeGrid timeGrid = null;
@@ -40,6 +56,12 @@ public class TravelTimeReducer {
 
     private final int timesPerDestination;
 
+    /**
+     * The percentiles of travel time at the current target, in minutes. This array is reused for every target to
+     * avoid allocating millions of tiny arrays per origin, so its contents are only valid until the next call.
+     */
+    private final int[] percentileTravelTimesMinutes;
+
 
     /**
      * @param task task to be performed, which is used to determine how results are summarized at each origin: a single
@@ -55,10 +77,10 @@ public class TravelTimeReducer {
      */
     public TravelTimeReducer (AnalysisTask task) {
 
-        this.maxTripDurationMinutes = task.maxTripDurationMinutes;
         this.timesPerDestination = task.inRoutingFareCalculator == null ? task.getMonteCarloDrawsPerMinute
                 () * task.getTimeWindowLengthMinutes() : task.monteCarloDraws;
         this.nPercentiles = task.percentiles.length;
+        this.percentileTravelTimesMinutes = new int[nPercentiles];
 
         // We pre-compute the indexes at which we'll find each percentile in a sorted list of the given length.
         this.percentileIndexes = new int[nPercentiles];
@@ -75,11 +97,22 @@ public class TravelTimeReducer {
         // Decide whether we want to calculate cumulative opportunities accessibility indicators for this origin.
         calculateAccessibility = task instanceof RegionalTask && ((RegionalTask)task).gridData != null;
         if (calculateAccessibility) {
+            RegionalTask regionalTask = (RegionalTask) task;
+            cutoffsMinutes = regionalTask.getCutoffsMinutes();
             accessibilityResult = new AccessibilityResult(
-                new Grid[] {((RegionalTask)task).gridData},
-                new int[]{task.maxTripDurationMinutes},
+                new Grid[] {regionalTask.gridData},
+                cutoffsMinutes,
                 task.percentiles
             );
+            // Routing continues until the decay function gives zero weight at the highest cutoff, and travel times
+            // at or above that limit are treated as unreachable.
+            DecayFunction decayFunction = regionalTask.getDecayFunctionOrDefault();
+            int nMinutes = regionalTask.getRoutingLimitMinutes();
+            opportunitiesPerMinute = new double[nPercentiles][nMinutes];
+            weightsPerMinute = new double[cutoffsMinutes.length][];
+            for (int c = 0; c < cutoffsMinutes.length; c++) {
+                weightsPerMinute[c] = decayFunction.makeWeightTable(cutoffsMinutes[c], nMinutes);
+            }
         }
     }
 
@@ -105,6 +138,19 @@ public class TravelTimeReducer {
         return (int) Math.round(percentile / 100 * nElements);
     }
 
+    /**
+     * Record a travel time that does not vary across iterations, e.g. from walking, biking, or driving without transit.
+     * All percentiles are then the same, so no sorting or allocation is needed. This is the fast path for non-transit
+     * searches, where the caller would otherwise wrap every single travel time in a new array.
+     * @param travelTimeSeconds the travel time to the target, or FastRaptorWorker.UNREACHED.
+     */
+    public void recordUnvaryingTravelTimeAtTarget (int target, int travelTimeSeconds) {
+        int travelTimeMinutes = (travelTimeSeconds == FastRaptorWorker.UNREACHED) ?
+                FastRaptorWorker.UNREACHED : travelTimeSeconds / 60;
+        Arrays.fill(percentileTravelTimesMinutes, travelTimeMinutes);
+        recordPercentilesForTarget(target);
+    }
+
     /**
      * Given a list of travel times of the expected length, extract the requested percentiles. Either the extracted
      * percentiles or the resulting accessibility values (or both) are then stored.
@@ -112,18 +158,15 @@ public class TravelTimeReducer {
      * Their positions in the array will no longer correspond to the raptor iterations that produced them.
      * @param timesSeconds which will be destructively sorted in place to extract percentiles.
      * @return the extracted travel times, in minutes. This is a hack to enable scoring paths in the caller.
+     *         The returned array is reused by the reducer and will be overwritten by the next call.
      */
     public int[] recordTravelTimesForTarget (int target, int[] timesSeconds) {
         // TODO factor out getPercentiles method for clarity
         // Sort the times at each target and read off percentiles at the pre-calculated indexes.
-        int[] percentileTravelTimesMinutes = new int[nPercentiles];
         if (timesSeconds.length == 1) {
             // Handle results with no variation, e.g. from walking, biking, or driving.
-            // TODO instead of conditionals maybe overload this function to have one version that takes a single int time and wraps this array function.
-            int travelTimeSeconds = timesSeconds[0];
-            int travelTimeMinutes = (travelTimeSeconds == FastRaptorWorker.UNREACHED) ?
-                    FastRaptorWorker.UNREACHED : travelTimeSeconds / 60;
-            Arrays.fill(percentileTravelTimesMinutes, travelTimeMinutes);
+            recordUnvaryingTravelTimeAtTarget(target, timesSeconds[0]);
+            return percentileTravelTimesMinutes;
         } else if (timesSeconds.length == timesPerDestination) {
             // Instead of general purpose sort this could be done by performing a counting sort on the times,
             // converting them to minutes in the process and reusing the small histogram array (120 elements) which
@@ -145,6 +188,15 @@ public class TravelTimeReducer {
         } else {
             throw new ParameterException("You must supply the expected number of travel time values (or only one value).");
         }
+        recordPercentilesForTarget(target);
+        return percentileTravelTimesMinutes;
+    }
+
+    /**
+     * Store the percentiles of travel time to the given target that have just been placed in
+     * percentileTravelTimesMinutes, and/or accumulate them into accessibility indicators.
+     */
+    private void recordPercentilesForTarget (int target) {
         if (retainTravelTimes) {
             timeGrid.setTarget(target, percentileTravelTimesMinutes);
         }
@@ -156,12 +208,13 @@ public class TravelTimeReducer {
             int y = target / grid.width;
             double amount = grid.grid[x][y];
             for (int p = 0; p < nPercentiles; p++) {
-                if (percentileTravelTimesMinutes[p] < maxTripDurationMinutes) { // TODO less than or equal?
-                    accessibilityResult.incrementAccessibility(0, 0, p, amount);
+                int travelTimeMinutes = percentileTravelTimesMinutes[p];
+                // UNREACHED is never less than the number of minutes, so unreachable destinations are skipped.
+                if (travelTimeMinutes < opportunitiesPerMinute[p].length) {
+                    opportunitiesPerMinute[p][travelTimeMinutes] += amount;
                 }
             }
         }
-        return percentileTravelTimesMinutes;
     }
 
     /**
@@ -170,6 +223,18 @@ public class TravelTimeReducer {
      * routing and propagation when the origin point is not connected to the street network.
      */
     public OneOriginResult finish () {
+        if (calculateAccessibility) {
+            // Weight the opportunities reached at each minute to find the accessibility at each cutoff.
+            for (int p = 0; p < nPercentiles; p++) {
+                for (int c = 0; c < cutoffsMinutes.length; c++) {
+                    double weightedOpportunities = 0;
+                    for (int minute = 0; minute < opportunitiesPerMinute[p].length; minute++) {
+                        weightedOpportunities += opportunitiesPerMinute[p][minute] * weightsPerMinute[c][minute];
+                    }
+                    accessibilityResult.incrementAccessibility(0, c, p, weightedOpportunities);
+                }
+            }
+        }
         return new OneOriginResult(timeGrid, accessibilityResult);
     }
 
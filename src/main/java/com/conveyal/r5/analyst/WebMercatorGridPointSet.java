@@ -54,21 +54,24 @@ public class WebMercatorGridPointSet extends PointSet implements Serializable {
         this.width = width;
         this.height = height;
         this.base = base;
-        // Copy subsets of linkages already cached in the base linkage into to this point set. A walking linkage is
-        // pre-built for the full geographic extent transport network, and linkages for other modes may already exist.
-        // We can re-use the data in these linkages instead of re-computing them from scratch for the new extents.
-        // LinkedPointSet now handles the case where the new grid is not completely contained by the base grid.
-        // Since this generally happens when there are points beyond the transit network's extents, marking the points
-        // that are not contained by the base linkage as unlinked (and logging a warning if all points are beyond
-        // the network) is sufficient as you will not be able to reach these locations anyhow.
-        // TODO don't copy, just have a cache that wraps the base pointset and can read through to the original linkages
-        // TODO maybe put all the linkages into the cache (none in the map) when building upon a base
-        if (base != null) {
-            base.linkageMap.forEach(
-                    (key, baseLinkage) -> this.linkageMap.put(key, new LinkedPointSet(baseLinkage, this)));
-            base.linkageCache.asMap().forEach(
-                    (key, baseLinkage) -> this.linkageCache.put(key, new LinkedPointSet(baseLinkage, this)));
-        }
+    }
+
+    /**
+     * Linkages of a grid with a base grid are cropped from the linkages of the base grid when they are already in
+     * memory, rather than built from scratch. A walking linkage is pre-built for the full geographic extent of the
+     * transport network, and linkages for other modes may already exist. This is done when a linkage is first needed,
+     * so that grids that are never linked don't take up room in the linkage cache with copies of the base linkages.
+     * LinkedPointSet handles the case where the new grid is not completely contained by the base grid.
+     * Since this generally happens when there are points beyond the transit network's extents, marking the points
+     * that are not contained by the base linkage as unlinked (and logging a warning if all points are beyond
+     * the network) is sufficient as you will not be able to reach these locations anyhow.
+     */
+    @Override
+    protected LinkedPointSet deriveLinkage (StreetLayer streetLayer, StreetMode streetMode) {
+        if (base == null) return null;
+        LinkedPointSet baseLinkage = base.getLinkageIfPresent(streetLayer, streetMode);
+        if (baseLinkage == null) return null;
+        return new LinkedPointSet(baseLinkage, this);
     }
 
     /**
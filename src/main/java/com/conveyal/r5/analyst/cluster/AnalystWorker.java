@@ -5,13 +5,16 @@ import com.conveyal.r5.OneOriginResult;
 import com.conveyal.r5.analyst.NetworkPreloader;
 import com.conveyal.r5.analyst.FilePersistence;
 import com.conveyal.r5.analyst.GridCache;
+import com.conveyal.r5.analyst.LinkageStore;
 import com.conveyal.r5.analyst.PersistenceBuffer;
+import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.S3FilePersistence;
 import com.conveyal.r5.analyst.TravelTimeComputer;
 import com.conveyal.r5.analyst.error.ScenarioApplicationException;
 import com.conveyal.r5.analyst.error.TaskError;
 import com.conveyal.r5.common.JsonUtilities;
 import com.conveyal.r5.common.R5Version;
+import com.conveyal.r5.profile.SpilledTravelTimeMatrix;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.conveyal.r5.transit.TransportNetworkCache;
 import com.conveyal.r5.transitive.TransitiveNetwork;
@@ -211,6 +214,15 @@ public class AnalystWorker implements Runnable {
     /** The HTTP server that receives single-point requests. */
     private spark.Service sparkHttpService;
 
+    /** Whether to store travel times to transit stops in 16-bit arrays, halving the memory needed per origin. */
+    private final boolean compactTravelTimes;
+
+    /**
+     * If non-null, travel times to transit stops are spilled to per-thread buffers outside the heap, so the number of
+     * regional tasks handled at once (one per processor) is not limited by the heap size on large networks.
+     */
+    private final SpilledTravelTimeMatrix.Mode spillTravelTimes;
+
     public static AnalystWorker forConfig (Properties config) {
         // FIXME why is there a separate configuration parsing section here? Why not always make the cache based on the configuration?
         // FIXME why is some configuration done here and some in the constructor?
@@ -219,6 +231,16 @@ public class AnalystWorker implements Runnable {
         String graphsBucket = workOffline ? null : config.getProperty("graphs-bucket");
         String graphDirectory = config.getProperty("cache-dir", "cache/graphs");
         TransportNetworkCache cache = new TransportNetworkCache(awsRegion, graphsBucket, new File(graphDirectory));
+        String linkageCacheMegabytes = config.getProperty("linkage-cache-megabytes");
+        if (linkageCacheMegabytes != null) {
+            PointSet.setLinkageCacheKilobytes(Long.parseLong(linkageCacheMegabytes) * 1024);
+        }
+        if (Boolean.parseBoolean(config.getProperty("save-linkages", "true"))) {
+            // Save linkages next to the networks, so restarted workers don't have to relink the grid.
+            long linkageStoreMegabytes = Long.parseLong(config.getProperty("linkage-store-megabytes",
+                    Long.toString(LinkageStore.DEFAULT_MAX_MEGABYTES)));
+            PointSet.linkageStore = new LinkageStore(new File(graphDirectory, "linkages"), linkageStoreMegabytes);
+        }
         return new AnalystWorker(config, cache);
     }
 
@@ -255,6 +277,8 @@ public class AnalystWorker implements Runnable {
         this.gridCache = new GridCache(config.getProperty("aws-region"), config.getProperty("pointsets-bucket"));
         this.networkPreloader = new NetworkPreloader(transportNetworkCache);
         this.autoShutdown = Boolean.parseBoolean(config.getProperty("auto-shutdown", "false"));
+        this.compactTravelTimes = Boolean.parseBoolean(config.getProperty("compact-travel-times", "false"));
+        this.spillTravelTimes = SpilledTravelTimeMatrix.Mode.forConfigValue(config.getProperty("spill-travel-times"));
 
         // Keep the worker alive for an initial window to prepare for analysis
         inPreloading = true;
@@ -412,6 +436,8 @@ public class AnalystWorker implements Runnable {
 
         // Perform the core travel time computations.
         TravelTimeComputer computer = new TravelTimeComputer(task, transportNetwork, gridCache);
+        computer.compactTravelTimes = compactTravelTimes;
+        computer.spillTravelTimes = spillTravelTimes;
         OneOriginResult oneOriginResult = computer.computeTravelTimes();
 
         // Prepare the travel time grid which will be written back to the client. We gzip the data before sending
@@ -489,6 +515,8 @@ public class AnalystWorker implements Runnable {
 
             // Perform the core travel time and accessibility computations.
             TravelTimeComputer computer = new TravelTimeComputer(task, transportNetwork, gridCache);
+            computer.compactTravelTimes = compactTravelTimes;
+            computer.spillTravelTimes = spillTravelTimes;
             OneOriginResult oneOriginResult = computer.computeTravelTimes();
 
             if (task.makeStaticSite) {
@@ -33,13 +33,22 @@ public class GridResultAssembler {
 
     public static final Logger LOG = LoggerFactory.getLogger(GridResultAssembler.class);
 
-    /** The version of the access grids we produce */
-    public static final int ACCESS_GRID_VERSION = 0;
+    /**
+     * The latest version of the access grids we produce. Version 0 grids have a single number of values per origin in
+     * the header, which were bootstrap replications. Version 1 grids have the number of percentiles and the number of
+     * travel time cutoffs in the header instead, and one value per origin for each combination of them. Older readers
+     * only understand version 0, so version 1 is only written when there is more than one value per origin.
+     */
+    public static final int ACCESS_GRID_VERSION = 1;
 
-    /** The offset to get to the data section of the access grid file. */
+    /** The offset to get to the data section of version 0 access grid files. */
     public static final long HEADER_LENGTH_BYTES = 9 * Integer.BYTES;
 
-    private static final AmazonS3 s3 = AmazonS3ClientBuilder.defaultClient();
+    /** The offset to get to the data section of version 1 access grid files, which have one more int in the header. */
+    public static final long HEADER_LENGTH_BYTES_V1 = 10 * Integer.BYTES;
+
+    /** Created when first needed, so that results can be assembled without access to S3. */
+    private static AmazonS3 s3;
 
     public final AnalysisTask request;
 
@@ -68,6 +77,14 @@ public class GridResultAssembler {
     /** The bucket on S3 to which the final result will be written. */
     public final String outputBucket;
 
+    /** The number of percentiles and travel time cutoffs for which we expect accessibility values at each origin. */
+    private final int nPercentiles, nCutoffs;
+
+    /** The version of the access grid file being assembled, and the offset to get to its data section. */
+    private final int version;
+
+    private final long headerLengthBytes;
+
     /**
      * Construct an assembler for a single regional analysis result grid.
      * This also creates the on-disk scratch buffer into which the results from the workers will be accumulated.
@@ -77,10 +94,15 @@ public class GridResultAssembler {
         this.outputBucket = outputBucket;
         nTotal = request.width * request.height;
         originsReceived = new BitSet(nTotal);
-        LOG.info("Expecting results for regional analysis with width {}, height {}, 1 value per origin.",
-                request.width, request.height);
-
-        long outputFileSizeBytes = request.width * request.height * Integer.BYTES;
+        nPercentiles = request.percentiles.length;
+        nCutoffs = request instanceof RegionalTask ? ((RegionalTask) request).getCutoffsMinutes().length : 1;
+        LOG.info("Expecting results for regional analysis with width {}, height {}, {} values per origin.",
+                request.width, request.height, nPercentiles * nCutoffs);
+        version = nPercentiles * nCutoffs == 1 ? 0 : ACCESS_GRID_VERSION;
+        headerLengthBytes = version == 0 ? HEADER_LENGTH_BYTES : HEADER_LENGTH_BYTES_V1;
+
+        long outputFileSizeBytes = headerLengthBytes + (long) request.width * request.height *
+                nPercentiles * nCutoffs * Integer.BYTES;
         LOG.info("Creating temporary file to store regional analysis results, size is {}.",
                 human(outputFileSizeBytes, "B"));
         try {
@@ -93,13 +115,20 @@ public class GridResultAssembler {
             FileOutputStream fos = new FileOutputStream(bufferFile);
             LittleEndianIntOutputStream data = new LittleEndianIntOutputStream(fos);
             data.writeAscii("ACCESSGR");
-            data.writeInt(ACCESS_GRID_VERSION);
+            data.writeInt(version);
             data.writeInt(request.zoom);
             data.writeInt(request.west);
             data.writeInt(request.north);
             data.writeInt(request.width);
             data.writeInt(request.height);
-            data.writeInt(1); // Hard-wired to one bootstrap replication
+            if (version == 0) {
+                // A single value per origin, which version 0 readers treat as one bootstrap replication.
+                data.writeInt(1);
+            } else {
+                // One value per origin for each percentile and cutoff (there is only one bootstrap replication).
+                data.writeInt(nPercentiles);
+                data.writeInt(nCutoffs);
+            }
             data.close();
 
             // We used to fill the file with zeros here, to "overwrite anything that might be in the file already"
@@ -123,25 +152,9 @@ public class GridResultAssembler {
     protected synchronized void finish () {
         LOG.info("Finished receiving data for regional analysis {}, uploading to S3", request.jobId);
         try {
-            File gzippedGridFile = File.createTempFile(request.jobId, ".access_grid.gz");
-            randomAccessFile.close();
-
-            // There's probably a more elegant way to do this with NIO and without closing the buffer.
-            // That would be Files.copy or ByteStreams.copy.
-            InputStream is = new BufferedInputStream(new FileInputStream(bufferFile));
-            OutputStream os = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(gzippedGridFile)));
-            ByteStreams.copy(is, os);
-            is.close();
-            os.close();
-
-            LOG.info("GZIP compression reduced regional analysis {} from {} to {} ({}x compression)",
-                    request.jobId,
-                    human(bufferFile.length(), "B"),
-                    human(gzippedGridFile.length(), "B"),
-                    (double) bufferFile.length() / gzippedGridFile.length()
-            );
+            File gzippedGridFile = gzipResults();
             // TODO use generic filePersistence instead of specific S3 client
-            s3.putObject(outputBucket, String.format("%s.access", request.jobId), gzippedGridFile);
+            getS3().putObject(outputBucket, String.format("%s.access", request.jobId), gzippedGridFile);
             // Clear temporary files off of the disk because the gzipped version is now on S3.
             bufferFile.delete();
             gzippedGridFile.delete();
@@ -150,11 +163,44 @@ public class GridResultAssembler {
         }
     }
 
-    private void checkDimension (RegionalWorkResult workResult, String dimensionName, int seen, int expected) {
+    /**
+     * Close the buffer file once all the results have been received and compress it into a new temporary file.
+     * @return the gzipped access grid file.
+     */
+    protected File gzipResults () throws IOException {
+        File gzippedGridFile = File.createTempFile(request.jobId, ".access_grid.gz");
+        randomAccessFile.close();
+
+        // There's probably a more elegant way to do this with NIO and without closing the buffer.
+        // That would be Files.copy or ByteStreams.copy.
+        InputStream is = new BufferedInputStream(new FileInputStream(bufferFile));
+        OutputStream os = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(gzippedGridFile)));
+        ByteStreams.copy(is, os);
+        is.close();
+        os.close();
+
+        LOG.info("GZIP compression reduced regional analysis {} from {} to {} ({}x compression)",
+                request.jobId,
+                human(bufferFile.length(), "B"),
+                human(gzippedGridFile.length(), "B"),
+                (double) bufferFile.length() / gzippedGridFile.length()
+        );
+        return gzippedGridFile;
+    }
+
+    private static synchronized AmazonS3 getS3 () {
+        if (s3 == null) s3 = AmazonS3ClientBuilder.defaultClient();
+        return s3;
+    }
+
+    /**
+     * Results that don't have the expected dimensions can't be stored in the grid, so fail rather than storing some of
+     * their values at the wrong place or leaving some out.
+     */
+    private static void checkDimension (RegionalWorkResult workResult, String dimensionName, int seen, int expected) {
         if (seen != expected) {
-            LOG.error("Result for task {} of job {} has {} {}, expected {}.",
-                    workResult.taskId, workResult.jobId, dimensionName, seen, expected);
-            error = true;
+            throw new IllegalArgumentException(String.format("Result for task %d of job %s has %d %s, expected %d.",
+                    workResult.taskId, workResult.jobId, seen, dimensionName, expected));
         }
     }
 
@@ -170,12 +216,20 @@ public class GridResultAssembler {
     // The randomAccessFile is not threadsafe and multiple threads may call this, so synchronize.
     // The origins we receive have 2d coordinates.
     // Flatten them to compute file offsets and for the origin checklist.
-    private void writeOneValue (int x, int y, int value) throws IOException {
+    // As specified by the access grid format, the values within each origin are delta coded.
+    private void writeOriginValues (int x, int y, int[] values) throws IOException {
         int index1d = y * request.width + x;
-        long offset = HEADER_LENGTH_BYTES + index1d * Integer.BYTES;
+        long offset = headerLengthBytes + (long) index1d * values.length * Integer.BYTES;
+        ByteBuffer byteBuffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        int previousValue = 0;
+        for (int value : values) {
+            byteBuffer.putInt(value - previousValue);
+            previousValue = value;
+        }
         synchronized (this) {
             randomAccessFile.seek(offset);
-            randomAccessFile.write(intToLittleEndianByteArray(value));
+            randomAccessFile.write(byteBuffer.array());
             // Don't double-count origins if we receive them more than once.
             if (!originsReceived.get(index1d)) {
                 originsReceived.set(index1d);
@@ -186,10 +240,9 @@ public class GridResultAssembler {
 
     /**
      * Process a single result.
-     * We have bootstrap replications turned off, so there should be only one accessibility result per origin
-     * and no delta coding is necessary anymore within each origin.
-     * We are also iterating over three dimensions (grids, percentiles, cutoffs) but those should produce completely
-     * separate access grid files, and are all size 1 for now anyway.
+     * We have bootstrap replications turned off, so there should be only one set of accessibility results per origin.
+     * We are also iterating over three dimensions (grids, percentiles, cutoffs). There is only one grid for now. All
+     * the percentiles and cutoffs for an origin are stored together, in percentile-major order.
      */
     public void handleMessage (RegionalWorkResult workResult) {
         try {
@@ -200,21 +253,22 @@ public class GridResultAssembler {
 
             // Check the dimensions of the result by comparing with fields of this.request
             int nGrids = 1;
-            int nPercentiles = 1;
-            int nCutoffs = 1;
 
-            // Drop work results for this particular origin into a little-endian output files.
-            // We only have one file for now because only one grid, percentile, and cutoff value.
+            // Drop work results for this particular origin into a little-endian output file.
+            // We only have one file for now because only one grid.
             checkDimension(workResult, "destination grids", workResult.accessibilityValues.length, nGrids);
+            int[] originValues = new int[nPercentiles * nCutoffs];
+            int v = 0;
             for (int[][] gridResult : workResult.accessibilityValues) {
                 checkDimension(workResult, "percentiles", gridResult.length, nPercentiles);
                 for (int[] percentileResult : gridResult) {
                     checkDimension(workResult, "cutoffs", percentileResult.length, nCutoffs);
                     for (int accessibilityForCutoff : percentileResult) {
-                        writeOneValue(x, y, accessibilityForCutoff);
+                        originValues[v++] = accessibilityForCutoff;
                     }
                 }
             }
+            writeOriginValues(x, y, originValues);
             // TODO It might be more reliable to double-check the bitset of received results inside finish() instead of just counting.
             // FIXME isn't this leaving the files around and the assemblers in memory if the job errors out?
             if (nComplete == nTotal && !error) finish();
@@ -1,6 +1,10 @@
 package com.conveyal.r5.analyst.cluster;
 
 import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.decay.DecayFunction;
+import com.conveyal.r5.analyst.decay.StepDecayFunction;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.List;
 
 /**
@@ -35,12 +39,58 @@ public class RegionalTask extends AnalysisTask implements Cloneable {
     /** Where should output of this job be saved */
     public String outputQueue;
 
+    /**
+     * If true, accessibility is computed for every whole-minute travel time cutoff from 1 up to and including
+     * maxTripDurationMinutes, yielding a cumulative opportunities curve for each origin in a single regional job.
+     * Otherwise accessibility is only computed for the single cutoff maxTripDurationMinutes.
+     */
+    public boolean allCutoffs = false;
+
+    /**
+     * The function giving the weight of each opportunity in the accessibility indicator according to its travel time
+     * and the cutoff. If null, traditional cumulative opportunities are computed (a step function at the cutoff).
+     */
+    public DecayFunction decayFunction;
+
     /**
      * The grid we are calculating accessibility to. This is not serialized int the request, it's looked up by the worker.
      * TODO use distinct terms for grid extents and gridded opportunity density data.
      */
     public transient Grid gridData;
 
+    /**
+     * @return the travel time cutoffs in minutes for which accessibility will be computed, in ascending order.
+     */
+    @JsonIgnore
+    public int[] getCutoffsMinutes () {
+        if (!allCutoffs) {
+            return new int[] { maxTripDurationMinutes };
+        }
+        int[] cutoffsMinutes = new int[maxTripDurationMinutes];
+        for (int c = 0; c < maxTripDurationMinutes; c++) {
+            cutoffsMinutes[c] = c + 1;
+        }
+        return cutoffsMinutes;
+    }
+
+    /** @return the decay function to use in computing accessibility, which is a step function if none was given. */
+    @JsonIgnore
+    public DecayFunction getDecayFunctionOrDefault () {
+        return decayFunction == null ? new StepDecayFunction() : decayFunction;
+    }
+
+    /**
+     * Smooth decay functions give weight to opportunities reached after the cutoff, so routing and propagation must
+     * continue until the weight for the highest cutoff reaches zero or is truncated. Otherwise the smooth decay would
+     * be cut off sharply at the maximum trip duration.
+     */
+    @Override
+    public int getRoutingLimitMinutes () {
+        int[] cutoffsMinutes = getCutoffsMinutes();
+        int lastCutoffMinutes = cutoffsMinutes[cutoffsMinutes.length - 1];
+        return Math.max(maxTripDurationMinutes, getDecayFunctionOrDefault().reachesZeroMinutes(lastCutoffMinutes));
+    }
+
     @Override
     public Type getType() {
         return Type.REGIONAL_ANALYSIS;
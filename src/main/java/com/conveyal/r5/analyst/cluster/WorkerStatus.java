@@ -1,9 +1,11 @@
 package com.conveyal.r5.analyst.cluster;
 
+import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.WorkerCategory;
 import com.conveyal.r5.common.R5Version;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +50,10 @@ public class WorkerStatus {
     public String jvmVendor;
     public String jvmVersion;
     public String ipAddress;
+    public long linkageCacheHits;
+    public long linkageCacheMisses;
+    public long linkageCacheEvictions;
+    public long linkageCacheKilobytes;
     public List<RegionalWorkResult> results;
 
     /** No-arg constructor used when deserializing. */
@@ -92,6 +98,12 @@ public class WorkerStatus {
         memoryTotal = runtime.totalMemory();
         memoryFree = runtime.freeMemory();
 
+        CacheStats linkageCacheStats = PointSet.getLinkageCacheStats();
+        linkageCacheHits = linkageCacheStats.hitCount();
+        linkageCacheMisses = linkageCacheStats.missCount();
+        linkageCacheEvictions = linkageCacheStats.evictionCount();
+        linkageCacheKilobytes = PointSet.getLinkageCacheKilobytes();
+
         if (ec2.privateIp != null) {
             // Give priority to the private IP address if running on EC2
             ipAddress = ec2.privateIp;
@@ -0,0 +1,65 @@
+package com.conveyal.r5.analyst.decay;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * A function giving the weight of an opportunity in an accessibility indicator, as a function of the travel time to
+ * that opportunity and a travel time cutoff. Traditional cumulative opportunities accessibility uses a step function
+ * which counts an opportunity in full when it is reached below the cutoff, and not at all otherwise. Other functions
+ * let the weight fall off more gradually around the cutoff, giving gravity-style accessibility indicators that are
+ * less sensitive to small changes in travel time.
+ *
+ * Travel times are only known to the nearest minute in the TravelTimeReducer, so rather than evaluating the function
+ * for every destination we precompute a table of weights for each whole minute of travel time.
+ */
+@JsonTypeInfo(use=JsonTypeInfo.Id.NAME, include=JsonTypeInfo.As.PROPERTY, property="type")
+@JsonSubTypes({
+        @JsonSubTypes.Type(name = "step", value = StepDecayFunction.class),
+        @JsonSubTypes.Type(name = "logistic", value = LogisticDecayFunction.class),
+        @JsonSubTypes.Type(name = "exponential", value = ExponentialDecayFunction.class),
+        @JsonSubTypes.Type(name = "linear", value = LinearDecayFunction.class)
+})
+public abstract class DecayFunction {
+
+    /**
+     * @param cutoffMinutes the travel time cutoff, whose exact meaning depends on the shape of the function.
+     * @param travelTimeMinutes the travel time to the opportunity, which is never negative.
+     * @return the weight of an opportunity reached in the given travel time, between zero and one.
+     */
+    public abstract double computeWeight (int cutoffMinutes, int travelTimeMinutes);
+
+    /**
+     * Smooth functions may never reach zero, but routing has to stop somewhere. Beyond the travel time where their
+     * weight falls below this value, opportunities are truncated to zero weight.
+     */
+    public static final double NEGLIGIBLE_WEIGHT = 0.001;
+
+    /**
+     * Opportunities reached in this many minutes or more have zero weight for the given cutoff, either because the
+     * function reaches zero or because its weight has become negligible and is truncated there. Routing and
+     * propagation must continue up to this travel time, which may be well beyond the cutoff itself.
+     */
+    public abstract int reachesZeroMinutes (int cutoffMinutes);
+
+    public abstract String getType ();
+
+    public void setType (String type) {
+        /* do nothing */
+    }
+
+    /**
+     * Precompute the weights for the given cutoff at every whole minute of travel time below tableLengthMinutes.
+     * Opportunities reached in tableLengthMinutes or more are considered unreachable and have zero weight, as do
+     * those beyond the point where the weight is truncated.
+     */
+    public double[] makeWeightTable (int cutoffMinutes, int tableLengthMinutes) {
+        double[] weights = new double[tableLengthMinutes];
+        int nonZeroMinutes = Math.min(tableLengthMinutes, reachesZeroMinutes(cutoffMinutes));
+        for (int minutes = 0; minutes < nonZeroMinutes; minutes++) {
+            weights[minutes] = computeWeight(cutoffMinutes, minutes);
+        }
+        return weights;
+    }
+
+}
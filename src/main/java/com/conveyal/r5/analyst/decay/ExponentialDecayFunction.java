@@ -0,0 +1,26 @@
+package com.conveyal.r5.analyst.decay;
+
+/**
+ * A negative exponential decay function, where the cutoff is the half-life: opportunities reached at the cutoff have
+ * weight one half, at twice the cutoff one quarter, and so on. The weight never reaches zero, so it is truncated after
+ * about ten half-lives where it falls below NEGLIGIBLE_WEIGHT.
+ */
+public class ExponentialDecayFunction extends DecayFunction {
+
+    @Override
+    public double computeWeight (int cutoffMinutes, int travelTimeMinutes) {
+        return Math.exp(-Math.log(2) * travelTimeMinutes / cutoffMinutes);
+    }
+
+    @Override
+    public int reachesZeroMinutes (int cutoffMinutes) {
+        double halfLives = Math.log(1 / NEGLIGIBLE_WEIGHT) / Math.log(2);
+        return (int) Math.ceil(cutoffMinutes * halfLives);
+    }
+
+    @Override
+    public String getType () {
+        return "exponential";
+    }
+
+}
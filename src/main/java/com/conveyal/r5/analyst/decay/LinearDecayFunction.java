@@ -0,0 +1,30 @@
+package com.conveyal.r5.analyst.decay;
+
+/**
+ * A linear decay function centered on the cutoff: the weight is one until half the width before the cutoff, then falls
+ * linearly to zero at half the width after the cutoff. With a width of zero this is equivalent to a step function.
+ */
+public class LinearDecayFunction extends DecayFunction {
+
+    /** The number of minutes over which the weight falls from one to zero. */
+    public int widthMinutes = 10;
+
+    @Override
+    public double computeWeight (int cutoffMinutes, int travelTimeMinutes) {
+        double decayStartMinutes = cutoffMinutes - widthMinutes / 2.0;
+        if (travelTimeMinutes < decayStartMinutes) return 1;
+        if (travelTimeMinutes >= decayStartMinutes + widthMinutes) return 0;
+        return 1 - (travelTimeMinutes - decayStartMinutes) / widthMinutes;
+    }
+
+    @Override
+    public int reachesZeroMinutes (int cutoffMinutes) {
+        return (int) Math.ceil(cutoffMinutes + widthMinutes / 2.0);
+    }
+
+    @Override
+    public String getType () {
+        return "linear";
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.conveyal.r5.analyst.decay;
+
+/**
+ * A logistic (sigmoid) decay function centered on the cutoff, where the weight is one half. Its spread is given as the
+ * standard deviation of the corresponding logistic distribution, so roughly two thirds of the fall in weight happens
+ * within one standard deviation of the cutoff on either side.
+ */
+public class LogisticDecayFunction extends DecayFunction {
+
+    /** The standard deviation of the logistic distribution, in minutes. */
+    public double standardDeviationMinutes = 10;
+
+    @Override
+    public double computeWeight (int cutoffMinutes, int travelTimeMinutes) {
+        return 1 / (1 + Math.exp((travelTimeMinutes - cutoffMinutes) / getScale()));
+    }
+
+    /** The weight is 1 / (1 + 999) = NEGLIGIBLE_WEIGHT when the exponent is ln(999), 6.9 scales past the cutoff. */
+    @Override
+    public int reachesZeroMinutes (int cutoffMinutes) {
+        return cutoffMinutes + (int) Math.ceil(getScale() * Math.log(1 / NEGLIGIBLE_WEIGHT - 1));
+    }
+
+    /** @return the scale parameter of the logistic distribution with the given standard deviation. */
+    private double getScale () {
+        return standardDeviationMinutes * Math.sqrt(3) / Math.PI;
+    }
+
+    @Override
+    public String getType () {
+        return "logistic";
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.conveyal.r5.analyst.decay;
+
+/**
+ * Traditional cumulative opportunities: an opportunity counts fully if it is reached strictly below the cutoff, and
+ * not at all otherwise. This is the default when no decay function is specified.
+ */
+public class StepDecayFunction extends DecayFunction {
+
+    @Override
+    public double computeWeight (int cutoffMinutes, int travelTimeMinutes) {
+        return travelTimeMinutes < cutoffMinutes ? 1 : 0;
+    }
+
+    @Override
+    public int reachesZeroMinutes (int cutoffMinutes) {
+        return cutoffMinutes;
+    }
+
+    @Override
+    public String getType () {
+        return "step";
+    }
+
+}
@@ -206,6 +206,7 @@ public class ProfileResponse {
                     LOG.warn("Street transfer: {} not found in streetlayer", transfer);
                 }
             }
+            streetRouter.release();
         }
         request.reverseSearch = prevReverseSearch;
     }
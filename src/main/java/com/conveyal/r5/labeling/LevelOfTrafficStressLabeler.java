@@ -5,15 +5,14 @@ import com.conveyal.r5.streets.EdgeStore;
 import com.conveyal.r5.streets.StreetLayer;
 import com.conveyal.r5.streets.VertexStore;
 import gnu.trove.iterator.TIntIntIterator;
-import gnu.trove.iterator.TIntIterator;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.EnumSet;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,9 +33,10 @@ public class LevelOfTrafficStressLabeler {
     /** Match OSM speeds, from http://wiki.openstreetmap.org/wiki/Key:maxspeed */
     private static final Pattern speedPattern = Pattern.compile("^([0-9][\\.0-9]*?) ?(km/h|kmh|kph|mph|knots)?$");
 
-    Set<String> badMaxspeedValues = new HashSet<>();
+    // These sets are concurrent because ways are labeled in parallel when building a street layer.
+    Set<String> badMaxspeedValues = ConcurrentHashMap.newKeySet();
 
-    Set<String> badLaneValues = new HashSet<>();
+    Set<String> badLaneValues = ConcurrentHashMap.newKeySet();
 
     /** Set the LTS for this way in the provided flags (not taking into account any intersection LTS at the moment) */
     public void label (Way way, EnumSet<EdgeStore.EdgeFlag> forwardFlags, EnumSet<EdgeStore.EdgeFlag> backFlags) {
@@ -177,15 +177,15 @@ public class LevelOfTrafficStressLabeler {
             // otherwise find the max lts
             int maxLts = 1;
 
-            for (TIntIterator it = streetLayer.incomingEdges.get(v.index).iterator(); it.hasNext();) {
-                e.seek(it.next());
+            for (int i = 0; i < streetLayer.incomingEdges.size(v.index); i++) {
+                e.seek(streetLayer.incomingEdges.get(v.index, i));
                 if (e.getFlag(EdgeStore.EdgeFlag.BIKE_LTS_2)) maxLts = Math.max(2, maxLts);
                 if (e.getFlag(EdgeStore.EdgeFlag.BIKE_LTS_3)) maxLts = Math.max(3, maxLts);
                 if (e.getFlag(EdgeStore.EdgeFlag.BIKE_LTS_4)) maxLts = Math.max(4, maxLts);
             }
 
-            for (TIntIterator it = streetLayer.outgoingEdges.get(v.index).iterator(); it.hasNext();) {
-                e.seek(it.next());
+            for (int i = 0; i < streetLayer.outgoingEdges.size(v.index); i++) {
+                e.seek(streetLayer.outgoingEdges.get(v.index, i));
                 if (e.getFlag(EdgeStore.EdgeFlag.BIKE_LTS_2)) maxLts = Math.max(2, maxLts);
                 if (e.getFlag(EdgeStore.EdgeFlag.BIKE_LTS_3)) maxLts = Math.max(3, maxLts);
                 if (e.getFlag(EdgeStore.EdgeFlag.BIKE_LTS_4)) maxLts = Math.max(4, maxLts);
@@ -200,8 +200,8 @@ public class LevelOfTrafficStressLabeler {
 
             v.seek(it.key());
 
-            for (TIntIterator eit = streetLayer.incomingEdges.get(v.index).iterator(); eit.hasNext();) {
-                e.seek(eit.next());
+            for (int i = 0; i < streetLayer.incomingEdges.size(v.index); i++) {
+                e.seek(streetLayer.incomingEdges.get(v.index, i));
 
                 // we do need to check and preserve LTS on this edge, because it can be higher than the intersection
                 // LTS if the other end of it is connected to a higher-stress intersection.
@@ -220,8 +220,8 @@ public class LevelOfTrafficStressLabeler {
             }
 
             // need to set on both incoming and outgoing b/c it is possible to start or end a search at a high-stress intersection
-            for (TIntIterator eit = streetLayer.outgoingEdges.get(v.index).iterator(); eit.hasNext();) {
-                e.seek(eit.next());
+            for (int i = 0; i < streetLayer.outgoingEdges.size(v.index); i++) {
+                e.seek(streetLayer.outgoingEdges.get(v.index, i));
 
                 // we do need to check and preserve LTS on this edge, because it can be higher than the intersection
                 // LTS if the other end of it is connected to a higher-stress intersection.
@@ -0,0 +1,61 @@
+package com.conveyal.r5.labeling;
+
+import com.conveyal.osmlib.Way;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Caches the labels of OSM ways (permissions, speeds, LTS, edge types) while building a street layer. The labels only
+ * depend on a small set of tags, and real OSM data has far fewer distinct combinations of those tags than it has
+ * ways, so each combination only needs to be labeled once. The cache is safe to use from the threads that label ways
+ * in parallel.
+ */
+public class WayLabelCache<T> {
+
+    /**
+     * Every tag read by TraversalPermissionLabeler, SpeedLabeler, LevelOfTrafficStressLabeler and TypeOfEdgeLabeler.
+     * Any tag that a labeler starts looking at must be added here, otherwise ways that should get different labels
+     * would share the labels of the first one of them that was labeled.
+     */
+    static final String[] LABEL_TAGS = {
+        "access", "bicycle", "bicycle:backward", "bicycle:forward", "covered", "cycleway", "cycleway:both",
+        "cycleway:left", "cycleway:right", "foot", "footway", "highway", "junction", "lanes", "maxspeed",
+        "maxspeed:forward", "maxspeed:lanes", "maxspeed:motorcar", "maxspeed:reverse", "motor_vehicle", "motorcar",
+        "oneway", "oneway:bicycle", "oneway:foot", "oneway:motorcar", "oneway:vehicle", "public_transport", "railway",
+        "ramp:wheelchair", "segregated", "sidewalk", "tunnel", "vehicle", "wheelchair"
+    };
+
+    private final Map<String, T> labels = new ConcurrentHashMap<>();
+
+    /**
+     * @return the labels for the given way, calling the supplied function to label it only if no way with the same
+     * combination of relevant tags has been labeled yet.
+     */
+    public T get (Way way, Function<Way, T> labeler) {
+        return labels.computeIfAbsent(getKey(way), key -> labeler.apply(way));
+    }
+
+    /** @return the number of distinct combinations of relevant tags that have been labeled. */
+    public int size () {
+        return labels.size();
+    }
+
+    /**
+     * @return a canonical representation of the tags of the way that determine its labels, in a fixed order and
+     * ignoring all other tags. Values are terminated with a null character, which cannot appear in OSM data, so that
+     * values containing separators can't be confused with other tags.
+     */
+    static String getKey (Way way) {
+        StringBuilder key = new StringBuilder();
+        for (String tag : LABEL_TAGS) {
+            String value = way.getTag(tag);
+            if (value != null) {
+                key.append(tag).append('=').append(value).append('\0');
+            }
+        }
+        return key.toString();
+    }
+
+}
@@ -215,6 +215,7 @@ public class PointToPointRouterServer {
                     features.add(feature);
                     return true;
                 });
+                streetRouter.release();
             } else {
                 content.put("errors", "Start point isn't found!");
             }
@@ -276,6 +277,7 @@ public class PointToPointRouterServer {
                     features.add(feature);
                     return true;
                 });
+                streetRouter.release();
             } else {
                 content.put("errors", "Start point isn't found!");
             }
@@ -326,6 +328,7 @@ public class PointToPointRouterServer {
                     features.add(feature);
                     return true;
                 });
+                streetRouter.release();
             } else {
                 content.put("errors", "Start point isn't found!");
             }
@@ -378,6 +381,7 @@ public class PointToPointRouterServer {
 
             // TODO use target pruning instead of a distance limit
             streetRouter.distanceLimitMeters = 100_000;
+            streetRouter.useContractionHierarchy = true;
             //Split for end coordinate
             if (!streetRouter.setDestination(profileRequest.toLat, profileRequest.toLon)) {
                 content.put("errors", "Edge near the end coordinate wasn't found. Routing didn't start!");
@@ -402,11 +406,13 @@ public class PointToPointRouterServer {
                 LOG.info("Num features:{}", features.size());
                 featureCollection.put("features", features);
                 content.put("data", featureCollection);
+                streetRouter.release();
                 return content;
             }
 
             //Gets lowest weight state for end coordinate split
             StreetRouter.State lastState = streetRouter.getState(streetRouter.getDestinationSplit());
+            streetRouter.release();
 //          StreetRouter.State lastState = streetRouter.getState(transportNetwork.transitLayer.streetVertexForStop.get(stops.keys()[0]));
             if (lastState != null) {
                 Map<String, Object> featureCollection = new HashMap<>(2);
@@ -443,8 +449,8 @@ public class PointToPointRouterServer {
                 feature.addProperty("vertex_idx", destinationSplit.vertex0);
                 feature.addProperty("distance_to_vertex", destinationSplit.distance0_mm/1000);
                 features.add(feature);
-                transportNetwork.streetLayer.incomingEdges.get(destinationSplit.vertex0)
-                    .forEach(edge_idx -> {
+                transportNetwork.streetLayer.incomingEdges
+                    .forEach(destinationSplit.vertex0, edge_idx -> {
                         EdgeStore.Edge edge = transportNetwork.streetLayer.edgeStore.getCursor(edge_idx);
                         GeoJsonFeature edge_feature = new GeoJsonFeature(edge.getGeometry());
                         edge_feature.addProperty("idx", edge_idx);
@@ -460,8 +466,8 @@ public class PointToPointRouterServer {
                 feature.addProperty("vertex_idx", destinationSplit.vertex1);
                 feature.addProperty("distance_to_vertex", destinationSplit.distance1_mm/1000);
                 features.add(feature);
-                transportNetwork.streetLayer.incomingEdges.get(destinationSplit.vertex1)
-                    .forEach(edge_idx -> {
+                transportNetwork.streetLayer.incomingEdges
+                    .forEach(destinationSplit.vertex1, edge_idx -> {
                         EdgeStore.Edge edge = transportNetwork.streetLayer.edgeStore.getCursor(edge_idx);
                         GeoJsonFeature edge_feature = new GeoJsonFeature(edge.getGeometry());
                         edge_feature.addProperty("idx", edge_idx);
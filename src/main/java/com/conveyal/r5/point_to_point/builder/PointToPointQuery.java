@@ -194,6 +194,9 @@ public class PointToPointQuery {
                 seen_paths++;
             }
             profileResponse.generateStreetTransfers(transportNetwork, request);
+            // The street paths have been built from the access and egress searches, so their storage can be reused.
+            accessRouter.values().forEach(StreetRouter::release);
+            egressRouter.values().forEach(StreetRouter::release);
         }
 
         profileResponse.recomputeStats(request);
@@ -260,8 +263,10 @@ public class PointToPointQuery {
                     StreetRouter.State lastState = streetRouter.getState(request.toLat, request.toLon);
                     if (lastState != null) {
                         streetPath = new StreetPath(lastState, streetRouter, LegMode.BICYCLE_RENT, transportNetwork);
-
+                        // Releases the whole chain of searches, whose states have been copied into the path.
+                        streetRouter.release();
                     } else {
+                        streetRouter.release();
                         LOG.warn("MODE:{}, Edge near the destination coordinate wasn't found. Routing didn't start!", mode);
                         continue;
                     }
@@ -272,6 +277,8 @@ public class PointToPointQuery {
             } else {
                 streetRouter.streetMode = StreetMode.valueOf(mode.toString());
                 streetRouter.timeLimitSeconds = request.streetTime * 60;
+                // Direct car trips can use the contraction hierarchy if the network has one.
+                streetRouter.useContractionHierarchy = true;
                 if(streetRouter.setOrigin(request.fromLat, request.fromLon)) {
                     if(!streetRouter.setDestination(request.toLat, request.toLon)) {
                         LOG.warn("Direct mode {} destination wasn't found!", mode);
@@ -279,6 +286,7 @@ public class PointToPointQuery {
                     }
                     streetRouter.route();
                     StreetRouter.State lastState = streetRouter.getState(streetRouter.getDestinationSplit());
+                    streetRouter.release();
                     if (lastState == null) {
                         LOG.warn("Direct mode {} last state wasn't found", mode);
                         continue;
@@ -125,6 +125,24 @@ public class TNBuilderConfig {
     /** The fare calculator for analysis */
     public InRoutingFareCalculator analysisFareCalculator;
 
+    /**
+     * Whether to build a contraction hierarchy to speed up point to point car routing. This makes the network larger
+     * and takes a while to build, so it is only worth it for networks used for point to point routing.
+     */
+    public boolean carContractionHierarchy;
+
+    /**
+     * How many landmarks to use for goal directed street routing, or zero to use only straight line distances. Each
+     * landmark stores two distances for every street vertex.
+     */
+    public int streetLandmarks;
+
+    /**
+     * Whether to renumber street vertices and edges along a Hilbert curve after loading OSM, so that streets that are
+     * close together are also close together in memory. This makes street searches faster.
+     */
+    public boolean hilbertCurveStreetOrder;
+
     public TNBuilderConfig() {
         htmlAnnotations = false;
         maxHtmlAnnotationsPerFile = 1000;
@@ -144,6 +162,9 @@ public class TNBuilderConfig {
         bikeRentalFile = null;
         speeds = SpeedConfig.defaultConfig();
         analysisFareCalculator = null;
+        carContractionHierarchy = false;
+        streetLandmarks = 0;
+        hilbertCurveStreetOrder = false;
     }
 
     public static TNBuilderConfig defaultConfig() {
@@ -12,6 +12,7 @@ import gnu.trove.map.TIntIntMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -51,6 +52,12 @@ public class FastRaptorWorker {
      */
     public static final int UNREACHED = Integer.MAX_VALUE;
 
+    /**
+     * The equivalent of UNREACHED in compact travel time matrices, which store travel times in seconds as unsigned
+     * 16-bit chars. All travel times we care about in propagation (at most a few hours) fit well below this value.
+     */
+    public static final char UNREACHED_COMPACT = Character.MAX_VALUE;
+
     /**
      * Minimum time between alighting from one vehicle and boarding another, in seconds.
      * TODO make this configurable, and use loop-transfers from transfers.txt.
@@ -138,7 +145,7 @@ public class FastRaptorWorker {
         this.servicesActive  = transit.getActiveServicesForDate(request.date);
         // we add one to request.maxRides, first state is result of initial walk
         this.scheduleState = IntStream.range(0, request.maxRides + 1)
-                .mapToObj((i) -> new RaptorState(transit.getStopCount(), request.maxTripDurationMinutes * 60))
+                .mapToObj((i) -> new RaptorState(transit.getStopCount(), request.getRoutingLimitMinutes() * 60))
                 .toArray(RaptorState[]::new);
 
         for (int i = 1; i < this.scheduleState.length; i++) this.scheduleState[i].previous = this.scheduleState[i - 1];
@@ -157,15 +164,96 @@ public class FastRaptorWorker {
      * Return value dimension order is [searchIteration][transitStopIndex]
      */
     public int[][] route () {
+        // Results are one travel time at each stop, for every raptor iteration.
+        int[][] travelTimesToStopsPerIteration = new int[nMinutes * monteCarloDrawsPerMinute][];
+        routeAllMinutes((iteration, departureTime, arrivalTimesAtStops) -> {
+            // NB this copies the array, so we don't have issues with it being updated later
+            travelTimesToStopsPerIteration[iteration] = IntStream.of(arrivalTimesAtStops)
+                    .map(r -> r != UNREACHED ? r - departureTime : r)
+                    .toArray();
+        });
+        return travelTimesToStopsPerIteration;
+    }
+
+    /**
+     * Like route(), but the travel times are stored as unsigned 16-bit values, see compactTravelTime(). This halves
+     * the size of the travel time matrix, which is the dominant memory consumer when propagating on large networks.
+     * Return value dimension order is [searchIteration][transitStopIndex]
+     */
+    public char[][] routeCompact () {
+        char[][] travelTimesToStopsPerIteration = new char[nMinutes * monteCarloDrawsPerMinute][];
+        routeAllMinutes((iteration, departureTime, arrivalTimesAtStops) -> {
+            char[] travelTimesToStops = new char[arrivalTimesAtStops.length];
+            for (int stop = 0; stop < arrivalTimesAtStops.length; stop++) {
+                int arrivalTime = arrivalTimesAtStops[stop];
+                travelTimesToStops[stop] = arrivalTime == UNREACHED ?
+                        UNREACHED_COMPACT : compactTravelTime(arrivalTime - departureTime);
+            }
+            travelTimesToStopsPerIteration[iteration] = travelTimesToStops;
+        });
+        return travelTimesToStopsPerIteration;
+    }
+
+    /**
+     * Like routeCompact(), but writes the travel times directly into the supplied buffer in stop-major order
+     * ([transitStopIndex][searchIteration], flattened) instead of returning a new matrix on the heap. This is used
+     * to spill the travel time matrix outside the heap, see SpilledTravelTimeMatrix.
+     * @return the number of iterations written for each stop.
+     */
+    public int routeCompactStopMajor (CharBuffer travelTimesToStops) {
+        final int nIterations = nMinutes * monteCarloDrawsPerMinute;
+        routeAllMinutes((iteration, departureTime, arrivalTimesAtStops) -> {
+            for (int stop = 0; stop < arrivalTimesAtStops.length; stop++) {
+                int arrivalTime = arrivalTimesAtStops[stop];
+                travelTimesToStops.put(stop * nIterations + iteration, arrivalTime == UNREACHED ?
+                        UNREACHED_COMPACT : compactTravelTime(arrivalTime - departureTime));
+            }
+        });
+        return nIterations;
+    }
+
+    /**
+     * Convert a travel time in seconds to the unsigned 16-bit representation used in compact travel time matrices.
+     * Any time that does not fit in 16 bits (about 18 hours) is far beyond any cutoff we use in propagation, so it is
+     * treated as unreached.
+     */
+    public static char compactTravelTime (int travelTimeSeconds) {
+        return travelTimeSeconds >= UNREACHED_COMPACT ? UNREACHED_COMPACT : (char) travelTimeSeconds;
+    }
+
+    /**
+     * Convert a full-width [searchIteration][transitStopIndex] travel time matrix (e.g. from the McRaptor router)
+     * to the compact representation.
+     */
+    public static char[][] compactTravelTimes (int[][] travelTimesToStopsPerIteration) {
+        char[][] result = new char[travelTimesToStopsPerIteration.length][];
+        for (int iteration = 0; iteration < result.length; iteration++) {
+            int[] travelTimesToStops = travelTimesToStopsPerIteration[iteration];
+            result[iteration] = new char[travelTimesToStops.length];
+            for (int stop = 0; stop < travelTimesToStops.length; stop++) {
+                result[iteration][stop] = compactTravelTime(travelTimesToStops[stop]);
+            }
+        }
+        return result;
+    }
+
+    /** Receives the arrival times at all stops for one iteration, see routeAllMinutes(). */
+    private interface IterationResultConsumer {
+        void accept (int iteration, int departureTime, int[] arrivalTimesAtStops);
+    }
+
+    /**
+     * Run the RAPTOR search for every departure minute in the time window, handing the arrival (clock) times at all
+     * stops for each iteration to the supplied consumer. The arrays passed to the consumer may be modified by later
+     * iterations, so the consumer must copy anything it wants to retain.
+     */
+    private void routeAllMinutes (IterationResultConsumer consumer) {
 
         startClockTime = System.nanoTime();
         prefilterPatterns();
         LOG.info("Performing {} scheduled iterations each with {} Monte Carlo draws for a total of {} iterations",
                 nMinutes, monteCarloDrawsPerMinute, nMinutes * monteCarloDrawsPerMinute);
 
-        // Initialize result storage.
-        // Results are one arrival time at each stop, for every raptor iteration.
-        int[][] arrivalTimesAtStopsPerIteration = new int[nMinutes * monteCarloDrawsPerMinute][];
         if (retainPaths) pathsPerIteration = new ArrayList<>();
         int currentIteration = 0;
 
@@ -180,15 +268,9 @@ public class FastRaptorWorker {
             // stops, one for each randomized schedule: resultsForMinute[randScheduleNumber][transitStop]
             int[][] resultsForMinute = runRaptorForMinute(departureTime, monteCarloDrawsPerMinute);
 
-            // Bypass Java's "effectively final" nonsense.
-            // FIXME we could avoid this "final" weirdness by just using non-stream explicit loop syntax over the stops.
             // TODO clarify identifiers and explain how results are being unrolled from minutes into 'iterations'.
-            final int finalDepartureTime = departureTime;
             for (int[] arrivalTimesAtStops : resultsForMinute) {
-                // NB this copies the array, so we don't have issues with it being updated later
-                arrivalTimesAtStopsPerIteration[currentIteration++] = IntStream.of(arrivalTimesAtStops)
-                        .map(r -> r != UNREACHED ? r - finalDepartureTime : r)
-                        .toArray();
+                consumer.accept(currentIteration++, departureTime, arrivalTimesAtStops);
             }
         }
 
@@ -201,8 +283,6 @@ public class FastRaptorWorker {
         LOG.info("  - Frequency component: {}s", timeInFrequencySearchFrequency / 1e9d);
         LOG.info("  - Resulting updates to scheduled component: {}s", timeInFrequencySearchScheduled / 1e9d);
         LOG.info("  - Transfers: {}s", timeInFrequencySearchTransfers / 1e9d);
-
-        return arrivalTimesAtStopsPerIteration;
     }
 
     /** Prefilter the patterns to only ones that are running */
@@ -210,6 +210,7 @@ public class McRaptorSuboptimalPathProfileRouter {
         streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
         accessTimes = new HashMap<>();
         accessTimes.put(mode, streetRouter.getReachedStops());
+        streetRouter.release();
     }
 
     /** dump out all stop names, for debugging */
@@ -524,7 +525,7 @@ public class McRaptorSuboptimalPathProfileRouter {
 
             if (bag == null) continue;
             int bestClockTimeGivenConstraint = collapseParetoSurfaceToTime.collate(bag.getNonTransferStates(),
-                            departureTime + request.maxTripDurationMinutes * 60);
+                            departureTime + request.getRoutingLimitMinutes() * 60);
             if (bestClockTimeGivenConstraint < timesAtStopsThisIteration[stop]){
                 timesAtStopsThisIteration[stop] = bestClockTimeGivenConstraint;
             }
@@ -571,7 +572,7 @@ public class McRaptorSuboptimalPathProfileRouter {
          * that are past the cutoff.
          */
         // cut off excessively long searches
-        if (time > request.toTime + request.maxTripDurationMinutes * 60) return false;
+        if (time > request.toTime + request.getRoutingLimitMinutes() * 60) return false;
 
         // local pruning iff in suboptimal point-to-point (Modeify) mode
         if (request.maxFare < 0 && time - request.suboptimalMinutes * 60 > bestTimesAtTargetByAccessMode.get(accessMode)) {
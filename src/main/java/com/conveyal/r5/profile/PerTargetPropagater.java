@@ -10,6 +10,7 @@ import gnu.trove.map.TIntIntMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.CharBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
@@ -56,6 +57,19 @@ public class PerTargetPropagater {
     /** Times at transit stops for each iteration. Plus a transposed version of that same matrix as an optimization. */
     public int[][] travelTimesToStopsForIteration, travelTimesToStop;
 
+    /**
+     * The same travel times at transit stops stored as unsigned 16-bit values (see FastRaptorWorker.compactTravelTime).
+     * Only one of these and the full-width int arrays above are set, depending on which constructor was used.
+     */
+    public char[][] compactTravelTimesToStopsForIteration, compactTravelTimesToStop;
+
+    /**
+     * Compact travel times at transit stops that have been spilled outside the heap, already in stop-major order
+     * (the time for a stop and iteration is at index stop * nIterations + iteration). When this is set, neither of the
+     * on-heap matrices above are used. See SpilledTravelTimeMatrix.
+     */
+    public CharBuffer spilledTravelTimesToStop;
+
     /** The number of "iterations" (departure minutes & Monte Carlo schedules) and the number of stops. */
     private int nIterations, nStops;
 
@@ -111,6 +125,42 @@ public class PerTargetPropagater {
         invertTravelTimes();
     }
 
+    /**
+     * Constructor for compact travel time matrices, which hold travel times to stops in unsigned 16-bit chars rather
+     * than ints. Both the matrix supplied and its transposed copy are then half the size of their full-width versions,
+     * and more travel times fit in the processor cache in the tight propagation loop.
+     */
+    public PerTargetPropagater(LinkedPointSet targets, AnalysisTask task,
+                               char[][] compactTravelTimesToStopsForIteration,
+                               int[] nonTransitTravelTimesToTargets) {
+        this.targets = targets;
+        this.request = task;
+        this.compactTravelTimesToStopsForIteration = compactTravelTimesToStopsForIteration;
+        this.nonTransitTravelTimesToTargets = nonTransitTravelTimesToTargets;
+        this.calculateComponents = task.makeStaticSite;
+        speedMillimetersPerSecond = (int) (request.walkSpeed * 1000);
+        nIterations = compactTravelTimesToStopsForIteration.length;
+        nStops = compactTravelTimesToStopsForIteration[0].length;
+        invertTravelTimes();
+    }
+
+    /**
+     * Constructor for compact travel times that have already been written in stop-major order to a buffer outside the
+     * heap. No transposition is necessary, and no copy of the travel time matrix is made on the heap.
+     */
+    public PerTargetPropagater(LinkedPointSet targets, AnalysisTask task,
+                               CharBuffer spilledTravelTimesToStop, int nIterations,
+                               int[] nonTransitTravelTimesToTargets) {
+        this.targets = targets;
+        this.request = task;
+        this.spilledTravelTimesToStop = spilledTravelTimesToStop;
+        this.nonTransitTravelTimesToTargets = nonTransitTravelTimesToTargets;
+        this.calculateComponents = task.makeStaticSite;
+        speedMillimetersPerSecond = (int) (request.walkSpeed * 1000);
+        this.nIterations = nIterations;
+        nStops = targets.streetLayer.parentNetwork.transitLayer.getStopCount();
+    }
+
     /**
      * After constructing a propagator and setting any additional options or optional fields,
      * call this method to actually perform the travel time propagation.
@@ -190,10 +240,19 @@ public class PerTargetPropagater {
      */
     private void invertTravelTimes() {
         long startTime = System.currentTimeMillis();
-        travelTimesToStop = new int[nStops][nIterations];
-        for (int iteration = 0; iteration < nIterations; iteration++) {
-            for (int stop = 0; stop < nStops; stop++) {
-                travelTimesToStop[stop][iteration] = travelTimesToStopsForIteration[iteration][stop];
+        if (compactTravelTimesToStopsForIteration != null) {
+            compactTravelTimesToStop = new char[nStops][nIterations];
+            for (int iteration = 0; iteration < nIterations; iteration++) {
+                for (int stop = 0; stop < nStops; stop++) {
+                    compactTravelTimesToStop[stop][iteration] = compactTravelTimesToStopsForIteration[iteration][stop];
+                }
+            }
+        } else {
+            travelTimesToStop = new int[nStops][nIterations];
+            for (int iteration = 0; iteration < nIterations; iteration++) {
+                for (int stop = 0; stop < nStops; stop++) {
+                    travelTimesToStop[stop][iteration] = travelTimesToStopsForIteration[iteration][stop];
+                }
             }
         }
         LOG.info("Travel time matrix transposition took {} msec", System.currentTimeMillis() - startTime);
@@ -214,25 +273,12 @@ public class PerTargetPropagater {
         // the reducer later in the caller, because you can walk even where there is no transit.
         if (pointToStopDistanceTable != null) {
             pointToStopDistanceTable.forEachEntry((stop, distanceMillimeters) -> {
-                for (int iteration = 0; iteration < nIterations; iteration++) {
-                    int timeAtStop = travelTimesToStop[stop][iteration];
-                    if (timeAtStop > cutoffSeconds || timeAtStop > perIterationTravelTimes[iteration]) {
-                        // Skip propagation if all resulting times will be greater than the cutoff and
-                        // cannot improve on the best known time at this iteration. Also avoids overflow.
-                        continue;
-                    }
-                    // If recording path details, extract the row of paths to all stops for this iteration.
-                    // Propagate from the current stop out to the target.
-                    int timeAtTarget = timeAtStop + distanceMillimeters / speedMillimetersPerSecond;
-                    if (timeAtTarget < cutoffSeconds &&
-                        timeAtTarget < perIterationTravelTimes[iteration]) {
-                        // To reach this target, alighting at this stop is faster than any previously checked stop.
-                        perIterationTravelTimes[iteration] = timeAtTarget;
-                        if (calculateComponents) {
-                            Path[] pathsToStops = pathsToStopsForIteration.get(iteration);
-                            perIterationPaths[iteration] = pathsToStops[stop];
-                        }
-                    }
+                if (spilledTravelTimesToStop != null) {
+                    propagateFromSpilledStop(stop, distanceMillimeters);
+                } else if (compactTravelTimesToStop != null) {
+                    propagateFromStop(stop, compactTravelTimesToStop[stop], distanceMillimeters);
+                } else {
+                    propagateFromStop(stop, travelTimesToStop[stop], distanceMillimeters);
                 }
                 return true; // Trove "continue iteration" signal.
             });
@@ -240,4 +286,67 @@ public class PerTargetPropagater {
 
     }
 
+    /**
+     * Propagate the travel times at one stop for every iteration out to the current target, which is the given
+     * distance away from the stop.
+     */
+    private void propagateFromStop (int stop, int[] timesAtStop, int distanceMillimeters) {
+        for (int iteration = 0; iteration < nIterations; iteration++) {
+            int timeAtStop = timesAtStop[iteration];
+            if (timeAtStop > cutoffSeconds || timeAtStop > perIterationTravelTimes[iteration]) {
+                // Skip propagation if all resulting times will be greater than the cutoff and
+                // cannot improve on the best known time at this iteration. Also avoids overflow.
+                continue;
+            }
+            // Propagate from the current stop out to the target.
+            int timeAtTarget = timeAtStop + distanceMillimeters / speedMillimetersPerSecond;
+            updateTimeAtTarget(iteration, stop, timeAtTarget);
+        }
+    }
+
+    /**
+     * Equivalent to the method above for compact travel time matrices. This is duplicated rather than abstracted over
+     * the two array types to keep the tight loop free of any indirection. UNREACHED_COMPACT is always greater than
+     * the cutoff so it is skipped just like UNREACHED.
+     */
+    private void propagateFromStop (int stop, char[] timesAtStop, int distanceMillimeters) {
+        for (int iteration = 0; iteration < nIterations; iteration++) {
+            int timeAtStop = timesAtStop[iteration];
+            if (timeAtStop > cutoffSeconds || timeAtStop > perIterationTravelTimes[iteration]) {
+                continue;
+            }
+            int timeAtTarget = timeAtStop + distanceMillimeters / speedMillimetersPerSecond;
+            updateTimeAtTarget(iteration, stop, timeAtTarget);
+        }
+    }
+
+    /** Equivalent to the methods above for travel times spilled outside the heap in stop-major order. */
+    private void propagateFromSpilledStop (int stop, int distanceMillimeters) {
+        int offset = stop * nIterations;
+        for (int iteration = 0; iteration < nIterations; iteration++) {
+            int timeAtStop = spilledTravelTimesToStop.get(offset + iteration);
+            if (timeAtStop > cutoffSeconds || timeAtStop > perIterationTravelTimes[iteration]) {
+                continue;
+            }
+            int timeAtTarget = timeAtStop + distanceMillimeters / speedMillimetersPerSecond;
+            updateTimeAtTarget(iteration, stop, timeAtTarget);
+        }
+    }
+
+    /**
+     * Record the given time at the current target for the given iteration if it improves on the best known time,
+     * along with the path through the given stop if we're recording path details.
+     */
+    private void updateTimeAtTarget (int iteration, int stop, int timeAtTarget) {
+        if (timeAtTarget < cutoffSeconds && timeAtTarget < perIterationTravelTimes[iteration]) {
+            // To reach this target, alighting at this stop is faster than any previously checked stop.
+            perIterationTravelTimes[iteration] = timeAtTarget;
+            if (calculateComponents) {
+                // If recording path details, extract the row of paths to all stops for this iteration.
+                Path[] pathsToStops = pathsToStopsForIteration.get(iteration);
+                perIterationPaths[iteration] = pathsToStops[stop];
+            }
+        }
+    }
+
 }
@@ -252,6 +252,15 @@ public class ProfileRequest implements Serializable, Cloneable {
     /**
      * @return the speed at which the given mode will traverse street edges, in floating point meters per second.
      */
+    /**
+     * @return the travel time in minutes at which routing and propagation stop. This is the maximum trip duration,
+     * unless some destinations beyond it still contribute to the results (see RegionalTask).
+     */
+    @JsonIgnore
+    public int getRoutingLimitMinutes () {
+        return maxTripDurationMinutes;
+    }
+
     @JsonIgnore
     public float getSpeedForMode (StreetMode streetMode) {
         switch (streetMode) {
@@ -0,0 +1,122 @@
+package com.conveyal.r5.profile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static com.conveyal.r5.common.Util.human;
+
+/**
+ * Provides storage outside the Java heap for the stop-major matrix of travel times used in propagation
+ * ([transitStopIndex][searchIteration], flattened). On national networks with many iterations this matrix is hundreds
+ * of megabytes per origin, and the worker handles one origin per processor at once. Keeping it off-heap means the
+ * number of simultaneous regional tasks is not limited by the maximum heap size.
+ *
+ * Travel times are stored in the compact 16-bit form (see FastRaptorWorker.compactTravelTime). The buffers are
+ * allocated once per thread and reused for every origin that thread handles, only growing when a larger matrix is
+ * needed. They are therefore only valid until the same thread requests another matrix.
+ */
+public class SpilledTravelTimeMatrix {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpilledTravelTimeMatrix.class);
+
+    public enum Mode {
+        /** Store the matrix in a direct ByteBuffer, which is outside the heap but still in memory. */
+        DIRECT,
+        /** Store the matrix in a memory-mapped temporary file, which the operating system can page out as needed. */
+        MAPPED;
+
+        /**
+         * Parse a mode from a configuration value, returning null (no spilling) when the value is missing or "none".
+         */
+        public static Mode forConfigValue (String value) {
+            if (value == null || value.equalsIgnoreCase("none")) return null;
+            try {
+                return Mode.valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format(
+                        "Unknown travel time spilling mode '%s', allowed values are none, %s.",
+                        value, Arrays.stream(values()).map(Mode::name).collect(Collectors.joining(", "))), e);
+            }
+        }
+    }
+
+    /** The scratch buffer belonging to each thread, if it has requested one. */
+    private static final ThreadLocal<SpilledTravelTimeMatrix> scratchForThread = new ThreadLocal<>();
+
+    private final Mode mode;
+
+    private final ByteBuffer buffer;
+
+    private SpilledTravelTimeMatrix (Mode mode, long nBytes) {
+        this.mode = mode;
+        LOG.info("Allocating {} {} travel time scratch buffer for thread {}.", human(nBytes, "B"), mode,
+                Thread.currentThread().getName());
+        if (mode == Mode.MAPPED) {
+            try {
+                File file = File.createTempFile("r5-travel-times", ".scratch");
+                file.deleteOnExit();
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                    randomAccessFile.setLength(nBytes);
+                    buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, nBytes);
+                }
+                // The mapping remains valid after the file is closed. Where the OS allows it, delete the file right
+                // away so the space is reclaimed as soon as the mapping is garbage collected.
+                file.delete();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not create memory-mapped travel time scratch file.", e);
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect((int) nBytes);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Get a buffer for the calling thread with room for the travel times from the given number of iterations at the
+     * given number of stops, reusing this thread's existing buffer when it is large enough. Travel time for a stop
+     * and iteration is at index (stop * nIterations + iteration). The contents are left over from any previous use.
+     * A single buffer is limited to 2GB, so larger matrices are rejected.
+     */
+    public static CharBuffer forThread (Mode mode, int nStops, int nIterations) {
+        long nBytes = (long) nStops * nIterations * Character.BYTES;
+        if (nBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Travel time matrix for %d stops and %d iterations "
+                    + "needs %s, which is too large to spill into a single buffer.", nStops, nIterations,
+                    human(nBytes, "B")));
+        }
+        SpilledTravelTimeMatrix scratch = scratchForThread.get();
+        if (scratch == null || scratch.mode != mode || scratch.buffer.capacity() < nBytes) {
+            // Leave some room to grow so that slightly larger matrices from later origins don't cause reallocation.
+            scratch = new SpilledTravelTimeMatrix(mode, Math.min(nBytes + nBytes / 4, Integer.MAX_VALUE));
+            scratchForThread.set(scratch);
+        }
+        scratch.buffer.clear();
+        return scratch.buffer.asCharBuffer();
+    }
+
+    /**
+     * Transpose a full-width [searchIteration][transitStopIndex] matrix (e.g. from the McRaptor router) into the
+     * compact stop-major layout of the given buffer.
+     */
+    public static void transposeInto (CharBuffer stopMajorTravelTimes, int[][] travelTimesToStopsPerIteration) {
+        int nIterations = travelTimesToStopsPerIteration.length;
+        for (int iteration = 0; iteration < nIterations; iteration++) {
+            int[] travelTimesToStops = travelTimesToStopsPerIteration[iteration];
+            for (int stop = 0; stop < travelTimesToStops.length; stop++) {
+                stopMajorTravelTimes.put(stop * nIterations + iteration,
+                        FastRaptorWorker.compactTravelTime(travelTimesToStops[stop]));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,611 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.util.IntBinaryHeap;
+import com.conveyal.r5.util.LambdaCounter;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy for finding fastest car paths between two points on the street network in milliseconds,
+ * instead of running A* over a large part of the network.
+ *
+ * The hierarchy is built over the edge-based graph used by the StreetRouter: each node of the hierarchy is a directed
+ * street edge that allows cars (a state is located at the end of an edge), and each arc is a permitted turn from one
+ * edge onto the next, costing the turn cost plus the time to drive along the next edge. Simple turn restrictions
+ * (without via edges) are therefore respected exactly, as are the car permissions of edges. Nodes are contracted one
+ * by one in order of importance, adding shortcut arcs where needed to preserve shortest paths among the remaining
+ * nodes. A query is then a bidirectional search that only ever moves "up" the hierarchy from both ends.
+ *
+ * The result of a query is only the set of street edges on the fastest path. The StreetRouter then performs its usual
+ * search restricted to those edges (see StreetRouter.useContractionHierarchy), so the result has exactly the same form
+ * and costs as any other search. Turn restrictions with via edges are not represented in the hierarchy. Ignoring them
+ * can only make the path found shorter, so if the restricted search succeeds its path is optimal; if the path violates
+ * a restriction the restricted search fails and the router falls back on a normal search.
+ *
+ * The hierarchy also gives car travel times from one point to every vertex (see findTravelTimesToVertices), which is
+ * what car access searches in regional analyses need.
+ *
+ * This is only valid for the default car travel times, and for the street layer it was built on. Scenario copies that
+ * add edges are detected and don't use the hierarchy.
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchy.class);
+
+    /**
+     * Witness searches give up after settling this many nodes, at the cost of extra shortcuts. Searches that only
+     * estimate the number of shortcuts to order the nodes can be more approximate than those that add the shortcuts.
+     */
+    private static final int MAX_WITNESS_SETTLED_NODES = 500, MAX_SIMULATED_WITNESS_SETTLED_NODES = 50;
+
+    /** Marks an arc that is an original turn rather than a shortcut. */
+    private static final int NO_MIDDLE = -1;
+
+    /** The number of edges in the street layer when this hierarchy was built. */
+    public final int nEdges;
+
+    /** The hierarchy node for each street edge, or -1 if cars cannot traverse that edge. */
+    private final int[] nodeForEdge;
+
+    /** The street edge for each hierarchy node. */
+    private final int[] edgeForNode;
+
+    /** All the nodes, from the last contracted (most important) to the first. */
+    private final int[] nodesByDescendingRank;
+
+    /** Arcs from each node to higher ranked nodes, in compressed sparse row form: arcs of node n are [first[n], first[n+1]). */
+    private final int[] upFirst, upTarget, upCost, upDuration, upMiddle;
+
+    /** Arcs into each node from higher ranked nodes, in compressed sparse row form. Used by the backward search. */
+    private final int[] downFirst, downSource, downCost, downDuration, downMiddle;
+
+    private ContractionHierarchy (Builder builder) {
+        nEdges = builder.nodeForEdge.length;
+        nodeForEdge = builder.nodeForEdge;
+        edgeForNode = builder.edgeForNode;
+        int[] rank = builder.rank;
+        int nNodes = edgeForNode.length;
+        nodesByDescendingRank = new int[nNodes];
+        for (int n = 0; n < nNodes; n++) nodesByDescendingRank[nNodes - 1 - rank[n]] = n;
+        // Count arcs going up from their source node and down into their target node.
+        upFirst = new int[nNodes + 1];
+        downFirst = new int[nNodes + 1];
+        for (int u = 0; u < nNodes; u++) {
+            TIntList targets = builder.outTarget[u];
+            for (int a = 0; a < targets.size(); a++) {
+                int w = targets.get(a);
+                if (rank[w] > rank[u]) upFirst[u + 1]++;
+                else downFirst[w + 1]++;
+            }
+        }
+        for (int n = 0; n < nNodes; n++) {
+            upFirst[n + 1] += upFirst[n];
+            downFirst[n + 1] += downFirst[n];
+        }
+        upTarget = new int[upFirst[nNodes]];
+        upCost = new int[upTarget.length];
+        upDuration = new int[upTarget.length];
+        upMiddle = new int[upTarget.length];
+        downSource = new int[downFirst[nNodes]];
+        downCost = new int[downSource.length];
+        downDuration = new int[downSource.length];
+        downMiddle = new int[downSource.length];
+        int[] upNext = Arrays.copyOf(upFirst, nNodes);
+        int[] downNext = Arrays.copyOf(downFirst, nNodes);
+        for (int u = 0; u < nNodes; u++) {
+            TIntList targets = builder.outTarget[u];
+            for (int a = 0; a < targets.size(); a++) {
+                int w = targets.get(a);
+                int cost = builder.outCost[u].get(a);
+                int duration = builder.outDuration[u].get(a);
+                int middle = builder.outMiddle[u].get(a);
+                if (rank[w] > rank[u]) {
+                    int i = upNext[u]++;
+                    upTarget[i] = w;
+                    upCost[i] = cost;
+                    upDuration[i] = duration;
+                    upMiddle[i] = middle;
+                } else {
+                    int i = downNext[w]++;
+                    downSource[i] = u;
+                    downCost[i] = cost;
+                    downDuration[i] = duration;
+                    downMiddle[i] = middle;
+                }
+            }
+        }
+    }
+
+    /** Build a contraction hierarchy for driving on the given street layer, whose edge lists must already be built. */
+    public static ContractionHierarchy build (StreetLayer streetLayer) {
+        long startTime = System.currentTimeMillis();
+        Builder builder = new Builder(streetLayer);
+        builder.contract();
+        ContractionHierarchy hierarchy = new ContractionHierarchy(builder);
+        LOG.info("Built car contraction hierarchy with {} nodes and {} arcs in {} sec.", hierarchy.edgeForNode.length,
+                hierarchy.upTarget.length + hierarchy.downSource.length,
+                (System.currentTimeMillis() - startTime) / 1000);
+        return hierarchy;
+    }
+
+    /** @return true if this hierarchy can be used to route on the given street layer. */
+    public boolean isValidFor (StreetLayer streetLayer) {
+        return streetLayer.edgeStore.nEdges() == nEdges && streetLayer.edgeStore.temporarilyDeletedEdges == null;
+    }
+
+    /** The cost of driving along an edge, matching the weight a car state accumulates in EdgeStore.Edge.traverse. */
+    private static int arcCost (EdgeStore.Edge toEdge, int turnCost) {
+        float time = (float) (toEdge.getLengthM() / toEdge.getCarSpeedMetersPerSecond());
+        return Math.max(1, (int) (time + turnCost));
+    }
+
+    /** The time in seconds to drive along an edge, matching the duration a car state accumulates in traverse. */
+    private static int arcDuration (EdgeStore.Edge toEdge, int turnCost) {
+        float time = (float) (toEdge.getLengthM() / toEdge.getCarSpeedMetersPerSecond());
+        return Math.max(1, (int) Math.ceil(time) + turnCost);
+    }
+
+    /** @return true if the turn from one edge onto another is forbidden by a turn restriction without via edges. */
+    private static boolean isTurnForbidden (StreetLayer streetLayer, int fromEdge, int toEdge) {
+        if (!streetLayer.edgeStore.turnRestrictions.containsKey(fromEdge)) return false;
+        for (TIntIterator it = streetLayer.edgeStore.turnRestrictions.get(fromEdge).iterator(); it.hasNext(); ) {
+            TurnRestriction restriction = streetLayer.turnRestrictions.get(it.next());
+            if (restriction.viaEdges.length > 0) continue;
+            if (restriction.only ? restriction.toEdge != toEdge : restriction.toEdge == toEdge) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find the street edges on the fastest car path between two splits. This is safe to call from several threads.
+     * @return the edges on the path (possibly none, if the path does not traverse any complete edge), or null if no
+     *         path was found or the origin and destination are on the same street.
+     */
+    public TIntSet findPathEdges (StreetLayer streetLayer, Split origin, Split destination) {
+        if (origin.edge == destination.edge) return null;
+        TurnCostCalculator turnCostCalculator = new TurnCostCalculator(streetLayer, true);
+        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
+
+        // The cost from each edge whose end is a destination vertex onto the destination edge, as in StreetRouter.getState.
+        TIntIntMap targetCostForEdge = new TIntIntHashMap(16, 0.5f, -1, -1);
+        addTargetCosts(streetLayer, turnCostCalculator, destination, destination.vertex0, destination.edge,
+                destination.distance0_mm, targetCostForEdge);
+        addTargetCosts(streetLayer, turnCostCalculator, destination, destination.vertex1, destination.edge + 1,
+                destination.distance1_mm, targetCostForEdge);
+
+        SearchSpace forward = new SearchSpace();
+        SearchSpace backward = new SearchSpace();
+        int best = Integer.MAX_VALUE;
+        // Origin states at the ends of the two directions of the origin edge, as in StreetRouter.setOrigin.
+        int[] startEdges = new int[] { origin.edge, origin.edge + 1 };
+        int[] startVertices = new int[] { origin.vertex1, origin.vertex0 };
+        int[] startDistances = new int[] { origin.distance1_mm, origin.distance0_mm };
+        for (int s = 0; s < 2; s++) {
+            edge.seek(startEdges[s]);
+            int startCost = (int) ((startDistances[s] / 1000) / edge.getCarSpeedMetersPerSecond());
+            // The destination may be reached right from the start state without traversing any complete edge.
+            int directCost = targetCostForEdge.get(startEdges[s]);
+            if (directCost >= 0 && startCost + directCost < best) best = startCost + directCost;
+            for (int i = 0; i < streetLayer.outgoingEdges.size(startVertices[s]); i++) {
+                int toEdge = streetLayer.outgoingEdges.get(startVertices[s], i);
+                int node = nodeForEdge(toEdge);
+                if (node < 0 || isTurnForbidden(streetLayer, startEdges[s], toEdge)) continue;
+                edge.seek(toEdge);
+                int turnCost = turnCostCalculator.computeTurnCost(startEdges[s], toEdge, StreetMode.CAR);
+                forward.reach(node, startCost + arcCost(edge, turnCost), -1, NO_MIDDLE);
+            }
+        }
+        targetCostForEdge.forEachEntry((targetEdge, cost) -> {
+            int node = nodeForEdge(targetEdge);
+            if (node >= 0) backward.reach(node, cost, -1, NO_MIDDLE);
+            return true;
+        });
+
+        // Alternate between the two searches until neither can improve on the best path found so far.
+        int meetingNode = -1;
+        while (true) {
+            boolean forwardDone = forward.isDone(best);
+            boolean backwardDone = backward.isDone(best);
+            if (forwardDone && backwardDone) break;
+            boolean searchForward = !forwardDone && (backwardDone || forward.peekCost() <= backward.peekCost());
+            SearchSpace search = searchForward ? forward : backward;
+            SearchSpace other = searchForward ? backward : forward;
+            int local = search.poll();
+            int node = search.nodes.get(local);
+            int cost = search.costs.get(local);
+            int otherLocal = other.localIndex.get(node);
+            if (otherLocal >= 0 && cost + other.costs.get(otherLocal) < best) {
+                best = cost + other.costs.get(otherLocal);
+                meetingNode = node;
+            }
+            if (searchForward) {
+                for (int a = upFirst[node]; a < upFirst[node + 1]; a++) {
+                    forward.reach(upTarget[a], cost + upCost[a], local, upMiddle[a]);
+                }
+            } else {
+                for (int a = downFirst[node]; a < downFirst[node + 1]; a++) {
+                    backward.reach(downSource[a], cost + downCost[a], local, downMiddle[a]);
+                }
+            }
+        }
+        if (best == Integer.MAX_VALUE) return null;
+
+        TIntSet pathEdges = new TIntHashSet();
+        if (meetingNode < 0) return pathEdges; // The destination is reached directly from an origin state.
+        // Walk back from the meeting node to the origin, then forward to the destination, unpacking shortcuts.
+        for (int local = forward.localIndex.get(meetingNode); local >= 0; local = forward.predecessors.get(local)) {
+            int node = forward.nodes.get(local);
+            pathEdges.add(edgeForNode[node]);
+            int predecessor = forward.predecessors.get(local);
+            if (predecessor >= 0) unpack(forward.nodes.get(predecessor), node, forward.via.get(local), pathEdges);
+        }
+        for (int local = backward.localIndex.get(meetingNode); local >= 0; local = backward.predecessors.get(local)) {
+            int node = backward.nodes.get(local);
+            pathEdges.add(edgeForNode[node]);
+            int successor = backward.predecessors.get(local);
+            if (successor >= 0) unpack(node, backward.nodes.get(successor), backward.via.get(local), pathEdges);
+        }
+        return pathEdges;
+    }
+
+    /**
+     * Find car travel times from one point to every vertex of the street layer (PHAST). A plain Dijkstra search
+     * moving only up the hierarchy from the origin is followed by a single sweep over all the nodes from the most to
+     * the least important, pulling costs down along the arcs from more important nodes. This visits every node once
+     * in a fixed order, with no priority queue, so it is much faster than a one-to-many search over the whole network.
+     *
+     * Paths minimize the same weight as the StreetRouter's car searches, and the travel time of each path is carried
+     * along with its weight. Turn restrictions with via edges are not respected. This is safe to call from several
+     * threads.
+     *
+     * @return the travel time in seconds to each vertex, or Integer.MAX_VALUE for vertices that cannot be reached
+     *         within the time limit, as in StreetRouter.getTravelTimeToVertex.
+     */
+    public int[] findTravelTimesToVertices (StreetLayer streetLayer, Split origin, int timeLimitSeconds) {
+        TurnCostCalculator turnCostCalculator = new TurnCostCalculator(streetLayer, true);
+        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
+        int[] travelTimes = new int[streetLayer.getVertexCount()];
+        Arrays.fill(travelTimes, Integer.MAX_VALUE);
+
+        // Origin states at the ends of the two directions of the origin edge, as in StreetRouter.setOrigin.
+        SearchSpace upward = new SearchSpace();
+        int[] startEdges = new int[] { origin.edge, origin.edge + 1 };
+        int[] startVertices = new int[] { origin.vertex1, origin.vertex0 };
+        int[] startDistances = new int[] { origin.distance1_mm, origin.distance0_mm };
+        for (int s = 0; s < 2; s++) {
+            edge.seek(startEdges[s]);
+            int startCost = (int) ((startDistances[s] / 1000) / edge.getCarSpeedMetersPerSecond());
+            if (startCost >= timeLimitSeconds) continue;
+            travelTimes[startVertices[s]] = Math.min(travelTimes[startVertices[s]], startCost);
+            for (int i = 0; i < streetLayer.outgoingEdges.size(startVertices[s]); i++) {
+                int toEdge = streetLayer.outgoingEdges.get(startVertices[s], i);
+                int node = nodeForEdge(toEdge);
+                if (node < 0 || isTurnForbidden(streetLayer, startEdges[s], toEdge)) continue;
+                edge.seek(toEdge);
+                int turnCost = turnCostCalculator.computeTurnCost(startEdges[s], toEdge, StreetMode.CAR);
+                int duration = startCost + arcDuration(edge, turnCost);
+                if (duration < timeLimitSeconds) upward.reach(node, startCost + arcCost(edge, turnCost), -1, duration);
+            }
+        }
+
+        int nNodes = edgeForNode.length;
+        int[] costs = new int[nNodes];
+        int[] durations = new int[nNodes];
+        Arrays.fill(costs, Integer.MAX_VALUE);
+        while (!upward.isDone(Integer.MAX_VALUE)) {
+            int local = upward.poll();
+            int node = upward.nodes.get(local);
+            int cost = upward.costs.get(local);
+            int duration = upward.via.get(local);
+            costs[node] = cost;
+            durations[node] = duration;
+            for (int a = upFirst[node]; a < upFirst[node + 1]; a++) {
+                // Durations only increase along a path, so nothing below a node beyond the time limit is reachable.
+                if (duration + upDuration[a] < timeLimitSeconds) {
+                    upward.reach(upTarget[a], cost + upCost[a], local, duration + upDuration[a]);
+                }
+            }
+        }
+
+        // Every arc into a node from a more important node has already had its source node settled.
+        for (int w : nodesByDescendingRank) {
+            for (int a = downFirst[w]; a < downFirst[w + 1]; a++) {
+                int u = downSource[a];
+                if (costs[u] == Integer.MAX_VALUE) continue;
+                int cost = costs[u] + downCost[a];
+                if (cost < costs[w] && durations[u] + downDuration[a] < timeLimitSeconds) {
+                    costs[w] = cost;
+                    durations[w] = durations[u] + downDuration[a];
+                }
+            }
+            if (costs[w] != Integer.MAX_VALUE) {
+                // A node is a state at the end of its edge.
+                edge.seek(edgeForNode[w]);
+                int vertex = edge.getToVertex();
+                travelTimes[vertex] = Math.min(travelTimes[vertex], durations[w]);
+            }
+        }
+        return travelTimes;
+    }
+
+    private int nodeForEdge (int edge) {
+        return edge < nodeForEdge.length ? nodeForEdge[edge] : -1;
+    }
+
+    private static void addTargetCosts (StreetLayer streetLayer, TurnCostCalculator turnCostCalculator,
+                                        Split destination, int vertex, int splitEdge, int distanceMillimeters,
+                                        TIntIntMap targetCostForEdge) {
+        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor(splitEdge);
+        int traversalCost = (int) Math.round(distanceMillimeters / 1000d / edge.getCarSpeedMetersPerSecond());
+        for (int i = 0; i < streetLayer.incomingEdges.size(vertex); i++) {
+            int fromEdge = streetLayer.incomingEdges.get(vertex, i);
+            if (isTurnForbidden(streetLayer, fromEdge, splitEdge)) continue;
+            int cost = turnCostCalculator.computeTurnCost(fromEdge, splitEdge, StreetMode.CAR) + traversalCost;
+            int existing = targetCostForEdge.get(fromEdge);
+            if (existing < 0 || cost < existing) targetCostForEdge.put(fromEdge, cost);
+        }
+    }
+
+    /** Add the street edges of the nodes that a shortcut from u to w through the given middle node stands for. */
+    private void unpack (int u, int w, int middle, TIntSet pathEdges) {
+        if (middle == NO_MIDDLE) return;
+        pathEdges.add(edgeForNode[middle]);
+        // The middle node was contracted before both ends, so the arc u -> middle goes down into the middle node
+        // and the arc middle -> w goes up out of it.
+        for (int a = downFirst[middle]; a < downFirst[middle + 1]; a++) {
+            if (downSource[a] == u) {
+                unpack(u, middle, downMiddle[a], pathEdges);
+                break;
+            }
+        }
+        for (int a = upFirst[middle]; a < upFirst[middle + 1]; a++) {
+            if (upTarget[a] == w) {
+                unpack(middle, w, upMiddle[a], pathEdges);
+                break;
+            }
+        }
+    }
+
+    /** Holds the mutable graph while nodes are being contracted. */
+    private static class Builder {
+        final int[] nodeForEdge;
+        final int[] edgeForNode;
+        final int[] rank;
+        final TIntList[] outTarget, outCost, outDuration, outMiddle;
+        final TIntList[] inSource, inCost, inDuration;
+        final boolean[] contracted;
+        final int[] contractedNeighbors;
+
+        // Witness search scratch space, reset after each search in proportion to the nodes it reached.
+        final int[] witnessCost;
+        final boolean[] witnessTarget;
+        final TIntList witnessReached = new TIntArrayList();
+        final IntBinaryHeap witnessQueue = new IntBinaryHeap();
+
+        Builder (StreetLayer streetLayer) {
+            int nEdges = streetLayer.edgeStore.nEdges();
+            nodeForEdge = new int[nEdges];
+            TIntList edges = new TIntArrayList();
+            EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
+            for (int e = 0; e < nEdges; e++) {
+                edge.seek(e);
+                if (edge.getFlag(EdgeStore.EdgeFlag.ALLOWS_CAR)) {
+                    nodeForEdge[e] = edges.size();
+                    edges.add(e);
+                } else {
+                    nodeForEdge[e] = -1;
+                }
+            }
+            edgeForNode = edges.toArray();
+            int nNodes = edgeForNode.length;
+            rank = new int[nNodes];
+            outTarget = new TIntList[nNodes];
+            outCost = new TIntList[nNodes];
+            outDuration = new TIntList[nNodes];
+            outMiddle = new TIntList[nNodes];
+            inSource = new TIntList[nNodes];
+            inCost = new TIntList[nNodes];
+            inDuration = new TIntList[nNodes];
+            for (int n = 0; n < nNodes; n++) {
+                outTarget[n] = new TIntArrayList(4);
+                outCost[n] = new TIntArrayList(4);
+                outDuration[n] = new TIntArrayList(4);
+                outMiddle[n] = new TIntArrayList(4);
+                inSource[n] = new TIntArrayList(4);
+                inCost[n] = new TIntArrayList(4);
+                inDuration[n] = new TIntArrayList(4);
+            }
+            contracted = new boolean[nNodes];
+            contractedNeighbors = new int[nNodes];
+            witnessCost = new int[nNodes];
+            witnessTarget = new boolean[nNodes];
+            Arrays.fill(witnessCost, Integer.MAX_VALUE);
+
+            // Create one arc for each permitted turn from one car edge onto another.
+            TurnCostCalculator turnCostCalculator = new TurnCostCalculator(streetLayer, true);
+            EdgeStore.Edge fromEdge = streetLayer.edgeStore.getCursor();
+            for (int u = 0; u < nNodes; u++) {
+                fromEdge.seek(edgeForNode[u]);
+                int vertex = fromEdge.getToVertex();
+                for (int i = 0; i < streetLayer.outgoingEdges.size(vertex); i++) {
+                    int toEdgeIndex = streetLayer.outgoingEdges.get(vertex, i);
+                    int w = nodeForEdge[toEdgeIndex];
+                    if (w < 0 || isTurnForbidden(streetLayer, edgeForNode[u], toEdgeIndex)) continue;
+                    edge.seek(toEdgeIndex);
+                    // Two link edges in a row are a shortcut that EdgeStore.Edge.traverse does not allow.
+                    if (edge.getFlag(EdgeStore.EdgeFlag.LINK) && fromEdge.getFlag(EdgeStore.EdgeFlag.LINK)) continue;
+                    int turnCost = turnCostCalculator.computeTurnCost(edgeForNode[u], toEdgeIndex, StreetMode.CAR);
+                    addOrImproveArc(u, w, arcCost(edge, turnCost), arcDuration(edge, turnCost), NO_MIDDLE);
+                }
+            }
+        }
+
+        /**
+         * Add an arc, or lower the cost of an existing arc between the same nodes. The duration is that of the path
+         * the arc stands for, and is replaced along with the cost.
+         */
+        void addOrImproveArc (int u, int w, int cost, int duration, int middle) {
+            TIntList targets = outTarget[u];
+            for (int a = 0; a < targets.size(); a++) {
+                if (targets.get(a) == w) {
+                    if (cost < outCost[u].get(a)) {
+                        outCost[u].set(a, cost);
+                        outDuration[u].set(a, duration);
+                        outMiddle[u].set(a, middle);
+                        TIntList sources = inSource[w];
+                        for (int b = 0; b < sources.size(); b++) {
+                            if (sources.get(b) == u) {
+                                inCost[w].set(b, cost);
+                                inDuration[w].set(b, duration);
+                            }
+                        }
+                    }
+                    return;
+                }
+            }
+            targets.add(w);
+            outCost[u].add(cost);
+            outDuration[u].add(duration);
+            outMiddle[u].add(middle);
+            inSource[w].add(u);
+            inCost[w].add(cost);
+            inDuration[w].add(duration);
+        }
+
+        void contract () {
+            int nNodes = edgeForNode.length;
+            IntBinaryHeap priorityQueue = new IntBinaryHeap(nNodes);
+            for (int n = 0; n < nNodes; n++) priorityQueue.add(n, priority(n));
+            LambdaCounter counter = new LambdaCounter(LOG, nNodes, 100000, "Contracted {} of {} nodes.");
+            int nextRank = 0;
+            while (!priorityQueue.isEmpty()) {
+                int node = priorityQueue.poll();
+                // Priorities of nodes change as their neighbors are contracted. Update them lazily.
+                int priority = priority(node);
+                if (!priorityQueue.isEmpty() && priority > priorityQueue.peekPriority()) {
+                    priorityQueue.add(node, priority);
+                    continue;
+                }
+                contractNode(node, false);
+                contracted[node] = true;
+                rank[node] = nextRank++;
+                counter.increment();
+                TIntList targets = outTarget[node];
+                for (int a = 0; a < targets.size(); a++) contractedNeighbors[targets.get(a)]++;
+                TIntList sources = inSource[node];
+                for (int a = 0; a < sources.size(); a++) contractedNeighbors[sources.get(a)]++;
+            }
+            counter.done();
+        }
+
+        /**
+         * Edge difference plus the number of contracted neighbors, which favors contracting unimportant nodes first
+         * and spreading contraction evenly over the network.
+         */
+        int priority (int node) {
+            int degree = 0;
+            TIntList targets = outTarget[node];
+            for (int a = 0; a < targets.size(); a++) if (!contracted[targets.get(a)]) degree++;
+            TIntList sources = inSource[node];
+            for (int a = 0; a < sources.size(); a++) if (!contracted[sources.get(a)]) degree++;
+            return contractNode(node, true) - degree + contractedNeighbors[node];
+        }
+
+        /**
+         * Add the shortcuts needed to bypass the given node, or if simulate is true just count them.
+         * @return the number of shortcuts needed
+         */
+        int contractNode (int node, boolean simulate) {
+            int nShortcuts = 0;
+            TIntList sources = inSource[node];
+            TIntList targets = outTarget[node];
+            for (int i = 0; i < sources.size(); i++) {
+                int u = sources.get(i);
+                if (contracted[u]) continue;
+                int costIn = inCost[node].get(i);
+                int maxCost = 0;
+                int nTargets = 0;
+                for (int j = 0; j < targets.size(); j++) {
+                    int w = targets.get(j);
+                    if (contracted[w] || w == u) continue;
+                    maxCost = Math.max(maxCost, costIn + outCost[node].get(j));
+                    if (!witnessTarget[w]) {
+                        witnessTarget[w] = true;
+                        nTargets++;
+                    }
+                }
+                if (nTargets == 0) continue;
+                witnessSearch(u, node, maxCost, nTargets,
+                        simulate ? MAX_SIMULATED_WITNESS_SETTLED_NODES : MAX_WITNESS_SETTLED_NODES);
+                for (int j = 0; j < targets.size(); j++) {
+                    int w = targets.get(j);
+                    if (contracted[w] || w == u) continue;
+                    witnessTarget[w] = false;
+                    int viaCost = costIn + outCost[node].get(j);
+                    if (witnessCost[w] > viaCost) {
+                        nShortcuts++;
+                        if (!simulate) {
+                            int viaDuration = inDuration[node].get(i) + outDuration[node].get(j);
+                            addOrImproveArc(u, w, viaCost, viaDuration, node);
+                        }
+                    }
+                }
+                clearWitnessSearch();
+            }
+            return nShortcuts;
+        }
+
+        /**
+         * Find the cost of paths from the source to nearby nodes that avoid the given node and contracted nodes,
+         * stopping once all the nodes marked as targets have been settled.
+         */
+        void witnessSearch (int source, int avoidNode, int maxCost, int nTargets, int maxSettledNodes) {
+            witnessCost[source] = 0;
+            witnessReached.add(source);
+            witnessQueue.add(source, 0);
+            int nSettled = 0;
+            while (!witnessQueue.isEmpty() && nSettled < maxSettledNodes) {
+                int cost = witnessQueue.peekPriority();
+                if (cost > maxCost) break;
+                int u = witnessQueue.poll();
+                nSettled++;
+                if (witnessTarget[u] && --nTargets == 0) break;
+                TIntList targets = outTarget[u];
+                for (int a = 0; a < targets.size(); a++) {
+                    int w = targets.get(a);
+                    if (w == avoidNode || contracted[w]) continue;
+                    int newCost = cost + outCost[u].get(a);
+                    if (newCost < witnessCost[w]) {
+                        if (witnessCost[w] == Integer.MAX_VALUE) {
+                            witnessReached.add(w);
+                            witnessQueue.add(w, newCost);
+                        } else if (witnessQueue.contains(w)) {
+                            witnessQueue.update(w, newCost);
+                        }
+                        witnessCost[w] = newCost;
+                    }
+                }
+            }
+        }
+
+        void clearWitnessSearch () {
+            for (int i = 0; i < witnessReached.size(); i++) witnessCost[witnessReached.get(i)] = Integer.MAX_VALUE;
+            witnessReached.clear();
+            witnessQueue.clear();
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.conveyal.r5.streets;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.procedure.TIntProcedure;
+
+/**
+ * The edges going out of or coming into every vertex of a street layer, in compressed sparse row form: the edges of
+ * vertex v are edges[firstEdge[v]] up to but not including edges[firstEdge[v + 1]]. This takes two int arrays for
+ * the whole network, where a list per vertex takes millions of small objects, and it is built with one counting pass
+ * and one filling pass over the edges. Within a vertex, edges are in increasing order of edge index.
+ *
+ * Scenario copies of a street layer can only add edges, so their edge lists share the arrays of the baseline network
+ * and keep the edges added by the scenario in a small overlay (see extend()).
+ */
+public class EdgeLists {
+
+    /** The position in the edges array of the first edge of each vertex, plus one final entry for the end. */
+    private final int[] firstEdge;
+
+    private final int[] edges;
+
+    /** The number of edges that were in the street layer when the arrays were built. */
+    private final int nBaseEdges;
+
+    /** Edges added after the arrays were built (i.e. by a scenario), for each vertex that has any. Null if none. */
+    private final TIntObjectMap<TIntList> extraEdges;
+
+    private EdgeLists (int[] firstEdge, int[] edges, int nBaseEdges, TIntObjectMap<TIntList> extraEdges) {
+        this.firstEdge = firstEdge;
+        this.edges = edges;
+        this.nBaseEdges = nBaseEdges;
+        this.extraEdges = extraEdges;
+    }
+
+    /**
+     * Build the edge lists for all the edges in an edge store.
+     * @param incoming if true, list the edges coming into each vertex rather than going out of it.
+     */
+    public static EdgeLists build (EdgeStore edgeStore, int nVertices, boolean incoming) {
+        int nEdges = edgeStore.nEdges();
+        int[] firstEdge = new int[nVertices + 1];
+        EdgeStore.Edge edge = edgeStore.getCursor();
+        // Count the edges of each vertex, then turn the counts into the position after each vertex's edges.
+        while (edge.advance()) {
+            firstEdge[vertexOf(edge, incoming) + 1]++;
+        }
+        for (int v = 0; v < nVertices; v++) firstEdge[v + 1] += firstEdge[v];
+        int[] edges = new int[nEdges];
+        int[] nextPosition = new int[nVertices];
+        System.arraycopy(firstEdge, 0, nextPosition, 0, nVertices);
+        edge = edgeStore.getCursor();
+        while (edge.advance()) {
+            edges[nextPosition[vertexOf(edge, incoming)]++] = edge.getEdgeIndex();
+        }
+        return new EdgeLists(firstEdge, edges, nEdges, null);
+    }
+
+    /**
+     * Make edge lists for a scenario copy of the street layer these lists were built for, which has the same edges
+     * plus some more. Only the added edges are indexed; the arrays are shared with these lists, which must be valid
+     * for the base street layer.
+     */
+    public EdgeLists extend (EdgeStore edgeStore, boolean incoming) {
+        if (edgeStore.nEdges() == nBaseEdges) return this;
+        TIntObjectMap<TIntList> extraEdges = new TIntObjectHashMap<>();
+        EdgeStore.Edge edge = edgeStore.getCursor();
+        for (int e = nBaseEdges; e < edgeStore.nEdges(); e++) {
+            edge.seek(e);
+            int vertex = vertexOf(edge, incoming);
+            TIntList vertexEdges = extraEdges.get(vertex);
+            if (vertexEdges == null) {
+                vertexEdges = new TIntArrayList(4);
+                extraEdges.put(vertex, vertexEdges);
+            }
+            vertexEdges.add(e);
+        }
+        return new EdgeLists(firstEdge, edges, nBaseEdges, extraEdges);
+    }
+
+    /** @return true if these lists contain exactly the edges in the given edge store. */
+    public boolean isValidFor (EdgeStore edgeStore) {
+        return edgeStore.nEdges() == nBaseEdges && extraEdges == null;
+    }
+
+    private static int vertexOf (EdgeStore.Edge edge, boolean incoming) {
+        return incoming ? edge.getToVertex() : edge.getFromVertex();
+    }
+
+    /** @return the number of edges of the given vertex. */
+    public int size (int vertex) {
+        int size = vertex < firstEdge.length - 1 ? firstEdge[vertex + 1] - firstEdge[vertex] : 0;
+        if (extraEdges != null) {
+            TIntList extra = extraEdges.get(vertex);
+            if (extra != null) size += extra.size();
+        }
+        return size;
+    }
+
+    /** @return the i-th edge of the given vertex, where 0 <= i < size(vertex). */
+    public int get (int vertex, int i) {
+        if (vertex < firstEdge.length - 1) {
+            int position = firstEdge[vertex] + i;
+            if (position < firstEdge[vertex + 1]) return edges[position];
+            i -= firstEdge[vertex + 1] - firstEdge[vertex];
+        }
+        return extraEdges.get(vertex).get(i);
+    }
+
+    /**
+     * Call the given procedure with each edge of the given vertex, in the same way as TIntList.forEach.
+     * @return false if the procedure returned false, which stops the iteration.
+     */
+    public boolean forEach (int vertex, TIntProcedure procedure) {
+        if (vertex < firstEdge.length - 1) {
+            for (int position = firstEdge[vertex]; position < firstEdge[vertex + 1]; position++) {
+                if (!procedure.execute(edges[position])) return false;
+            }
+        }
+        if (extraEdges != null) {
+            TIntList extra = extraEdges.get(vertex);
+            if (extra != null) return extra.forEach(procedure);
+        }
+        return true;
+    }
+
+    /** @return a new array containing the edges of the given vertex. */
+    public int[] toArray (int vertex) {
+        int[] vertexEdges = new int[size(vertex)];
+        for (int i = 0; i < vertexEdges.length; i++) vertexEdges[i] = get(vertex, i);
+        return vertexEdges;
+    }
+
+}
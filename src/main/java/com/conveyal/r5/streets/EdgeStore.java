@@ -5,7 +5,6 @@ import com.conveyal.r5.common.DirectionUtils;
 import com.conveyal.r5.common.GeometryUtils;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.profile.ProfileRequest;
-import com.conveyal.r5.trove.AugmentedList;
 import com.conveyal.r5.trove.TIntAugmentedList;
 import com.conveyal.r5.trove.TLongAugmentedList;
 import com.conveyal.r5.util.TIntIntHashMultimap;
@@ -29,7 +28,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
@@ -61,7 +59,9 @@ import java.util.function.IntConsumer;
  * List of int arrays: 246MB serialized, 5.2 sec write, 6.3 sec read.
  * List of int arrays, full lists (not only intermediates): 261MB, 6.1 sec write, 6.2 sec read.
  * Indexes into single contiguous int array: 259MB, 5 sec write, 7.5 sec read.
- * We are using the first option as it is both readable and efficient.
+ * We used the first option for a long time as it is both readable and efficient. Geometries are still built that way,
+ * but once a network is complete compact() delta-encodes them into a single byte buffer (see PackedGeometries), which
+ * avoids one array object per edge pair on the heap and takes about half the space of the fixed-point ints.
  */
 public class EdgeStore implements Serializable {
 
@@ -102,7 +102,7 @@ public class EdgeStore implements Serializable {
      * Geometries. One entry for each edge pair. These are packed lists of lat, lon, lat, lon... as fixed-point
      * integers, and don't include the endpoints (i.e. don't include the intersection vertices, only intermediate points).
      */
-    public List<int[]> geometries;
+    public PackedGeometries geometries;
 
     /**
      * The compass angle at the start of the edge geometry (binary radians clockwise from North).
@@ -133,10 +133,17 @@ public class EdgeStore implements Serializable {
      * When applying a scenario, we can't touch the baseline graph which is shared between all threads. Whenever we
      * must delete one of these immutable edges (e.g. when splitting a road to connect a new stop) we instead record
      * its index in temporarilyDeletedEdges, meaning it should be ignored as if it did not exist in this thread.
+     * The same is done when splitting an edge of a baseline network after it has been compacted.
      * TODO: ignore these edges when routing, not only during spatial index queries.
      */
     public TIntSet temporarilyDeletedEdges = null;
 
+    /** Whether the edges have been compacted once the network was built, see compact(). */
+    private boolean compacted = false;
+
+    /** The number of edges when they were compacted. Edges below this index can no longer be modified. */
+    private int nCompactedEdges = 0;
+
     /**
      * This method will tell you whether a scenario has been applied to this EdgeStore, i.e. whether its lists have
      * been extended. There's one case where this method will fail: using Scenarios to create street networks from a
@@ -180,7 +187,7 @@ public class EdgeStore implements Serializable {
         int initialEdgePairs = initialSize / 2;
         fromVertices = new TIntArrayList(initialEdgePairs);
         toVertices = new TIntArrayList(initialEdgePairs);
-        geometries = new ArrayList<>(initialEdgePairs);
+        geometries = new PackedGeometries(initialEdgePairs);
         lengths_mm = new TIntArrayList(initialEdgePairs);
         osmids = new TLongArrayList(initialEdgePairs);
         inAngles = new TByteArrayList(initialEdgePairs);
@@ -379,6 +386,12 @@ public class EdgeStore implements Serializable {
         int pairIndex = -1;
         boolean isBackward = true;
 
+        /**
+         * Holds the cost computed by traverse when it is not precomputed, so that no object is allocated per traversal.
+         * Like the rest of this cursor it must not be shared between threads, and it is read as soon as it is filled.
+         */
+        private final TraversalCost traversalCost = new TraversalCost();
+
         /**
          * Move the cursor forward one edge.
          * @return true if we have not advanced past the end of the list (there is an edge at the new position).
@@ -554,6 +567,32 @@ public class EdgeStore implements Serializable {
 
         public StreetRouter.State traverse (StreetRouter.State s0, StreetMode streetMode, ProfileRequest req,
                                             TurnCostCalculator turnCostCalculator, TravelTimeCalculator travelTimeCalculator) {
+            return traverse(s0, streetMode, req, turnCostCalculator, travelTimeCalculator, null);
+        }
+
+        /**
+         * @param traversalCosts the precomputed costs of traversing each edge in this mode for this request (see
+         *                       EdgeTraversalCosts), or null to compute the cost of this edge from its characteristics.
+         */
+        public StreetRouter.State traverse (StreetRouter.State s0, StreetMode streetMode, ProfileRequest req,
+                                            TurnCostCalculator turnCostCalculator, TravelTimeCalculator travelTimeCalculator,
+                                            EdgeTraversalCosts traversalCosts) {
+
+            int roundedTime;
+            float weight;
+            StreetMode traversalMode;
+            if (traversalCosts != null && traversalCosts.covers(edgeIndex)) {
+                roundedTime = traversalCosts.getSeconds(edgeIndex);
+                if (roundedTime < 0) return null; // this mode cannot traverse this edge
+                weight = traversalCosts.getWeight(edgeIndex);
+                traversalMode = traversalCosts.walksBike(edgeIndex) ? StreetMode.WALK : streetMode;
+            } else {
+                TraversalCost cost = traversalCost;
+                if (!computeTraversal(s0.durationSeconds, streetMode, req, travelTimeCalculator, cost)) return null;
+                roundedTime = cost.seconds;
+                weight = cost.weight;
+                traversalMode = cost.streetMode;
+            }
 
             // The vertex we'll be at after the traversal
             int vertex;
@@ -564,8 +603,6 @@ public class EdgeStore implements Serializable {
             }
 
             StreetRouter.State s1 = new StreetRouter.State(vertex, edgeIndex, s0);
-            float time = travelTimeCalculator.getTravelTimeSeconds(this, s0.durationSeconds, streetMode, req);
-            float weight = 0;
 
             if (!canTurnFrom(s0, s1, req.reverseSearch)) return null;
 
@@ -583,14 +620,50 @@ public class EdgeStore implements Serializable {
                 // two link edges in a row, in other words a shortcut. Disallow this.
                 return null;
 
+            s1.streetMode = traversalMode;
+
+            // Negative backEdge means this state is not the result of traversing an edge (it's the start of a search).
+            int turnCost = 0;
+            if (s0.backEdge >= 0) {
+                if (req.reverseSearch) {
+                    turnCost = turnCostCalculator.computeTurnCost(getEdgeIndex(), s0.backEdge, streetMode);
+                } else {
+                    turnCost = turnCostCalculator.computeTurnCost(s0.backEdge, getEdgeIndex(), streetMode);
+                }
+            }
+
+            // TODO add checks for negative increment values to these functions.
+            s1.incrementTimeInSeconds(roundedTime + turnCost);
+            s1.incrementWeight(weight + turnCost);
+            s1.distance += getLengthMm();
+
+            // make sure we don't have states that don't increment weight/time, otherwise we can get weird loops
+            if (s1.weight == s0.weight) s1.weight += 1;
+            if (s1.durationSeconds == s0.durationSeconds) s1.incrementTimeInSeconds(1);
+            if (s1.distance == s0.distance) s1.distance += 1;
+
+            return s1;
+        }
+
+        /**
+         * Compute the time and weight to traverse this edge in the given mode, not including any turn cost. These do
+         * not depend on the path taken to this edge, so they can also be computed in advance (see EdgeTraversalCosts).
+         * @param cost receives the time, weight and mode of the traversal if this edge can be traversed.
+         * @return false if this edge cannot be traversed in the given mode.
+         */
+        boolean computeTraversal (int durationSeconds, StreetMode streetMode, ProfileRequest req,
+                                  TravelTimeCalculator travelTimeCalculator, TraversalCost cost) {
+            float time = travelTimeCalculator.getTravelTimeSeconds(this, durationSeconds, streetMode, req);
+            float weight = 0;
+            StreetMode traversalStreetMode = streetMode;
+
             //Currently weigh is basically the same as weight. It differs only on stairs and when walking.
 
-            s1.streetMode = streetMode;
             if (streetMode == StreetMode.WALK && getFlag(EdgeFlag.ALLOWS_PEDESTRIAN)) {
                 weight = time;
                 //If wheelchair path is requested and this edge doesn't allow wheelchairs we need to find another edge
                 if (req.wheelchair && !getFlag(EdgeFlag.ALLOWS_WHEELCHAIR)) {
-                    return null;
+                    return false;
                 }
                 //elevation which changes weight
             } else if (streetMode == StreetMode.BICYCLE) {
@@ -615,11 +688,11 @@ public class EdgeStore implements Serializable {
                 // TODO bike walking costs when switching bikes
 
                 // only walk if you're allowed to
-                if (walking && !getFlag(EdgeFlag.ALLOWS_PEDESTRIAN)) return null;
+                if (walking && !getFlag(EdgeFlag.ALLOWS_PEDESTRIAN)) return false;
 
                 if (walking) {
                     //TODO: set bike walking in state
-                    s1.streetMode = StreetMode.WALK;
+                    traversalStreetMode = StreetMode.WALK;
                     // * 1.5 to account for time to get off bike and slower walk speed once off
                     // this will tend to prefer to bike a slightly longer route than walk a long way,
                     // but will allow walking to cross a busy street, etc.
@@ -629,7 +702,7 @@ public class EdgeStore implements Serializable {
             } else if (streetMode == StreetMode.CAR && getFlag(EdgeFlag.ALLOWS_CAR)) {
                 weight = time;
             } else {
-                return null; // this mode cannot traverse this edge
+                return false; // this mode cannot traverse this edge
             }
 
             if(getFlag(EdgeFlag.STAIRS)) {
@@ -638,29 +711,10 @@ public class EdgeStore implements Serializable {
                 weight *= WALK_RELUCTANCE_FACTOR;
             }
 
-            int roundedTime = (int) Math.ceil(time);
-
-            // Negative backEdge means this state is not the result of traversing an edge (it's the start of a search).
-            int turnCost = 0;
-            if (s0.backEdge >= 0) {
-                if (req.reverseSearch) {
-                    turnCost = turnCostCalculator.computeTurnCost(getEdgeIndex(), s0.backEdge, streetMode);
-                } else {
-                    turnCost = turnCostCalculator.computeTurnCost(s0.backEdge, getEdgeIndex(), streetMode);
-                }
-            }
-
-            // TODO add checks for negative increment values to these functions.
-            s1.incrementTimeInSeconds(roundedTime + turnCost);
-            s1.incrementWeight(weight + turnCost);
-            s1.distance += getLengthMm();
-
-            // make sure we don't have states that don't increment weight/time, otherwise we can get weird loops
-            if (s1.weight == s0.weight) s1.weight += 1;
-            if (s1.durationSeconds == s0.durationSeconds) s1.incrementTimeInSeconds(1);
-            if (s1.distance == s0.distance) s1.distance += 1;
-
-            return s1;
+            cost.seconds = (int) Math.ceil(time);
+            cost.weight = weight;
+            cost.streetMode = traversalStreetMode;
+            return true;
         }
 
         /** Can we turn onto this edge from this state? Also copies still-applicable restrictions forward. */
@@ -813,12 +867,8 @@ public class EdgeStore implements Serializable {
          * @return
          */
         public LineString getGeometry() {
-            int[] coords = geometries.get(pairIndex);
             //Size is 2 (from and to vertex) if there are no intermediate vertices
-            int size = coords == EMPTY_INT_ARRAY ? 2 :
-                //division with two since coordinates are in same array saved as lat, lon,lat etc.
-                (coords.length / 2) + 2;
-            Coordinate[] c = new Coordinate[size];
+            Coordinate[] c = new Coordinate[geometries.nPoints(pairIndex) + 2];
 
             VertexStore.Vertex fromVertex = vertexStore.getCursor(getFromVertex());
             VertexStore.Vertex toVertex = vertexStore.getCursor(getToVertex());
@@ -839,13 +889,11 @@ public class EdgeStore implements Serializable {
             // getFromVertex returns the from vertex of the edge _pair_ rather than that of a particular edge.
             // This is the from vertex when we are on a forward edge, and the to vertex when we are on a back edge.
             c[0] = new Coordinate(firstCoorLon, firstCoorLat);
-            if (coords != null) {
-                for (int i = 1; i < c.length - 1; i++) {
-                    int ilat = coords[(i - 1) * 2];
-                    int ilon = coords[(i - 1) * 2 + 1];
-                    c[i] = new Coordinate(ilon / VertexStore.FIXED_FACTOR, ilat /  VertexStore.FIXED_FACTOR);
-                }
-            }
+            int pairFromFixedLat = (reverse ? toVertex : fromVertex).getFixedLat();
+            int pairFromFixedLon = (reverse ? toVertex : fromVertex).getFixedLon();
+            geometries.forEachPoint(pairIndex, pairFromFixedLat, pairFromFixedLon, (p, fixedLat, fixedLon) -> {
+                c[p + 1] = new Coordinate(fixedLon / VertexStore.FIXED_FACTOR, fixedLat / VertexStore.FIXED_FACTOR);
+            });
             c[c.length - 1] = new Coordinate(lastCoorLon, lastCoorLat);
             LineString out = GeometryUtils.geometryFactory.createLineString(c);
             if (reverse)
@@ -859,21 +907,11 @@ public class EdgeStore implements Serializable {
          */
         public void forEachSegment (SegmentConsumer segmentConsumer) {
             VertexStore.Vertex vertex = vertexStore.getCursor(fromVertices.get(pairIndex));
-            int prevFixedLat = vertex.getFixedLat();
-            int prevFixedLon = vertex.getFixedLon();
-            int[] intermediates = geometries.get(pairIndex);
-            int s = 0;
-            int i = 0;
-            while (i < intermediates.length) {
-                int fixedLat = intermediates[i++];
-                int fixedLon = intermediates[i++];
-                segmentConsumer.consumeSegment(s, prevFixedLat, prevFixedLon, fixedLat, fixedLon);
-                prevFixedLat = fixedLat;
-                prevFixedLon = fixedLon;
-                s++;
-            }
+            int fromFixedLat = vertex.getFixedLat();
+            int fromFixedLon = vertex.getFixedLon();
             vertex.seek(toVertices.get(pairIndex));
-            segmentConsumer.consumeSegment(s, prevFixedLat, prevFixedLon, vertex.getFixedLat(), vertex.getFixedLon());
+            geometries.forEachSegment(pairIndex, fromFixedLat, fromFixedLon, vertex.getFixedLat(), vertex.getFixedLon(),
+                    segmentConsumer);
         }
 
 
@@ -883,15 +921,12 @@ public class EdgeStore implements Serializable {
          */
         public void forEachPoint (PointConsumer pointConsumer) {
             VertexStore.Vertex vertex = vertexStore.getCursor(fromVertices.get(pairIndex));
-            int p = 0;
-            pointConsumer.consumePoint(p++, vertex.getFixedLat(), vertex.getFixedLon());
-            int[] intermediates = geometries.get(pairIndex);
-            int i = 0;
-            while (i < intermediates.length) {
-                pointConsumer.consumePoint(p++, intermediates[i++], intermediates[i++]);
-            }
+            pointConsumer.consumePoint(0, vertex.getFixedLat(), vertex.getFixedLon());
+            geometries.forEachPoint(pairIndex, vertex.getFixedLat(), vertex.getFixedLon(), (p, fixedLat, fixedLon) -> {
+                pointConsumer.consumePoint(p + 1, fixedLat, fixedLon);
+            });
             vertex.seek(toVertices.get(pairIndex));
-            pointConsumer.consumePoint(p, vertex.getFixedLat(), vertex.getFixedLon());
+            pointConsumer.consumePoint(geometries.nPoints(pairIndex) + 1, vertex.getFixedLat(), vertex.getFixedLon());
         }
 
         /** @return an envelope around the whole edge geometry. */
@@ -907,14 +942,8 @@ public class EdgeStore implements Serializable {
          * @return the number of segments in the geometry of the current edge.
          */
         public int nSegments () {
-            int[] geom = geometries.get(pairIndex);
-            if (geom != null) {
-                // Number of packed lat-lon pairs plus the final segment.
-                return (geom.length / 2) + 1;
-            } else {
-                // A single segment from the initial vertex to the final vertex.
-                return 1;
-            }
+            // Number of intermediate points plus the final segment.
+            return geometries.nPoints(pairIndex) + 1;
         }
 
         @Override
@@ -977,11 +1006,11 @@ public class EdgeStore implements Serializable {
 
         /**
          * @return whether this edge may be modified. It may not be modified if it is part of a baseline graph that has
-         * been extended by a scenario. It may be modified if it's part of a baseline graph in the process of being
-         * built, or if it was created as part of the scenario being applied.
+         * been extended by a scenario, or that has been compacted. It may be modified if it's part of a baseline graph
+         * in the process of being built, or if it was created as part of the scenario being applied.
          */
         public boolean isMutable() {
-            return edgeIndex >= firstModifiableEdge;
+            return edgeIndex >= firstModifiableEdge && edgeIndex >= nCompactedEdges;
         }
 
         /**
@@ -1065,6 +1094,35 @@ public class EdgeStore implements Serializable {
         return fromVertices.size();
     }
 
+    /**
+     * Called once a network is completely built, to make the edges take less space and serialize faster: the edge
+     * geometries are packed into a single buffer and the other columns are trimmed to their size. New edges can still
+     * be added, but the existing edges must no longer be changed (their geometries can't be), which allows caching
+     * their characteristics (see StreetLayer.getEdgeTraversalCosts).
+     */
+    public void compact () {
+        if (isExtendOnlyCopy()) {
+            throw new IllegalStateException("Only the edges of a baseline network can be compacted.");
+        }
+        compacted = true;
+        nCompactedEdges = nEdges();
+        geometries.pack(pair -> vertexStore.fixedLats.get(fromVertices.get(pair)),
+                pair -> vertexStore.fixedLons.get(fromVertices.get(pair)));
+        ((TIntArrayList) flags).trimToSize();
+        ((TShortArrayList) speeds).trimToSize();
+        ((TIntArrayList) fromVertices).trimToSize();
+        ((TIntArrayList) toVertices).trimToSize();
+        ((TIntArrayList) lengths_mm).trimToSize();
+        ((TLongArrayList) osmids).trimToSize();
+        ((TByteArrayList) inAngles).trimToSize();
+        ((TByteArrayList) outAngles).trimToSize();
+    }
+
+    /** @return true if compact() has been called, so the existing edges will not change. */
+    public boolean isCompacted () {
+        return compacted;
+    }
+
     private EdgeStore() {
         // Private trivial constructor. Leaves all fields blank for use in extend-only copy method.
     }
@@ -1092,10 +1150,12 @@ public class EdgeStore implements Serializable {
         // Vertex indices, geometries, and lengths are shared between pairs of forward and backward edges.
         copy.fromVertices = new TIntAugmentedList(fromVertices);
         copy.toVertices = new TIntAugmentedList(toVertices);
-        copy.geometries = new AugmentedList<>(geometries);
+        copy.geometries = geometries.extendOnlyCopy();
         copy.lengths_mm = new TIntAugmentedList(lengths_mm);
         copy.osmids = new TLongAugmentedList(this.osmids);
-        copy.temporarilyDeletedEdges = new TIntHashSet();
+        // Edges split after compacting the baseline remain deleted in the copy.
+        copy.temporarilyDeletedEdges = temporarilyDeletedEdges == null ?
+                new TIntHashSet() : new TIntHashSet(temporarilyDeletedEdges);
         //Angles are deep copy for now
         copy.inAngles = new TByteArrayList(inAngles);
         copy.outAngles = new TByteArrayList(outAngles);
@@ -1134,6 +1194,15 @@ public class EdgeStore implements Serializable {
         }
     }
 
+    /** The cost of traversing one edge before any turn cost, as computed by Edge.computeTraversal. */
+    static class TraversalCost {
+        /** The rounded-up time in seconds to traverse the edge. */
+        int seconds;
+        float weight;
+        /** The mode after traversing the edge, which is WALK when a bike must be walked along it. */
+        StreetMode streetMode;
+    }
+
     public static class DefaultTravelTimeCalculator implements TravelTimeCalculator {
 
         @Override
@@ -0,0 +1,130 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.profile.ProfileRequest;
+import com.conveyal.r5.profile.StreetMode;
+
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * The time and weight to traverse every edge of a street layer in one mode, before turn costs. With the default travel
+ * time calculator these only depend on the edge, the mode and a few request parameters (speeds, bike traffic stress
+ * and wheelchair accessibility), so they are the same for all the searches with those parameters, for instance the
+ * thousands of searches of a regional analysis. Looking them up in arrays saves recomputing speeds and reluctance
+ * factors in floating point every time an edge is traversed. See StreetLayer.getEdgeTraversalCosts.
+ *
+ * The costs are exactly those computed by EdgeStore.Edge.computeTraversal, so searches give the same results with or
+ * without them.
+ */
+public class EdgeTraversalCosts {
+
+    /** Edges are divided into blocks of this size to compute their costs in parallel. */
+    private static final int EDGES_PER_BLOCK = 64 * 1024;
+
+    /** The rounded-up time in seconds to traverse each edge, or -1 if the edge cannot be traversed in this mode. */
+    private final int[] seconds;
+
+    /** The weight of traversing each edge. */
+    private final float[] weights;
+
+    /** The edges along which a bike must be walked. Always empty for modes other than bicycle. */
+    private final BitSet walksBike;
+
+    /** Compute the costs of all the edges in the given edge store for the given mode and request. */
+    public EdgeTraversalCosts (EdgeStore edgeStore, StreetMode streetMode, ProfileRequest request) {
+        int nEdges = edgeStore.nEdges();
+        seconds = new int[nEdges];
+        weights = new float[nEdges];
+        BitSet[] walksBikeByBlock = new BitSet[(nEdges + EDGES_PER_BLOCK - 1) / EDGES_PER_BLOCK];
+        TravelTimeCalculator travelTimeCalculator = new EdgeStore.DefaultTravelTimeCalculator();
+        IntStream.range(0, walksBikeByBlock.length).parallel().forEach(block -> {
+            // Each block has its own cursor, cost and bit set, as none of them can be shared between threads.
+            EdgeStore.Edge edge = edgeStore.getCursor();
+            EdgeStore.TraversalCost cost = new EdgeStore.TraversalCost();
+            BitSet blockWalksBike = new BitSet();
+            int end = Math.min(nEdges, (block + 1) * EDGES_PER_BLOCK);
+            for (int e = block * EDGES_PER_BLOCK; e < end; e++) {
+                edge.seek(e);
+                if (edge.computeTraversal(0, streetMode, request, travelTimeCalculator, cost)) {
+                    seconds[e] = cost.seconds;
+                    weights[e] = cost.weight;
+                    if (cost.streetMode != streetMode) blockWalksBike.set(e);
+                } else {
+                    seconds[e] = -1;
+                }
+            }
+            walksBikeByBlock[block] = blockWalksBike;
+        });
+        walksBike = new BitSet(nEdges);
+        for (BitSet blockWalksBike : walksBikeByBlock) walksBike.or(blockWalksBike);
+    }
+
+    /** @return true if these costs include the given edge, which may have been added after they were computed. */
+    public boolean covers (int edge) {
+        return edge < seconds.length;
+    }
+
+    /** @return the time in seconds to traverse the given edge, or -1 if it cannot be traversed in this mode. */
+    public int getSeconds (int edge) {
+        return seconds[edge];
+    }
+
+    public float getWeight (int edge) {
+        return weights[edge];
+    }
+
+    /** @return true if a bike must be walked along the given edge. */
+    public boolean walksBike (int edge) {
+        return walksBike.get(edge);
+    }
+
+    /**
+     * The request parameters the edge traversal costs of a mode depend on. Parameters that don't affect the given
+     * mode are left out, so requests that only differ in those parameters share the same costs.
+     */
+    public static class Key {
+
+        private final StreetMode streetMode;
+        private final float speed;
+        private final float walkSpeed;
+        private final int bikeTrafficStress;
+        private final boolean wheelchair;
+
+        public Key (StreetMode streetMode, ProfileRequest request) {
+            this.streetMode = streetMode;
+            // Car speeds come from the edges.
+            this.speed = streetMode == StreetMode.CAR ? 0 : request.getSpeedForMode(streetMode);
+            // Bikes are walked along some edges.
+            this.walkSpeed = streetMode == StreetMode.BICYCLE ? request.walkSpeed : 0;
+            this.bikeTrafficStress = streetMode == StreetMode.BICYCLE ? request.bikeTrafficStress : 0;
+            this.wheelchair = streetMode == StreetMode.WALK && request.wheelchair;
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (o instanceof Key) {
+                Key other = (Key) o;
+                return streetMode == other.streetMode &&
+                        speed == other.speed &&
+                        walkSpeed == other.walkSpeed &&
+                        bikeTrafficStress == other.bikeTrafficStress &&
+                        wheelchair == other.wheelchair;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode () {
+            return Objects.hash(streetMode, speed, walkSpeed, bikeTrafficStress, wheelchair);
+        }
+
+        @Override
+        public String toString () {
+            return String.format("%s at %.2f m/s (walking %.2f m/s, traffic stress %d, wheelchair %b)", streetMode,
+                    speed, walkSpeed, bikeTrafficStress, wheelchair);
+        }
+    }
+
+}
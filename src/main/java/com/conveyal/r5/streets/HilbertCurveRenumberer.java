@@ -0,0 +1,240 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.api.util.ParkRideParking;
+import com.conveyal.r5.util.TIntIntHashMultimap;
+import com.conveyal.r5.util.TIntIntMultimap;
+import gnu.trove.list.TByteList;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.TShortList;
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.list.array.TShortArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Renumbers the vertices of a street layer in the order they are visited by a Hilbert curve, and the edges in the
+ * order of their vertices. Vertices and edges are otherwise numbered in the order the OSM data was read, so a street
+ * search jumps all over the vertex and edge arrays. After renumbering, streets that are close together on the ground
+ * are close together in memory, and searches (which always expand locally) make much better use of the CPU caches.
+ *
+ * This must be done while building a network, right after loading the OSM data and before anything (transit stops,
+ * bike share, linked point sets...) refers to street vertices or edges from outside the street layer. Everything
+ * within the street layer that refers to vertex or edge indexes is updated. The two edges of a pair remain together
+ * and keep their directions.
+ */
+public class HilbertCurveRenumberer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HilbertCurveRenumberer.class);
+
+    /**
+     * Coordinates are scaled to a grid of 2^ORDER by 2^ORDER cells before finding their position along the curve.
+     * Positions then fit in 2 * ORDER bits, leaving room to pack an index next to them in a long.
+     */
+    private static final int ORDER = 15;
+
+    private final StreetLayer streets;
+
+    public HilbertCurveRenumberer (StreetLayer streets) {
+        this.streets = streets;
+    }
+
+    public void run () {
+        if (streets.edgeStore.isExtendOnlyCopy() || streets.bikeRentalStationMap != null) {
+            throw new IllegalStateException("Streets can only be renumbered right after loading OSM.");
+        }
+        long startTime = System.currentTimeMillis();
+        int[] newVertexForOld = orderVertices();
+        int[] newEdgeForOld = orderEdges(newVertexForOld);
+        renumberVertices(newVertexForOld);
+        renumberEdges(newEdgeForOld, newVertexForOld);
+        renumberTurnRestrictions(newEdgeForOld);
+
+        if (streets.parkRideLocationsMap != null) {
+            TIntObjectMap<ParkRideParking> parkRides = new TIntObjectHashMap<>();
+            streets.parkRideLocationsMap.forEachEntry((vertex, parkRide) -> {
+                if (parkRide.id != null && parkRide.id >= 0) parkRide.id = newVertexForOld[parkRide.id];
+                parkRides.put(newVertexForOld[vertex], parkRide);
+                return true;
+            });
+            streets.parkRideLocationsMap = parkRides;
+        }
+        if (streets.vertexIndexForOsmNode != null) {
+            streets.vertexIndexForOsmNode.transformValues(vertex -> vertex < 0 ? vertex : newVertexForOld[vertex]);
+        }
+
+        // The edge lists and spatial index refer to edges and vertices, so they must be rebuilt.
+        streets.buildEdgeLists();
+        streets.indexStreets();
+        LOG.info("Renumbered {} vertices and {} edges along a Hilbert curve in {} sec.", newVertexForOld.length,
+                newEdgeForOld.length, (System.currentTimeMillis() - startTime) / 1000d);
+    }
+
+    /** @return the new index of each vertex, in the order of their positions along the Hilbert curve. */
+    private int[] orderVertices () {
+        VertexStore vertexStore = streets.vertexStore;
+        int nVertices = vertexStore.getVertexCount();
+        int minLat = Integer.MAX_VALUE, maxLat = Integer.MIN_VALUE;
+        int minLon = Integer.MAX_VALUE, maxLon = Integer.MIN_VALUE;
+        for (int v = 0; v < nVertices; v++) {
+            minLat = Math.min(minLat, vertexStore.fixedLats.get(v));
+            maxLat = Math.max(maxLat, vertexStore.fixedLats.get(v));
+            minLon = Math.min(minLon, vertexStore.fixedLons.get(v));
+            maxLon = Math.max(maxLon, vertexStore.fixedLons.get(v));
+        }
+        int extent = Math.max(1, Math.max(maxLat - minLat, maxLon - minLon));
+        double cellsPerFixedDegree = ((1 << ORDER) - 1) / (double) extent;
+        // Sort the positions along the curve with the vertex index in the low bits, so ties keep their original order.
+        long[] keys = new long[nVertices];
+        for (int v = 0; v < nVertices; v++) {
+            int x = (int) ((vertexStore.fixedLons.get(v) - minLon) * cellsPerFixedDegree);
+            int y = (int) ((vertexStore.fixedLats.get(v) - minLat) * cellsPerFixedDegree);
+            keys[v] = (hilbertIndex(x, y) << 31) | v;
+        }
+        Arrays.sort(keys);
+        int[] newVertexForOld = new int[nVertices];
+        for (int i = 0; i < nVertices; i++) newVertexForOld[(int) (keys[i] & Integer.MAX_VALUE)] = i;
+        return newVertexForOld;
+    }
+
+    /**
+     * Put edge pairs in the order of the first of their two vertices.
+     * @return the new index of each edge
+     */
+    private int[] orderEdges (int[] newVertexForOld) {
+        EdgeStore edgeStore = streets.edgeStore;
+        int nPairs = edgeStore.nEdges() / 2;
+        long[] keys = new long[nPairs];
+        for (int p = 0; p < nPairs; p++) {
+            int firstVertex = Math.min(newVertexForOld[edgeStore.fromVertices.get(p)],
+                    newVertexForOld[edgeStore.toVertices.get(p)]);
+            keys[p] = ((long) firstVertex << 31) | p;
+        }
+        Arrays.sort(keys);
+        int[] newEdgeForOld = new int[nPairs * 2];
+        for (int i = 0; i < nPairs; i++) {
+            int p = (int) (keys[i] & Integer.MAX_VALUE);
+            newEdgeForOld[p * 2] = i * 2;
+            newEdgeForOld[p * 2 + 1] = i * 2 + 1;
+        }
+        return newEdgeForOld;
+    }
+
+    private void renumberVertices (int[] newVertexForOld) {
+        VertexStore vertexStore = streets.vertexStore;
+        vertexStore.fixedLats = permute(vertexStore.fixedLats, newVertexForOld);
+        vertexStore.fixedLons = permute(vertexStore.fixedLons, newVertexForOld);
+        vertexStore.vertexFlags = permute(vertexStore.vertexFlags, newVertexForOld);
+    }
+
+    private void renumberEdges (int[] newEdgeForOld, int[] newVertexForOld) {
+        EdgeStore edgeStore = streets.edgeStore;
+        // Edge pairs move by half as much as their forward edges.
+        int[] newPairForOld = new int[newEdgeForOld.length / 2];
+        for (int p = 0; p < newPairForOld.length; p++) newPairForOld[p] = newEdgeForOld[p * 2] / 2;
+
+        edgeStore.flags = permute(edgeStore.flags, newEdgeForOld);
+        edgeStore.speeds = permute(edgeStore.speeds, newEdgeForOld);
+        edgeStore.fromVertices = permute(edgeStore.fromVertices, newPairForOld);
+        edgeStore.fromVertices.transformValues(vertex -> newVertexForOld[vertex]);
+        edgeStore.toVertices = permute(edgeStore.toVertices, newPairForOld);
+        edgeStore.toVertices.transformValues(vertex -> newVertexForOld[vertex]);
+        edgeStore.lengths_mm = permute(edgeStore.lengths_mm, newPairForOld);
+        edgeStore.osmids = permute(edgeStore.osmids, newPairForOld);
+        edgeStore.inAngles = permute(edgeStore.inAngles, newPairForOld);
+        edgeStore.outAngles = permute(edgeStore.outAngles, newPairForOld);
+        int[] oldPairForNew = new int[newPairForOld.length];
+        for (int p = 0; p < newPairForOld.length; p++) oldPairForNew[newPairForOld[p]] = p;
+        // Packed geometries are read relative to their from vertex, which has already been moved to its new index.
+        VertexStore vertexStore = streets.vertexStore;
+        PackedGeometries geometries = new PackedGeometries(newPairForOld.length);
+        for (int p = 0; p < newPairForOld.length; p++) {
+            int fromVertex = edgeStore.fromVertices.get(p);
+            geometries.add(edgeStore.geometries.get(oldPairForNew[p], vertexStore.fixedLats.get(fromVertex),
+                    vertexStore.fixedLons.get(fromVertex)));
+        }
+        edgeStore.geometries = geometries;
+    }
+
+    /**
+     * Renumber the edges referenced by turn restrictions, and the indexes of turn restrictions by edge. The indexes
+     * of the restrictions themselves do not change.
+     */
+    private void renumberTurnRestrictions (int[] newEdgeForOld) {
+        EdgeStore edgeStore = streets.edgeStore;
+        TIntIntMultimap forward = new TIntIntHashMultimap();
+        TIntIntMultimap reverse = new TIntIntHashMultimap();
+        for (int r = 0; r < streets.turnRestrictions.size(); r++) {
+            TurnRestriction restriction = streets.turnRestrictions.get(r);
+            // Restrictions converted for reverse searches are only indexed in reverse, see addReverseTurnRestriction.
+            if (edgeStore.turnRestrictions.get(restriction.fromEdge).contains(r)) {
+                forward.put(newEdgeForOld[restriction.fromEdge], r);
+            }
+            if (edgeStore.turnRestrictionsReverse.get(restriction.toEdge).contains(r)) {
+                reverse.put(newEdgeForOld[restriction.toEdge], r);
+            }
+            restriction.fromEdge = newEdgeForOld[restriction.fromEdge];
+            restriction.toEdge = newEdgeForOld[restriction.toEdge];
+            for (int i = 0; i < restriction.viaEdges.length; i++) {
+                restriction.viaEdges[i] = newEdgeForOld[restriction.viaEdges[i]];
+            }
+        }
+        edgeStore.turnRestrictions = forward;
+        edgeStore.turnRestrictionsReverse = reverse;
+    }
+
+    /**
+     * The position of a point along a Hilbert curve filling a square grid of 2^ORDER cells on each side.
+     * This is the classic iterative algorithm, rotating the quadrant at each level so the curve remains continuous.
+     */
+    static long hilbertIndex (int x, int y) {
+        int n = 1 << ORDER;
+        long index = 0;
+        for (int s = n / 2; s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return index;
+    }
+
+    private static TIntList permute (TIntList list, int[] newIndexForOld) {
+        int[] permuted = new int[list.size()];
+        for (int i = 0; i < permuted.length; i++) permuted[newIndexForOld[i]] = list.get(i);
+        return new TIntArrayList(permuted);
+    }
+
+    private static TShortList permute (TShortList list, int[] newIndexForOld) {
+        short[] permuted = new short[list.size()];
+        for (int i = 0; i < permuted.length; i++) permuted[newIndexForOld[i]] = list.get(i);
+        return new TShortArrayList(permuted);
+    }
+
+    private static TByteList permute (TByteList list, int[] newIndexForOld) {
+        byte[] permuted = new byte[list.size()];
+        for (int i = 0; i < permuted.length; i++) permuted[newIndexForOld[i]] = list.get(i);
+        return new TByteArrayList(permuted);
+    }
+
+    private static TLongList permute (TLongList list, int[] newIndexForOld) {
+        long[] permuted = new long[list.size()];
+        for (int i = 0; i < permuted.length; i++) permuted[newIndexForOld[i]] = list.get(i);
+        return new TLongArrayList(permuted);
+    }
+
+}
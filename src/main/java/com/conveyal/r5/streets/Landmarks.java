@@ -0,0 +1,170 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.util.IntBinaryHeap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Network distances between a few landmark vertices and every other vertex, providing lower bounds on the network
+ * distance between any two vertices through the triangle inequality (ALT: A*, landmarks and triangle inequality).
+ * These bounds are much tighter than straight line distances wherever streets have to detour around rivers, railways
+ * or highways, so the StreetRouter uses them to direct searches toward a destination.
+ *
+ * Distances are over all edges that allow walking, cycling or driving, ignoring everything else about the edges
+ * (speeds, turn costs and restrictions). Every path the router can take is therefore at least as long as the distance
+ * in this graph, whatever the mode, and the bound can be converted to time using the fastest possible speed exactly like
+ * the straight line distance. The bounds are only valid on the street layer they were computed for: any added edge
+ * could be a shortcut, so they are not used on scenario copies that add edges.
+ */
+public class Landmarks implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(Landmarks.class);
+
+    /** Marks vertices that cannot be reached from or cannot reach a landmark. */
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** The number of edges in the street layer these distances were computed on. */
+    public final int nEdges;
+
+    /** The vertex index of each landmark. */
+    public final int[] landmarkVertices;
+
+    /** For each landmark, the distance in meters from the landmark to each vertex, rounded to the nearest meter. */
+    private final int[][] distancesFromLandmark;
+
+    /** For each landmark, the distance in meters from each vertex to the landmark, rounded to the nearest meter. */
+    private final int[][] distancesToLandmark;
+
+    private Landmarks (int nEdges, int[] landmarkVertices, int[][] distancesFromLandmark, int[][] distancesToLandmark) {
+        this.nEdges = nEdges;
+        this.landmarkVertices = landmarkVertices;
+        this.distancesFromLandmark = distancesFromLandmark;
+        this.distancesToLandmark = distancesToLandmark;
+    }
+
+    /**
+     * Choose landmarks on the street layer and compute the distances to and from them. Each landmark is the vertex
+     * farthest from the landmarks already chosen, which places them around the edge of the network where they give
+     * the best bounds. The street layer's edge lists must already be built.
+     */
+    public static Landmarks build (StreetLayer streetLayer, int nLandmarks) {
+        long startTime = System.currentTimeMillis();
+        int nVertices = streetLayer.getVertexCount();
+        int[] landmarkVertices = new int[nLandmarks];
+        int[][] distancesFromLandmark = new int[nLandmarks][];
+        int[][] distancesToLandmark = new int[nLandmarks][];
+        // The smallest distance from any landmark chosen so far to each vertex, in millimeters.
+        int[] minDistanceMm = null;
+        // Start from the vertex farthest from an arbitrary vertex.
+        int nextLandmark = farthestVertex(distancesMm(streetLayer, 0, false));
+        for (int l = 0; l < nLandmarks; l++) {
+            landmarkVertices[l] = nextLandmark;
+            int[] fromLandmarkMm = distancesMm(streetLayer, nextLandmark, false);
+            distancesFromLandmark[l] = toMeters(fromLandmarkMm);
+            distancesToLandmark[l] = toMeters(distancesMm(streetLayer, nextLandmark, true));
+            if (minDistanceMm == null) {
+                minDistanceMm = fromLandmarkMm;
+            } else {
+                for (int v = 0; v < nVertices; v++) minDistanceMm[v] = Math.min(minDistanceMm[v], fromLandmarkMm[v]);
+            }
+            nextLandmark = farthestVertex(minDistanceMm);
+        }
+        LOG.info("Computed distances to and from {} landmarks in {} sec.", nLandmarks,
+                (System.currentTimeMillis() - startTime) / 1000);
+        return new Landmarks(streetLayer.edgeStore.nEdges(), landmarkVertices, distancesFromLandmark, distancesToLandmark);
+    }
+
+    /** @return true if these landmark distances give valid bounds on the given street layer. */
+    public boolean isValidFor (StreetLayer streetLayer) {
+        // Removing edges (temporarily or not) can only lengthen paths, so it does not invalidate the bounds.
+        return streetLayer.edgeStore.nEdges() == nEdges;
+    }
+
+    /**
+     * @return a lower bound on the network distance in millimeters from a vertex to a point along an edge, or zero if
+     *         no bound is known.
+     */
+    public int getLowerBoundMillimeters (int fromVertex, Split destination) {
+        int bound0 = getLowerBoundMeters(fromVertex, destination.vertex0);
+        int bound1 = getLowerBoundMeters(fromVertex, destination.vertex1);
+        // The destination is reached through one of the vertices at the ends of its edge.
+        long bound = Math.min(bound0 * 1000L + destination.distance0_mm, bound1 * 1000L + destination.distance1_mm);
+        return (int) Math.min(bound, Integer.MAX_VALUE);
+    }
+
+    /** @return a lower bound on the network distance in meters between two vertices. */
+    public int getLowerBoundMeters (int fromVertex, int toVertex) {
+        if (fromVertex >= distancesFromLandmark[0].length || toVertex >= distancesFromLandmark[0].length) return 0;
+        int bound = 0;
+        for (int l = 0; l < landmarkVertices.length; l++) {
+            // The distance from the landmark to the destination is no more than the distance to the origin plus the
+            // distance from the origin to the destination, and likewise for distances to the landmark.
+            int[] fromLandmark = distancesFromLandmark[l];
+            if (fromLandmark[fromVertex] != UNREACHABLE && fromLandmark[toVertex] != UNREACHABLE) {
+                bound = Math.max(bound, fromLandmark[toVertex] - fromLandmark[fromVertex]);
+            }
+            int[] toLandmark = distancesToLandmark[l];
+            if (toLandmark[fromVertex] != UNREACHABLE && toLandmark[toVertex] != UNREACHABLE) {
+                bound = Math.max(bound, toLandmark[fromVertex] - toLandmark[toVertex]);
+            }
+        }
+        // Each distance was rounded by up to half a meter, so take off one meter to remain a lower bound.
+        return Math.max(bound - 1, 0);
+    }
+
+    private static int farthestVertex (int[] distances) {
+        int farthest = 0;
+        for (int v = 0; v < distances.length; v++) {
+            if (distances[v] != UNREACHABLE && (distances[farthest] == UNREACHABLE || distances[v] > distances[farthest])) {
+                farthest = v;
+            }
+        }
+        return farthest;
+    }
+
+    private static int[] toMeters (int[] distancesMm) {
+        int[] distances = new int[distancesMm.length];
+        for (int v = 0; v < distances.length; v++) {
+            distances[v] = distancesMm[v] == UNREACHABLE ? UNREACHABLE : Math.round(distancesMm[v] / 1000f);
+        }
+        return distances;
+    }
+
+    /**
+     * Plain Dijkstra search over vertices on edges that allow any mode of travel.
+     * @param reverse if true, find distances to the given vertex rather than from it.
+     * @return the distance in millimeters from (or to) the given vertex for every vertex, or UNREACHABLE
+     */
+    private static int[] distancesMm (StreetLayer streetLayer, int vertex, boolean reverse) {
+        int[] distances = new int[streetLayer.getVertexCount()];
+        Arrays.fill(distances, UNREACHABLE);
+        IntBinaryHeap queue = new IntBinaryHeap();
+        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
+        distances[vertex] = 0;
+        queue.add(vertex, 0);
+        while (!queue.isEmpty()) {
+            int distance = queue.peekPriority();
+            int v = queue.poll();
+            EdgeLists edges = reverse ? streetLayer.incomingEdges : streetLayer.outgoingEdges;
+            for (int i = 0; i < edges.size(v); i++) {
+                edge.seek(edges.get(v, i));
+                if (!edge.getFlag(EdgeStore.EdgeFlag.ALLOWS_PEDESTRIAN) && !edge.getFlag(EdgeStore.EdgeFlag.ALLOWS_BIKE)
+                        && !edge.getFlag(EdgeStore.EdgeFlag.ALLOWS_CAR)) continue;
+                int next = reverse ? edge.getFromVertex() : edge.getToVertex();
+                int nextDistance = distance + edge.getLengthMm();
+                if (nextDistance < distances[next]) {
+                    if (distances[next] == UNREACHABLE) queue.add(next, nextDistance);
+                    else if (queue.contains(next)) queue.update(next, nextDistance);
+                    distances[next] = nextDistance;
+                }
+            }
+        }
+        return distances;
+    }
+
+}
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -33,6 +34,9 @@ public class LinkedPointSet implements Serializable {
 
     private static final Logger LOG = LoggerFactory.getLogger(LinkedPointSet.class);
 
+    /** Grids are linked in square tiles of this many points on a side, see linkPointsToStreets. */
+    private static final int LINKING_TILE_SIZE = 32;
+
     /**
      * LinkedPointSets are long-lived and not extremely numerous, so we keep references to the objects it was built
      * from. Besides these fields are useful for later processing of LinkedPointSets.
@@ -70,8 +74,8 @@ public class LinkedPointSet implements Serializable {
      */
     public int[] distances1_mm;
 
-    /** For each transit stop, the distances to nearby PointSet points as packed (point_index, distance) pairs. */
-    public List<int[]> stopToPointDistanceTables;
+    /** For each transit stop, the distances in millimeters to nearby PointSet points. */
+    public PackedDistanceTables stopToPointDistanceTables;
 
     /**
      * For each pointset point, the stops reachable without using transit, as a map from StopID to distance in
@@ -117,7 +121,7 @@ public class LinkedPointSet implements Serializable {
             edges = new int[nPoints];
             distances0_mm = new int[nPoints];
             distances1_mm = new int[nPoints];
-            stopToPointDistanceTables = new ArrayList<>();
+            stopToPointDistanceTables = new PackedDistanceTables(new ArrayList<>());
         } else {
             // The caller has supplied an existing linkage for a scenario StreetLayer's base StreetLayer.
             // We want to re-use most of that that existing linkage to reduce linking time.
@@ -131,7 +135,7 @@ public class LinkedPointSet implements Serializable {
             edges = Arrays.copyOf(baseLinkage.edges, nPoints);
             distances0_mm = Arrays.copyOf(baseLinkage.distances0_mm, nPoints);
             distances1_mm = Arrays.copyOf(baseLinkage.distances1_mm, nPoints);
-            stopToPointDistanceTables = new ArrayList<>(baseLinkage.stopToPointDistanceTables);
+            stopToPointDistanceTables = baseLinkage.stopToPointDistanceTables.copy();
             // TODO We need to determine which points to re-link and which stops should have their stop-to-point tables re-built.
             // This should be all the points within the (bird-fly) linking radius of any modified edge.
             // The stop-to-vertex trees should already be rebuilt elsewhere when applying the scenario.
@@ -158,6 +162,21 @@ public class LinkedPointSet implements Serializable {
 
     }
 
+    /**
+     * Reassemble a LinkedPointSet from linkage arrays and distance tables that were already computed, for instance
+     * when reading a linkage back from disk (see LinkageStore).
+     */
+    public LinkedPointSet (PointSet pointSet, StreetLayer streetLayer, StreetMode streetMode, int[] edges,
+                           int[] distances0_mm, int[] distances1_mm, PackedDistanceTables stopToPointDistanceTables) {
+        this.pointSet = pointSet;
+        this.streetLayer = streetLayer;
+        this.streetMode = streetMode;
+        this.edges = edges;
+        this.distances0_mm = distances0_mm;
+        this.distances1_mm = distances1_mm;
+        this.stopToPointDistanceTables = stopToPointDistanceTables;
+    }
+
     /**
      * Construct a new LinkedPointSet for a grid that falls entirely within an existing grid LinkedPointSet.
      *
@@ -210,33 +229,30 @@ public class LinkedPointSet implements Serializable {
             }
         }
 
-        stopToPointDistanceTables = sourceLinkage.stopToPointDistanceTables.stream()
-                .map(distanceTable -> {
-                    if (distanceTable == null) return null; // if it was previously unlinked, it is still unlinked
-
-                    TIntList newDistanceTable = new TIntArrayList();
-                    for (int i = 0; i < distanceTable.length; i += 2) {
-                        int targetInSuperLinkage = distanceTable[i];
-                        int distance = distanceTable[i + 1];
-
-                        int superX = targetInSuperLinkage % superGrid.width;
-                        int superY = targetInSuperLinkage / superGrid.width;
-
-                        int subX = superX + superGrid.west - subGrid.west;
-                        int subY = superY + superGrid.north - subGrid.north;
-
-                        if (subX >= 0 && subX < subGrid.width && subY >= 0 && subY < subGrid.height) {
-                            // only retain connections to points that fall within the subGrid
-                            int targetInSubLinkage = subY * subGrid.width + subX;
-                            newDistanceTable.add(targetInSubLinkage);
-                            newDistanceTable.add(distance); // distance to target does not change when we crop the pointset
-                        }
-                    }
-
-                    if (newDistanceTable.isEmpty()) return null; // not near any points in sub pointset
-                    else return newDistanceTable.toArray();
-                })
-                .collect(Collectors.toList());
+        PackedDistanceTables sourceTables = sourceLinkage.stopToPointDistanceTables;
+        List<byte[]> newDistanceTables = new ArrayList<>(sourceTables.size());
+        for (int stop = 0; stop < sourceTables.size(); stop++) {
+            // Points are in increasing order in both grids, since the sub-grid is a rectangle within the super-grid.
+            TIntList newDistanceTable = new TIntArrayList();
+            sourceTables.forEach(stop, (targetInSuperLinkage, distance) -> {
+                int superX = targetInSuperLinkage % superGrid.width;
+                int superY = targetInSuperLinkage / superGrid.width;
+
+                int subX = superX + superGrid.west - subGrid.west;
+                int subY = superY + superGrid.north - subGrid.north;
+
+                if (subX >= 0 && subX < subGrid.width && subY >= 0 && subY < subGrid.height) {
+                    // only retain connections to points that fall within the subGrid
+                    int targetInSubLinkage = subY * subGrid.width + subX;
+                    newDistanceTable.add(targetInSubLinkage);
+                    newDistanceTable.add(distance); // distance to target does not change when we crop the pointset
+                }
+                return true;
+            });
+            // if it was previously unlinked, it is still unlinked, and it may not be near any points in sub pointset
+            newDistanceTables.add(newDistanceTable.isEmpty() ? null : PackedDistanceTables.encode(newDistanceTable));
+        }
+        stopToPointDistanceTables = new PackedDistanceTables(newDistanceTables);
     }
 
 
@@ -250,34 +266,93 @@ public class LinkedPointSet implements Serializable {
     private void linkPointsToStreets (boolean all) {
         LambdaCounter counter = new LambdaCounter(LOG, pointSet.featureCount(), 10000,
                 "Linked {} of {} PointSet points to streets.");
-        // Perform linkage calculations in parallel, writing results to the shared parallel arrays.
-        IntStream.range(0, pointSet.featureCount()).parallel().forEach(p -> {
-            // When working with a scenario, skip all points that are not linked to a deleted street (i.e. one that has
-            // been split). At the current time, the only street network modification we support is splitting existing streets,
-            // so the only way a point can need to be relinked is if it is connected to a street which was split (and therefore deleted).
-            // FIXME when we permit street network modifications beyond adding transit stops we will need to change how this works,
-            // we may be able to use some type of flood-fill algorithm in geographic space, expanding the relink envelope until we
-            // hit edges on all sides or reach some predefined maximum.
-            if (all || (streetLayer.edgeStore.temporarilyDeletedEdges != null &&
-                    streetLayer.edgeStore.temporarilyDeletedEdges.contains(edges[p]))) {
-                // Use radius from StreetLayer such that maximum origin and destination walk distances are symmetric.
-                Split split = streetLayer.findSplit(pointSet.getLat(p), pointSet.getLon(p),
-                        StreetLayer.LINK_RADIUS_METERS, streetMode);
-                if (split == null) {
-                    edges[p] = -1;
-                } else {
-                    edges[p] = split.edge;
-                    distances0_mm[p] = split.distance0_mm;
-                    distances1_mm[p] = split.distance1_mm;
+        // Perform linkage calculations in parallel, writing results to the shared parallel arrays. Points are linked in
+        // chunks of nearby points, so each thread keeps searching the same part of the street layer, and each chunk
+        // reuses one edge cursor and pair of Splits instead of creating new ones for every point.
+        int[][] chunks = makeLinkingChunks();
+        Arrays.stream(chunks).parallel().forEach(chunk -> {
+            Edge edge = streetLayer.edgeStore.getCursor();
+            Split curr = new Split();
+            Split best = new Split();
+            int nLinked = 0;
+            for (int p : chunk) {
+                // When working with a scenario, skip all points that are not linked to a deleted street (i.e. one that
+                // has been split). At the current time, the only street network modification we support is splitting
+                // existing streets, so the only way a point can need to be relinked is if it is connected to a street
+                // which was split (and therefore deleted).
+                // FIXME when we permit street network modifications beyond adding transit stops we will need to change
+                // how this works, we may be able to use some type of flood-fill algorithm in geographic space,
+                // expanding the relink envelope until we hit edges on all sides or reach some predefined maximum.
+                if (all || (streetLayer.edgeStore.temporarilyDeletedEdges != null &&
+                        streetLayer.edgeStore.temporarilyDeletedEdges.contains(edges[p]))) {
+                    // Use radius from StreetLayer such that maximum origin and destination walk distances are
+                    // symmetric.
+                    Split split = streetLayer.findSplit(pointSet.getLat(p), pointSet.getLon(p),
+                            StreetLayer.LINK_RADIUS_METERS, streetMode, edge, curr, best);
+                    if (split == null) {
+                        edges[p] = -1;
+                    } else {
+                        edges[p] = split.edge;
+                        distances0_mm[p] = split.distance0_mm;
+                        distances1_mm[p] = split.distance1_mm;
+                    }
+                    nLinked += 1;
                 }
-                counter.increment();
             }
+            counter.increment(nLinked);
         });
         long unlinked = Arrays.stream(edges).filter(e -> e == -1).count();
         counter.done();
         LOG.info("{} points are not linked to the street network.", unlinked);
     }
 
+    /**
+     * Divide the points of the PointSet into chunks of nearby points to be linked together. Grids are cut into square
+     * tiles, other PointSets into runs of consecutive points, which are usually near one another.
+     * @return the indexes of the points in each chunk.
+     */
+    private int[][] makeLinkingChunks () {
+        if (pointSet instanceof WebMercatorGridPointSet) {
+            WebMercatorGridPointSet grid = (WebMercatorGridPointSet) pointSet;
+            int nTileColumns = (grid.width + LINKING_TILE_SIZE - 1) / LINKING_TILE_SIZE;
+            int nTileRows = (grid.height + LINKING_TILE_SIZE - 1) / LINKING_TILE_SIZE;
+            int[][] chunks = new int[nTileColumns * nTileRows][];
+            for (int tileRow = 0; tileRow < nTileRows; tileRow++) {
+                for (int tileColumn = 0; tileColumn < nTileColumns; tileColumn++) {
+                    int minX = tileColumn * LINKING_TILE_SIZE;
+                    int minY = tileRow * LINKING_TILE_SIZE;
+                    int maxX = Math.min(grid.width, minX + LINKING_TILE_SIZE);
+                    int maxY = Math.min(grid.height, minY + LINKING_TILE_SIZE);
+                    int[] chunk = new int[(maxX - minX) * (maxY - minY)];
+                    for (int y = minY, i = 0; y < maxY; y++) {
+                        for (int x = minX; x < maxX; x++, i++) {
+                            chunk[i] = y * grid.width + x;
+                        }
+                    }
+                    chunks[tileRow * nTileColumns + tileColumn] = chunk;
+                }
+            }
+            return chunks;
+        } else {
+            int nPoints = pointSet.featureCount();
+            int chunkSize = LINKING_TILE_SIZE * LINKING_TILE_SIZE;
+            return IntStream.range(0, (nPoints + chunkSize - 1) / chunkSize)
+                    .mapToObj(c -> IntStream.range(c * chunkSize, Math.min(nPoints, (c + 1) * chunkSize)).toArray())
+                    .toArray(int[][]::new);
+        }
+    }
+
+    /**
+     * @return an estimate of the memory used by this linkage in bytes: the linkage arrays and the distance tables.
+     * Distance tables shared with a base linkage are counted again, so the estimate is high for scenario linkages.
+     */
+    public long estimateBytes () {
+        // Array headers and references are taken to be 16 and 8 bytes.
+        long bytes = 3 * (16 + edges.length * 4L);
+        bytes += stopToPointDistanceTables.estimateBytes();
+        return bytes;
+    }
+
     /** @return the number of linkages, which should be the same as the number of points in the PointSet. */
     public int size () {
         return edges.length;
@@ -342,27 +417,15 @@ public class LinkedPointSet implements Serializable {
      * optimization. See JavaDoc on the caller makeStopToPointDistanceTables - this is one of the slowest parts of
      * building a network.
      *
-     * @return A packed array of (pointIndex, distanceMillimeters)
+     * @return the encoded distances to the points in millimeters (see PackedDistanceTables), or null if none
      */
-    private int[] extendDistanceTableToPoints (TIntIntMap distanceTableToVertices, Envelope distanceTableZone) {
+    private byte[] extendDistanceTableToPoints (TIntIntMap distanceTableToVertices, Envelope distanceTableZone) {
         int nPoints = this.size();
         TIntIntMap distanceToPoint = new TIntIntHashMap(nPoints, 0.5f, Integer.MAX_VALUE, Integer.MAX_VALUE);
         Edge edge = streetLayer.edgeStore.getCursor();
         TIntSet relevantPoints = pointSet.spatialIndex.query(distanceTableZone);
         relevantPoints.forEach(p -> {
-            // An edge index of -1 for a particular point indicates that this point is unlinked
-            if (edges[p] == -1) return true;
-            edge.seek(edges[p]);
-            int t1 = Integer.MAX_VALUE, t2 = Integer.MAX_VALUE;
-            // TODO this is not strictly correct when there are turn restrictions onto the edge this is linked to
-
-            if (distanceTableToVertices.containsKey(edge.getFromVertex())) {
-                t1 = distanceTableToVertices.get(edge.getFromVertex()) + distances0_mm[p];
-            }
-            if (distanceTableToVertices.containsKey(edge.getToVertex())) {
-                t2 = distanceTableToVertices.get(edge.getToVertex()) + distances1_mm[p];
-            }
-            int t = Math.min(t1, t2);
+            int t = distanceToPoint(p, distanceTableToVertices, edge);
             if (t != Integer.MAX_VALUE) {
                 if (t < distanceToPoint.get(p)) {
                     distanceToPoint.put(p, t);
@@ -373,15 +436,62 @@ public class LinkedPointSet implements Serializable {
         if (distanceToPoint.size() == 0) {
             return null;
         }
-        // Convert a packed array of pairs.
-        // TODO don't put in a list and convert to array, just make an array.
-        TIntList packed = new TIntArrayList(distanceToPoint.size() * 2);
-        distanceToPoint.forEachEntry((point, distance) -> {
-            packed.add(point);
-            packed.add(distance);
-            return true; // Continue iteration.
-        });
-        return packed.toArray();
+        return PackedDistanceTables.encode(distanceToPoint);
+    }
+
+    /**
+     * A faster version of extendDistanceTableToPoints for gridded PointSets. The points near a stop form a rectangle
+     * of pixels that can be computed directly, instead of looking them up in a spatial index. Each point in that
+     * rectangle is visited once in increasing order, so the distances go straight into the packed result with no map.
+     *
+     * @param scratch a list reused from one call to the next to accumulate the result, not shared between threads.
+     * @return the encoded distances to the points in millimeters (see PackedDistanceTables), or null if none
+     */
+    private byte[] extendDistanceTableToGridPoints (TIntIntMap distanceTableToVertices, Envelope distanceTableZone,
+                                                  TIntArrayList scratch) {
+        WebMercatorGridPointSet grid = (WebMercatorGridPointSet) pointSet;
+        // Pixel y coordinates increase southward.
+        int minX = grid.lonToPixel(VertexStore.fixedDegreesToFloating(distanceTableZone.getMinX())) - grid.west;
+        int maxX = grid.lonToPixel(VertexStore.fixedDegreesToFloating(distanceTableZone.getMaxX())) - grid.west;
+        int minY = grid.latToPixel(VertexStore.fixedDegreesToFloating(distanceTableZone.getMaxY())) - grid.north;
+        int maxY = grid.latToPixel(VertexStore.fixedDegreesToFloating(distanceTableZone.getMinY())) - grid.north;
+        minX = Math.max(0, minX);
+        maxX = Math.min(grid.width - 1, maxX);
+        minY = Math.max(0, minY);
+        maxY = Math.min(grid.height - 1, maxY);
+        scratch.resetQuick();
+        Edge edge = streetLayer.edgeStore.getCursor();
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX, p = y * grid.width + minX; x <= maxX; x++, p++) {
+                int t = distanceToPoint(p, distanceTableToVertices, edge);
+                if (t != Integer.MAX_VALUE) {
+                    scratch.add(p);
+                    scratch.add(t);
+                }
+            }
+        }
+        return scratch.isEmpty() ? null : PackedDistanceTables.encode(scratch);
+    }
+
+    /**
+     * @param edge a cursor that will be moved to the edge the point is linked to.
+     * @return the distance in millimeters to the given point through the closer end of the edge it is linked to, or
+     *         Integer.MAX_VALUE if the point is unlinked or neither end of that edge is in the distance table.
+     */
+    private int distanceToPoint (int p, TIntIntMap distanceTableToVertices, Edge edge) {
+        // An edge index of -1 for a particular point indicates that this point is unlinked
+        if (edges[p] == -1) return Integer.MAX_VALUE;
+        edge.seek(edges[p]);
+        int t1 = Integer.MAX_VALUE, t2 = Integer.MAX_VALUE;
+        // TODO this is not strictly correct when there are turn restrictions onto the edge this is linked to
+
+        if (distanceTableToVertices.containsKey(edge.getFromVertex())) {
+            t1 = distanceTableToVertices.get(edge.getFromVertex()) + distances0_mm[p];
+        }
+        if (distanceTableToVertices.containsKey(edge.getToVertex())) {
+            t2 = distanceTableToVertices.get(edge.getToVertex()) + distances1_mm[p];
+        }
+        return Math.min(t1, t2);
     }
 
     /**
@@ -400,8 +510,9 @@ public class LinkedPointSet implements Serializable {
      */
     public void makeStopToPointDistanceTables (Geometry treeRebuildZone) {
         LOG.info("Creating distance tables from each transit stop to PointSet points.");
-        // FIXME this is wasting a lot of memory and not needed for gridded pointsets - overload for gridded and freeform PointSets
-        pointSet.createSpatialIndexAsNeeded();
+        // Gridded PointSets don't need a spatial index, the points near each stop are found directly.
+        boolean gridded = pointSet instanceof WebMercatorGridPointSet;
+        if (!gridded) pointSet.createSpatialIndexAsNeeded();
         if (treeRebuildZone != null) {
             LOG.info("Selectively computing tables for only those stops that might be affected by the scenario.");
         }
@@ -409,31 +520,63 @@ public class LinkedPointSet implements Serializable {
         int nStops = transitLayer.getStopCount();
         LambdaCounter counter = new LambdaCounter(LOG, nStops, 1000,
                 "Computed distances to PointSet points from {} of {} transit stops.");
-        // Create a distance table from each transit stop to the points in this PointSet in parallel.
-        // When applying a scenario, keep the existing distance table for those stops that could not be affected.
-        stopToPointDistanceTables = IntStream.range(0, nStops).parallel().mapToObj(stopIndex -> {
+        // Each thread reuses its own scratch space: a map of the distances to street vertices from the stop, decoded
+        // from the packed tables, and a list to build the distance tables to gridded PointSets.
+        ThreadLocal<TIntIntMap> vertexScratch = ThreadLocal.withInitial(TIntIntHashMap::new);
+        ThreadLocal<TIntArrayList> scratch = ThreadLocal.withInitial(TIntArrayList::new);
+        IntFunction<byte[]> makeOneTable = stopIndex -> {
             Point stopPoint = transitLayer.getJTSPointForStopFixed(stopIndex);
             // If the stop is not linked to the street network, it should have no distance table.
             if (stopPoint == null) return null;
-            if (treeRebuildZone != null && !treeRebuildZone.contains(stopPoint)) {
-                // This stop is not affected by the scenario. Return the existing distance table.
-                // All new stops created by a scenario should be inside the relink zone, so
-                // all stops outside the relink zone should already have a distance table entry.
-                if (stopIndex >= stopToPointDistanceTables.size()) {
-                    throw new AssertionError("A stop created by a scenario is located outside relink zone.");
-                }
-                return stopToPointDistanceTables.get(stopIndex);
-            }
             // Get the pre-computed distance table from the stop to the street vertices,
             // then extend that table out from the street vertices to the points in this PointSet.
-            TIntIntMap distanceTableToVertices = transitLayer.stopToVertexDistanceTables.get(stopIndex);
-            Envelope distanceTableZone = stopPoint.getEnvelopeInternal();
-            GeometryUtils.expandEnvelopeFixed(distanceTableZone, TransitLayer.DISTANCE_TABLE_SIZE_METERS);
-            int[] distancesToPoints = distanceTableToVertices == null ? null :
-                    extendDistanceTableToPoints(distanceTableToVertices, distanceTableZone);
+            byte[] distancesToPoints = null;
+            if (transitLayer.stopToVertexDistanceTables.hasTable(stopIndex)) {
+                TIntIntMap distanceTableToVertices = vertexScratch.get();
+                distanceTableToVertices.clear();
+                transitLayer.stopToVertexDistanceTables.forEach(stopIndex, (vertex, distance) -> {
+                    distanceTableToVertices.put(vertex, distance);
+                    return true;
+                });
+                Envelope distanceTableZone = stopPoint.getEnvelopeInternal();
+                GeometryUtils.expandEnvelopeFixed(distanceTableZone, TransitLayer.DISTANCE_TABLE_SIZE_METERS);
+                if (gridded) {
+                    distancesToPoints = extendDistanceTableToGridPoints(distanceTableToVertices, distanceTableZone,
+                            scratch.get());
+                } else {
+                    distancesToPoints = extendDistanceTableToPoints(distanceTableToVertices, distanceTableZone);
+                }
+            }
             counter.increment();
             return distancesToPoints;
-        }).collect(Collectors.toList());
+        };
+        if (treeRebuildZone == null) {
+            // Create a distance table from each transit stop to the points in this PointSet in parallel.
+            List<byte[]> tables = IntStream.range(0, nStops).parallel().mapToObj(makeOneTable)
+                    .collect(Collectors.toList());
+            stopToPointDistanceTables = new PackedDistanceTables(tables);
+        } else {
+            // When applying a scenario, keep the existing distance table for those stops that could not be affected,
+            // and rebuild the others in parallel. The tables are replaced in a copy, as the existing ones may be shared
+            // with the base linkage.
+            int nExistingTables = stopToPointDistanceTables.size();
+            int[] stopsToRebuild = IntStream.range(0, nStops).filter(stopIndex -> {
+                Point stopPoint = transitLayer.getJTSPointForStopFixed(stopIndex);
+                if (stopPoint == null || treeRebuildZone.contains(stopPoint)) return true;
+                // All new stops created by a scenario should be inside the relink zone, so
+                // all stops outside the relink zone should already have a distance table entry.
+                if (stopIndex >= nExistingTables) {
+                    throw new AssertionError("A stop created by a scenario is located outside relink zone.");
+                }
+                return false;
+            }).toArray();
+            byte[][] rebuiltTables = Arrays.stream(stopsToRebuild).parallel().mapToObj(makeOneTable)
+                    .toArray(byte[][]::new);
+            PackedDistanceTables tables = stopToPointDistanceTables.copy();
+            while (tables.size() < nStops) tables.add(null);
+            for (int i = 0; i < stopsToRebuild.length; i++) tables.set(stopsToRebuild[i], rebuiltTables[i]);
+            stopToPointDistanceTables = tables;
+        }
         counter.done();
     }
 
@@ -447,16 +590,13 @@ public class LinkedPointSet implements Serializable {
             if (stopToPointDistanceTables == null) makeStopToPointDistanceTables(null);
             TIntIntMap[] result = new TIntIntMap[size()];
 
-            for (int stop = 0; stop < stopToPointDistanceTables.size(); stop++) {
-                int[] stopToPointDistanceTable = stopToPointDistanceTables.get(stop);
-                if (stopToPointDistanceTable == null) continue;
-
-                for (int idx = 0; idx < stopToPointDistanceTable.length; idx += 2) {
-                    int point = stopToPointDistanceTable[idx];
-                    int distance = stopToPointDistanceTable[idx + 1];
+            for (int s = 0; s < stopToPointDistanceTables.size(); s++) {
+                final int stop = s;
+                stopToPointDistanceTables.forEach(stop, (point, distance) -> {
                     if (result[point] == null) result[point] = new TIntIntHashMap();
                     result[point].put(stop, distance);
-                }
+                    return true;
+                });
             }
             pointToStopDistanceTables = Arrays.asList(result);
         }
@@ -0,0 +1,223 @@
+package com.conveyal.r5.streets;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.procedure.TIntIntProcedure;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.conveyal.r5.streets.VarInts.readVarInt;
+import static com.conveyal.r5.streets.VarInts.varIntLength;
+import static com.conveyal.r5.streets.VarInts.writeVarInt;
+
+/**
+ * One distance table for each transit stop, giving the distance in millimeters from that stop to nearby street vertices
+ * (TransitLayer.stopToVertexDistanceTables) or PointSet points (LinkedPointSet.stopToPointDistanceTables). These are
+ * among the largest structures in a network, so they are kept in a compact encoding: in each table the indexes are
+ * sorted, and each index is stored as the difference from the previous one, followed by the distance, all as variable
+ * length integers. All the tables are packed into a single byte buffer with an index of where each table begins, so
+ * there are no per-stop map or array objects. Distances are kept to the millimeter, so results are the same as with
+ * uncompressed tables.
+ *
+ * Tables are read by streaming through them with forEach. Stops without a table (because they are not linked to the
+ * streets, or nothing is in range) take no space. A copy of the tables for a scenario shares the packed buffer, and
+ * keeps the tables it adds or replaces on top of it.
+ */
+public class PackedDistanceTables implements Serializable {
+
+    /**
+     * The number of tables in the packed buffer. They are those of stops 0 to nPacked - 1, unless replaced.
+     * All the tables are packed unless they don't fit in a single array.
+     */
+    private int nPacked;
+
+    /** The position in the packed buffer of the table of each packed stop, plus one final entry for the end. */
+    private int[] offsets;
+
+    /** The encoded tables of stops 0 to nPacked - 1, one after the other. Missing tables take no space. */
+    private byte[] packed;
+
+    /** The encoded tables of the stops from nPacked onward, in order, with null for missing tables. */
+    private List<byte[]> unpacked;
+
+    /** Encoded tables (or null) replacing packed ones in a copy, keyed on stop index. */
+    private Map<Integer, byte[]> replaced;
+
+    /**
+     * Pack the given encoded tables (see the encode methods), which may be null for stops that have no table.
+     */
+    public PackedDistanceTables (List<byte[]> tables) {
+        long length = 0;
+        nPacked = 0;
+        while (nPacked < tables.size()) {
+            byte[] table = tables.get(nPacked);
+            if (table != null && length + table.length > Integer.MAX_VALUE - 8) break;
+            if (table != null) length += table.length;
+            nPacked++;
+        }
+        offsets = new int[nPacked + 1];
+        packed = new byte[(int) length];
+        for (int stop = 0; stop < nPacked; stop++) {
+            byte[] table = tables.get(stop);
+            int position = offsets[stop];
+            if (table != null) {
+                System.arraycopy(table, 0, packed, position, table.length);
+                position += table.length;
+            }
+            offsets[stop + 1] = position;
+        }
+        unpacked = new ArrayList<>(tables.subList(nPacked, tables.size()));
+        replaced = new HashMap<>();
+    }
+
+    private PackedDistanceTables () {
+        // Leaves all fields blank for use in the copy method.
+    }
+
+    /** @return the number of stops, with or without a table. */
+    public int size () {
+        return nPacked + unpacked.size();
+    }
+
+    /** Add an encoded table for a new stop, or null if it has no table. */
+    public void add (byte[] table) {
+        unpacked.add(table);
+    }
+
+    /** Replace the encoded table of an existing stop, or remove it if null. */
+    public void set (int stop, byte[] table) {
+        if (stop < nPacked) {
+            replaced.put(stop, table);
+        } else {
+            unpacked.set(stop - nPacked, table);
+        }
+    }
+
+    /** @return the encoded table of the given stop, or null if it has none. */
+    public byte[] getEncoded (int stop) {
+        if (stop >= nPacked) return unpacked.get(stop - nPacked);
+        if (replaced.containsKey(stop)) return replaced.get(stop);
+        if (offsets[stop] == offsets[stop + 1]) return null;
+        return Arrays.copyOfRange(packed, offsets[stop], offsets[stop + 1]);
+    }
+
+    /** @return true if the given stop has a distance table. */
+    public boolean hasTable (int stop) {
+        if (stop >= nPacked) return unpacked.get(stop - nPacked) != null;
+        if (replaced.containsKey(stop)) return replaced.get(stop) != null;
+        return offsets[stop] < offsets[stop + 1];
+    }
+
+    /**
+     * Call the supplied procedure on each (index, distance in millimeters) pair of the table of the given stop, in
+     * increasing order of index, until it returns false. Nothing is called if the stop has no table.
+     * @return false if the procedure returned false.
+     */
+    public boolean forEach (int stop, TIntIntProcedure procedure) {
+        byte[] buffer;
+        int position;
+        if (stop < nPacked && !replaced.containsKey(stop)) {
+            buffer = packed;
+            position = offsets[stop];
+            if (position == offsets[stop + 1]) return true;
+        } else {
+            buffer = stop < nPacked ? replaced.get(stop) : unpacked.get(stop - nPacked);
+            position = 0;
+            if (buffer == null) return true;
+        }
+        int nEntries = readVarInt(buffer, position);
+        position += varIntLength(nEntries);
+        int index = -1;
+        for (int i = 0; i < nEntries; i++) {
+            int value = readVarInt(buffer, position);
+            position += varIntLength(value);
+            index += value + 1;
+            int distance = readVarInt(buffer, position);
+            position += varIntLength(distance);
+            if (!procedure.execute(index, distance)) return false;
+        }
+        return true;
+    }
+
+    /** @return the table of the given stop as a map from index to distance in millimeters, or null if it has none. */
+    public TIntIntMap get (int stop) {
+        if (!hasTable(stop)) return null;
+        TIntIntMap distances = new TIntIntHashMap();
+        forEach(stop, (index, distance) -> {
+            distances.put(index, distance);
+            return true;
+        });
+        return distances;
+    }
+
+    /**
+     * @return a copy that shares the packed buffer of this one, so it is cheap to make, and to which tables can then be
+     * added or replaced without affecting this one.
+     */
+    public PackedDistanceTables copy () {
+        PackedDistanceTables copy = new PackedDistanceTables();
+        copy.nPacked = nPacked;
+        copy.offsets = offsets;
+        copy.packed = packed;
+        copy.unpacked = new ArrayList<>(unpacked);
+        copy.replaced = new HashMap<>(replaced);
+        return copy;
+    }
+
+    /** @return an estimate of the memory used by these tables in bytes, counting the shared packed buffer. */
+    public long estimateBytes () {
+        // Array headers and references are taken to be 16 and 8 bytes.
+        long bytes = 16 + offsets.length * 4L + 16 + packed.length + 16 + unpacked.size() * 8L;
+        for (byte[] table : unpacked) {
+            if (table != null) bytes += 16 + table.length;
+        }
+        for (byte[] table : replaced.values()) {
+            if (table != null) bytes += 64 + table.length;
+        }
+        return bytes;
+    }
+
+    /** @return the given map from index to distance in millimeters in encoded form, or null if the map is null. */
+    public static byte[] encode (TIntIntMap distances) {
+        if (distances == null) return null;
+        int[] indexes = distances.keys();
+        Arrays.sort(indexes);
+        TIntList pairs = new TIntArrayList(indexes.length * 2);
+        for (int index : indexes) {
+            pairs.add(index);
+            pairs.add(distances.get(index));
+        }
+        return encode(pairs);
+    }
+
+    /**
+     * @param pairs (index, distance in millimeters) pairs in increasing order of index, with no repeated index.
+     * @return the given pairs in encoded form.
+     */
+    public static byte[] encode (TIntList pairs) {
+        int nEntries = pairs.size() / 2;
+        int encodedLength = varIntLength(nEntries);
+        int previousIndex = -1;
+        for (int i = 0; i < pairs.size(); i += 2) {
+            encodedLength += varIntLength(pairs.get(i) - previousIndex - 1) + varIntLength(pairs.get(i + 1));
+            previousIndex = pairs.get(i);
+        }
+        byte[] encoded = new byte[encodedLength];
+        int position = writeVarInt(encoded, 0, nEntries);
+        previousIndex = -1;
+        for (int i = 0; i < pairs.size(); i += 2) {
+            position = writeVarInt(encoded, position, pairs.get(i) - previousIndex - 1);
+            position = writeVarInt(encoded, position, pairs.get(i + 1));
+            previousIndex = pairs.get(i);
+        }
+        return encoded;
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.trove.AugmentedList;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import static com.conveyal.r5.streets.VarInts.decodeZigZag;
+import static com.conveyal.r5.streets.VarInts.encodeZigZag;
+import static com.conveyal.r5.streets.VarInts.readVarInt;
+import static com.conveyal.r5.streets.VarInts.varIntLength;
+import static com.conveyal.r5.streets.VarInts.writeVarInt;
+
+/**
+ * The intermediate points of the geometry of every edge pair in an EdgeStore (see EdgeStore.geometries).
+ *
+ * While a network is being built, geometries are set and replaced one by one, and each one is kept in its own array.
+ * Once the network is complete, pack() moves them all into a single byte buffer with an index of where each geometry
+ * begins. In the buffer, each coordinate is stored as the difference from the same coordinate of the previous point
+ * (or of the from vertex of the edge pair for the first point), zigzag-encoded and written as a variable length
+ * integer. Consecutive points are rarely more than a few hundred meters apart, so most coordinates take two bytes
+ * instead of four, and there is no array object (with its header and reference) for every edge pair. This also makes
+ * the geometries of a large network a single array for the serializer. Since packed geometries are relative to their
+ * from vertex, the coordinates of that vertex must be supplied to read them, and it must not be moved once packed.
+ *
+ * Packed geometries cannot be changed. Geometries added after packing, including those added by scenarios to an
+ * extend-only copy, are kept in individual arrays on top of the packed ones.
+ */
+public class PackedGeometries implements Serializable {
+
+    private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+    private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+
+    /** The number of geometries in the packed buffer. They are those of the edge pairs 0 to nPacked - 1. */
+    private int nPacked;
+
+    /** The position in the packed buffer of the geometry of each packed edge pair, plus one final entry for the end. */
+    private int[] offsets;
+
+    /**
+     * For each packed edge pair, the number of intermediate points followed by the zigzag-encoded differences of the
+     * fixed-point lat and lon of each point (the first from the from vertex), all as variable length integers.
+     * Straight edges take no space.
+     */
+    private byte[] packed;
+
+    /** Packed lists of lat, lon, lat, lon... for the edge pairs from nPacked onward, in order. */
+    private List<int[]> unpacked;
+
+    /** True if this is an extend-only copy, whose unpacked geometries are shared with the baseline network. */
+    private boolean extendOnly;
+
+    public PackedGeometries (int initialCapacity) {
+        offsets = new int[] { 0 };
+        packed = EMPTY_BYTE_ARRAY;
+        unpacked = new ArrayList<>(initialCapacity);
+    }
+
+    private PackedGeometries () {
+        // Leaves all fields blank for use in the extend-only copy method.
+    }
+
+    /** @return the number of edge pairs that have a geometry (empty or not). */
+    public int size () {
+        return nPacked + unpacked.size();
+    }
+
+    /** Add the geometry of a new edge pair, as a packed list of lat, lon, lat, lon... in fixed-point degrees. */
+    public void add (int[] coords) {
+        unpacked.add(coords);
+    }
+
+    /** Replace the geometry of an edge pair, which must not have been packed. */
+    public void set (int pair, int[] coords) {
+        if (pair < nPacked) {
+            throw new IllegalStateException("Packed street geometries cannot be modified.");
+        }
+        unpacked.set(pair - nPacked, coords);
+    }
+
+    /** @return the number of intermediate points in the geometry of the given edge pair. */
+    public int nPoints (int pair) {
+        if (pair >= nPacked) return unpacked.get(pair - nPacked).length / 2;
+        int position = offsets[pair];
+        if (position == offsets[pair + 1]) return 0;
+        return readVarInt(packed, position);
+    }
+
+    /**
+     * Call the supplied function on each intermediate point of the geometry of the given edge pair, in the forward
+     * direction, given the coordinates of the from vertex of the pair. Points are numbered from zero.
+     */
+    public void forEachPoint (int pair, int fromFixedLat, int fromFixedLon, EdgeStore.PointConsumer consumer) {
+        if (pair >= nPacked) {
+            int[] coords = unpacked.get(pair - nPacked);
+            for (int i = 0; i < coords.length; i += 2) consumer.consumePoint(i / 2, coords[i], coords[i + 1]);
+            return;
+        }
+        int position = offsets[pair];
+        int end = offsets[pair + 1];
+        if (position == end) return;
+        int nPoints = readVarInt(packed, position);
+        position += varIntLength(nPoints);
+        int fixedLat = fromFixedLat;
+        int fixedLon = fromFixedLon;
+        for (int p = 0; p < nPoints; p++) {
+            int value = readVarInt(packed, position);
+            position += varIntLength(value);
+            fixedLat += decodeZigZag(value);
+            value = readVarInt(packed, position);
+            position += varIntLength(value);
+            fixedLon += decodeZigZag(value);
+            consumer.consumePoint(p, fixedLat, fixedLon);
+        }
+    }
+
+    /**
+     * Call the supplied function on each segment of the geometry of the given edge pair, in the forward direction,
+     * from the given first point through the intermediate points to the given last point. Segments are numbered from
+     * zero.
+     */
+    public void forEachSegment (int pair, int fromFixedLat, int fromFixedLon, int toFixedLat, int toFixedLon,
+                                EdgeStore.SegmentConsumer consumer) {
+        int prevFixedLat = fromFixedLat;
+        int prevFixedLon = fromFixedLon;
+        int s = 0;
+        if (pair >= nPacked) {
+            int[] coords = unpacked.get(pair - nPacked);
+            for (int i = 0; i < coords.length; i += 2) {
+                consumer.consumeSegment(s++, prevFixedLat, prevFixedLon, coords[i], coords[i + 1]);
+                prevFixedLat = coords[i];
+                prevFixedLon = coords[i + 1];
+            }
+        } else if (offsets[pair] < offsets[pair + 1]) {
+            int position = offsets[pair];
+            int nPoints = readVarInt(packed, position);
+            position += varIntLength(nPoints);
+            int fixedLat = fromFixedLat;
+            int fixedLon = fromFixedLon;
+            for (int p = 0; p < nPoints; p++) {
+                int value = readVarInt(packed, position);
+                position += varIntLength(value);
+                fixedLat += decodeZigZag(value);
+                value = readVarInt(packed, position);
+                position += varIntLength(value);
+                fixedLon += decodeZigZag(value);
+                consumer.consumeSegment(s++, prevFixedLat, prevFixedLon, fixedLat, fixedLon);
+                prevFixedLat = fixedLat;
+                prevFixedLon = fixedLon;
+            }
+        }
+        consumer.consumeSegment(s, prevFixedLat, prevFixedLon, toFixedLat, toFixedLon);
+    }
+
+    /**
+     * @return the intermediate points of the given edge pair as a packed list of lat, lon, lat, lon..., given the
+     * coordinates of the from vertex of the pair.
+     */
+    public int[] get (int pair, int fromFixedLat, int fromFixedLon) {
+        if (pair >= nPacked) return unpacked.get(pair - nPacked);
+        int nPoints = nPoints(pair);
+        if (nPoints == 0) return EMPTY_INT_ARRAY;
+        int[] coords = new int[nPoints * 2];
+        forEachPoint(pair, fromFixedLat, fromFixedLon, (p, fixedLat, fixedLon) -> {
+            coords[p * 2] = fixedLat;
+            coords[p * 2 + 1] = fixedLon;
+        });
+        return coords;
+    }
+
+    /**
+     * Move all the geometries into the packed buffer. After this, the existing geometries can no longer be replaced,
+     * though new ones can still be added.
+     * @param fromFixedLats gives the fixed-point latitude of the from vertex of each edge pair.
+     * @param fromFixedLons gives the fixed-point longitude of the from vertex of each edge pair.
+     */
+    public void pack (IntUnaryOperator fromFixedLats, IntUnaryOperator fromFixedLons) {
+        if (extendOnly) {
+            throw new IllegalStateException("Geometries of an extend-only copy cannot be packed.");
+        }
+        if (unpacked.isEmpty()) return;
+        int nTotal = size();
+        int[] newOffsets = new int[nTotal + 1];
+        System.arraycopy(offsets, 0, newOffsets, 0, nPacked + 1);
+        // Find the size of the new buffer first, so it can be allocated exactly.
+        long length = offsets[nPacked];
+        for (int pair = nPacked; pair < nTotal; pair++) {
+            length += packedLength(unpacked.get(pair - nPacked), fromFixedLats.applyAsInt(pair),
+                    fromFixedLons.applyAsInt(pair));
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many street geometry points to pack in a single buffer.");
+            }
+            newOffsets[pair + 1] = (int) length;
+        }
+        byte[] newPacked = new byte[(int) length];
+        System.arraycopy(packed, 0, newPacked, 0, offsets[nPacked]);
+        for (int pair = nPacked; pair < nTotal; pair++) {
+            int[] coords = unpacked.get(pair - nPacked);
+            if (coords.length == 0) continue;
+            int position = writeVarInt(newPacked, newOffsets[pair], coords.length / 2);
+            int prevFixedLat = fromFixedLats.applyAsInt(pair);
+            int prevFixedLon = fromFixedLons.applyAsInt(pair);
+            for (int i = 0; i < coords.length; i += 2) {
+                position = writeVarInt(newPacked, position, encodeZigZag(coords[i] - prevFixedLat));
+                position = writeVarInt(newPacked, position, encodeZigZag(coords[i + 1] - prevFixedLon));
+                prevFixedLat = coords[i];
+                prevFixedLon = coords[i + 1];
+            }
+        }
+        offsets = newOffsets;
+        packed = newPacked;
+        nPacked = nTotal;
+        unpacked = new ArrayList<>();
+    }
+
+    /**
+     * @return a copy for use in an extend-only copy of an EdgeStore, which shares the packed buffer and the unpacked
+     * geometries of this one, and can only add geometries or replace those it has added.
+     */
+    public PackedGeometries extendOnlyCopy () {
+        PackedGeometries copy = new PackedGeometries();
+        copy.nPacked = nPacked;
+        copy.offsets = offsets;
+        copy.packed = packed;
+        copy.unpacked = new AugmentedList<>(unpacked);
+        copy.extendOnly = true;
+        return copy;
+    }
+
+    /** @return the number of bytes needed to pack the given geometry, starting from the given from vertex. */
+    private static int packedLength (int[] coords, int fromFixedLat, int fromFixedLon) {
+        if (coords.length == 0) return 0;
+        int length = varIntLength(coords.length / 2);
+        int prevFixedLat = fromFixedLat;
+        int prevFixedLon = fromFixedLon;
+        for (int i = 0; i < coords.length; i += 2) {
+            length += varIntLength(encodeZigZag(coords[i] - prevFixedLat));
+            length += varIntLength(encodeZigZag(coords[i + 1] - prevFixedLon));
+            prevFixedLat = coords[i];
+            prevFixedLon = coords[i + 1];
+        }
+        return length;
+    }
+
+}
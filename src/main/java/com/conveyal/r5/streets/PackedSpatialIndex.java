@@ -0,0 +1,205 @@
+package com.conveyal.r5.streets;
+
+import com.vividsolutions.jts.geom.Envelope;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A static spatial index of the edges of a complete street layer, which is saved with the network instead of being
+ * rebuilt every time it is loaded. Like IntHashGrid, it divides the area of the street layer into a grid of bins of
+ * about 200 meters, and lists every edge in each bin it passes through. Unlike IntHashGrid, the bins are square on
+ * the ground at the latitude of the street layer, and everything is kept in a few flat arrays: the numbers of the bins
+ * that contain edges in increasing order, and the edges of all those bins one after the other (compressed sparse row
+ * form). The bins of one row of the grid are therefore contiguous, and a query only needs one binary search per row.
+ *
+ * Only forward (even) edges are indexed, their backward companions have the same geometry. Queries return edges
+ * whose geometry passes through a bin overlapping the query envelope, so they return false positives. The caller
+ * must filter them, as with IntHashGrid.
+ *
+ * Edges added after the index was built (including those of scenarios) are not in it, see
+ * StreetLayer.findEdgesInEnvelope.
+ */
+public class PackedSpatialIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(PackedSpatialIndex.class);
+
+    /** The height of each bin, about 200 meters like the default IntHashGrid. */
+    private static final int BIN_SIZE_FIXED_LAT = VertexStore.floatingDegreesToFixed(0.0018);
+
+    /** The number of edges in the edge store when this index was built. */
+    public final int nEdges;
+
+    /** The width and height of each bin in fixed-point degrees. */
+    private final int xBinSize, yBinSize;
+
+    /** The column and row of the first bin of the grid, in bins from (0, 0). */
+    private final int minXBin, minYBin;
+
+    private final int nColumns, nRows;
+
+    /** The numbers (row * nColumns + column) of the bins that contain any edges, in increasing order. */
+    private final long[] bins;
+
+    /** The position in edges of the first edge of each bin in bins, plus one final entry for the end. */
+    private final int[] firstEdge;
+
+    /** The forward edges in each bin, in increasing order within the bin. */
+    private final int[] edges;
+
+    /** Index all the forward edges in the given edge store. */
+    public PackedSpatialIndex (EdgeStore edgeStore) {
+        long startTime = System.currentTimeMillis();
+        nEdges = edgeStore.nEdges();
+        EdgeStore.Edge edge = edgeStore.getCursor();
+
+        // Find the extent of all edge geometries to size the grid.
+        int[] extent = { Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        for (int e = 0; e < nEdges; e += 2) {
+            edge.seek(e);
+            edge.forEachPoint((p, fixedLat, fixedLon) -> {
+                extent[0] = Math.min(extent[0], fixedLat);
+                extent[1] = Math.max(extent[1], fixedLat);
+                extent[2] = Math.min(extent[2], fixedLon);
+                extent[3] = Math.max(extent[3], fixedLon);
+            });
+        }
+        if (nEdges == 0) Arrays.fill(extent, 0);
+        // Make the bins square on the ground at the middle of the street layer.
+        double centerLat = VertexStore.fixedDegreesToFloating((int) (((long) extent[0] + extent[1]) / 2));
+        double cosLat = Math.max(0.1, Math.cos(Math.toRadians(centerLat)));
+        yBinSize = BIN_SIZE_FIXED_LAT;
+        xBinSize = (int) Math.ceil(BIN_SIZE_FIXED_LAT / cosLat);
+        minYBin = Math.floorDiv(extent[0], yBinSize);
+        minXBin = Math.floorDiv(extent[2], xBinSize);
+        nRows = Math.floorDiv(extent[1], yBinSize) - minYBin + 1;
+        nColumns = Math.floorDiv(extent[3], xBinSize) - minXBin + 1;
+        if ((long) nRows * nColumns >= 1L << 32) {
+            throw new IllegalArgumentException("Street layer is too large for a packed spatial index.");
+        }
+
+        // Make one entry for every bin each edge passes through, packing the bin number and the edge pair in a long
+        // so that sorting the entries groups them by bin.
+        TLongArrayList entries = new TLongArrayList(nEdges);
+        TLongArrayList edgeBins = new TLongArrayList();
+        for (int e = 0; e < nEdges; e += 2) {
+            edge.seek(e);
+            edgeBins.resetQuick();
+            edge.forEachSegment((s, fixedLat0, fixedLon0, fixedLat1, fixedLon1) -> {
+                // Cut long segments into pieces no longer than a bin, to avoid indexing them in every bin of their
+                // bounding box. Each piece then touches at most four bins.
+                long nPieces = Math.max(Math.abs((long) fixedLon1 - fixedLon0) / xBinSize,
+                        Math.abs((long) fixedLat1 - fixedLat0) / yBinSize) + 1;
+                for (long piece = 0; piece < nPieces; piece++) {
+                    int lat0 = (int) (fixedLat0 + ((long) fixedLat1 - fixedLat0) * piece / nPieces);
+                    int lon0 = (int) (fixedLon0 + ((long) fixedLon1 - fixedLon0) * piece / nPieces);
+                    int lat1 = (int) (fixedLat0 + ((long) fixedLat1 - fixedLat0) * (piece + 1) / nPieces);
+                    int lon1 = (int) (fixedLon0 + ((long) fixedLon1 - fixedLon0) * (piece + 1) / nPieces);
+                    for (int row = row(Math.min(lat0, lat1)); row <= row(Math.max(lat0, lat1)); row++) {
+                        for (int col = column(Math.min(lon0, lon1)); col <= column(Math.max(lon0, lon1)); col++) {
+                            edgeBins.add((long) row * nColumns + col);
+                        }
+                    }
+                }
+            });
+            edgeBins.sort();
+            long previousBin = -1;
+            for (int i = 0; i < edgeBins.size(); i++) {
+                long bin = edgeBins.get(i);
+                if (bin == previousBin) continue;
+                entries.add((bin << 31) | (e / 2));
+                previousBin = bin;
+            }
+        }
+        long[] sortedEntries = entries.toArray();
+        entries = null;
+        Arrays.parallelSort(sortedEntries);
+
+        // Split the entries into the bin numbers and the edges of each bin.
+        TLongArrayList binList = new TLongArrayList();
+        TIntArrayList firstEdgeList = new TIntArrayList();
+        edges = new int[sortedEntries.length];
+        for (int i = 0; i < sortedEntries.length; i++) {
+            long bin = sortedEntries[i] >>> 31;
+            if (binList.isEmpty() || binList.get(binList.size() - 1) != bin) {
+                binList.add(bin);
+                firstEdgeList.add(i);
+            }
+            edges[i] = (int) (sortedEntries[i] & Integer.MAX_VALUE) * 2;
+        }
+        firstEdgeList.add(edges.length);
+        bins = binList.toArray();
+        firstEdge = firstEdgeList.toArray();
+        LOG.info("Indexed {} edges in {} of {} x {} bins in {} sec.", nEdges / 2, bins.length, nColumns, nRows,
+                (System.currentTimeMillis() - startTime) / 1000d);
+    }
+
+    /** @return the row of the grid containing the given latitude, clamped to the grid. */
+    private int row (int fixedLat) {
+        return Math.max(0, Math.min(nRows - 1, Math.floorDiv(fixedLat, yBinSize) - minYBin));
+    }
+
+    /** @return the column of the grid containing the given longitude, clamped to the grid. */
+    private int column (int fixedLon) {
+        return Math.max(0, Math.min(nColumns - 1, Math.floorDiv(fixedLon, xBinSize) - minXBin));
+    }
+
+    /**
+     * Call the supplied procedure on the forward edges in all the bins that overlap the given envelope, without
+     * allocating any collection. An edge that passes through several of those bins is visited several times.
+     *
+     * @param envelope an envelope in fixed-point degrees.
+     * @return false if the procedure returned false, which stops the iteration.
+     */
+    public boolean forEach (Envelope envelope, TIntProcedure procedure) {
+        if (envelope.isNull() || bins.length == 0) return true;
+        // Envelopes entirely outside the grid cannot contain any edges.
+        double minY = (double) minYBin * yBinSize;
+        double minX = (double) minXBin * xBinSize;
+        if (envelope.getMaxY() < minY || envelope.getMinY() >= minY + (double) nRows * yBinSize
+                || envelope.getMaxX() < minX || envelope.getMinX() >= minX + (double) nColumns * xBinSize) {
+            return true;
+        }
+        int minRow = row((int) Math.floor(envelope.getMinY()));
+        int maxRow = row((int) Math.floor(envelope.getMaxY()));
+        int minColumn = column((int) Math.floor(envelope.getMinX()));
+        int maxColumn = column((int) Math.floor(envelope.getMaxX()));
+        for (int row = minRow; row <= maxRow; row++) {
+            long lastBin = (long) row * nColumns + maxColumn;
+            int b = Arrays.binarySearch(bins, (long) row * nColumns + minColumn);
+            if (b < 0) b = -b - 1;
+            for (; b < bins.length && bins[b] <= lastBin; b++) {
+                for (int i = firstEdge[b]; i < firstEdge[b + 1]; i++) {
+                    if (!procedure.execute(edges[i])) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** @return the set of forward edges in all the bins that overlap the given envelope in fixed-point degrees. */
+    public TIntSet query (Envelope envelope) {
+        TIntSet result = new TIntHashSet();
+        forEach(envelope, e -> {
+            result.add(e);
+            return true;
+        });
+        return result;
+    }
+
+    @Override
+    public String toString () {
+        return String.format("PackedSpatialIndex %d x %d, %d of %d x %d bins used, %d entries", xBinSize, yBinSize,
+                bins.length, nColumns, nRows, edges.length);
+    }
+
+}
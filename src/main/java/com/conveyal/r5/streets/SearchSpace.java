@@ -0,0 +1,76 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.util.IntBinaryHeap;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * The nodes reached by one direction of a bidirectional search, with their costs, predecessors and priority queue.
+ * Such searches explore a small part of the graph, so nodes are given compact local indexes instead of allocating
+ * arrays over all nodes for every search.
+ */
+class SearchSpace {
+
+    final TIntIntMap localIndex = new TIntIntHashMap(64, 0.5f, -1, -1);
+
+    /** The node at each local index. */
+    final TIntList nodes = new TIntArrayList();
+
+    final TIntList costs = new TIntArrayList();
+
+    /** Local index of the node each node was reached from (or for a backward search, leads to), or -1. */
+    final TIntList predecessors = new TIntArrayList();
+
+    /** A value recorded with the arc by which each node was reached, such as the middle node of a shortcut. */
+    final TIntList via = new TIntArrayList();
+
+    final IntBinaryHeap queue = new IntBinaryHeap();
+
+    /**
+     * Record that a node was reached at the given cost, unless it has already been reached at a lower cost.
+     * @return the local index of the node if the cost was recorded, otherwise -1
+     */
+    int reach (int node, int cost, int predecessor, int viaValue) {
+        int local = localIndex.get(node);
+        if (local < 0) {
+            local = nodes.size();
+            localIndex.put(node, local);
+            nodes.add(node);
+            costs.add(cost);
+            predecessors.add(predecessor);
+            via.add(viaValue);
+            queue.add(local, cost);
+            return local;
+        } else if (cost < costs.get(local) && queue.contains(local)) {
+            costs.set(local, cost);
+            predecessors.set(local, predecessor);
+            via.set(local, viaValue);
+            queue.update(local, cost);
+            return local;
+        }
+        return -1;
+    }
+
+    /** @return the cost at which the given node has been reached, or Integer.MAX_VALUE if it has not been reached. */
+    int getCost (int node) {
+        int local = localIndex.get(node);
+        return local < 0 ? Integer.MAX_VALUE : costs.get(local);
+    }
+
+    /** Remove the node with the lowest cost from the queue. @return its local index */
+    int poll () {
+        return queue.poll();
+    }
+
+    int peekCost () {
+        return queue.isEmpty() ? Integer.MAX_VALUE : queue.peekPriority();
+    }
+
+    /** @return true if no node remaining in the queue can lead to a path cheaper than the given cost. */
+    boolean isDone (int best) {
+        return queue.isEmpty() || queue.peekPriority() >= best;
+    }
+
+}
@@ -3,7 +3,6 @@ package com.conveyal.r5.streets;
 import com.conveyal.r5.common.GeometryUtils;
 import com.conveyal.r5.profile.StreetMode;
 import com.vividsolutions.jts.geom.Envelope;
-import gnu.trove.TIntCollection;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import org.apache.commons.math3.util.FastMath;
@@ -63,6 +62,20 @@ public class Split {
         distSquared = other.distSquared;
     }
 
+    /** Return all the fields to their initial values, so this Split can be reused for another search. */
+    public void reset () {
+        edge = -1;
+        seg = 0;
+        frac = 0;
+        fixedLon = 0;
+        fixedLat = 0;
+        distSquared = Long.MAX_VALUE;
+        distance0_mm = 0;
+        distance1_mm = 0;
+        vertex0 = 0;
+        vertex1 = 0;
+    }
+
     private static GeodeticCalculator distanceCalculator = new GeodeticCalculator(DefaultGeographicCRS.WGS84);
 
     /**
@@ -71,6 +84,19 @@ public class Split {
      */
     public static Split find (double lat, double lon, double searchRadiusMeters,
                               StreetLayer streetLayer, StreetMode streetMode) {
+        return find(lat, lon, searchRadiusMeters, streetLayer, streetMode, streetLayer.edgeStore.getCursor(),
+                new Split(), new Split());
+    }
+
+    /**
+     * Like the other find method, but reusing the supplied edge cursor and Split objects instead of creating new ones.
+     * This avoids creating garbage when linking large numbers of points; each thread needs its own cursor and Splits.
+     * @param curr a Split used as scratch space during the search.
+     * @param best the Split that will be reset and then filled in with the result.
+     * @return best, or null if no edge was found in range.
+     */
+    public static Split find (double lat, double lon, double searchRadiusMeters, StreetLayer streetLayer,
+                              StreetMode streetMode, EdgeStore.Edge edge, Split curr, Split best) {
 
         // After this conversion, the entire geometric calculation is happening in fixed precision int degrees.
         int fixedLat = VertexStore.floatingDegreesToFixed(lat);
@@ -88,13 +114,12 @@ public class Split {
         Envelope envelope = new Envelope(fixedLon, fixedLon, fixedLat, fixedLat);
         envelope.expandBy(radiusFixedLon, radiusFixedLat);
         long squaredRadiusFixedLat = radiusFixedLat * radiusFixedLat;
-        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
-        // Iterate over the set of forward (even) edges that may be near the given coordinate.
-        TIntCollection candidateEdges = streetLayer.findEdgesInEnvelope(envelope);
         // The split location currently being examined and the best one seen so far.
-        Split curr = new Split();
-        Split best = new Split();
-        candidateEdges.forEach(e -> {
+        curr.reset();
+        best.reset();
+        // Iterate over the forward (even) edges that may be near the given coordinate. An edge may be visited more
+        // than once, which doesn't change the result since distance ties are broken by edge ID.
+        streetLayer.forEachEdgeInEnvelope(envelope, e -> {
             curr.edge = e;
             edge.seek(e);
 
@@ -0,0 +1,252 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.util.TIntObjectMultimap;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.procedure.TIntObjectProcedure;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The best states found at the end of each edge in a StreetRouter search.
+ *
+ * There is almost always a single state per edge. The only time there is more than one is when we're in the middle of
+ * a turn restriction, where states are incomparable. So the first state at each edge is kept in a flat array indexed
+ * by edge, and only additional states (and states at the negative pseudo-edges used for origins) go into a multimap.
+ * This avoids hashing and allocating a list for every edge reached.
+ *
+ * An array with one slot per edge in the network is large, so it is not allocated per search. Each street layer has a
+ * small pool of scratch arrays, each lent to one StatesAtEdges at a time and cleared in time proportional to the number
+ * of edges the search touched. If all of them are lent to routers that are still in use, we fall back on keeping all
+ * states in the multimap. Call release() once the results of a search are no longer needed so the next router can use
+ * the scratch without waiting for this one to be garbage collected.
+ */
+class StatesAtEdges implements TIntObjectMultimap<StreetRouter.State> {
+
+    private final StreetLayer streetLayer;
+
+    /** The flat per-edge storage borrowed from the street layer, or null if none was available. */
+    private Scratch scratch;
+
+    /**
+     * States that don't fit in the scratch: second and later states at an edge, and states at negative edges. If the
+     * scratch could not be borrowed, this holds all the states. A key is removed as soon as its list is empty.
+     */
+    private final TIntObjectMap<List<StreetRouter.State>> overflow = new TIntObjectHashMap<>();
+
+    StatesAtEdges (StreetLayer streetLayer) {
+        this.streetLayer = streetLayer;
+    }
+
+    /** Storage of the first state at each edge, with a record of which edges have been set. */
+    private static class Scratch {
+        StreetRouter.State[] stateAtEdge;
+        final BitSet touched = new BitSet();
+        final TIntArrayList touchedEdges = new TIntArrayList();
+        /** The StatesAtEdges this scratch is lent to, if any. Weak so an abandoned router does not hold it forever. */
+        WeakReference<StatesAtEdges> borrower;
+
+        Scratch (int nEdges) {
+            stateAtEdge = new StreetRouter.State[Math.max(nEdges, 1)];
+        }
+
+        void ensureCapacity (int edge) {
+            if (edge >= stateAtEdge.length) {
+                stateAtEdge = Arrays.copyOf(stateAtEdge, Math.max(edge + 1, stateAtEdge.length + stateAtEdge.length / 2));
+            }
+        }
+
+        void clear () {
+            for (int i = 0; i < touchedEdges.size(); i++) stateAtEdge[touchedEdges.get(i)] = null;
+            touched.clear();
+            touchedEdges.resetQuick();
+        }
+    }
+
+    /**
+     * The scratch arrays of one street layer. At most one per processor is kept, however many threads route on the
+     * layer, and they are only reachable from the layer rather than pinned to the threads that used them. Idle ones
+     * are softly referenced so they can be freed under memory pressure, and one lent to a search that was abandoned
+     * without being released is reclaimed once that search has been garbage collected.
+     */
+    static class ScratchPool {
+
+        private static final int MAX_SCRATCHES = Runtime.getRuntime().availableProcessors();
+
+        private final List<Scratch> lent = new ArrayList<>();
+
+        private final Deque<SoftReference<Scratch>> idle = new ArrayDeque<>();
+
+        /** @return a scratch array lent to the given borrower, or null if all of them are in use. */
+        synchronized Scratch borrow (StatesAtEdges borrower, int nEdges) {
+            Scratch scratch = null;
+            while (scratch == null && !idle.isEmpty()) scratch = idle.pop().get();
+            if (scratch == null) {
+                for (Iterator<Scratch> iterator = lent.iterator(); iterator.hasNext(); ) {
+                    Scratch lentScratch = iterator.next();
+                    if (lentScratch.borrower.get() == null) {
+                        iterator.remove();
+                        scratch = lentScratch;
+                        break;
+                    }
+                }
+            }
+            if (scratch == null) {
+                if (lent.size() >= MAX_SCRATCHES) return null;
+                scratch = new Scratch(nEdges);
+            }
+            scratch.borrower = new WeakReference<>(borrower);
+            lent.add(scratch);
+            return scratch;
+        }
+
+        /** Make a scratch array available to other searches. It must already have been cleared. */
+        synchronized void giveBack (Scratch scratch) {
+            scratch.borrower = null;
+            lent.remove(scratch);
+            idle.push(new SoftReference<>(scratch));
+        }
+    }
+
+    /**
+     * Remove all states. This is called at the start of every search, so it is also where a scratch array is borrowed
+     * from the street layer if this instance does not already hold one.
+     */
+    @Override
+    public void clear () {
+        overflow.clear();
+        if (scratch == null) {
+            scratch = streetLayer.getStatesAtEdgesScratchPool().borrow(this, streetLayer.edgeStore.nEdges());
+            if (scratch == null) return;
+        }
+        // Also clears anything left behind by a previous borrower that was garbage collected without being released.
+        scratch.clear();
+    }
+
+    /**
+     * Return the scratch storage to the street layer so other searches can use it. All states are forgotten, so this
+     * must only be called once nothing more will be read from this instance.
+     */
+    void release () {
+        overflow.clear();
+        if (scratch != null) {
+            scratch.clear();
+            streetLayer.getStatesAtEdgesScratchPool().giveBack(scratch);
+            scratch = null;
+        }
+    }
+
+    @Override
+    public boolean put (int edge, StreetRouter.State state) {
+        if (scratch != null && edge >= 0) {
+            scratch.ensureCapacity(edge);
+            if (scratch.stateAtEdge[edge] == null) {
+                scratch.stateAtEdge[edge] = state;
+                if (!scratch.touched.get(edge)) {
+                    scratch.touched.set(edge);
+                    scratch.touchedEdges.add(edge);
+                }
+                return true;
+            }
+        }
+        List<StreetRouter.State> states = overflow.get(edge);
+        if (states == null) {
+            states = new ArrayList<>(2);
+            overflow.put(edge, states);
+        }
+        return states.add(state);
+    }
+
+    /** @return the first state at the given edge without allocating anything, or null if the edge was not reached. */
+    StreetRouter.State getFirst (int edge) {
+        if (scratch == null || edge < 0) {
+            List<StreetRouter.State> states = overflow.get(edge);
+            return states == null ? null : states.get(0);
+        }
+        return edge < scratch.stateAtEdge.length ? scratch.stateAtEdge[edge] : null;
+    }
+
+    /** @return true if there is more than one state at the given edge, i.e. getFirst does not tell the whole story. */
+    boolean hasMultipleStates (int edge) {
+        if (scratch == null || edge < 0) {
+            List<StreetRouter.State> states = overflow.get(edge);
+            return states != null && states.size() > 1;
+        }
+        return overflow.containsKey(edge);
+    }
+
+    /** @return all the states at the given edge. This is a copy or an immutable view, so it may not be modified. */
+    @Override
+    public Collection<StreetRouter.State> get (int edge) {
+        List<StreetRouter.State> others = overflow.get(edge);
+        if (scratch == null || edge < 0) {
+            return others == null ? Collections.emptyList() : Collections.unmodifiableList(others);
+        }
+        StreetRouter.State first = getFirst(edge);
+        if (first == null) return Collections.emptyList();
+        if (others == null) return Collections.singletonList(first);
+        List<StreetRouter.State> states = new ArrayList<>(others.size() + 1);
+        states.add(first);
+        states.addAll(others);
+        return states;
+    }
+
+    /** Remove a single state that is known to be at the given edge. */
+    void remove (int edge, StreetRouter.State state) {
+        if (scratch != null && edge >= 0 && scratch.stateAtEdge[edge] == state) {
+            // Promote one of the additional states at this edge, if there are any, into the flat array.
+            List<StreetRouter.State> others = overflow.get(edge);
+            if (others == null) {
+                scratch.stateAtEdge[edge] = null;
+            } else {
+                scratch.stateAtEdge[edge] = others.remove(0);
+                if (others.isEmpty()) overflow.remove(edge);
+            }
+        } else {
+            List<StreetRouter.State> states = overflow.get(edge);
+            if (states != null && states.remove(state) && states.isEmpty()) overflow.remove(edge);
+        }
+    }
+
+    @Override
+    public boolean containsKey (int edge) {
+        return getFirst(edge) != null;
+    }
+
+    @Override
+    public void forEachEntry (TIntObjectProcedure<Collection<StreetRouter.State>> procedure) {
+        if (scratch == null) {
+            overflow.forEachEntry(procedure::execute);
+            return;
+        }
+        TIntArrayList touchedEdges = scratch.touchedEdges;
+        for (int i = 0; i < touchedEdges.size(); i++) {
+            int edge = touchedEdges.get(i);
+            if (scratch.stateAtEdge[edge] == null) continue;
+            if (!procedure.execute(edge, get(edge))) return;
+        }
+        overflow.forEachEntry((edge, states) -> edge >= 0 || procedure.execute(edge, states));
+    }
+
+    @Override
+    public int size () {
+        int[] size = new int[1];
+        forEachEntry((edge, states) -> {
+            size[0]++;
+            return true;
+        });
+        return size[0];
+    }
+
+}
@@ -15,20 +15,28 @@ import com.conveyal.r5.labeling.SpeedLabeler;
 import com.conveyal.r5.labeling.TraversalPermissionLabeler;
 import com.conveyal.r5.labeling.TypeOfEdgeLabeler;
 import com.conveyal.r5.labeling.USTraversalPermissionLabeler;
+import com.conveyal.r5.labeling.WayLabelCache;
 import com.conveyal.r5.point_to_point.builder.TNBuilderConfig;
+import com.conveyal.r5.profile.ProfileRequest;
 import com.conveyal.r5.streets.EdgeStore.Edge;
 import com.conveyal.r5.transit.TransitLayer;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.vividsolutions.jts.geom.*;
 import com.conveyal.r5.profile.StreetMode;
 import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import gnu.trove.list.TIntList;
+import gnu.trove.list.TLongList;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TLongIntMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.procedure.TIntProcedure;
 import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
 import org.geotools.geojson.geom.GeometryJSON;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +50,7 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
 
@@ -86,6 +95,9 @@ public class StreetLayer implements Serializable, Cloneable {
      */
     private static final int SNAP_RADIUS_MM = 5 * 1000;
 
+    /** The number of OSM ways that are labeled in parallel before the edges for them are added to the network. */
+    private static final int WAY_BATCH_SIZE = 100_000;
+
     /**
      * The radius of a circle in meters within which to search for nearby streets.
      * This should not necessarily be a constant, but even if it's made settable it should be stored in a field on this
@@ -104,10 +116,20 @@ public class StreetLayer implements Serializable, Cloneable {
     public static final int INITIAL_LINK_RADIUS_METERS = 300;
 
     // Edge lists should be constructed after the fact from edges. This minimizes serialized size too.
-    public transient List<TIntList> outgoingEdges;
-    public transient List<TIntList> incomingEdges;
+    public transient EdgeLists outgoingEdges;
+    public transient EdgeLists incomingEdges;
+    /**
+     * Spatial index of the edges while the network is being built, or of the edges added to a complete network after
+     * packSpatialIndex was called (null if there are none). Use findEdgesInEnvelope to query it.
+     */
     public transient IntHashGrid spatialIndex = new IntHashGrid();
 
+    /**
+     * Spatial index of the edges of the complete network, which is saved with the network so it doesn't need to be
+     * rebuilt when the network is loaded. Null while the network is being built.
+     */
+    public PackedSpatialIndex packedSpatialIndex = null;
+
     /**
      * Spatial index of temporary edges from a scenario. We used to not have this, and we used to return all
      * temporarily added edges in every spatial index query (because spatial indexes are allowed to over-select, and
@@ -116,6 +138,17 @@ public class StreetLayer implements Serializable, Cloneable {
      */
     private transient IntHashGrid temporaryEdgeIndex;
 
+    /**
+     * Precomputed edge traversal costs for the few combinations of mode and request parameters in use, see
+     * getEdgeTraversalCosts. There is one int and one float per edge in each, so only a few are kept.
+     */
+    private transient Cache<EdgeTraversalCosts.Key, EdgeTraversalCosts> edgeTraversalCostsCache;
+
+    private static final int EDGE_TRAVERSAL_COSTS_CACHE_SIZE = 4;
+
+    /** Per-edge storage lent to the StreetRouters searching this layer, see StatesAtEdges. */
+    private transient StatesAtEdges.ScratchPool statesAtEdgesScratchPool;
+
     // Key is street vertex index, value is BikeRentalStation (with name, number of bikes, spaces id etc.)
     public TIntObjectMap<BikeRentalStation> bikeRentalStationMap;
     public TIntObjectMap<ParkRideParking> parkRideLocationsMap;
@@ -126,6 +159,8 @@ public class StreetLayer implements Serializable, Cloneable {
     private transient LevelOfTrafficStressLabeler stressLabeler = new LevelOfTrafficStressLabeler();
     private transient TypeOfEdgeLabeler typeOfEdgeLabeler = new TypeOfEdgeLabeler();
     private transient SpeedLabeler speedLabeler;
+    /** The labels of the distinct combinations of tags found on OSM ways, only while loading OSM data. */
+    private transient WayLabelCache<WayLabels> wayLabelCache;
     // This is only used when loading from OSM, and is then nulled to save memory.
     transient OSM osm;
 
@@ -178,6 +213,15 @@ public class StreetLayer implements Serializable, Cloneable {
 
     public boolean bikeSharing = false;
 
+    /**
+     * Optional contraction hierarchy for fast point to point car routing, see StreetRouter.useContractionHierarchy.
+     * It is kept in scenario copies, but not used if the scenario adds edges.
+     */
+    public ContractionHierarchy carContractionHierarchy = null;
+
+    /** Optional landmark distances that improve the StreetRouter's goal direction, see Landmarks. */
+    public Landmarks landmarks = null;
+
     public StreetLayer(TNBuilderConfig tnBuilderConfig) {
         speedLabeler = new SpeedLabeler(tnBuilderConfig.speeds);
     }
@@ -264,26 +308,30 @@ public class StreetLayer implements Serializable, Cloneable {
         // keep track of ways that need to later become park and rides
         List<Way> parkAndRideWays = new ArrayList<>();
 
+        wayLabelCache = new WayLabelCache<>();
+
+        // Ways are read in batches. The ways in each batch are filtered, labeled and broken into segments in parallel,
+        // then the edges for those segments are added to the network one way at a time in the order the ways were
+        // read, so the network is identical no matter how many threads are used.
+        List<Way> ways = new ArrayList<>(WAY_BATCH_SIZE);
+        TLongList wayIds = new TLongArrayList(WAY_BATCH_SIZE);
         for (Map.Entry<Long, Way> entry : osm.ways.entrySet()) {
             Way way = entry.getValue();
 
             if (way.hasTag("park_ride", "yes"))
                 parkAndRideWays.add(way);
 
-            if (!isWayRoutable(way)) {
-                continue;
-            }
-            int nEdgesCreated = 0;
-            int beginIdx = 0;
-            // Break each OSM way into topological segments between intersections, and make one edge per segment.
-            for (int n = 1; n < way.nodes.length; n++) {
-                if (osm.intersectionNodes.contains(way.nodes[n]) || n == (way.nodes.length - 1)) {
-                    makeEdge(way, beginIdx, n, entry.getKey());
-                    nEdgesCreated += 1;
-                    beginIdx = n;
-                }
+            ways.add(way);
+            wayIds.add(entry.getKey());
+            if (ways.size() == WAY_BATCH_SIZE) {
+                makeEdges(ways, wayIds);
+                ways.clear();
+                wayIds.clear();
             }
         }
+        makeEdges(ways, wayIds);
+        LOG.info("Labeled {} distinct combinations of tags on OSM ways.", wayLabelCache.size());
+        wayLabelCache = null;
         stressLabeler.logErrors();
 
         // summarize LTS statistics
@@ -460,7 +508,7 @@ public class StreetLayer implements Serializable, Cloneable {
 
             // find nearby edges
             Envelope env = g.getEnvelopeInternal();
-            TIntSet nearbyEdges = this.spatialIndex.query(VertexStore.envelopeToFixed(env));
+            TIntSet nearbyEdges = findEdgesInEnvelope(VertexStore.envelopeToFixed(env));
 
             nearbyEdges.forEach(eidx -> {
                 e.seek(eidx);
@@ -685,7 +733,7 @@ public class StreetLayer implements Serializable, Cloneable {
             final long fromWayId = from.id; // more "effectively final" nonsense
             final boolean[] bad = new boolean[] { false };
             // find the street layer edge corresponding to the turn restriction's "from" OSM way
-            incomingEdges.get(vertex).forEach(eidx -> {
+            incomingEdges.forEach(vertex, eidx -> {
                 e.seek(eidx);
                 if (e.getOSMID() == fromWayId) {
                     if (fromEdge[0] != -1) {
@@ -702,7 +750,7 @@ public class StreetLayer implements Serializable, Cloneable {
             // find the street layer edge corresponding to the turn restriction's "to" OSM way
             final int[] toEdge = new int[] { -1 };
             final long toWayId = to.id; // more effectively final nonsense
-            outgoingEdges.get(vertex).forEach(eidx -> {
+            outgoingEdges.forEach(vertex, eidx -> {
                 e.seek(eidx);
                 if (e.getOSMID() == toWayId) {
                     if (toEdge[0] != -1) {
@@ -838,7 +886,7 @@ public class StreetLayer implements Serializable, Cloneable {
             int fromVertex = vertexIndexForOsmNode.get(pathNodes[0]);
 
             // find the edges
-            incomingEdges.get(fromVertex).forEach(eidx -> {
+            incomingEdges.forEach(fromVertex, eidx -> {
                 e.seek(eidx);
                 if (e.getOSMID() == fromWayId) {
                     if (fromEdge[0] != -1) {
@@ -857,7 +905,7 @@ public class StreetLayer implements Serializable, Cloneable {
 
             final int[] toEdge = new int[] { -1 };
             final long toWayId = to.id; // more effectively final nonsense
-            outgoingEdges.get(toVertex).forEach(eidx -> {
+            outgoingEdges.forEach(toVertex, eidx -> {
                 e.seek(eidx);
                 if (e.getOSMID() == toWayId) {
                     if (toEdge[0] != -1) {
@@ -892,7 +940,7 @@ public class StreetLayer implements Serializable, Cloneable {
                 // fencepost problem: one more node than ways
                 final long wayId = pathWays[nidx - 1]; // more effectively final nonsense
                 int vertex = vertexIndexForOsmNode.get(pathNodes[nidx]);
-                incomingEdges.get(vertex).forEach(eidx -> {
+                incomingEdges.forEach(vertex, eidx -> {
                     e.seek(eidx);
                     if (e.getOSMID() == wayId) {
                         if (edge[0] != -1) {
@@ -1003,72 +1051,163 @@ public class StreetLayer implements Serializable, Cloneable {
     }
 
     /**
-     * Make an edge for a sub-section of an OSM way, typically between two intersections or leading up to a dead end.
+     * Make the edges for a batch of OSM ways. The segments of the ways are prepared in parallel, then their edges are
+     * added to the network in order.
      */
-    private void makeEdge(Way way, int beginIdx, int endIdx, Long osmID) {
-
-        long beginOsmNodeId = way.nodes[beginIdx];
-        long endOsmNodeId = way.nodes[endIdx];
-
-        // Will create mapping if it doesn't exist yet.
-        int beginVertexIndex = getVertexIndexForOsmNode(beginOsmNodeId);
-        int endVertexIndex = getVertexIndexForOsmNode(endOsmNodeId);
-
-        // Fetch the OSM node objects for this subsection of the OSM way.
-        int nNodes = endIdx - beginIdx + 1;
-        List<Node> nodes = new ArrayList<>(nNodes);
-        for (int n = beginIdx; n <= endIdx; n++) {
-            long nodeId = way.nodes[n];
-            Node node = osm.nodes.get(nodeId);
-            if (node == null) {
-                LOG.warn("Not creating street segment that references an undefined node.");
-                return;
+    private void makeEdges (List<Way> ways, TLongList wayIds) {
+        List<List<WaySegment>> segmentsForWays = ways.parallelStream().map(this::makeSegments)
+                .collect(Collectors.toList());
+        for (int w = 0; w < ways.size(); w++) {
+            for (WaySegment segment : segmentsForWays.get(w)) {
+                makeEdge(segment, wayIds.get(w));
             }
-            envelope.expandToInclude(node.getLon(), node.getLat());
-            nodes.add(node);
         }
+    }
 
-        // Compute edge length and check that it can be properly represented.
-        int edgeLengthMillimeters = getEdgeLengthMillimeters(nodes);
-        if (edgeLengthMillimeters < 0) {
-            LOG.warn("Street segment was too long to be represented, skipping.");
-            return;
+    /**
+     * Break an OSM way into topological segments between intersections, one for each edge pair that will be made,
+     * and label them. This only reads the OSM data and labelers, so it is called in parallel for many ways.
+     * @return the segments of the way, or an empty list if it is not routable.
+     */
+    private List<WaySegment> makeSegments (Way way) {
+        if (!isWayRoutable(way)) {
+            return Collections.emptyList();
         }
 
+        // The labels only depend on the tags of the way, so they are the same for all of its segments, and for all
+        // other ways with the same relevant tags.
+        WayLabels labels = wayLabelCache.get(way, this::labelWay);
+
+        List<WaySegment> segments = new ArrayList<>();
+        int beginIdx = 0;
+        for (int n = 1; n < way.nodes.length; n++) {
+            if (osm.intersectionNodes.contains(way.nodes[n]) || n == (way.nodes.length - 1)) {
+                WaySegment segment = new WaySegment(way.nodes[beginIdx], way.nodes[n]);
+                segments.add(segment);
+
+                // Fetch the OSM node objects for this subsection of the OSM way.
+                List<Node> nodes = new ArrayList<>(n - beginIdx + 1);
+                for (int i = beginIdx; i <= n; i++) {
+                    Node node = osm.nodes.get(way.nodes[i]);
+                    if (node == null) {
+                        LOG.warn("Not creating street segment that references an undefined node.");
+                        nodes = null;
+                        break;
+                    }
+                    segment.envelope.expandToInclude(node.getLon(), node.getLat());
+                    nodes.add(node);
+                }
+                beginIdx = n;
+                if (nodes == null || !labels.hasPermissions) continue;
+
+                // Compute edge length and check that it can be properly represented.
+                segment.edgeLengthMillimeters = getEdgeLengthMillimeters(nodes);
+                if (segment.edgeLengthMillimeters < 0) {
+                    LOG.warn("Street segment was too long to be represented, skipping.");
+                    continue;
+                }
+                segment.nodes = nodes;
+                segment.labels = labels;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Compute the speeds and flags of the edges that will be made for an OSM way. Only called once for each
+     * combination of the tags that the labelers look at.
+     */
+    private WayLabels labelWay (Way way) {
+        WayLabels labels = new WayLabels();
         // FIXME this encoded speed should probably never be exposed outside the edge object
-        short forwardSpeed = speedToShort(speedLabeler.getSpeedMS(way, false));
-        short backwardSpeed = speedToShort(speedLabeler.getSpeedMS(way, true));
+        labels.forwardSpeed = speedToShort(speedLabeler.getSpeedMS(way, false));
+        labels.backwardSpeed = speedToShort(speedLabeler.getSpeedMS(way, true));
 
         RoadPermission roadPermission = permissionLabeler.getPermissions(way);
 
-        // Create and store the forward and backward edge
         // FIXME these sets of flags should probably not leak outside the permissions/stress/etc. labeler methods
-        EnumSet<EdgeStore.EdgeFlag> forwardFlags = roadPermission.forward;
-        EnumSet<EdgeStore.EdgeFlag> backFlags = roadPermission.backward;
+        labels.forwardFlags = roadPermission.forward;
+        labels.backFlags = roadPermission.backward;
 
         // Doesn't insert edges which don't have any permissions forward and backward
-        if (Collections.disjoint(forwardFlags, ALL_PERMISSIONS) && Collections.disjoint(backFlags, ALL_PERMISSIONS)) {
+        labels.hasPermissions = !Collections.disjoint(labels.forwardFlags, ALL_PERMISSIONS) ||
+                !Collections.disjoint(labels.backFlags, ALL_PERMISSIONS);
+        if (labels.hasPermissions) {
+            stressLabeler.label(way, labels.forwardFlags, labels.backFlags);
+            typeOfEdgeLabeler.label(way, labels.forwardFlags, labels.backFlags);
+        } else {
             LOG.debug("Way has no permissions skipping!");
-            return;
         }
+        return labels;
+    }
 
-        stressLabeler.label(way, forwardFlags, backFlags);
+    /**
+     * Make an edge pair for a sub-section of an OSM way, typically between two intersections or leading up to a dead
+     * end. The vertices at both ends are created even if no edge can be made.
+     */
+    private void makeEdge(WaySegment segment, long osmID) {
 
-        typeOfEdgeLabeler.label(way, forwardFlags, backFlags);
+        // Will create mapping if it doesn't exist yet.
+        int beginVertexIndex = getVertexIndexForOsmNode(segment.beginOsmNodeId);
+        int endVertexIndex = getVertexIndexForOsmNode(segment.endOsmNodeId);
 
-        Edge newEdge = edgeStore.addStreetPair(beginVertexIndex, endVertexIndex, edgeLengthMillimeters, osmID);
+        envelope.expandToInclude(segment.envelope);
+        if (segment.nodes == null) {
+            return;
+        }
+
+        Edge newEdge = edgeStore.addStreetPair(beginVertexIndex, endVertexIndex, segment.edgeLengthMillimeters, osmID);
         // newEdge is first pointing to the forward edge in the pair.
         // Geometries apply to both edges in a pair.
-        newEdge.setGeometry(nodes);
-        newEdge.setFlags(forwardFlags);
-        newEdge.setSpeed(forwardSpeed);
+        newEdge.setGeometry(segment.nodes);
+        newEdge.setFlags(segment.labels.forwardFlags);
+        newEdge.setSpeed(segment.labels.forwardSpeed);
         // Step ahead to the backward edge in the same pair.
         newEdge.advance();
-        newEdge.setFlags(backFlags);
-        newEdge.setSpeed(backwardSpeed);
+        newEdge.setFlags(segment.labels.backFlags);
+        newEdge.setSpeed(segment.labels.backwardSpeed);
+    }
+
+    /**
+     * A sub-section of an OSM way for which an edge pair will be made, prepared in parallel with those of other ways
+     * before the edges are added to the network.
+     */
+    private static class WaySegment {
+        final long beginOsmNodeId;
+        final long endOsmNodeId;
+        /** The extent of the nodes of the segment, up to any undefined node. */
+        final Envelope envelope = new Envelope();
+        /** The nodes of the segment, or null if no edge should be made for it. */
+        List<Node> nodes;
+        int edgeLengthMillimeters;
+        WayLabels labels;
+
+        WaySegment (long beginOsmNodeId, long endOsmNodeId) {
+            this.beginOsmNodeId = beginOsmNodeId;
+            this.endOsmNodeId = endOsmNodeId;
+        }
+    }
+
+    /**
+     * The speeds and flags for the edges of an OSM way. These are shared by all ways with the same relevant tags, so
+     * they must not be modified once the way has been labeled.
+     */
+    private static class WayLabels {
+        short forwardSpeed;
+        short backwardSpeed;
+        EnumSet<EdgeStore.EdgeFlag> forwardFlags;
+        EnumSet<EdgeStore.EdgeFlag> backFlags;
+        /** Whether the way has any permissions in either direction. If not, no edges are made for it. */
+        boolean hasPermissions;
     }
 
     public void indexStreets () {
+        if (packedSpatialIndex != null && packedSpatialIndex.nEdges == edgeStore.nEdges()) {
+            // All the edges are in the packed index that was built with the network.
+            spatialIndex = null;
+            return;
+        }
+        packedSpatialIndex = null;
         LOG.info("Indexing streets...");
         spatialIndex = new IntHashGrid();
         // Skip by twos, we only need to index forward (even) edges. Their odd companions have the same geometry.
@@ -1080,6 +1219,21 @@ public class StreetLayer implements Serializable, Cloneable {
         LOG.info("Done indexing streets.");
     }
 
+    /**
+     * Replace the spatial index with a packed one that will be saved with the network. This should be done once the
+     * network is complete, as edges added later go in a separate spatial index that is not saved.
+     */
+    public void packSpatialIndex () {
+        packedSpatialIndex = new PackedSpatialIndex(edgeStore);
+        spatialIndex = null;
+    }
+
+    /** Add a new edge of the baseline network (not of a scenario) to the spatial index. */
+    private void insertIntoSpatialIndex (Edge edge) {
+        if (spatialIndex == null) spatialIndex = new IntHashGrid();
+        spatialIndex.insert(edge.getEnvelope(), edge.edgeIndex);
+    }
+
     /**
      * Rather than querying the spatial index directly, going through this method will ensure that any temporary edges
      * not in the index are also visible. Temporary edges, created when applying a scenario in a single thread, are
@@ -1090,40 +1244,105 @@ public class StreetLayer implements Serializable, Cloneable {
      * including knowledge of whether an edge passes inside the query envelope at all.
      */
     public TIntSet findEdgesInEnvelope (Envelope envelope) {
-        TIntSet candidates = spatialIndex.query(envelope);
-        // Include temporary edges
-        if (temporaryEdgeIndex != null) {
-            TIntSet temporaryCandidates = temporaryEdgeIndex.query(envelope);
-            candidates.addAll(temporaryCandidates);
-        }
+        TIntSet candidates = new TIntHashSet();
+        forEachEdgeInEnvelope(envelope, e -> {
+            candidates.add(e);
+            return true;
+        });
+        return candidates;
+    }
 
-        // Remove any edges that were temporarily deleted in a scenario.
+    /**
+     * Like findEdgesInEnvelope, but calls the supplied procedure on each edge instead of allocating a set, which is
+     * faster when the caller doesn't need one. Edges may be visited more than once.
+     * @param envelope an envelope in fixed-point degrees.
+     */
+    public void forEachEdgeInEnvelope (Envelope envelope, TIntProcedure procedure) {
+        TIntSet deletedEdges = edgeStore.temporarilyDeletedEdges;
+        // Skip any edges that were temporarily deleted in a scenario.
         // This allows properly re-splitting the same edge in multiple places.
-        if (edgeStore.temporarilyDeletedEdges != null) {
-            candidates.removeAll(edgeStore.temporarilyDeletedEdges);
-        }
-        return candidates;
+        TIntProcedure filtered = deletedEdges == null || deletedEdges.isEmpty() ? procedure
+                : e -> deletedEdges.contains(e) || procedure.execute(e);
+        if (packedSpatialIndex != null && !packedSpatialIndex.forEach(envelope, filtered)) return;
+        if (spatialIndex != null && !spatialIndex.query(envelope).forEach(filtered)) return;
+        // Include temporary edges
+        if (temporaryEdgeIndex != null) temporaryEdgeIndex.query(envelope).forEach(filtered);
     }
 
     /**
      * The edge lists (which edges go out of and come into each vertex) are derived from the edges in the EdgeStore.
      * So any time you add edges or change their endpoints, you need to rebuild the edge index.
-     * TODO some way to signal that a few new edges have been added, rather than rebuilding the whole lists.
+     * A scenario copy can only add edges to its base street layer, so it reuses the base layer's edge lists and only
+     * indexes the added edges.
      */
     public void buildEdgeLists() {
+        if (baseStreetLayer != null && baseStreetLayer.outgoingEdges != null
+                && baseStreetLayer.outgoingEdges.isValidFor(baseStreetLayer.edgeStore)
+                && (edgeStore == baseStreetLayer.edgeStore
+                    || edgeStore.firstModifiableEdge == baseStreetLayer.edgeStore.nEdges())) {
+            outgoingEdges = baseStreetLayer.outgoingEdges.extend(edgeStore, false);
+            incomingEdges = baseStreetLayer.incomingEdges.extend(edgeStore, true);
+            return;
+        }
         LOG.info("Building edge lists from edges...");
-        outgoingEdges = new ArrayList<>(vertexStore.getVertexCount());
-        incomingEdges = new ArrayList<>(vertexStore.getVertexCount());
-        for (int v = 0; v < vertexStore.getVertexCount(); v++) {
-            outgoingEdges.add(new TIntArrayList(4));
-            incomingEdges.add(new TIntArrayList(4));
+        outgoingEdges = EdgeLists.build(edgeStore, vertexStore.getVertexCount(), false);
+        incomingEdges = EdgeLists.build(edgeStore, vertexStore.getVertexCount(), true);
+        LOG.info("Done building edge lists.");
+    }
+
+    /**
+     * Build a contraction hierarchy for car routing. This must be done after all the edges (including links to transit
+     * stops and P+R) have been added, since the hierarchy is not used on street layers with additional edges.
+     */
+    public void buildCarContractionHierarchy () {
+        carContractionHierarchy = ContractionHierarchy.build(this);
+    }
+
+    /**
+     * Choose landmarks and compute the distances to and from them, which are used for goal direction in searches with
+     * a destination. Like the contraction hierarchy, this must be done after all the edges have been added.
+     */
+    public void buildLandmarks (int nLandmarks) {
+        landmarks = Landmarks.build(this, nLandmarks);
+    }
+
+    /**
+     * Get the cost of traversing every edge in the given mode with the speeds and options of the given request,
+     * computing them the first time they are needed. This is only possible once the edges will not change any more,
+     * i.e. when the network is complete and its edges have been compacted. Scenario copies of the street layer cannot
+     * change the edges of the baseline network, so they share its costs and compute those of their own edges as they
+     * go.
+     *
+     * @return the costs, or null if the edges may still change.
+     */
+    public EdgeTraversalCosts getEdgeTraversalCosts (StreetMode streetMode, ProfileRequest request) {
+        if (baseStreetLayer != null) return baseStreetLayer.getEdgeTraversalCosts(streetMode, request);
+        if (!edgeStore.isCompacted()) return null;
+        EdgeTraversalCosts.Key key = new EdgeTraversalCosts.Key(streetMode, request);
+        try {
+            return getEdgeTraversalCostsCache().get(key, () -> {
+                LOG.info("Computing edge traversal costs for {}...", key);
+                return new EdgeTraversalCosts(edgeStore, streetMode, request);
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to compute edge traversal costs.", e);
         }
-        Edge edge = edgeStore.getCursor();
-        while (edge.advance()) {
-            outgoingEdges.get(edge.getFromVertex()).add(edge.edgeIndex);
-            incomingEdges.get(edge.getToVertex()).add(edge.edgeIndex);
+    }
+
+    /** The cache is transient and must be created lazily, as it is not restored when a network is deserialized. */
+    private synchronized Cache<EdgeTraversalCosts.Key, EdgeTraversalCosts> getEdgeTraversalCostsCache () {
+        if (edgeTraversalCostsCache == null) {
+            edgeTraversalCostsCache = CacheBuilder.newBuilder().maximumSize(EDGE_TRAVERSAL_COSTS_CACHE_SIZE).build();
         }
-        LOG.info("Done building edge lists.");
+        return edgeTraversalCostsCache;
+    }
+
+    /** The pool is transient and must be created lazily, as it is not restored when a network is deserialized. */
+    synchronized StatesAtEdges.ScratchPool getStatesAtEdgesScratchPool () {
+        if (statesAtEdgesScratchPool == null) {
+            statesAtEdgesScratchPool = new StatesAtEdges.ScratchPool();
+        }
+        return statesAtEdgesScratchPool;
     }
 
     /**
@@ -1180,7 +1399,8 @@ public class StreetLayer implements Serializable, Cloneable {
             edge.setGeometry(Collections.EMPTY_LIST);
         } else {
             // The edge we are going to split is immutable, and should be left as-is.
-            // We must be applying a scenario, and this edge is part of the baseline graph shared between threads.
+            // We are either applying a scenario and this edge is part of the baseline graph shared between threads,
+            // or the edges of this baseline graph have already been compacted.
             // Preserve the existing edge pair, creating a new edge pair to lead up to the split.
             // The new edge will be added to the edge lists later (the edge lists are a transient index).
             // We add it to a temporary spatial index specific to this scenario, rather than the base spatial index
@@ -1194,10 +1414,17 @@ public class StreetLayer implements Serializable, Cloneable {
             // once a street had been split once, the original edge would be removed from consideration
             // (StreetLayer#getEdgesNear filters out edges that have been deleted) and the new edge would not yet be in
             // the spatial index for consideration. Havoc would ensue.
-            temporaryEdgeIndex.insert(newEdge0.getEnvelope(), newEdge0.edgeIndex);
+            // A compacted baseline graph that is not a scenario copy has no temporary index, and its new edges go in
+            // its own spatial index as usual.
+            if (!edgeStore.isExtendOnlyCopy()) {
+                insertIntoSpatialIndex(newEdge0);
+            } else {
+                temporaryEdgeIndex.insert(newEdge0.getEnvelope(), newEdge0.edgeIndex);
+            }
 
             // Exclude the original split edge from all future spatial index queries on this scenario copy.
             // This should allow proper re-splitting of a single edge for multiple new transit stops.
+            if (edgeStore.temporarilyDeletedEdges == null) edgeStore.temporarilyDeletedEdges = new TIntHashSet();
             edgeStore.temporarilyDeletedEdges.add(edge.edgeIndex);
         }
         // Make a new bidirectional edge pair for the segment after the split.
@@ -1207,7 +1434,7 @@ public class StreetLayer implements Serializable, Cloneable {
         newEdge1.copyPairFlagsAndSpeeds(edge);
         // Insert the new edge into the spatial index
         if (!edgeStore.isExtendOnlyCopy()) {
-            spatialIndex.insert(newEdge1.getEnvelope(), newEdge1.edgeIndex);
+            insertIntoSpatialIndex(newEdge1);
         } else {
             temporaryEdgeIndex.insert(newEdge1.getEnvelope(), newEdge1.edgeIndex);
         }
@@ -1241,6 +1468,10 @@ public class StreetLayer implements Serializable, Cloneable {
             }
         }
 
+        if (!edge.isMutable()) {
+            throw new IllegalStateException("Edges of a compacted or extended street layer cannot be split in place.");
+        }
+
         // The split is somewhere away from an existing intersection vertex. Make a new vertex.
         int newVertexIndex = vertexStore.addVertexFixed((int)split.fixedLat, (int)split.fixedLon);
 
@@ -1254,7 +1485,7 @@ public class StreetLayer implements Serializable, Cloneable {
         // Make a second, new bidirectional edge pair after the split and add it to the spatial index.
         // New edges will be added to edge lists later (the edge list is a transient index).
         EdgeStore.Edge newEdge = edgeStore.addStreetPair(newVertexIndex, oldToVertex, split.distance1_mm, edge.getOSMID());
-        spatialIndex.insert(newEdge.getEnvelope(), newEdge.edgeIndex);
+        insertIntoSpatialIndex(newEdge);
 
         // Copy the flags and speeds for both directions, making the new edge like the existing one.
         newEdge.copyPairFlagsAndSpeeds(edge);
@@ -1317,15 +1548,24 @@ public class StreetLayer implements Serializable, Cloneable {
      *         streets nearby allowing the specified mode of travel.
      */
     public Split findSplit(double lat, double lon, double radiusMeters, StreetMode streetMode) {
+        return findSplit(lat, lon, radiusMeters, streetMode, edgeStore.getCursor(), new Split(), new Split());
+    }
+
+    /**
+     * Like the other findSplit method, but reusing the supplied edge cursor and Split objects (see Split.find).
+     * @return the supplied Split best, or null if no edge was found in range.
+     */
+    public Split findSplit(double lat, double lon, double radiusMeters, StreetMode streetMode,
+                           Edge edge, Split curr, Split best) {
         Split split = null;
         // If the specified radius is large, first try a mini-search on the assumption
         // that most linking points are close to roads.
         if (radiusMeters > INITIAL_LINK_RADIUS_METERS) {
-            split = Split.find(lat, lon, INITIAL_LINK_RADIUS_METERS, this, streetMode);
+            split = Split.find(lat, lon, INITIAL_LINK_RADIUS_METERS, this, streetMode, edge, curr, best);
         }
         // If no split point was found by the first search (or no search was yet conducted) search with the full radius.
         if (split == null) {
-            split = Split.find(lat, lon, radiusMeters, this, streetMode);
+            split = Split.find(lat, lon, radiusMeters, this, streetMode, edge, curr, best);
         }
         return split;
     }
@@ -1411,7 +1651,10 @@ public class StreetLayer implements Serializable, Cloneable {
 
     public StreetLayer clone () {
         try {
-            return (StreetLayer) super.clone();
+            StreetLayer copy = (StreetLayer) super.clone();
+            // Scratch arrays are sized for the edges of one layer and lent to its searches, so don't share them.
+            copy.statesAtEdgesScratchPool = null;
+            return copy;
         } catch (CloneNotSupportedException e) {
             throw new RuntimeException("This exception cannot happen. This is why I love checked exceptions.");
         }
@@ -1479,7 +1722,7 @@ public class StreetLayer implements Serializable, Cloneable {
         if (parkRideLocationsMap != null) {
             EdgeStore.Edge e = edgeStore.getCursor();
             VertexStore.Vertex v = vertexStore.getCursor();
-            TIntSet nearbyEdges = spatialIndex.query(VertexStore.envelopeToFixed(env));
+            TIntSet nearbyEdges = findEdgesInEnvelope(VertexStore.envelopeToFixed(env));
             nearbyEdges.forEach(eidx -> {
                 e.seek(eidx);
                 if (e.getFlag(EdgeStore.EdgeFlag.LINK)) {
@@ -1508,7 +1751,7 @@ public class StreetLayer implements Serializable, Cloneable {
         if (bikeRentalStationMap != null) {
             EdgeStore.Edge e = edgeStore.getCursor();
             VertexStore.Vertex v = vertexStore.getCursor();
-            TIntSet nearbyEdges = spatialIndex.query(VertexStore.envelopeToFixed(env));
+            TIntSet nearbyEdges = findEdgesInEnvelope(VertexStore.envelopeToFixed(env));
             nearbyEdges.forEach(eidx -> {
                 e.seek(eidx);
                 //TODO: for now bikeshares aren't connected with link edges to the graph
@@ -6,11 +6,10 @@ import com.conveyal.r5.point_to_point.builder.PointToPointQuery;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.profile.ProfileRequest;
 import com.conveyal.r5.transit.TransitLayer;
-import com.conveyal.r5.util.TIntObjectHashMultimap;
-import com.conveyal.r5.util.TIntObjectMultimap;
-import gnu.trove.iterator.TIntIterator;
+import com.conveyal.r5.util.IntBinaryHeap;
 import com.conveyal.r5.transit.TransportNetwork;
 import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntIntHashMap;
@@ -80,6 +79,8 @@ public class StreetRouter {
     private double millimetersPerUnitLonFixed;
     // Yes, that's indeed the speed unit "seconds per millimeter", to avoid computing 1/x repeatedly.
     private double maxSpeedSecondsPerMillimeter;
+    // Network distance bounds that tighten the goal direction heuristic, if the street layer has them.
+    private Landmarks landmarks;
 
     /**
      * The StreetRouter will respect any nonzero limits, and will stop the search when it hits either of them.
@@ -131,15 +132,27 @@ public class StreetRouter {
      * apply that left turn cost. Even more important is to make sure that the destination edge is not the end of a
      * restricted turn; if it is, one must reach the destination via an alternate state.
      *
-     * TODO we might be able to make this more efficient (not using a multimap)
-     * by taking advantage of the fact that we almost always have a single state per edge
-     * (the only time we don't is when we're in the middle of a turn restriction).
+     * We almost always have a single state per edge (the only time we don't is when we're in the middle of a turn
+     * restriction), so StatesAtEdges keeps the first state at each edge in a flat array reused across searches.
      */
-    TIntObjectMultimap<State> bestStatesAtEdge = new TIntObjectHashMultimap<>();
+    final StatesAtEdges bestStatesAtEdge;
 
-    // The queue is prioritized by the specified optimization objective variable.
-    PriorityQueue<State> queue = new PriorityQueue<>(
-            Comparator.comparingInt(s0 -> (s0.getRoutingVariable(quantityToMinimize) + s0.heuristic)));
+    /**
+     * The queue is prioritized by the specified optimization objective variable plus the heuristic. It contains keys
+     * into queuedStates rather than the States themselves, so that when a better state is found at an edge whose
+     * existing state has not yet been explored, the new state can take over the old one's place in the queue and have
+     * its priority decreased. This keeps dominated states out of the queue instead of skipping them as they come out.
+     */
+    IntBinaryHeap queue = new IntBinaryHeap();
+
+    /** The states that are currently in the queue, indexed by their key in the queue. */
+    private State[] queuedStates = new State[64];
+
+    /** Keys that were used by states already removed from the queue, available for reuse to keep the keys compact. */
+    private TIntList freeQueueKeys = new TIntArrayList();
+
+    /** The number of distinct queue keys that have been handed out since the queue was last cleared. */
+    private int nQueueKeys = 0;
 
     /**
      * If you set this to a non-negative number, the search will end at the vertex with the given index,
@@ -179,6 +192,14 @@ public class StreetRouter {
      */
     public StreetRouter previousRouter;
 
+    /**
+     * If true and the street layer has a car contraction hierarchy, a car search between two points first finds the
+     * fastest path in the hierarchy, then performs the usual search restricted to the edges of that path. This is
+     * much faster for long trips, but only valid for searches that find a single best path to a fixed destination
+     * (not searches for stops or vertices, or that use a routing visitor).
+     */
+    public boolean useContractionHierarchy = false;
+
     /**
      * Supply a RoutingVisitor to track search progress for debugging.
      */
@@ -280,6 +301,7 @@ public class StreetRouter {
 
     public StreetRouter (StreetLayer streetLayer, TravelTimeCalculator travelTimeCalculator) {
         this.streetLayer = streetLayer;
+        this.bestStatesAtEdge = new StatesAtEdges(streetLayer);
         // TODO one of two things: 1) don't hardwire drive-on-right, or 2) https://en.wikipedia.org/wiki/Dagen_H
         this.turnCostCalculator = new TurnCostCalculator(streetLayer, true);
         this.travelTimeCalculator = travelTimeCalculator;
@@ -306,9 +328,15 @@ public class StreetRouter {
             LOG.info("No street was found near the specified origin point of {}, {}.", lat, lon);
             return false;
         }
+        setOrigin(split);
+        return true;
+    }
+
+    /** Set the origin of this StreetRouter to a point along an edge. See setOrigin(double, double). */
+    private void setOrigin (Split split) {
         originSplit = split;
         bestStatesAtEdge.clear();
-        queue.clear();
+        clearQueue();
         // The states are located at the end of edges. Vertex0 is at the end of the reverse edge (split.edge + 1).
         // In these states we must specify which edge was traversed to reach them, so that turn costs work.
         State startState0 = new State(split.vertex0, split.edge + 1, streetMode);
@@ -339,18 +367,18 @@ public class StreetRouter {
 
         // These initial states are not recorded as bestStates, they will be added when they come out of the queue.
         // FIXME but wait - we are putting them in the bestStates for some reason.
-        queue.add(startState0);
-        queue.add(startState1);
+        enqueue(startState0);
+        enqueue(startState1);
         bestStatesAtEdge.put(startState0.backEdge, startState0);
         bestStatesAtEdge.put(startState1.backEdge, startState1);
 
         maxAbsOriginLat = originSplit.fixedLat;
-        return true;
     }
 
     public void setOrigin (int fromVertex) {
+        originSplit = null;
         bestStatesAtEdge.clear();
-        queue.clear();
+        clearQueue();
 
         // sets maximal absolute origin latitude used for goal direction heuristic
         VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor(fromVertex);
@@ -358,7 +386,7 @@ public class StreetRouter {
 
         // NB backEdge of -1 is no problem as it is a special case that indicates that the origin was a vertex.
         State startState = new State(fromVertex, -1, streetMode);
-        queue.add(startState);
+        enqueue(startState);
     }
 
     /**
@@ -373,8 +401,9 @@ public class StreetRouter {
      * @param legMode What origin search is this bike share or P+R
      */
     public void setOrigin(TIntObjectMap<State> previousStates, int switchTime, int switchCost, LegMode legMode) {
+        originSplit = null;
         bestStatesAtEdge.clear();
-        queue.clear();
+        clearQueue();
         //Maximal origin latitude is used in goal direction heuristic.
         final int[] maxOriginLatArr = { Integer.MIN_VALUE };
 
@@ -391,7 +420,7 @@ public class StreetRouter {
             state.distance = previousState.distance;
             if (!isDominated(state)) {
                 bestStatesAtEdge.put(state.backEdge, state);
-                queue.add(state);
+                enqueue(state);
                 VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor(state.vertex);
                 int deltaLatFixed = vertex.getFixedLat();
                 maxOriginLatArr[0] = Math.max(maxOriginLatArr[0], Math.abs(deltaLatFixed));
@@ -418,14 +447,94 @@ public class StreetRouter {
         this.destinationSplit = split;
     }
 
+    /**
+     * Signal that the results of this search are no longer needed, so the per-edge storage it borrowed from the
+     * street layer can be used by the next search. States already retrieved from this router remain
+     * valid, but nothing else should be read from the router after calling this. Any previousRouter this search was
+     * chained onto (e.g. for bike rental or park and ride) is released as well.
+     */
+    public void release () {
+        bestStatesAtEdge.release();
+        clearQueue();
+        if (previousRouter != null) previousRouter.release();
+    }
+
+    /**
+     * Forget the results of the previous search and restore all parameters to their defaults, so this router can be
+     * used for another search rather than constructing a new one. This takes time proportional to the size of the
+     * previous search, not the size of the street network. See StreetRouterPool.
+     */
+    public void reset () {
+        release();
+        transitStopSearch = false;
+        flagSearch = null;
+        transitStopSearchQuantity = PointToPointQuery.MAX_ACCESS_STOPS;
+        flagSearchQuantity = 20;
+        distanceLimitMeters = 0;
+        timeLimitSeconds = 0;
+        quantityToMinimize = State.RoutingVariable.WEIGHT;
+        toVertex = ALL_VERTICES;
+        profileRequest = new ProfileRequest();
+        streetMode = StreetMode.WALK;
+        routingVisitor = null;
+        originSplit = null;
+        destinationSplit = null;
+        bestValueAtDestination = Integer.MAX_VALUE;
+        maxAbsOriginLat = Integer.MIN_VALUE;
+        landmarks = null;
+        previousRouter = null;
+        useContractionHierarchy = false;
+    }
+
     /**
      * Call one of the setOrigin functions first before calling route().
-     * Don't call route() more than once, a StreetRouter is only intended to be used once.
+     * Don't call route() more than once without calling reset() in between.
      * Routing will respect any nonzero limits (distance or time), and will stop the search when it hits either of them.
      * If both limits are zero a warning will be logged. If both are set, both are used, but you should not do this
      * because it always implies a resource limiting problem.
      */
     public void route () {
+        TIntSet pathEdges = findPathEdgesInContractionHierarchy();
+        if (pathEdges != null) {
+            route(pathEdges);
+            if (getState(destinationSplit) != null) return;
+            // The path violates a turn restriction with via edges, which the hierarchy does not represent.
+            LOG.debug("Path from contraction hierarchy is not permitted, falling back on a full search.");
+            bestValueAtDestination = Integer.MAX_VALUE;
+            setOrigin(originSplit);
+        }
+        route(null);
+    }
+
+    /**
+     * @return the street layer's precomputed edge traversal costs for this search, or null if there are none. They are
+     *         only valid with the default travel time calculator.
+     */
+    private EdgeTraversalCosts getEdgeTraversalCosts () {
+        if (streetMode == null || !(travelTimeCalculator instanceof EdgeStore.DefaultTravelTimeCalculator)) return null;
+        return streetLayer.getEdgeTraversalCosts(streetMode, profileRequest);
+    }
+
+    /**
+     * @return the edges on the fastest path to the destination according to the street layer's car contraction
+     *         hierarchy, or null if the hierarchy should not or cannot be used for this search.
+     */
+    private TIntSet findPathEdgesInContractionHierarchy () {
+        ContractionHierarchy hierarchy = streetLayer.carContractionHierarchy;
+        if (!useContractionHierarchy || hierarchy == null || !hierarchy.isValidFor(streetLayer)) return null;
+        // The hierarchy only knows the default car weights, and finds a single path between two points.
+        if (streetMode != StreetMode.CAR || quantityToMinimize != State.RoutingVariable.WEIGHT) return null;
+        if (!(travelTimeCalculator instanceof EdgeStore.DefaultTravelTimeCalculator)) return null;
+        if (originSplit == null || destinationSplit == null || profileRequest.reverseSearch) return null;
+        if (transitStopSearch || flagSearch != null || routingVisitor != null || toVertex != ALL_VERTICES) return null;
+        return hierarchy.findPathEdges(streetLayer, originSplit, destinationSplit);
+    }
+
+    /**
+     * Perform the search.
+     * @param allowedEdges if not null, only these edges will be traversed.
+     */
+    private void route (TIntSet allowedEdges) {
 
         long startTime = System.currentTimeMillis();
 
@@ -451,6 +560,12 @@ public class StreetRouter {
             // Car speed is currently often unspecified in the request and defaults to zero.
             if (maxSpeedMetersPerSecond == 0) maxSpeedMetersPerSecond = 36.11; // 130 km/h
             maxSpeedSecondsPerMillimeter = 1 / (maxSpeedMetersPerSecond * 1000);
+            // The landmark distances bound the distance from a vertex to the destination, which is not what a reverse
+            // search needs.
+            landmarks = streetLayer.landmarks;
+            if (landmarks != null && (profileRequest.reverseSearch || !landmarks.isValidFor(streetLayer))) {
+                landmarks = null;
+            }
         }
 
         if (distanceLimitMeters > 0) {
@@ -502,6 +617,7 @@ public class StreetRouter {
         }
 
         EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
+        EdgeTraversalCosts traversalCosts = getEdgeTraversalCosts();
 
         if (transitStopSearch) {
             routingVisitor = new StopVisitor(streetLayer, quantityToMinimize, transitStopSearchQuantity, profileRequest.getMinTimeLimit(streetMode));
@@ -509,7 +625,7 @@ public class StreetRouter {
             routingVisitor = new VertexFlagVisitor(streetLayer, quantityToMinimize, flagSearch, flagSearchQuantity, profileRequest.getMinTimeLimit(streetMode));
         }
         while (!queue.isEmpty()) {
-            State s0 = queue.poll();
+            State s0 = pollQueue();
 
             if (DEBUG_OUTPUT) {
                 VertexStore.Vertex v = streetLayer.vertexStore.getCursor(s0.vertex);
@@ -527,11 +643,8 @@ public class StreetRouter {
                 debugPrintStream.println(String.format("%.6f,%.6f,%d", v.getLat(), v.getLon(), s0.weight));
             }
 
-            // The state coming off the priority queue may have been dominated by some other state that was produced
-            // by traversing the same edge. Check that the state coming off the queue has not been dominated before
-            // exploring it. States at the origin may have their backEdge set to a negative number to indicate that
-            // they have no backEdge (were not produced by traversing an edge). Skip the check for those states.
-            if (s0.backEdge >= 0 && !bestStatesAtEdge.get(s0.backEdge).contains(s0)) continue;
+            // There is no need to check whether the state coming off the queue has been dominated by some other state
+            // produced by traversing the same edge: isDominated removes dominated states from the queue as they are found.
 
             // If the search has reached the destination, the state coming off the queue is the best way to get there.
             if (toVertex > 0 && toVertex == s0.vertex) break;
@@ -546,7 +659,7 @@ public class StreetRouter {
 
                 if (routingVisitor.shouldBreakSearch()) {
                     LOG.debug("{} routing visitor stopped search", routingVisitor.getClass().getSimpleName());
-                    queue.clear();
+                    clearQueue();
                     break;
                 }
             }
@@ -563,22 +676,24 @@ public class StreetRouter {
                 }
             }
 
-            TIntList edgeList;
+            EdgeLists edgeLists;
             if (profileRequest.reverseSearch) {
-                edgeList = streetLayer.incomingEdges.get(s0.vertex);
+                edgeLists = streetLayer.incomingEdges;
             } else {
-                edgeList = streetLayer.outgoingEdges.get(s0.vertex);
+                edgeLists = streetLayer.outgoingEdges;
             }
             // explore edges leaving this vertex
-            edgeList.forEach(eidx -> {
+            edgeLists.forEach(s0.vertex, eidx -> {
+                if (allowedEdges != null && !allowedEdges.contains(eidx)) return true;
                 edge.seek(eidx);
-                State s1 = edge.traverse(s0, streetMode, profileRequest, turnCostCalculator, travelTimeCalculator);
+                State s1 = edge.traverse(s0, streetMode, profileRequest, turnCostCalculator, travelTimeCalculator,
+                        traversalCosts);
                 if (s1 != null && s1.distance <= distanceLimitMm && s1.getDurationSeconds() < tmpTimeLimitSeconds) {
                     if (!isDominated(s1)) {
                         // Calculate the heuristic (which involves a square root) only when the state is retained.
                         s1.heuristic = calcHeuristic(s1);
                         bestStatesAtEdge.put(s1.backEdge, s1);
-                        queue.add(s1);
+                        enqueue(s1);
                     }
                 }
                 return true; // Iteration over the edge list should continue.
@@ -591,28 +706,114 @@ public class StreetRouter {
         LOG.debug("Routing took {} msec", routingTimeMsec);
     }
 
+    /**
+     * Add a state to the queue. If the state has taken over the queue entry of a state it dominates (see isDominated),
+     * the priority of that entry is updated instead.
+     */
+    private void enqueue (State state) {
+        int priority = state.getRoutingVariable(quantityToMinimize) + state.heuristic;
+        if (state.queueKey >= 0) {
+            queue.update(state.queueKey, priority);
+            return;
+        }
+        int key = freeQueueKeys.isEmpty() ? nQueueKeys++ : freeQueueKeys.removeAt(freeQueueKeys.size() - 1);
+        if (key >= queuedStates.length) {
+            queuedStates = Arrays.copyOf(queuedStates, queuedStates.length * 2);
+        }
+        queuedStates[key] = state;
+        state.queueKey = key;
+        queue.add(key, priority);
+    }
+
+    /** Remove and return the state with the lowest priority from the queue. */
+    private State pollQueue () {
+        int key = queue.poll();
+        State state = queuedStates[key];
+        releaseQueueKey(key);
+        return state;
+    }
+
+    /** Remove a state from the queue if it is in there. */
+    private void dequeue (State state) {
+        if (state.queueKey >= 0) {
+            int key = state.queueKey;
+            queue.remove(key);
+            releaseQueueKey(key);
+        }
+    }
+
+    private void releaseQueueKey (int key) {
+        queuedStates[key].queueKey = -1;
+        queuedStates[key] = null;
+        freeQueueKeys.add(key);
+    }
+
+    /** Empty the queue, only touching the keys that have been used since it was last cleared. */
+    private void clearQueue () {
+        queue.clear();
+        for (int key = 0; key < nQueueKeys; key++) {
+            if (queuedStates[key] != null) {
+                queuedStates[key].queueKey = -1;
+                queuedStates[key] = null;
+            }
+        }
+        freeQueueKeys.clear();
+        nQueueKeys = 0;
+    }
+
     /**
      * Given a new state, check whether it is dominated by any existing state that resulted from traversing the
-     * same edge. Side effect: Boot out any existing states that are dominated by the new one.
+     * same edge. Side effect: Boot out any existing states that are dominated by the new one. If a booted state has
+     * not been explored yet, it is removed from the queue, and the new state takes over its queue entry so that
+     * enqueueing the new state is a decrease-key operation.
      */
     private boolean isDominated(State newState) {
+        int edge = newState.backEdge;
+        if (!bestStatesAtEdge.hasMultipleStates(edge)) {
+            // The usual case of zero or one existing state, which is checked without allocating anything.
+            State existingState = bestStatesAtEdge.getFirst(edge);
+            if (existingState == null) return false;
+            if (dominates(existingState, newState)) return true;
+            if (dominates(newState, existingState)) bootDominatedState(existingState, newState);
+            return false;
+        }
         // States in turn restrictions are incomparable (don't dominate and aren't dominated by other states)
         // If the new state is not in a turn restriction, check whether it dominates any existing states and remove them.
-        // Multimap returns empty list for missing keys.
-        for (Iterator<State> it = bestStatesAtEdge.get(newState.backEdge).iterator(); it.hasNext(); ) {
-            State existingState = it.next();
+        // This iterates over a copy of the states at the edge, so states can be removed along the way.
+        for (State existingState : bestStatesAtEdge.get(edge)) {
             if (dominates(existingState, newState)) {
                 // If any existing state dominates the new one, bail out early and declare the new state dominated.
                 // We want to check if the existing state dominates the new one before the other way around because
                 // when states are equal, the existing one should win (and the special case for turn restrictions).
+                // If the new state already took over the queue entry of a state it dominated, give up that entry.
+                dequeue(newState);
                 return true;
             } else if (dominates(newState, existingState)) {
-                it.remove();
+                bootDominatedState(existingState, newState);
             }
         }
         return false; // Nothing existing has dominated this new state: it's non-dominated.
     }
 
+    /**
+     * Remove a state that has been dominated by a new state at the same edge. If the dominated state has not been
+     * explored yet, the new state takes over its entry in the queue, or the entry is removed if the new state already
+     * took over another one.
+     */
+    private void bootDominatedState (State dominatedState, State newState) {
+        bestStatesAtEdge.remove(dominatedState.backEdge, dominatedState);
+        if (dominatedState.queueKey >= 0) {
+            if (newState.queueKey < 0) {
+                int key = dominatedState.queueKey;
+                dominatedState.queueKey = -1;
+                newState.queueKey = key;
+                queuedStates[key] = newState;
+            } else {
+                dequeue(dominatedState);
+            }
+        }
+    }
+
     /**
      * Provide an underestimate on the remaining distance/weight/time to the destination (the A* heuristic).
      */
@@ -625,6 +826,12 @@ public class StreetRouter {
         double millimetersX = millimetersPerUnitLonFixed * deltaLonFixed;
         double millimetersY = MM_PER_UNIT_LAT_FIXED * deltaLatFixed;
         double distanceMillimeters = FastMath.sqrt(millimetersX * millimetersX + millimetersY * millimetersY);
+        if (landmarks != null) {
+            // The network distance is never less than the straight line distance, but the bounds from the landmarks
+            // are not always better than the straight line.
+            distanceMillimeters = Math.max(distanceMillimeters,
+                    landmarks.getLowerBoundMillimeters(state.vertex, destinationSplit));
+        }
         double estimate = distanceMillimeters;
         if (quantityToMinimize != State.RoutingVariable.DISTANCE_MILLIMETERS) {
             // Calculate time in seconds to traverse this distance in a straight line.
@@ -673,6 +880,9 @@ public class StreetRouter {
      * There can be more than one state at the end of an edge due to turn restrictions
      */
     public State getStateAtEdge (int edgeIndex) {
+        if (!bestStatesAtEdge.hasMultipleStates(edgeIndex)) {
+            return bestStatesAtEdge.getFirst(edgeIndex); // Possibly null if unreachable.
+        }
         Collection<State> states = bestStatesAtEdge.get(edgeIndex);
         if (states.isEmpty()) {
             return null; // Unreachable
@@ -689,15 +899,15 @@ public class StreetRouter {
     public State getStateAtVertex (int vertexIndex) {
         State ret = null;
 
-        TIntList edgeList;
+        EdgeLists edgeLists;
         if (profileRequest.reverseSearch) {
-            edgeList = streetLayer.outgoingEdges.get(vertexIndex);
+            edgeLists = streetLayer.outgoingEdges;
         } else {
-            edgeList = streetLayer.incomingEdges.get(vertexIndex);
+            edgeLists = streetLayer.incomingEdges;
         }
 
-        for (TIntIterator it = edgeList.iterator(); it.hasNext();) {
-            int eidx = it.next();
+        for (int i = 0; i < edgeLists.size(vertexIndex); i++) {
+            int eidx = edgeLists.get(vertexIndex, i);
 
             State state = getStateAtEdge(eidx);
 
@@ -731,64 +941,37 @@ public class StreetRouter {
 
         EdgeStore.Edge e = streetLayer.edgeStore.getCursor(split.edge);
 
-        TIntList edgeList;
+        EdgeLists edgeLists;
+        int vertex;
         if (profileRequest.reverseSearch) {
-            edgeList = streetLayer.outgoingEdges.get(split.vertex1);
+            edgeLists = streetLayer.outgoingEdges;
+            vertex = split.vertex1;
         } else {
-            edgeList = streetLayer.incomingEdges.get(split.vertex0);
+            edgeLists = streetLayer.incomingEdges;
+            vertex = split.vertex0;
         }
 
-        for (TIntIterator it = edgeList.iterator(); it.hasNext();) {
-            Collection<State> states = bestStatesAtEdge.get(it.next());
-            // NB this needs a state to copy turn restrictions into. We then don't use that state, which is fine because
-            // we don't need the turn restrictions any more because we're at the end of the search
-            states.stream().filter(s -> e.canTurnFrom(s, new State(-1, split.edge, s), profileRequest.reverseSearch))
-                    .map(s -> {
-                        State ret = new State(-1, split.edge, s);
-                        ret.streetMode = s.streetMode;
-
-                        // figure out the turn cost
-                        int turnCost = this.turnCostCalculator.computeTurnCost(s.backEdge, split.edge, s.streetMode);
-                        int traversalCost = (int) Math.round(split.distance0_mm / 1000d / e.calculateSpeed(profileRequest, s.streetMode));
-
-                        // TODO length of perpendicular
-                        ret.incrementWeight(turnCost + traversalCost);
-                        ret.incrementTimeInSeconds(turnCost + traversalCost);
-                        ret.distance += split.distance0_mm;
-
-                        return ret;
-                    })
-                    .forEach(relevantStates::add);
+        for (int i = 0; i < edgeLists.size(vertex); i++) {
+            for (State s : bestStatesAtEdge.get(edgeLists.get(vertex, i))) {
+                State atSplit = continueToSplit(s, e, split.distance0_mm);
+                if (atSplit != null) relevantStates.add(atSplit);
+            }
         }
 
         // advance to back edge
         e.advance();
 
         if (profileRequest.reverseSearch) {
-            edgeList = streetLayer.outgoingEdges.get(split.vertex0);
+            vertex = split.vertex0;
         } else {
-            edgeList = streetLayer.incomingEdges.get(split.vertex1);
+            vertex = split.vertex1;
         }
 
-        for (TIntIterator it = edgeList.iterator(); it.hasNext();) {
-            Collection<State> states = bestStatesAtEdge.get(it.next());
-            states.stream().filter(s -> e.canTurnFrom(s, new State(-1, split.edge + 1, s), profileRequest.reverseSearch))
-                    .map(s -> {
-                        State ret = new State(-1, split.edge + 1, s);
-                        ret.streetMode = s.streetMode;
-
-                        // figure out the turn cost
-                        int turnCost = this.turnCostCalculator.computeTurnCost(s.backEdge, split.edge + 1, s.streetMode);
-                        int traversalCost = (int) Math.round(split.distance1_mm / 1000d / e.calculateSpeed(profileRequest, s.streetMode));
-                        ret.distance += split.distance1_mm;
-
-                        // TODO length of perpendicular
-                        ret.incrementWeight(turnCost + traversalCost);
-                        ret.incrementTimeInSeconds(turnCost + traversalCost);
-
-                        return ret;
-                    })
-                    .forEach(relevantStates::add);
+        for (int i = 0; i < edgeLists.size(vertex); i++) {
+            for (State s : bestStatesAtEdge.get(edgeLists.get(vertex, i))) {
+                State atSplit = continueToSplit(s, e, split.distance1_mm);
+                if (atSplit != null) relevantStates.add(atSplit);
+            }
         }
 
         return relevantStates.stream()
@@ -796,6 +979,33 @@ public class StreetRouter {
                 .orElse(null);
     }
 
+    /**
+     * Continue a state at the end of an edge leading into a split edge to the point where that edge is split.
+     * @param splitEdge a cursor on the split edge (split.edge starting at vertex0, or split.edge + 1 at vertex1)
+     * @param distanceMm the distance along the split edge to the split point
+     * @return the state at the split point, or null if a turn restriction forbids turning onto the split edge
+     */
+    private State continueToSplit (State s, EdgeStore.Edge splitEdge, int distanceMm) {
+        // NB this needs a state to copy turn restrictions into. We then don't use that state, which is fine because
+        // we don't need the turn restrictions any more because we're at the end of the search
+        if (!splitEdge.canTurnFrom(s, new State(-1, splitEdge.getEdgeIndex(), s), profileRequest.reverseSearch)) {
+            return null;
+        }
+        State ret = new State(-1, splitEdge.getEdgeIndex(), s);
+        ret.streetMode = s.streetMode;
+
+        // figure out the turn cost
+        int turnCost = this.turnCostCalculator.computeTurnCost(s.backEdge, splitEdge.getEdgeIndex(), s.streetMode);
+        int traversalCost =
+                (int) Math.round(distanceMm / 1000d / splitEdge.calculateSpeed(profileRequest, s.streetMode));
+
+        // TODO length of perpendicular
+        ret.incrementWeight(turnCost + traversalCost);
+        ret.incrementTimeInSeconds(turnCost + traversalCost);
+        ret.distance += distanceMm;
+        return ret;
+    }
+
     public Split getDestinationSplit() {
         return destinationSplit;
     }
@@ -847,6 +1057,9 @@ public class StreetRouter {
          */
         public TIntIntMap turnRestrictions;
 
+        /** The key of this state in the StreetRouter's queue, or -1 if it is not in the queue. */
+        transient int queueKey = -1;
+
         public State(int atVertex, int viaEdge, State backState) {
             this.vertex = atVertex;
             this.backEdge = viaEdge;
@@ -0,0 +1,43 @@
+package com.conveyal.r5.streets;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Reusable StreetRouters for bulk one-to-many searches, such as building distance tables or finding transfers from
+ * every transit stop. Those operations used to construct a new router (with its own queue and state storage) for each
+ * of tens of thousands of stops. Routers taken from a pool are reset when they are returned, in time proportional to
+ * the size of the search they performed, so most of the time goes into exploring the graph.
+ *
+ * A pool is meant to live only as long as the bulk operation using it, so it does not keep street layers (which may
+ * belong to short-lived scenario networks) reachable afterward. It may be used from several threads at once; it will
+ * then contain about one router per thread.
+ */
+public class StreetRouterPool {
+
+    public final StreetLayer streetLayer;
+
+    private final ConcurrentLinkedDeque<StreetRouter> idleRouters = new ConcurrentLinkedDeque<>();
+
+    public StreetRouterPool (StreetLayer streetLayer) {
+        this.streetLayer = streetLayer;
+    }
+
+    /** @return a router on this pool's street layer, with all its parameters at their default values. */
+    public StreetRouter acquire () {
+        StreetRouter router = idleRouters.pollFirst();
+        return router == null ? new StreetRouter(streetLayer) : router;
+    }
+
+    /**
+     * Return a router to the pool once nothing more will be read from it. States already retrieved from the router
+     * remain valid.
+     */
+    public void release (StreetRouter router) {
+        if (router.streetLayer != streetLayer) {
+            throw new IllegalArgumentException("Router does not route on the same street layer as this pool.");
+        }
+        router.reset();
+        idleRouters.addFirst(router);
+    }
+
+}
@@ -105,7 +105,7 @@ public class TurnRestriction implements Serializable {
                 int finalPosInTurnRestriction = posInTurnRestriction;
                 //Goes over all outgoing CAR/BIKE traversable edges of toVertex of currentEdgeIdx an adds NO TURN turn restriction
                 //Unless edge is next in current turn restriction
-                streetLayer.outgoingEdges.get(fromEdgeToVertex).forEach(eidx -> {
+                streetLayer.outgoingEdges.forEach(fromEdgeToVertex, eidx -> {
                     if (eidx == next[0]) {
                         return true;
                     }
@@ -0,0 +1,52 @@
+package com.conveyal.r5.streets;
+
+/**
+ * Reading and writing variable length integers in byte arrays, for the compact encodings of PackedGeometries and
+ * PackedDistanceTables. Each byte holds seven bits of the value, lowest bits first, with the high bit set on all bytes
+ * but the last one, so small values take less space.
+ */
+final class VarInts {
+
+    private VarInts () {
+        // Static methods only.
+    }
+
+    /** Map signed integers to unsigned ones so that values close to zero (positive or negative) are small. */
+    static int encodeZigZag (int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int decodeZigZag (int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** @return the number of bytes taken by the given value as a variable length integer, seven bits per byte. */
+    static int varIntLength (int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /** @return the position just after the written value. */
+    static int writeVarInt (byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    static int readVarInt (byte[] buffer, int position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer[position++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+}
@@ -9,10 +9,16 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import com.conveyal.r5.streets.StreetLayer;
 import com.conveyal.r5.streets.StreetRouter;
+import com.conveyal.r5.streets.StreetRouterPool;
+import com.conveyal.r5.util.LambdaCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * TODO optimization: combine TransferFinder with stop-to-vertex distance table builder.
@@ -31,6 +37,9 @@ public class TransferFinder {
 
     StreetLayer streetLayer;
 
+    /** Routers reused for the search from each stop or park and ride, rather than constructing one per search. */
+    private final StreetRouterPool routers;
+
     /**
      * Should chooses whether to search via the street network or straight line distance based on the presence of
      * OSM street data (whether the street layer is null). However the street layer will always contain transit
@@ -39,6 +48,7 @@ public class TransferFinder {
     public TransferFinder(TransportNetwork network) {
         this.transitLayer = network.transitLayer;
         this.streetLayer = network.streetLayer;
+        this.routers = new StreetRouterPool(streetLayer);
     }
 
     public void findParkRideTransfer() {
@@ -54,7 +64,7 @@ public class TransferFinder {
                 originStreetVertex = parkRideParking.id;
             }
 
-            StreetRouter streetRouter = new StreetRouter(streetLayer);
+            StreetRouter streetRouter = routers.acquire();
             streetRouter.distanceLimitMeters = TransitLayer.PARKRIDE_DISTANCE_LIMIT;
             streetRouter.setOrigin(originStreetVertex);
             streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS;
@@ -74,6 +84,7 @@ public class TransferFinder {
                 pathToreachedStops.put(targetStopIndex, path);
                 return true;
             });
+            routers.release(streetRouter);
 
             // Record this list of transfers as leading out of the stop with index s.
             if (pathToreachedStops.size() > 0) {
@@ -89,73 +100,99 @@ public class TransferFinder {
     }
 
     public void findTransfers () {
-        int unconnectedStops = 0;
         // For each stop, store all transfers out of that stop as packed pairs of (toStopIndex, distance)
         final List<TIntList> transfersForStop = transitLayer.transfersForStop;
         // When applying scenarios we want to find transfers for only the newly added stops.
         // We look at any existing list of transfers and do enough iterations to make it as long as the list of stops.
-        int firstStopIndex = transfersForStop.size();
-        LOG.info("Finding transfers through the street network from {} stops...", transitLayer.getStopCount() - transfersForStop.size());
-        // TODO Parallelize with streams. See distance table generation.
-        for (int s = firstStopIndex; s < transitLayer.getStopCount(); s++) {
-            // From each stop, run a street search looking for other transit stops.
-            int originStreetVertex = transitLayer.streetVertexForStop.get(s);
-            if (originStreetVertex == -1) {
+        final int firstStopIndex = transfersForStop.size();
+        final int nStops = transitLayer.getStopCount();
+        LOG.info("Finding transfers through the street network from {} stops...", nStops - firstStopIndex);
+        LambdaCounter counter = new LambdaCounter(LOG, nStops - firstStopIndex, 10000,
+                "Found transfers from {} of {} stops.");
+        // Run the street search from each stop in parallel, each thread using its own router from the pool.
+        // The results are collected in stop order, so the output does not depend on how the work was scheduled.
+        List<TIntList> newTransfers = IntStream.range(firstStopIndex, nStops).parallel().mapToObj(s -> {
+            counter.increment();
+            return findTransfersFromStop(s);
+        }).collect(Collectors.toList());
+        counter.done();
+
+        int unconnectedStops = 0;
+        // Base network stops whose transfer lists have already been copied to receive reverse transfers.
+        BitSet copiedBaseStops = new BitSet(firstStopIndex);
+        for (int s = firstStopIndex; s < nStops; s++) {
+            TIntList packedTransfers = newTransfers.get(s - firstStopIndex);
+            if (packedTransfers == null) {
                 unconnectedStops++;
-                // Every iteration must add an array to transfersForStop to maintain the right length.
-                transfersForStop.add(EMPTY_INT_LIST);
-                continue;
+                // Every stop must have a list in transfersForStop to maintain the right length.
+                packedTransfers = EMPTY_INT_LIST;
             }
-
-            StreetRouter streetRouter = new StreetRouter(streetLayer);
-            streetRouter.distanceLimitMeters = TransitLayer.TRANSFER_DISTANCE_LIMIT;
-
-            streetRouter.setOrigin(originStreetVertex);
-            streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS;
-
-            streetRouter.route();
-            TIntIntMap distancesToReachedStops = streetRouter.getReachedStops();
-            // FIXME the following is technically incorrect, measure that it's actually improving calculation speed
-            retainClosestStopsOnPatterns(distancesToReachedStops);
-            // At this point we have the distances to all stops that are the closest one on some pattern.
-            // Make transfers to them, packed as pairs of (target stop index, distance).
-            TIntList packedTransfers = new TIntArrayList();
-            distancesToReachedStops.forEachEntry((targetStopIndex, distance) -> {
-                packedTransfers.add(targetStopIndex);
-                packedTransfers.add(distance);
-                return true;
-            });
             // Record this list of transfers as leading out of the stop with index s.
-            if (packedTransfers.size() > 0) {
-                transfersForStop.add(packedTransfers);
-            } else {
-                transfersForStop.add(EMPTY_INT_LIST);
-            }
+            transfersForStop.add(packedTransfers);
             // If we are applying a scenario (extending the transfers list rather than starting from scratch), for
             // all transfers out of a scenario stop into a base network stop we must also create the reverse transfer.
             // The original packed transfers list is copied on write to avoid perturbing the base network.
             // This is technically slightly incorrect, as distance(a, b) != distance(b, a), but for walking the equality
-            // is close to holding.
+            // is close to holding. This is done here on a single thread, after the parallel searches, because several
+            // new stops can add reverse transfers to the same base stop.
             if (firstStopIndex > 0) {
-                final int originStopIndex = s; // Why oh why, Java?
-                // don't build transfers to other new stops
-                distancesToReachedStops.forEachEntry((targetStopIndex, distance) -> {
+                for (int t = 0; t < packedTransfers.size(); t += 2) {
+                    int targetStopIndex = packedTransfers.get(t);
+                    int distance = packedTransfers.get(t + 1);
+                    // don't build transfers to other new stops
                     if (targetStopIndex < firstStopIndex) {
-                        TIntList packedTransfersCopy = new TIntArrayList(transfersForStop.get(targetStopIndex));
-                        packedTransfersCopy.add(originStopIndex);
-                        packedTransfersCopy.add(distance);
-                        transfersForStop.set(targetStopIndex, packedTransfersCopy);
+                        if (!copiedBaseStops.get(targetStopIndex)) {
+                            transfersForStop.set(targetStopIndex,
+                                    new TIntArrayList(transfersForStop.get(targetStopIndex)));
+                            copiedBaseStops.set(targetStopIndex);
+                        }
+                        TIntList reverseTransfers = transfersForStop.get(targetStopIndex);
+                        reverseTransfers.add(s);
+                        reverseTransfers.add(distance);
                     }
-                    return true;
-                });
+                }
             }
-
         }
         // Store the transfers in the transit layer
         transitLayer.transfersForStop = transfersForStop;
         LOG.info("Done finding transfers. {} stops are unlinked.", unconnectedStops);
     }
 
+    /**
+     * Run a street search from a single stop looking for other transit stops. This may be called from several threads
+     * at once, so it only reads shared state.
+     * @return transfers out of the stop as packed pairs of (target stop index, distance), or null if the stop is not
+     *         linked to the street network.
+     */
+    private TIntList findTransfersFromStop (int s) {
+        int originStreetVertex = transitLayer.streetVertexForStop.get(s);
+        if (originStreetVertex == -1) return null;
+
+        StreetRouter streetRouter = routers.acquire();
+        streetRouter.distanceLimitMeters = TransitLayer.TRANSFER_DISTANCE_LIMIT;
+
+        streetRouter.setOrigin(originStreetVertex);
+        streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS;
+
+        streetRouter.route();
+        TIntIntMap distancesToReachedStops = streetRouter.getReachedStops();
+        routers.release(streetRouter);
+        // FIXME the following is technically incorrect, measure that it's actually improving calculation speed
+        retainClosestStopsOnPatterns(distancesToReachedStops);
+        // At this point we have the distances to all stops that are the closest one on some pattern.
+        // Make transfers to them, packed as pairs of (target stop index, distance).
+        if (distancesToReachedStops.isEmpty()) return EMPTY_INT_LIST;
+        TIntList packedTransfers = new TIntArrayList(distancesToReachedStops.size() * 2);
+        // Sort by target stop so the order of the transfers does not depend on the hash map's internal layout.
+        int[] targetStops = distancesToReachedStops.keys();
+        Arrays.sort(targetStops);
+        for (int targetStopIndex : targetStops) {
+            packedTransfers.add(targetStopIndex);
+            packedTransfers.add(distancesToReachedStops.get(targetStopIndex));
+        }
+        return packedTransfers;
+    }
+
 
     /**
      * Filter down a map from target stop indexes to distances so it only includes those stops that are the
@@ -9,6 +9,7 @@ import com.conveyal.gtfs.model.Trip;
 import com.conveyal.r5.api.util.*;
 import com.conveyal.r5.common.GeometryUtils;
 import com.conveyal.r5.streets.EdgeStore;
+import com.conveyal.r5.streets.PackedDistanceTables;
 import com.conveyal.r5.streets.VertexStore;
 import com.conveyal.r5.util.LambdaCounter;
 import com.conveyal.r5.util.LocationIndexedLineInLocalCoordinateSystem;
@@ -27,6 +28,7 @@ import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import com.conveyal.r5.streets.StreetRouter;
+import com.conveyal.r5.streets.StreetRouterPool;
 import java.time.LocalDate;
 
 import gnu.trove.set.TIntSet;
@@ -134,15 +136,16 @@ public class TransitLayer implements Serializable, Cloneable {
     public boolean hasSchedules = false;
 
     /**
-     * For each transit stop, an int-int map giving the walking distance to every reachable street vertex from that stop.
-     * This is the result of running a distance-constrained street search outward from every stop in the graph.
+     * For each transit stop, a table giving the walking distance to every reachable street vertex from that stop.
+     * This is the result of running a distance-constrained street search outward from every stop in the graph. The
+     * tables are kept in a compact encoding (see PackedDistanceTables) since they are so large.
      * If these tables are present, we serialize them when persisting a network to disk to avoid recalculating them
      * upon re-load. However, these tables are only computed when the network is first built in certain code
      * paths used for analysis work. The tables are not necessary for basic point-to-point routing.
      * Serializing this table makes network files much bigger and makes our checks to ensure that scenario application
      * does not damage base graphs slower.
      */
-    public List<TIntIntMap> stopToVertexDistanceTables;
+    public PackedDistanceTables stopToVertexDistanceTables;
 
     /**
      * The TransportNetwork containing this TransitLayer. This link up the object tree also allows us to access the
@@ -541,21 +544,33 @@ public class TransitLayer implements Serializable, Cloneable {
 
         LambdaCounter buildCounter = new LambdaCounter(LOG, getStopCount(), 1000,
                 "Computed distances to street vertices from {} of {} transit stops.");
-
-        // Working in parallel, create a new list containing one distance table for each stop index, optionally
-        // skipping stops falling outside the specified geometry.
-        stopToVertexDistanceTables = IntStream.range(0, getStopCount()).parallel().mapToObj(stopIndex -> {
-            if (rebuildZone != null) {
-                // Skip existing or new stops outside the zone that may be affected by the scenario.
+        StreetRouterPool routers = new StreetRouterPool(parentNetwork.streetLayer);
+
+        if (rebuildZone == null) {
+            // Working in parallel, create a distance table for each stop index.
+            List<byte[]> tables = IntStream.range(0, getStopCount()).parallel().mapToObj(stopIndex -> {
+                buildCounter.increment();
+                return PackedDistanceTables.encode(this.buildOneDistanceTable(stopIndex, routers));
+            }).collect(Collectors.toList());
+            stopToVertexDistanceTables = new PackedDistanceTables(tables);
+        } else {
+            // Working in parallel, rebuild the tables of the existing or new stops inside the zone that may be affected
+            // by the scenario, keeping any existing tables for other stops. The tables are replaced in a copy, as the
+            // existing ones may be shared with the base network.
+            int[] stopsToRebuild = IntStream.range(0, getStopCount()).filter(stopIndex -> {
                 Point p = getJTSPointForStopFixed(stopIndex);
-                if (p == null || !rebuildZone.contains(p)) {
-                    // This stop can't be affected, return any existing one.
-                    return stopIndex < stopToVertexDistanceTables.size() ? stopToVertexDistanceTables.get(stopIndex) : null;
-                }
-            }
-            buildCounter.increment();
-            return this.buildOneDistanceTable(stopIndex);
-        }).collect(Collectors.toList());
+                return p != null && rebuildZone.contains(p);
+            }).toArray();
+            byte[][] rebuiltTables = Arrays.stream(stopsToRebuild).parallel().mapToObj(stopIndex -> {
+                buildCounter.increment();
+                return PackedDistanceTables.encode(this.buildOneDistanceTable(stopIndex, routers));
+            }).toArray(byte[][]::new);
+            PackedDistanceTables tables = stopToVertexDistanceTables == null ?
+                    new PackedDistanceTables(new ArrayList<>()) : stopToVertexDistanceTables.copy();
+            while (tables.size() < getStopCount()) tables.add(null);
+            for (int i = 0; i < stopsToRebuild.length; i++) tables.set(stopsToRebuild[i], rebuiltTables[i]);
+            stopToVertexDistanceTables = tables;
+        }
         buildCounter.done();
     }
 
@@ -566,13 +581,21 @@ public class TransitLayer implements Serializable, Cloneable {
      * @return a map from street vertex numbers to distances in millimeters
      */
     public TIntIntMap buildOneDistanceTable(int stop) {
+        return buildOneDistanceTable(stop, new StreetRouterPool(parentNetwork.streetLayer));
+    }
+
+    /**
+     * Perform a single on-street WALK search from the specified transit stop, using a router from the given pool.
+     * @return a map from street vertex numbers to distances in millimeters
+     */
+    public TIntIntMap buildOneDistanceTable(int stop, StreetRouterPool routers) {
         int originVertex = streetVertexForStop.get(stop);
         if (originVertex == -1) {
             // -1 indicates that this stop is not linked to the street network.
             LOG.warn("Stop {} has not been linked to the street network, cannot build a distance table for it.", stop);
             return null;
         }
-        StreetRouter router = new StreetRouter(parentNetwork.streetLayer);
+        StreetRouter router = routers.acquire();
         router.distanceLimitMeters = DISTANCE_TABLE_SIZE_METERS;
 
         // Dominate based on distance in millimeters, since (a) we're using a hard distance limit, and (b) we divide
@@ -582,7 +605,9 @@ public class TransitLayer implements Serializable, Cloneable {
         router.route();
 
         // The values in this map will be distances in millimeters since that is our dominance function.
-        return router.getReachedVertices();
+        TIntIntMap distancesToVertices = router.getReachedVertices();
+        routers.release(router);
+        return distancesToVertices;
     }
 
     public int getStopCount () {
@@ -727,7 +752,8 @@ public class TransitLayer implements Serializable, Cloneable {
             copy.stopIdForIndex = new ArrayList<>(this.stopIdForIndex);
             copy.stopNames = new ArrayList<>(this.stopNames);
             copy.streetVertexForStop = new TIntArrayList(this.streetVertexForStop);
-            copy.stopToVertexDistanceTables = new ArrayList<>(this.stopToVertexDistanceTables);
+            copy.stopToVertexDistanceTables = this.stopToVertexDistanceTables == null ? null :
+                    this.stopToVertexDistanceTables.copy();
             copy.transfersForStop = new ArrayList<>(this.transfersForStop);
             copy.routes = new ArrayList<>(this.routes);
             // To indicate that this layer is different than the one it was copied from, record the scenarioId of
@@ -753,7 +779,7 @@ public class TransitLayer implements Serializable, Cloneable {
     public Collection<com.conveyal.r5.api.util.Stop> findStopsInEnvelope(Envelope env) {
         List<com.conveyal.r5.api.util.Stop> stops = new ArrayList<>();
         EdgeStore.Edge e = this.parentNetwork.streetLayer.edgeStore.getCursor();
-        TIntSet nearbyEdges = this.parentNetwork.streetLayer.spatialIndex.query(VertexStore.envelopeToFixed(env));
+        TIntSet nearbyEdges = this.parentNetwork.streetLayer.findEdgesInEnvelope(VertexStore.envelopeToFixed(env));
 
         nearbyEdges.forEach(eidx -> {
             e.seek(eidx);
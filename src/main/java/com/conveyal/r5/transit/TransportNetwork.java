@@ -15,6 +15,7 @@ import com.conveyal.r5.analyst.fare.InRoutingFareCalculator;
 import com.conveyal.r5.profile.StreetMode;
 import com.google.common.io.Files;
 import com.vividsolutions.jts.geom.Envelope;
+import com.conveyal.r5.streets.HilbertCurveRenumberer;
 import com.conveyal.r5.streets.StreetLayer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -123,9 +124,12 @@ public class TransportNetwork implements Serializable {
         streetLayer.loadFromOsm(osm);
         osm.close();
 
-        // The street index is needed for associating transit stops with the street network
-        // and for associating bike shares with the street network
-        streetLayer.indexStreets();
+        // Renumbering must happen before anything outside the street layer refers to vertices or edges.
+        // The street index, which is needed for associating bike shares with the street network, is built by
+        // loadFromOsm and rebuilt by the renumberer, so there's no need to build it again here.
+        if (tnBuilderConfig.hilbertCurveStreetOrder) {
+            new HilbertCurveRenumberer(streetLayer).run();
+        }
 
         if (tnBuilderConfig.bikeRentalFile != null) {
             streetLayer.associateBikeSharing(tnBuilderConfig);
@@ -150,9 +154,12 @@ public class TransportNetwork implements Serializable {
         // transitLayer.summarizeRoutesAndPatterns();
 
         // The street index is needed for associating transit stops with the street network.
-        // FIXME indexStreets is called three times: in StreetLayer::loadFromOsm, just after loading the OSM, and here
+        // FIXME indexStreets is called twice: in StreetLayer::loadFromOsm and here
         streetLayer.indexStreets();
         streetLayer.associateStops(transitLayer);
+        // Nothing modifies the existing street edges after this point, except extend-only copies for scenarios.
+        streetLayer.edgeStore.compact();
+        streetLayer.packSpatialIndex();
         // Edge lists must be built after all inter-layer linking has occurred.
         streetLayer.buildEdgeLists();
         transitLayer.rebuildTransientIndexes();
@@ -161,6 +168,13 @@ public class TransportNetwork implements Serializable {
         new TransferFinder(transportNetwork).findTransfers();
         new TransferFinder(transportNetwork).findParkRideTransfer();
 
+        if (tnBuilderConfig.carContractionHierarchy) {
+            streetLayer.buildCarContractionHierarchy();
+        }
+        if (tnBuilderConfig.streetLandmarks > 0) {
+            streetLayer.buildLandmarks(tnBuilderConfig.streetLandmarks);
+        }
+
         transportNetwork.fareCalculator = tnBuilderConfig.analysisFareCalculator;
 
         if (transportNetwork.fareCalculator != null) transportNetwork.fareCalculator.transitLayer = transitLayer;
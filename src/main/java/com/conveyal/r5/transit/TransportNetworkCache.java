@@ -7,6 +7,7 @@ import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.conveyal.gtfs.BaseGTFSCache;
 import com.conveyal.gtfs.GTFSCache;
+import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.cluster.AnalysisTask;
 import com.conveyal.r5.analyst.cluster.BundleManifest;
 import com.conveyal.r5.analyst.cluster.ScenarioCache;
@@ -344,6 +345,8 @@ public class TransportNetworkCache {
 
         network.transitLayer.parentNetwork = network;
         network.streetLayer.associateStops(network.transitLayer);
+        network.streetLayer.edgeStore.compact();
+        network.streetLayer.packSpatialIndex();
         network.streetLayer.buildEdgeLists();
 
         network.rebuildTransientIndexes();
@@ -364,6 +367,8 @@ public class TransportNetworkCache {
                 .maximumSize(size)
                 .removalListener((networkId, network, cause) -> {
                     LOG.info("Network {} was evicted from the cache.", networkId);
+                    // Don't keep the network and its scenarios in memory through linkages to their streets.
+                    if (network != null) PointSet.evictLinkages(network.streetLayer);
                     // delete local files ONLY if using s3
                     if (bucket != null) {
                         String[] extensions = {".db", ".db.p", ".zip"};
@@ -0,0 +1,168 @@
+package com.conveyal.r5.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary min-heap of int keys ordered by int priorities, without any boxing or per-element objects.
+ *
+ * Unlike java.util.PriorityQueue this is an indexed heap: it tracks where each key is located, so the priority of a key
+ * that is already in the heap can be changed (decrease-key) or the key removed in O(log n) instead of leaving stale
+ * entries in the queue to be skipped later. Keys are small non-negative integers chosen by the caller, typically
+ * indexes into some other array where the objects being prioritized are kept. Storage indexed by key grows as larger
+ * keys are used, so keys should be kept compact (e.g. by recycling them).
+ *
+ * Clearing the heap only touches the keys it currently contains, so one instance can be reused cheaply for many searches.
+ */
+public class IntBinaryHeap {
+
+    private static final int NOT_IN_HEAP = -1;
+
+    /** The keys in heap order. The children of the element at position p are at 2p + 1 and 2p + 2. */
+    private int[] keys;
+
+    /** The priorities of the keys, parallel to the keys array so sifting doesn't need to look anything up by key. */
+    private int[] priorities;
+
+    /** The position of each key in the heap arrays, or NOT_IN_HEAP. Indexed by key. */
+    private int[] positionOfKey;
+
+    private int size = 0;
+
+    public IntBinaryHeap () {
+        this(64);
+    }
+
+    public IntBinaryHeap (int initialCapacity) {
+        initialCapacity = Math.max(initialCapacity, 1);
+        keys = new int[initialCapacity];
+        priorities = new int[initialCapacity];
+        positionOfKey = new int[initialCapacity];
+        Arrays.fill(positionOfKey, NOT_IN_HEAP);
+    }
+
+    public int size () {
+        return size;
+    }
+
+    public boolean isEmpty () {
+        return size == 0;
+    }
+
+    public boolean contains (int key) {
+        return key >= 0 && key < positionOfKey.length && positionOfKey[key] != NOT_IN_HEAP;
+    }
+
+    /** @return the current priority of the given key, which must be in the heap. */
+    public int getPriority (int key) {
+        return priorities[position(key)];
+    }
+
+    /** Add a key that is not already in the heap. */
+    public void add (int key, int priority) {
+        if (key < 0) throw new IllegalArgumentException("Heap keys must be non-negative.");
+        if (key >= positionOfKey.length) {
+            int oldLength = positionOfKey.length;
+            positionOfKey = Arrays.copyOf(positionOfKey, Math.max(key + 1, oldLength * 2));
+            Arrays.fill(positionOfKey, oldLength, positionOfKey.length, NOT_IN_HEAP);
+        } else if (positionOfKey[key] != NOT_IN_HEAP) {
+            throw new IllegalArgumentException("Key " + key + " is already in the heap.");
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            priorities = Arrays.copyOf(priorities, size * 2);
+        }
+        siftUp(size++, key, priority);
+    }
+
+    /**
+     * Change the priority of a key that is already in the heap, moving it up (decrease-key) or down as needed.
+     */
+    public void update (int key, int priority) {
+        int position = position(key);
+        if (priority < priorities[position]) {
+            siftUp(position, key, priority);
+        } else {
+            siftDown(position, key, priority);
+        }
+    }
+
+    /** Remove and return the key with the lowest priority. */
+    public int poll () {
+        if (size == 0) throw new NoSuchElementException();
+        int minKey = keys[0];
+        positionOfKey[minKey] = NOT_IN_HEAP;
+        size -= 1;
+        if (size > 0) siftDown(0, keys[size], priorities[size]);
+        return minKey;
+    }
+
+    /** @return the lowest priority in the heap, which must not be empty. */
+    public int peekPriority () {
+        if (size == 0) throw new NoSuchElementException();
+        return priorities[0];
+    }
+
+    /** @return the key with the lowest priority, without removing it. */
+    public int peek () {
+        if (size == 0) throw new NoSuchElementException();
+        return keys[0];
+    }
+
+    /** Remove a key from the heap if it is present. */
+    public void remove (int key) {
+        if (!contains(key)) return;
+        int position = positionOfKey[key];
+        positionOfKey[key] = NOT_IN_HEAP;
+        size -= 1;
+        if (position == size) return;
+        // Move the last element into the hole, then restore the heap property in whichever direction is needed.
+        int lastKey = keys[size];
+        int lastPriority = priorities[size];
+        siftDown(position, lastKey, lastPriority);
+        if (keys[position] == lastKey) siftUp(position, lastKey, lastPriority);
+    }
+
+    /** Remove all keys, in time proportional to the number of keys in the heap rather than the largest key. */
+    public void clear () {
+        for (int p = 0; p < size; p++) positionOfKey[keys[p]] = NOT_IN_HEAP;
+        size = 0;
+    }
+
+    private int position (int key) {
+        if (!contains(key)) throw new NoSuchElementException("Key " + key + " is not in the heap.");
+        return positionOfKey[key];
+    }
+
+    /** Place the given key at or above the given position, moving larger parents down to make room. */
+    private void siftUp (int position, int key, int priority) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (priority >= priorities[parent]) break;
+            place(position, keys[parent], priorities[parent]);
+            position = parent;
+        }
+        place(position, key, priority);
+    }
+
+    /** Place the given key at or below the given position, moving smaller children up to make room. */
+    private void siftDown (int position, int key, int priority) {
+        int half = size >>> 1; // Positions at or beyond this one have no children.
+        while (position < half) {
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < size && priorities[right] < priorities[child]) child = right;
+            if (priority <= priorities[child]) break;
+            place(position, keys[child], priorities[child]);
+            position = child;
+        }
+        place(position, key, priority);
+    }
+
+    private void place (int position, int key, int priority) {
+        keys[position] = key;
+        priorities[position] = priority;
+        positionOfKey[key] = position;
+    }
+
+}
@@ -51,6 +51,18 @@ public class LambdaCounter {
         }
     }
 
+    /**
+     * Count several iterations at once. When each iteration is very short, calling this once per batch of iterations
+     * avoids contention between threads on this counter.
+     */
+    public synchronized void increment(int n) {
+        int previousCount = count;
+        count += n;
+        if (count / logFrequency != previousCount / logFrequency) {
+            log();
+        }
+    }
+
     public synchronized int getCount() {
         return count;
     }
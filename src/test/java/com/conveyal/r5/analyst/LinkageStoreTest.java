@@ -0,0 +1,74 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.streets.LinkedPointSet;
+import com.conveyal.r5.transit.TransportNetwork;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Linkages read back from a LinkageStore must be identical to those that were saved.
+ */
+public class LinkageStoreTest extends TestCase {
+
+    @Test
+    public void testRoundTrip () throws Exception {
+        TransportNetwork network = FakeGraph.buildNetwork(FakeGraph.TransitNetwork.SINGLE_LINE);
+        network.scenarioId = "columbus";
+        WebMercatorGridPointSet grid = new WebMercatorGridPointSet(network);
+        LinkedPointSet linkage = new LinkedPointSet(grid, network.streetLayer, StreetMode.WALK, null);
+
+        File directory = Files.createTempDirectory("linkages").toFile();
+        try {
+            LinkageStore store = new LinkageStore(directory);
+            assertNull(store.read(grid, network.streetLayer, StreetMode.WALK));
+            store.write(linkage);
+            assertNull(store.read(grid, network.streetLayer, StreetMode.CAR));
+
+            LinkedPointSet savedLinkage = store.read(grid, network.streetLayer, StreetMode.WALK);
+            assertNotNull(savedLinkage);
+            assertTrue(Arrays.equals(linkage.edges, savedLinkage.edges));
+            assertTrue(Arrays.equals(linkage.distances0_mm, savedLinkage.distances0_mm));
+            assertTrue(Arrays.equals(linkage.distances1_mm, savedLinkage.distances1_mm));
+            assertEquals(linkage.stopToPointDistanceTables.size(), savedLinkage.stopToPointDistanceTables.size());
+            for (int s = 0; s < linkage.stopToPointDistanceTables.size(); s++) {
+                assertTrue(Arrays.equals(linkage.stopToPointDistanceTables.getEncoded(s),
+                        savedLinkage.stopToPointDistanceTables.getEncoded(s)));
+            }
+        } finally {
+            for (File file : directory.listFiles()) file.delete();
+            directory.delete();
+        }
+    }
+
+    /** Once the directory is over its size limit, the least recently used linkages are deleted. */
+    @Test
+    public void testDeleteLeastRecentlyUsed () throws Exception {
+        TransportNetwork network = FakeGraph.buildNetwork(FakeGraph.TransitNetwork.SINGLE_LINE);
+        network.scenarioId = "columbus";
+        WebMercatorGridPointSet grid = new WebMercatorGridPointSet(network);
+
+        File directory = Files.createTempDirectory("linkages").toFile();
+        try {
+            // A zero limit leaves only the linkage that was just saved.
+            LinkageStore store = new LinkageStore(directory, 0);
+            store.write(new LinkedPointSet(grid, network.streetLayer, StreetMode.WALK, null));
+            File[] files = directory.listFiles();
+            assertEquals(1, files.length);
+            files[0].setLastModified(System.currentTimeMillis() - 60000);
+            store.write(new LinkedPointSet(grid, network.streetLayer, StreetMode.BICYCLE, null));
+            assertNull(store.read(grid, network.streetLayer, StreetMode.WALK));
+            assertNotNull(store.read(grid, network.streetLayer, StreetMode.BICYCLE));
+            assertEquals(1, directory.listFiles().length);
+        } finally {
+            for (File file : directory.listFiles()) file.delete();
+            directory.delete();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.profile.FastRaptorWorker;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Check that the travel time reducer does not allocate memory for each target it processes. Every origin in an
+ * analysis streams millions of targets through the reducer, so even a tiny array per target is a lot of garbage.
+ * This works as a crude allocation-counting benchmark: it logs the number of bytes allocated and the time taken.
+ *
+ * Counting allocated bytes depends on the JVM and on what else it allocates on the same thread, and the grid is large,
+ * so this is not one of the unit tests (the results are checked in TravelTimeReducerTest). Run it with
+ * mvn test -P benchmarks.
+ */
+public class TravelTimeReducerBenchmark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TravelTimeReducerBenchmark.class);
+
+    private static final int WIDTH = 500, HEIGHT = 500;
+
+    /** Allow a little slack for anything the JVM or logging allocates on this thread in the meantime. */
+    private static final long MAX_ALLOCATED_BYTES = 64 * 1024;
+
+    @Test
+    public void testNoAllocationPerTarget () {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            LOG.warn("This JVM cannot count allocated bytes, skipping allocation test.");
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationCounter = (com.sun.management.ThreadMXBean) threadMXBean;
+        long threadId = Thread.currentThread().getId();
+
+        TravelTimeSurfaceTask task = new TravelTimeSurfaceTask();
+        task.zoom = 9;
+        task.width = WIDTH;
+        task.height = HEIGHT;
+        task.fromTime = 7 * 60 * 60;
+        task.toTime = 8 * 60 * 60;
+        task.percentiles = new double[] { 5, 25, 50, 75, 95 };
+        int timesPerDestination = task.getMonteCarloDrawsPerMinute() * task.getTimeWindowLengthMinutes();
+
+        // Prepare travel times in advance so their creation is not counted.
+        Random random = new Random(42);
+        int[] travelTimes = new int[WIDTH * HEIGHT];
+        for (int t = 0; t < travelTimes.length; t++) {
+            travelTimes[t] = random.nextInt(10) == 0 ? FastRaptorWorker.UNREACHED : random.nextInt(120 * 60);
+        }
+        int[] iterationTimes = new int[timesPerDestination];
+
+        for (int pass = 0; pass < 3; pass++) {
+            // The first passes warm up the JIT; only the last pass is checked.
+            TravelTimeReducer reducer = new TravelTimeReducer(task);
+
+            long startAllocatedBytes = allocationCounter.getThreadAllocatedBytes(threadId);
+            long startTime = System.nanoTime();
+            for (int target = 0; target < travelTimes.length; target++) {
+                reducer.recordUnvaryingTravelTimeAtTarget(target, travelTimes[target]);
+            }
+            long unvaryingNanos = System.nanoTime() - startTime;
+            long unvaryingBytes = allocationCounter.getThreadAllocatedBytes(threadId) - startAllocatedBytes;
+
+            startAllocatedBytes = allocationCounter.getThreadAllocatedBytes(threadId);
+            startTime = System.nanoTime();
+            for (int target = 0; target < travelTimes.length; target++) {
+                for (int i = 0; i < iterationTimes.length; i++) {
+                    iterationTimes[i] = travelTimes[(target + i * 7919) % travelTimes.length];
+                }
+                reducer.recordTravelTimesForTarget(target, iterationTimes);
+            }
+            long varyingNanos = System.nanoTime() - startTime;
+            long varyingBytes = allocationCounter.getThreadAllocatedBytes(threadId) - startAllocatedBytes;
+
+            LOG.info("Pass {}: {} single-valued targets in {} ms allocating {} bytes, {} targets with {} times each " +
+                            "in {} ms allocating {} bytes.", pass, travelTimes.length, unvaryingNanos / 1000000,
+                    unvaryingBytes, travelTimes.length, iterationTimes.length, varyingNanos / 1000000, varyingBytes);
+
+            if (pass == 2) {
+                assertTrue(unvaryingBytes < MAX_ALLOCATED_BYTES);
+                assertTrue(varyingBytes < MAX_ALLOCATED_BYTES);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.OneOriginResult;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.analyst.decay.LinearDecayFunction;
+import com.conveyal.r5.profile.FastRaptorWorker;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Check the travel times and accessibility values the travel time reducer extracts from the travel times at each
+ * target. How much it allocates per target is measured in TravelTimeReducerBenchmark.
+ */
+public class TravelTimeReducerTest extends TestCase {
+
+    /** Percentiles must be read off the sorted times, and reuse the same array for every target. */
+    @Test
+    public void testRecordTravelTimesForTarget () {
+        TravelTimeSurfaceTask task = new TravelTimeSurfaceTask();
+        task.zoom = 9;
+        task.width = 2;
+        task.height = 1;
+        task.fromTime = 7 * 60 * 60;
+        task.toTime = 8 * 60 * 60;
+        task.percentiles = new double[] { 5, 50, 95 };
+        int timesPerDestination = task.getMonteCarloDrawsPerMinute() * task.getTimeWindowLengthMinutes();
+        assertEquals(240, timesPerDestination);
+        TravelTimeReducer reducer = new TravelTimeReducer(task);
+
+        // One time per whole minute from 0 to 239, in no particular order.
+        List<Integer> minutes = IntStream.range(0, timesPerDestination).boxed().collect(Collectors.toList());
+        Collections.shuffle(minutes, new Random(42));
+        int[] times = minutes.stream().mapToInt(m -> m * 60 + 30).toArray();
+        int[] percentiles = reducer.recordTravelTimesForTarget(0, times);
+        assertTrue(Arrays.equals(new int[] { 12, 120, 228 }, percentiles));
+
+        // Unreached times sort after all the others, so only the highest percentile is unreached.
+        int[] partlyReachedTimes = new int[timesPerDestination];
+        Arrays.fill(partlyReachedTimes, 10 * 60);
+        Arrays.fill(partlyReachedTimes, 0, 20, FastRaptorWorker.UNREACHED);
+        assertSame(percentiles, reducer.recordTravelTimesForTarget(1, partlyReachedTimes));
+        assertTrue(Arrays.equals(new int[] { 10, 10, FastRaptorWorker.UNREACHED }, percentiles));
+
+        // A single time is used for all percentiles.
+        assertSame(percentiles, reducer.recordTravelTimesForTarget(1, new int[] { 10 * 60 + 59 }));
+        assertTrue(Arrays.equals(new int[] { 10, 10, 10 }, percentiles));
+    }
+
+    /**
+     * A smooth decay function gives weight to opportunities reached after the cutoff, which is also the maximum trip
+     * duration in a regional task. They must be counted rather than treated as unreachable.
+     */
+    @Test
+    public void testDecayBeyondCutoff () {
+        RegionalTask task = new RegionalTask();
+        task.fromTime = 7 * 60 * 60;
+        task.toTime = 8 * 60 * 60;
+        task.percentiles = new double[] { 50 };
+        task.maxTripDurationMinutes = 30;
+        LinearDecayFunction decayFunction = new LinearDecayFunction();
+        decayFunction.widthMinutes = 20;
+        task.decayFunction = decayFunction;
+        task.gridData = new Grid(9, 3, 1, 0, 0);
+        for (int x = 0; x < 3; x++) task.gridData.grid[x][0] = 100;
+
+        // Routing and propagation must continue until the weight reaches zero, half the width after the cutoff.
+        assertEquals(40, task.getRoutingLimitMinutes());
+
+        TravelTimeReducer reducer = new TravelTimeReducer(task);
+        reducer.recordUnvaryingTravelTimeAtTarget(0, 15 * 60);
+        reducer.recordUnvaryingTravelTimeAtTarget(1, 35 * 60);
+        reducer.recordUnvaryingTravelTimeAtTarget(2, 45 * 60);
+        OneOriginResult result = reducer.finish();
+        // Full weight below the start of the decay, a quarter at 35 minutes, and nothing beyond 40 minutes.
+        assertEquals(125, result.accessibility.getAccessibility(0, 0, 0), 1e-9);
+    }
+
+}
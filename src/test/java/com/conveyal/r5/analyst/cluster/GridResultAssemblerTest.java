@@ -0,0 +1,130 @@
+package com.conveyal.r5.analyst.cluster;
+
+import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.SelectingGridReducer;
+import com.google.common.io.LittleEndianDataInputStream;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Results with several percentiles and cutoffs per origin must be readable from the assembled access grid, and results
+ * with a single value per origin must still be written in the version 0 format that older readers understand.
+ */
+public class GridResultAssemblerTest {
+
+    private static final int WIDTH = 4, HEIGHT = 3;
+
+    private static final int[] PERCENTILE_OFFSETS = { 0, 1000, 5000 };
+
+    @Test
+    public void testAssembleMultipleCutoffsAndPercentiles () throws IOException {
+        RegionalTask task = makeTask();
+        task.percentiles = new double[] { 25, 50, 75 };
+        task.maxTripDurationMinutes = 5;
+        task.allCutoffs = true;
+        int nCutoffs = task.getCutoffsMinutes().length;
+
+        File gzippedGridFile = assemble(task, PERCENTILE_OFFSETS.length, nCutoffs);
+        assertEquals(1, readVersion(gzippedGridFile));
+        for (int p = 0; p < PERCENTILE_OFFSETS.length; p++) {
+            for (int c = 0; c < nCutoffs; c++) {
+                Grid grid;
+                try (InputStream input = new FileInputStream(gzippedGridFile)) {
+                    grid = new SelectingGridReducer(p, c).compute(input);
+                }
+                assertEquals(task.zoom, grid.zoom);
+                assertEquals(task.west, grid.west);
+                assertEquals(task.north, grid.north);
+                for (int taskId = 0; taskId < WIDTH * HEIGHT; taskId++) {
+                    int x = taskId % WIDTH;
+                    int y = taskId / WIDTH;
+                    assertEquals(expectedValue(taskId, p, c), grid.grid[x][y], 0);
+                }
+            }
+        }
+        gzippedGridFile.delete();
+    }
+
+    @Test
+    public void testAssembleSingleValueAsVersion0 () throws IOException {
+        RegionalTask task = makeTask();
+        task.percentiles = new double[] { 50 };
+        task.maxTripDurationMinutes = 45;
+
+        File gzippedGridFile = assemble(task, 1, 1);
+        assertEquals(0, readVersion(gzippedGridFile));
+        Grid grid;
+        try (InputStream input = new FileInputStream(gzippedGridFile)) {
+            grid = new SelectingGridReducer(0).compute(input);
+        }
+        for (int taskId = 0; taskId < WIDTH * HEIGHT; taskId++) {
+            assertEquals(expectedValue(taskId, 0, 0), grid.grid[taskId % WIDTH][taskId / WIDTH], 0);
+        }
+        gzippedGridFile.delete();
+    }
+
+    private static RegionalTask makeTask () {
+        RegionalTask task = new RegionalTask();
+        task.jobId = "test-job";
+        task.zoom = 9;
+        task.west = 100;
+        task.north = 200;
+        task.width = WIDTH;
+        task.height = HEIGHT;
+        return task;
+    }
+
+    /** Send the assembler a result for every origin and one with the wrong dimensions, returning the gzipped grid. */
+    private static File assemble (RegionalTask task, int nPercentiles, int nCutoffs) {
+        File[] gzippedGridFile = new File[1];
+        GridResultAssembler assembler = new GridResultAssembler(task, null) {
+            @Override
+            protected synchronized void finish () {
+                try {
+                    gzippedGridFile[0] = gzipResults();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        for (int taskId = 0; taskId < WIDTH * HEIGHT; taskId++) {
+            RegionalWorkResult result = new RegionalWorkResult(task.jobId, taskId, 1, nPercentiles, nCutoffs);
+            for (int p = 0; p < nPercentiles; p++) {
+                for (int c = 0; c < nCutoffs; c++) {
+                    result.setAcccessibilityValue(0, p, c, expectedValue(taskId, p, c));
+                }
+            }
+            assembler.handleMessage(result);
+        }
+        // A result with the wrong number of cutoffs must be rejected rather than partially stored.
+        RegionalWorkResult wrongResult = new RegionalWorkResult(task.jobId, 0, 1, nPercentiles, nCutoffs + 1);
+        assembler.handleMessage(wrongResult);
+        assertEquals(WIDTH * HEIGHT, assembler.nComplete);
+        assertNotNull("Assembler did not finish.", gzippedGridFile[0]);
+        return gzippedGridFile[0];
+    }
+
+    /** @return the version number from the header of a gzipped access grid, which follows the 8-byte magic string. */
+    private static int readVersion (File gzippedGridFile) throws IOException {
+        try (LittleEndianDataInputStream input = new LittleEndianDataInputStream(
+                new GZIPInputStream(new FileInputStream(gzippedGridFile)))) {
+            input.readFully(new byte[8]);
+            return input.readInt();
+        }
+    }
+
+    /** Accessibility increases with the cutoff but not with the percentile, so that deltas are of both signs. */
+    private static int expectedValue (int taskId, int percentileIndex, int cutoffIndex) {
+        return 100 * taskId + 10 * cutoffIndex + PERCENTILE_OFFSETS[PERCENTILE_OFFSETS.length - 1 - percentileIndex];
+    }
+
+}
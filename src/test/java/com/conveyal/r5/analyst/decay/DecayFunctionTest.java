@@ -0,0 +1,65 @@
+package com.conveyal.r5.analyst.decay;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test the shapes of the decay functions used in accessibility indicators.
+ */
+public class DecayFunctionTest extends TestCase {
+
+    /** The step function should reproduce cumulative opportunities, counting only times strictly below the cutoff. */
+    @Test
+    public void testStep () {
+        double[] weights = new StepDecayFunction().makeWeightTable(30, 120);
+        assertEquals(120, weights.length);
+        assertEquals(1.0, weights[0], 0);
+        assertEquals(1.0, weights[29], 0);
+        assertEquals(0.0, weights[30], 0);
+        assertEquals(0.0, weights[119], 0);
+    }
+
+    /** All the smooth functions should have weight one half at the cutoff and never increase with travel time. */
+    @Test
+    public void testSmoothFunctions () {
+        DecayFunction[] functions = new DecayFunction[] {
+                new LogisticDecayFunction(), new ExponentialDecayFunction(), new LinearDecayFunction()
+        };
+        for (DecayFunction function : functions) {
+            double[] weights = function.makeWeightTable(45, 120);
+            assertEquals(function.getType(), 0.5, weights[45], 1e-9);
+            for (int minutes = 1; minutes < weights.length; minutes++) {
+                assertTrue(function.getType(), weights[minutes] <= weights[minutes - 1]);
+                assertTrue(function.getType(), weights[minutes] >= 0 && weights[minutes] <= 1);
+            }
+        }
+    }
+
+    /** Weights must still be positive just before the point where routing stops, and zero from there on. */
+    @Test
+    public void testReachesZero () {
+        DecayFunction[] functions = new DecayFunction[] {
+                new StepDecayFunction(), new LogisticDecayFunction(), new LinearDecayFunction()
+        };
+        for (DecayFunction function : functions) {
+            int zeroMinutes = function.reachesZeroMinutes(45);
+            double[] weights = function.makeWeightTable(45, zeroMinutes + 10);
+            assertTrue(function.getType(), weights[zeroMinutes - 1] > 0);
+            assertEquals(function.getType(), 0.0, weights[zeroMinutes], 0);
+        }
+        assertEquals(55, new LinearDecayFunction().reachesZeroMinutes(50));
+        // The exponential function is truncated after about ten half-lives.
+        assertEquals(100, new ExponentialDecayFunction().reachesZeroMinutes(10));
+    }
+
+    /** The linear function should be flat outside its width around the cutoff. */
+    @Test
+    public void testLinear () {
+        LinearDecayFunction linear = new LinearDecayFunction();
+        linear.widthMinutes = 20;
+        assertEquals(1.0, linear.computeWeight(60, 50), 0);
+        assertEquals(0.75, linear.computeWeight(60, 55), 1e-9);
+        assertEquals(0.0, linear.computeWeight(60, 70), 0);
+    }
+
+}
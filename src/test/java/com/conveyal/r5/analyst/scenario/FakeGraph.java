@@ -2,7 +2,9 @@ package com.conveyal.r5.analyst.scenario;
 
 import com.conveyal.gtfs.GTFSFeed;
 import com.conveyal.gtfs.model.*;
+import com.conveyal.osmlib.OSM;
 import com.conveyal.r5.point_to_point.builder.TNBuilderConfig;
+import com.conveyal.r5.streets.StreetLayer;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.google.common.io.ByteStreams;
 import org.apache.commons.io.FileUtils;
@@ -76,6 +78,23 @@ public class FakeGraph {
         }
     }
 
+    /** Read the Columbus, OH OSM data with intersection detection enabled. The caller must close it. */
+    public static OSM readColumbusOsm () {
+        OSM osm = new OSM(null);
+        osm.intersectionDetection = true;
+        osm.readFromUrl(FakeGraph.class.getResource("columbus.osm.pbf").toString());
+        return osm;
+    }
+
+    /** Build only the streets of a graph in Columbus, OH, for tests that don't need transit. */
+    public static StreetLayer buildColumbusStreetLayer () {
+        OSM osm = readColumbusOsm();
+        StreetLayer streetLayer = new StreetLayer(TNBuilderConfig.defaultConfig());
+        streetLayer.loadFromOsm(osm);
+        osm.close();
+        return streetLayer;
+    }
+
     /** Add transit (not just stops) to a Columbus graph */
     public static GTFSFeed getTransit () throws Exception {
         // using conveyal GTFS lib to build GTFS so a lot of code does not have to be rewritten later
@@ -0,0 +1,63 @@
+package com.conveyal.r5.labeling;
+
+import com.conveyal.osmlib.OSM;
+import com.conveyal.osmlib.Way;
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.point_to_point.builder.TNBuilderConfig;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Ways are labeled once for each distinct combination of relevant tags, so that combination must determine the labels.
+ */
+public class WayLabelCacheTest {
+
+    @Test
+    public void testKeyOnlyDependsOnRelevantTags () {
+        Way way = makeWay("highway=residential;name=Main Street;oneway=yes");
+        Way reordered = makeWay("oneway=yes;highway=residential");
+        Way different = makeWay("highway=residential;oneway=no");
+        assertEquals(WayLabelCache.getKey(way), WayLabelCache.getKey(reordered));
+        assertNotEquals(WayLabelCache.getKey(way), WayLabelCache.getKey(different));
+    }
+
+    /** Label every way in the columbus data and check that ways with the same key always get the same labels. */
+    @Test
+    public void testWaysWithSameKeyHaveSameLabels () {
+        OSM osm = FakeGraph.readColumbusOsm();
+        TraversalPermissionLabeler permissionLabeler = new USTraversalPermissionLabeler();
+        SpeedLabeler speedLabeler = new SpeedLabeler(TNBuilderConfig.defaultConfig().speeds);
+        LevelOfTrafficStressLabeler stressLabeler = new LevelOfTrafficStressLabeler();
+        TypeOfEdgeLabeler typeOfEdgeLabeler = new TypeOfEdgeLabeler();
+
+        Map<String, String> labelsForKey = new HashMap<>();
+        for (Way way : osm.ways.values()) {
+            if (!way.hasTag("highway")) continue;
+            RoadPermission permission = permissionLabeler.getPermissions(way);
+            stressLabeler.label(way, permission.forward, permission.backward);
+            typeOfEdgeLabeler.label(way, permission.forward, permission.backward);
+            String labels = String.format("%s %s %f %f", permission.forward, permission.backward,
+                    speedLabeler.getSpeedMS(way, false), speedLabeler.getSpeedMS(way, true));
+            String expected = labelsForKey.putIfAbsent(WayLabelCache.getKey(way), labels);
+            if (expected != null) {
+                assertEquals(expected, labels);
+            }
+        }
+        osm.close();
+    }
+
+    private static Way makeWay (String tags) {
+        Way way = new Way();
+        for (String tag : tags.split(";")) {
+            String[] keyValue = tag.split("=", 2);
+            way.addTag(keyValue[0], keyValue[1]);
+        }
+        return way;
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.profile.ProfileRequest;
+import com.conveyal.r5.profile.StreetMode;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Searches must give exactly the same results with precomputed edge traversal costs as without them.
+ */
+public class EdgeTraversalCostsTest extends TestCase {
+
+    @Test
+    public void testSearchesAreUnchanged () {
+        StreetLayer streetLayer = FakeGraph.buildColumbusStreetLayer();
+
+        ProfileRequest lowStressBike = new ProfileRequest();
+        lowStressBike.bikeTrafficStress = 2;
+        ProfileRequest wheelchair = new ProfileRequest();
+        wheelchair.wheelchair = true;
+        ProfileRequest[] requests = { new ProfileRequest(), new ProfileRequest(), lowStressBike, wheelchair };
+        StreetMode[] modes = { StreetMode.CAR, StreetMode.WALK, StreetMode.BICYCLE, StreetMode.WALK };
+
+        int nVertices = streetLayer.vertexStore.getVertexCount();
+        int[] origins = new Random(42).ints(20, 0, nVertices).toArray();
+        int[][][] withoutCosts = new int[modes.length][origins.length][];
+        for (int m = 0; m < modes.length; m++) {
+            assertNull(streetLayer.getEdgeTraversalCosts(modes[m], requests[m]));
+            for (int o = 0; o < origins.length; o++) {
+                withoutCosts[m][o] = search(streetLayer, modes[m], requests[m], origins[o]);
+            }
+        }
+
+        streetLayer.edgeStore.compact();
+        for (int m = 0; m < modes.length; m++) {
+            assertNotNull(streetLayer.getEdgeTraversalCosts(modes[m], requests[m]));
+            for (int o = 0; o < origins.length; o++) {
+                int[] withCosts = search(streetLayer, modes[m], requests[m], origins[o]);
+                for (int i = 0; i < withCosts.length; i++) assertEquals(withoutCosts[m][o][i], withCosts[i]);
+            }
+        }
+    }
+
+    /** @return the weight, duration and distance at every vertex, interleaved. */
+    private static int[] search (StreetLayer streetLayer, StreetMode mode, ProfileRequest request, int origin) {
+        StreetRouter router = new StreetRouter(streetLayer);
+        router.streetMode = mode;
+        router.profileRequest = request;
+        router.timeLimitSeconds = 20 * 60;
+        router.setOrigin(origin);
+        router.route();
+        int nVertices = streetLayer.vertexStore.getVertexCount();
+        int[] results = new int[nVertices * 3];
+        for (int v = 0; v < nVertices; v++) {
+            StreetRouter.State state = router.getStateAtVertex(v);
+            if (state != null) {
+                results[v * 3] = state.weight;
+                results[v * 3 + 1] = state.durationSeconds;
+                results[v * 3 + 2] = state.distance;
+            }
+        }
+        router.release();
+        return results;
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.profile.StreetMode;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Renumbering the streets along a Hilbert curve must not change the result of any search.
+ */
+public class HilbertCurveRenumbererTest extends TestCase {
+
+    @Test
+    public void testSearchesAreUnchanged () {
+        StreetLayer original = FakeGraph.buildColumbusStreetLayer();
+        StreetLayer renumbered = FakeGraph.buildColumbusStreetLayer();
+        new HilbertCurveRenumberer(renumbered).run();
+
+        assertEquals(original.vertexStore.getVertexCount(), renumbered.vertexStore.getVertexCount());
+        assertEquals(original.edgeStore.nEdges(), renumbered.edgeStore.nEdges());
+        assertEquals(original.turnRestrictions.size(), renumbered.turnRestrictions.size());
+
+        Random random = new Random(42);
+        VertexStore.Vertex vertex = original.vertexStore.getCursor();
+        for (int i = 0; i < 50; i++) {
+            vertex.seek(random.nextInt(original.vertexStore.getVertexCount()));
+            double fromLat = vertex.getLat(), fromLon = vertex.getLon();
+            vertex.seek(random.nextInt(original.vertexStore.getVertexCount()));
+            double toLat = vertex.getLat(), toLon = vertex.getLon();
+            for (StreetMode mode : new StreetMode[] { StreetMode.WALK, StreetMode.CAR }) {
+                StreetRouter.State originalState = search(original, mode, fromLat, fromLon, toLat, toLon);
+                StreetRouter.State renumberedState = search(renumbered, mode, fromLat, fromLon, toLat, toLon);
+                if (originalState == null) {
+                    assertNull(renumberedState);
+                } else {
+                    assertNotNull(renumberedState);
+                    assertEquals(originalState.weight, renumberedState.weight);
+                    assertEquals(originalState.distance, renumberedState.distance);
+                }
+            }
+        }
+    }
+
+    private static StreetRouter.State search (StreetLayer streetLayer, StreetMode mode, double fromLat, double fromLon,
+                                              double toLat, double toLon) {
+        StreetRouter router = new StreetRouter(streetLayer);
+        router.streetMode = mode;
+        if (!router.setOrigin(fromLat, fromLon) || !router.setDestination(toLat, toLon)) return null;
+        router.route();
+        StreetRouter.State state = router.getState(router.getDestinationSplit());
+        router.release();
+        return state;
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.WebMercatorGridPointSet;
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.common.GeometryUtils;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.transit.TransitLayer;
+import com.conveyal.r5.transit.TransportNetwork;
+import com.vividsolutions.jts.geom.Envelope;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test linking PointSets to the street network.
+ */
+public class LinkedPointSetTest extends TestCase {
+
+    /** Linking points in parallel chunks must give the same result as linking each point on its own. */
+    @Test
+    public void testLinkingMatchesSinglePoints () {
+        TransportNetwork network = FakeGraph.buildNetwork(FakeGraph.TransitNetwork.SINGLE_LINE);
+        WebMercatorGridPointSet grid = new WebMercatorGridPointSet(network);
+        for (StreetMode streetMode : new StreetMode[] { StreetMode.WALK, StreetMode.CAR }) {
+            LinkedPointSet linkage = new LinkedPointSet(grid, network.streetLayer, streetMode, null);
+            assertEquals(grid.featureCount(), linkage.size());
+            for (int p = 0; p < linkage.size(); p++) {
+                Split split = network.streetLayer.findSplit(grid.getLat(p), grid.getLon(p),
+                        StreetLayer.LINK_RADIUS_METERS, streetMode);
+                if (split == null) {
+                    assertEquals(-1, linkage.edges[p]);
+                } else {
+                    assertEquals(split.edge, linkage.edges[p]);
+                    assertEquals(split.distance0_mm, linkage.distances0_mm[p]);
+                    assertEquals(split.distance1_mm, linkage.distances1_mm[p]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Every gridded point inside the distance table zone of a stop and reachable from it must be in its distance
+     * table, with the distance through the closer end of the edge it is linked to.
+     */
+    @Test
+    public void testGridDistanceTables () {
+        TransportNetwork network = FakeGraph.buildNetwork(FakeGraph.TransitNetwork.SINGLE_LINE);
+        WebMercatorGridPointSet grid = new WebMercatorGridPointSet(network);
+        LinkedPointSet linkage = new LinkedPointSet(grid, network.streetLayer, StreetMode.WALK, null);
+        TransitLayer transitLayer = network.transitLayer;
+        EdgeStore.Edge edge = network.streetLayer.edgeStore.getCursor();
+        for (int stop = 0; stop < transitLayer.getStopCount(); stop++) {
+            TIntIntMap distanceTableToVertices = transitLayer.stopToVertexDistanceTables.get(stop);
+            if (distanceTableToVertices == null) continue;
+            Envelope distanceTableZone = transitLayer.getJTSPointForStopFixed(stop).getEnvelopeInternal();
+            GeometryUtils.expandEnvelopeFixed(distanceTableZone, TransitLayer.DISTANCE_TABLE_SIZE_METERS);
+
+            TIntIntMap distanceToPoint = linkage.stopToPointDistanceTables.get(stop);
+            if (distanceToPoint == null) distanceToPoint = new TIntIntHashMap();
+            for (int p = 0; p < grid.featureCount(); p++) {
+                if (linkage.edges[p] == -1) continue;
+                edge.seek(linkage.edges[p]);
+                int distance = Integer.MAX_VALUE;
+                if (distanceTableToVertices.containsKey(edge.getFromVertex())) {
+                    distance = distanceTableToVertices.get(edge.getFromVertex()) + linkage.distances0_mm[p];
+                }
+                if (distanceTableToVertices.containsKey(edge.getToVertex())) {
+                    distance = Math.min(distance,
+                            distanceTableToVertices.get(edge.getToVertex()) + linkage.distances1_mm[p]);
+                }
+                if (distanceToPoint.containsKey(p)) {
+                    assertEquals(distance, distanceToPoint.get(p));
+                } else if (distanceTableZone.contains(grid.getCoordinateFixed(p))) {
+                    assertEquals(Integer.MAX_VALUE, distance);
+                }
+            }
+        }
+    }
+
+}
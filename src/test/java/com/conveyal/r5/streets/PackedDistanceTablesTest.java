@@ -0,0 +1,75 @@
+package com.conveyal.r5.streets;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Distance tables must read back exactly as they were encoded, including in copies where tables were replaced.
+ */
+public class PackedDistanceTablesTest extends TestCase {
+
+    @Test
+    public void testDistanceTablesAreUnchanged () {
+        Random random = new Random(42);
+        List<TIntIntMap> expected = new ArrayList<>();
+        List<byte[]> encoded = new ArrayList<>();
+        for (int stop = 0; stop < 500; stop++) {
+            // Leave some stops without a table.
+            TIntIntMap table = stop % 7 == 0 ? null : randomTable(random);
+            expected.add(table);
+            encoded.add(PackedDistanceTables.encode(table));
+        }
+        PackedDistanceTables tables = new PackedDistanceTables(encoded);
+        assertTables(expected, tables);
+
+        // Replace and add tables in a copy, which must not affect the original.
+        PackedDistanceTables copy = tables.copy();
+        List<TIntIntMap> expectedCopy = new ArrayList<>(expected);
+        for (int stop = 0; stop < 500; stop += 5) {
+            TIntIntMap table = stop % 3 == 0 ? null : randomTable(random);
+            expectedCopy.set(stop, table);
+            copy.set(stop, PackedDistanceTables.encode(table));
+        }
+        for (int stop = 500; stop < 550; stop++) {
+            TIntIntMap table = randomTable(random);
+            expectedCopy.add(table);
+            copy.add(PackedDistanceTables.encode(table));
+        }
+        assertTables(expectedCopy, copy);
+        assertTables(expected, tables);
+    }
+
+    private static TIntIntMap randomTable (Random random) {
+        TIntIntMap table = new TIntIntHashMap();
+        int nEntries = random.nextInt(200);
+        for (int i = 0; i < nEntries; i++) {
+            // Include some indexes and distances large enough to need the longest varints.
+            int index = random.nextInt(10) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(100000);
+            int distance = random.nextInt(10) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(2000000);
+            table.put(index, distance);
+        }
+        return table;
+    }
+
+    private static void assertTables (List<TIntIntMap> expected, PackedDistanceTables tables) {
+        assertEquals(expected.size(), tables.size());
+        for (int stop = 0; stop < expected.size(); stop++) {
+            TIntIntMap table = expected.get(stop);
+            assertEquals(table != null, tables.hasTable(stop));
+            assertEquals(table, tables.get(stop));
+            int[] previousIndex = new int[] { -1 };
+            tables.forEach(stop, (index, distance) -> {
+                assertTrue("Indexes must be visited in increasing order.", index > previousIndex[0]);
+                previousIndex[0] = index;
+                return true;
+            });
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.conveyal.r5.streets;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Geometries must read back the same whether or not they have been packed, including in extend-only copies.
+ * Each edge pair has a from vertex, from which the first point of its geometry is delta-coded once packed.
+ */
+public class PackedGeometriesTest extends TestCase {
+
+    @Test
+    public void testPackedGeometriesAreUnchanged () {
+        Random random = new Random(42);
+        List<int[]> fromPoints = new ArrayList<>();
+        List<int[]> expected = new ArrayList<>();
+        PackedGeometries geometries = new PackedGeometries(10);
+        for (int pair = 0; pair < 1000; pair++) {
+            int[] coords = randomGeometry(random, fromPoints);
+            expected.add(coords);
+            geometries.add(coords);
+        }
+        geometries.pack(pair -> fromPoints.get(pair)[0], pair -> fromPoints.get(pair)[1]);
+        // Add some more after packing, then pack again so the buffer is extended.
+        for (int pair = 1000; pair < 1500; pair++) {
+            int[] coords = randomGeometry(random, fromPoints);
+            expected.add(coords);
+            geometries.add(coords);
+        }
+        assertGeometries(expected, fromPoints, geometries);
+        geometries.pack(pair -> fromPoints.get(pair)[0], pair -> fromPoints.get(pair)[1]);
+        assertGeometries(expected, fromPoints, geometries);
+
+        try {
+            geometries.set(0, new int[0]);
+            fail("Packed geometries should not be modifiable.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        PackedGeometries copy = geometries.extendOnlyCopy();
+        List<int[]> expectedCopy = new ArrayList<>(expected);
+        for (int pair = 1500; pair < 1600; pair++) {
+            int[] coords = randomGeometry(random, fromPoints);
+            expectedCopy.add(coords);
+            copy.add(coords);
+        }
+        // Only the geometry of the pair is replaced, not its from vertex.
+        int[] replacement = randomGeometry(random, new ArrayList<>());
+        copy.set(1550, replacement);
+        expectedCopy.set(1550, replacement);
+        assertGeometries(expectedCopy, fromPoints, copy);
+        assertGeometries(expected, fromPoints, geometries);
+    }
+
+    /** @return a random geometry, after adding a random from vertex for its edge pair to the given list. */
+    private static int[] randomGeometry (Random random, List<int[]> fromPoints) {
+        // About half of all edges are straight lines.
+        int nPoints = random.nextBoolean() ? 0 : random.nextInt(20) + 1;
+        int[] coords = new int[nPoints * 2];
+        int fixedLat = random.nextInt(1_800_000_000) - 900_000_000;
+        int fixedLon = random.nextInt(Integer.MAX_VALUE) - Integer.MAX_VALUE / 2;
+        fromPoints.add(new int[] { fixedLat, fixedLon });
+        for (int i = 0; i < coords.length; i += 2) {
+            // Mostly small steps, with the occasional large one.
+            int step = random.nextInt(10) == 0 ? 10_000_000 : 10_000;
+            fixedLat += random.nextInt(step * 2) - step;
+            fixedLon += random.nextInt(step * 2) - step;
+            coords[i] = fixedLat;
+            coords[i + 1] = fixedLon;
+        }
+        return coords;
+    }
+
+    private static void assertGeometries (List<int[]> expected, List<int[]> fromPoints, PackedGeometries geometries) {
+        assertEquals(expected.size(), geometries.size());
+        for (int pair = 0; pair < expected.size(); pair++) {
+            int[] coords = expected.get(pair);
+            int[] from = fromPoints.get(pair);
+            assertEquals(coords.length / 2, geometries.nPoints(pair));
+            assertTrue(Arrays.equals(coords, geometries.get(pair, from[0], from[1])));
+            int[] nSegments = new int[1];
+            geometries.forEachSegment(pair, from[0], from[1], 3, 4, (s, fixedLat0, fixedLon0, fixedLat1, fixedLon1) -> {
+                assertEquals(nSegments[0]++, s);
+                if (s == 0) {
+                    assertEquals(from[0], fixedLat0);
+                    assertEquals(from[1], fixedLon0);
+                }
+                if (s < coords.length / 2) {
+                    assertEquals(coords[s * 2], fixedLat1);
+                    assertEquals(coords[s * 2 + 1], fixedLon1);
+                } else {
+                    assertEquals(3, fixedLat1);
+                    assertEquals(4, fixedLon1);
+                }
+            });
+            assertEquals(coords.length / 2 + 1, nSegments[0]);
+        }
+    }
+
+}
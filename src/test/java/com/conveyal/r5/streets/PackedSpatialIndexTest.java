@@ -0,0 +1,43 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.common.GeometryUtils;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import gnu.trove.set.TIntSet;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * The packed spatial index must find every edge whose geometry intersects the query envelope.
+ */
+public class PackedSpatialIndexTest extends TestCase {
+
+    @Test
+    public void testQueriesFindAllEdges () {
+        StreetLayer streetLayer = FakeGraph.buildColumbusStreetLayer();
+
+        PackedSpatialIndex index = new PackedSpatialIndex(streetLayer.edgeStore);
+        Envelope extent = streetLayer.getEnvelope();
+        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
+        Random random = new Random(42);
+        for (int q = 0; q < 100; q++) {
+            // Envelopes from about 20 meters to about 2 kilometers across.
+            double lat = extent.getMinY() + random.nextDouble() * extent.getHeight();
+            double lon = extent.getMinX() + random.nextDouble() * extent.getWidth();
+            double size = 0.0002 * Math.pow(100, random.nextDouble());
+            Envelope envelope = new Envelope(lon, lon + size, lat, lat + size);
+            Geometry envelopeGeometry = GeometryUtils.geometryFactory.toGeometry(envelope);
+            TIntSet found = index.query(VertexStore.envelopeToFixed(envelope));
+            for (int e = 0; e < streetLayer.edgeStore.nEdges(); e += 2) {
+                edge.seek(e);
+                if (edge.getGeometry().intersects(envelopeGeometry)) {
+                    assertTrue("Edge " + e + " intersects the envelope but was not found.", found.contains(e));
+                }
+            }
+        }
+    }
+
+}
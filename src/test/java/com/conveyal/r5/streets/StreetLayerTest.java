@@ -1,15 +1,22 @@
 package com.conveyal.r5.streets;
 
 import com.conveyal.osmlib.OSM;
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.diff.ObjectDiffer;
 import com.conveyal.r5.point_to_point.builder.TNBuilderConfig;
 import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.transit.TransportNetwork;
+import com.vividsolutions.jts.geom.Coordinate;
 import gnu.trove.TIntCollection;
 import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.TIntSet;
 import junit.framework.TestCase;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.EnumSet;
+import java.util.concurrent.ForkJoinPool;
 
 public class StreetLayerTest extends TestCase {
 
@@ -28,8 +35,8 @@ public class StreetLayerTest extends TestCase {
 
         // find an edge that should be removed
         int v = sl.vertexIndexForOsmNode.get(961011556);
-        assertEquals(3, sl.incomingEdges.get(v).size());
-        assertEquals(3, sl.outgoingEdges.get(v).size());
+        assertEquals(3, sl.incomingEdges.size(v));
+        assertEquals(3, sl.outgoingEdges.size(v));
 
         // make sure that it's a subgraph
         StreetRouter r = new StreetRouter(sl);
@@ -37,7 +44,7 @@ public class StreetLayerTest extends TestCase {
         r.route();
         assertTrue(r.getReachedVertices().size() < 40);
 
-        int e0 = sl.incomingEdges.get(v).get(0);
+        int e0 = sl.incomingEdges.get(v, 0);
         int e1 = e0 % 2 == 0 ? e0 + 1 : e0 - 1;
 
         assertEquals(v, sl.edgeStore.getCursor(e0).getToVertex());
@@ -47,9 +54,9 @@ public class StreetLayerTest extends TestCase {
 
         // note: disconnected subgraphs are not removed, they are de-pedestrianized
         final EdgeStore.Edge edge = sl.edgeStore.getCursor();
-        assertTrue(Arrays.stream(sl.incomingEdges.get(v).toArray())
+        assertTrue(Arrays.stream(sl.incomingEdges.toArray(v))
                 .noneMatch(i -> sl.edgeStore.getCursor(i).getFlag(EdgeStore.EdgeFlag.ALLOWS_PEDESTRIAN)));
-        assertTrue(Arrays.stream(sl.outgoingEdges.get(v).toArray())
+        assertTrue(Arrays.stream(sl.outgoingEdges.toArray(v))
                 .noneMatch(i -> sl.edgeStore.getCursor(i).getFlag(EdgeStore.EdgeFlag.ALLOWS_PEDESTRIAN)));
     }
 
@@ -142,8 +149,8 @@ public class StreetLayerTest extends TestCase {
         int e = -1;
         EdgeStore.Edge edge = sl.edgeStore.getCursor();
 
-        for (TIntIterator it = sl.incomingEdges.get(v).iterator(); it.hasNext();) {
-            e = it.next();
+        for (int i = 0; i < sl.incomingEdges.size(v); i++) {
+            e = sl.incomingEdges.get(v, i);
             edge.seek(e);
             // Connecticut Ave NW south of the intersection
             if (edge.getOSMID() == 382852845L) break;
@@ -186,8 +193,8 @@ public class StreetLayerTest extends TestCase {
         int e = -1;
         EdgeStore.Edge edge = sl.edgeStore.getCursor();
 
-        for (TIntIterator it = sl.incomingEdges.get(v).iterator(); it.hasNext();) {
-            e = it.next();
+        for (int i = 0; i < sl.incomingEdges.size(v); i++) {
+            e = sl.incomingEdges.get(v, i);
             edge.seek(e);
             // Little bit of Reisterstown Rd. in intersection
             if (edge.getOSMID() == 238215855) break;
@@ -228,4 +235,72 @@ public class StreetLayerTest extends TestCase {
         assertEquals(238215856L, edge.getOSMID());
         assertFalse(restriction.only);
     }
+
+    /**
+     * Ways are labeled in parallel when building a street layer. The result must be identical to a build on a single
+     * thread.
+     */
+    @Test
+    public void testParallelBuildIsDeterministic () throws Exception {
+        OSM osm = FakeGraph.readColumbusOsm();
+
+        StreetLayer parallel = new StreetLayer(TNBuilderConfig.defaultConfig());
+        parallel.loadFromOsm(osm);
+        // Parallel streams started from within a ForkJoinPool run in that pool.
+        StreetLayer sequential = new StreetLayer(TNBuilderConfig.defaultConfig());
+        new ForkJoinPool(1).submit(() -> sequential.loadFromOsm(osm)).get();
+        osm.close();
+
+        ObjectDiffer objectDiffer = new ObjectDiffer();
+        objectDiffer.ignoreFields("permissionLabeler", "stressLabeler", "typeOfEdgeLabeler", "speedLabeler");
+        objectDiffer.useEquals(BitSet.class);
+        // IntHashGrid contains unordered lists of elements in each bin. Lists are compared as ordered.
+        objectDiffer.ignoreClasses(IntHashGrid.class);
+        objectDiffer.compareTwoObjects(sequential, parallel);
+        objectDiffer.printSummary();
+        assertFalse(objectDiffer.hasDifferences());
+    }
+
+    /**
+     * The edges of a network are compacted once it is built, and can no longer be modified. Splitting one of them
+     * must leave it unchanged and make new edges instead.
+     */
+    @Test
+    public void testSplitAfterCompacting () {
+        TransportNetwork network = FakeGraph.buildNetwork(FakeGraph.TransitNetwork.SINGLE_LINE);
+        StreetLayer streetLayer = network.streetLayer;
+        EdgeStore edgeStore = streetLayer.edgeStore;
+        assertTrue(edgeStore.isCompacted());
+        int nEdges = edgeStore.nEdges();
+
+        // Find a long edge and split it in the middle.
+        EdgeStore.Edge edge = edgeStore.getCursor();
+        int e = 0;
+        for (; e < nEdges; e += 2) {
+            edge.seek(e);
+            if (edge.getLengthM() > 100 && edge.getFlag(EdgeStore.EdgeFlag.ALLOWS_PEDESTRIAN)) break;
+        }
+        assertTrue(e < nEdges);
+        assertFalse(edge.isMutable());
+        int toVertex = edge.getToVertex();
+        int lengthMm = edge.getLengthMm();
+        Coordinate[] coordinates = edge.getGeometry().getCoordinates();
+        Coordinate middle = coordinates[coordinates.length / 2];
+        if (coordinates.length == 2) {
+            middle = new Coordinate((coordinates[0].x + coordinates[1].x) / 2,
+                    (coordinates[0].y + coordinates[1].y) / 2);
+        }
+
+        int vertex = streetLayer.getOrCreateVertexNear(middle.y, middle.x, StreetMode.WALK);
+        assertTrue(vertex >= 0);
+        assertTrue(edgeStore.nEdges() > nEdges);
+        edge.seek(e);
+        assertEquals(toVertex, edge.getToVertex());
+        assertEquals(lengthMm, edge.getLengthMm());
+        assertTrue(Arrays.equals(coordinates, edge.getGeometry().getCoordinates()));
+        // The split edge is no longer found in the spatial index, but the new ones are.
+        TIntSet edges = streetLayer.findEdgesInEnvelope(edge.getEnvelope());
+        assertFalse(edges.contains(e));
+        assertTrue(edges.contains(nEdges));
+    }
 }
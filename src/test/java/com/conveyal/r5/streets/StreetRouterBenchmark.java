@@ -0,0 +1,202 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.profile.StreetMode;
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import static com.conveyal.r5.streets.StreetRouterOptimizationsTest.search;
+
+/**
+ * Times one-to-many street searches on a city-scale street layer (Columbus, OH), comparing the StreetRouter against a
+ * straightforward reference search (see StreetRouterOptimizationsTest.referenceSearch). Both searches must reach the
+ * same vertices at the same cost. Car searches using the contraction hierarchy (point to point and one to all) and
+ * landmarks are timed and checked against plain searches.
+ *
+ * This takes several minutes, so it is not one of the unit tests (which check the same things on a small network in
+ * StreetRouterOptimizationsTest). Run it with mvn test -P benchmarks.
+ */
+public class StreetRouterBenchmark extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreetRouterBenchmark.class);
+
+    private static final int N_SEARCHES = 100;
+
+    private static final int TIME_LIMIT_SECONDS = StreetRouterOptimizationsTest.TIME_LIMIT_SECONDS;
+
+    @Test
+    public void testOneToManySearches () {
+        StreetLayer streetLayer = FakeGraph.buildColumbusStreetLayer();
+
+        Random random = new Random(42);
+        int[] origins = new int[N_SEARCHES];
+        for (int i = 0; i < N_SEARCHES; i++) origins[i] = random.nextInt(streetLayer.getVertexCount());
+
+        // Routers are reused from a pool, as in bulk searches like distance table building.
+        StreetRouterPool routers = new StreetRouterPool(streetLayer);
+
+        // Two passes, the first to warm up the JIT. Only the second is timed.
+        for (int pass = 0; pass < 2; pass++) {
+            long routerNanos = 0, referenceNanos = 0;
+            long nReached = 0;
+            for (int origin : origins) {
+                long start = System.nanoTime();
+                StreetRouter router = routers.acquire();
+                router.timeLimitSeconds = TIME_LIMIT_SECONDS;
+                router.setOrigin(origin);
+                router.route();
+                TIntIntMap reached = router.getReachedVertices();
+                routers.release(router);
+                routerNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                TIntIntMap referenceReached = StreetRouterOptimizationsTest.referenceSearch(streetLayer, origin);
+                referenceNanos += System.nanoTime() - start;
+
+                assertEquals(referenceReached, reached);
+                nReached += reached.size();
+            }
+            LOG.info("Pass {}: {} searches reaching {} vertices on average. StreetRouter {} ms, reference {} ms.",
+                    pass, N_SEARCHES, nReached / N_SEARCHES, routerNanos / 1000000, referenceNanos / 1000000);
+        }
+    }
+
+    /**
+     * Compare car searches between random pairs of points with and without the contraction hierarchy. The hierarchy
+     * must give exactly the same travel cost as searching the whole street network.
+     */
+    @Test
+    public void testContractionHierarchy () {
+        StreetLayer streetLayer = FakeGraph.buildColumbusStreetLayer();
+        long start = System.currentTimeMillis();
+        streetLayer.buildCarContractionHierarchy();
+        LOG.info("Contraction hierarchy built in {} ms.", System.currentTimeMillis() - start);
+
+        Random random = new Random(42);
+        long plainNanos = 0, hierarchyNanos = 0;
+        int nFound = 0;
+        for (int i = 0; i < N_SEARCHES; i++) {
+            double[] fromTo = randomVertexPair(streetLayer, random);
+
+            long startNanos = System.nanoTime();
+            StreetRouter.State plainState = search(streetLayer, StreetMode.CAR, fromTo, false);
+            plainNanos += System.nanoTime() - startNanos;
+            startNanos = System.nanoTime();
+            StreetRouter.State hierarchyState = search(streetLayer, StreetMode.CAR, fromTo, true);
+            hierarchyNanos += System.nanoTime() - startNanos;
+
+            if (plainState == null) {
+                assertNull(hierarchyState);
+            } else {
+                assertNotNull(hierarchyState);
+                assertEquals(plainState.weight, hierarchyState.weight);
+                nFound++;
+            }
+        }
+        LOG.info("{} car searches, {} reaching the destination. Plain search {} ms, contraction hierarchy {} ms.",
+                N_SEARCHES, nFound, plainNanos / 1000000, hierarchyNanos / 1000000);
+    }
+
+    /**
+     * Compare car travel times to all vertices found with the contraction hierarchy against one-to-many car searches.
+     * Both find paths of least weight, but among paths of equal weight they may pick ones with slightly different
+     * travel times, and vertices right at the time limit may be reached by only one of them.
+     */
+    @Test
+    public void testOneToAllContractionHierarchy () {
+        StreetLayer streetLayer = FakeGraph.buildColumbusStreetLayer();
+        streetLayer.buildCarContractionHierarchy();
+        ContractionHierarchy hierarchy = streetLayer.carContractionHierarchy;
+
+        Random random = new Random(42);
+        VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor();
+        long plainNanos = 0, hierarchyNanos = 0;
+        long nReached = 0, nReachedByOne = 0, totalDifference = 0;
+        for (int i = 0; i < N_SEARCHES; i++) {
+            vertex.seek(random.nextInt(streetLayer.getVertexCount()));
+            long startNanos = System.nanoTime();
+            StreetRouter router = new StreetRouter(streetLayer);
+            router.streetMode = StreetMode.CAR;
+            router.timeLimitSeconds = TIME_LIMIT_SECONDS;
+            if (!router.setOrigin(vertex.getLat(), vertex.getLon())) continue;
+            router.route();
+            plainNanos += System.nanoTime() - startNanos;
+
+            startNanos = System.nanoTime();
+            Split origin = streetLayer.findSplit(vertex.getLat(), vertex.getLon(), StreetLayer.LINK_RADIUS_METERS,
+                    StreetMode.CAR);
+            int[] travelTimes = hierarchy.findTravelTimesToVertices(streetLayer, origin, TIME_LIMIT_SECONDS);
+            hierarchyNanos += System.nanoTime() - startNanos;
+
+            for (int v = 0; v < travelTimes.length; v++) {
+                int plainTime = router.getTravelTimeToVertex(v);
+                if (plainTime == Integer.MAX_VALUE && travelTimes[v] == Integer.MAX_VALUE) continue;
+                if (plainTime == Integer.MAX_VALUE || travelTimes[v] == Integer.MAX_VALUE) {
+                    nReachedByOne++;
+                } else {
+                    nReached++;
+                    totalDifference += Math.abs(plainTime - travelTimes[v]);
+                }
+            }
+            router.release();
+        }
+        LOG.info("{} one-to-all car searches reaching {} vertices on average. Plain search {} ms, PHAST {} ms.",
+                N_SEARCHES, nReached / N_SEARCHES, plainNanos / 1000000, hierarchyNanos / 1000000);
+        assertTrue(nReachedByOne <= nReached / 100);
+        assertTrue(totalDifference < nReached);
+    }
+
+    /**
+     * Compare bicycle and car searches between random pairs of points with and without landmarks. Goal direction
+     * must only change the number of states explored, not the result.
+     */
+    @Test
+    public void testLandmarks () {
+        StreetLayer streetLayer = FakeGraph.buildColumbusStreetLayer();
+        long start = System.currentTimeMillis();
+        streetLayer.buildLandmarks(8);
+        Landmarks landmarks = streetLayer.landmarks;
+        LOG.info("Landmarks built in {} ms.", System.currentTimeMillis() - start);
+
+        for (StreetMode mode : new StreetMode[] { StreetMode.BICYCLE, StreetMode.CAR }) {
+            Random random = new Random(42);
+            long plainNanos = 0, landmarkNanos = 0;
+            for (int i = 0; i < N_SEARCHES; i++) {
+                double[] fromTo = randomVertexPair(streetLayer, random);
+
+                streetLayer.landmarks = null;
+                long startNanos = System.nanoTime();
+                StreetRouter.State plainState = search(streetLayer, mode, fromTo, false);
+                plainNanos += System.nanoTime() - startNanos;
+                streetLayer.landmarks = landmarks;
+                startNanos = System.nanoTime();
+                StreetRouter.State landmarkState = search(streetLayer, mode, fromTo, false);
+                landmarkNanos += System.nanoTime() - startNanos;
+
+                if (plainState == null) {
+                    assertNull(landmarkState);
+                } else {
+                    assertNotNull(landmarkState);
+                    assertEquals(plainState.weight, landmarkState.weight);
+                }
+            }
+            LOG.info("{} {} searches. Straight line goal direction {} ms, landmarks {} ms.",
+                    N_SEARCHES, mode, plainNanos / 1000000, landmarkNanos / 1000000);
+        }
+    }
+
+    /** @return the coordinates of two random vertices, as fromLat, fromLon, toLat, toLon. */
+    private static double[] randomVertexPair (StreetLayer streetLayer, Random random) {
+        VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor();
+        vertex.seek(random.nextInt(streetLayer.getVertexCount()));
+        double fromLat = vertex.getLat(), fromLon = vertex.getLon();
+        vertex.seek(random.nextInt(streetLayer.getVertexCount()));
+        return new double[] { fromLat, fromLon, vertex.getLat(), vertex.getLon() };
+    }
+
+}
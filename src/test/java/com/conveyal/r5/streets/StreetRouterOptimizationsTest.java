@@ -0,0 +1,197 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.point_to_point.builder.TNBuilderConfig;
+import com.conveyal.r5.profile.ProfileRequest;
+import com.conveyal.r5.profile.StreetMode;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Check the optimizations of the StreetRouter (pooled routers, contraction hierarchy and landmarks) against plain
+ * searches on a small grid of streets with irregular lengths. Timing them on a city-scale network is left to
+ * StreetRouterBenchmark, which is not part of the unit tests.
+ */
+public class StreetRouterOptimizationsTest extends TestCase {
+
+    private static final int GRID_SIZE = 15;
+
+    private static final int N_SEARCHES = 50;
+
+    static final int TIME_LIMIT_SECONDS = 20 * 60;
+
+    private StreetLayer streetLayer;
+
+    @Override
+    public void setUp () {
+        streetLayer = new StreetLayer(new TNBuilderConfig());
+        int[][] vertices = new int[GRID_SIZE][GRID_SIZE];
+        for (int y = 0; y < GRID_SIZE; y++) {
+            for (int x = 0; x < GRID_SIZE; x++) {
+                vertices[x][y] = streetLayer.vertexStore.addVertex(40 + y * 0.001, -83 + x * 0.001);
+            }
+        }
+        // Street lengths are between 1.2 and 2 times the straight line distance between their ends (about 111m north
+        // to south and 85m east to west), so that the straight line goal direction heuristic never overestimates.
+        Random random = new Random(42);
+        for (int y = 0; y < GRID_SIZE; y++) {
+            for (int x = 0; x < GRID_SIZE; x++) {
+                if (x + 1 < GRID_SIZE) addStreet(random, vertices[x][y], vertices[x + 1][y], 85000);
+                if (y + 1 < GRID_SIZE) addStreet(random, vertices[x][y], vertices[x][y + 1], 111000);
+            }
+        }
+        streetLayer.indexStreets();
+        streetLayer.buildEdgeLists();
+    }
+
+    private void addStreet (Random random, int fromVertex, int toVertex, int straightLineMillimeters) {
+        int lengthMillimeters = (int) (straightLineMillimeters * (1.2 + random.nextDouble() * 0.8));
+        EdgeStore.Edge edge = streetLayer.edgeStore.addStreetPair(fromVertex, toVertex, lengthMillimeters, -1);
+        // Leave some streets closed to cars so that the car network is not a regular grid.
+        boolean allowsCar = random.nextInt(5) != 0;
+        setFlags(edge, allowsCar);
+        edge.advance();
+        setFlags(edge, allowsCar);
+    }
+
+    private static void setFlags (EdgeStore.Edge edge, boolean allowsCar) {
+        edge.setFlag(EdgeStore.EdgeFlag.ALLOWS_PEDESTRIAN);
+        edge.setFlag(EdgeStore.EdgeFlag.ALLOWS_BIKE);
+        if (allowsCar) edge.setFlag(EdgeStore.EdgeFlag.ALLOWS_CAR);
+        edge.setFlag(EdgeStore.EdgeFlag.LINKABLE);
+    }
+
+    /** Pooled routers, which are reset between searches, must reach the same vertices as a plain reference search. */
+    @Test
+    public void testPooledRoutersMatchReferenceSearch () {
+        StreetRouterPool routers = new StreetRouterPool(streetLayer);
+        for (int origin = 0; origin < streetLayer.getVertexCount(); origin += 7) {
+            StreetRouter router = routers.acquire();
+            router.timeLimitSeconds = TIME_LIMIT_SECONDS;
+            router.setOrigin(origin);
+            router.route();
+            TIntIntMap reached = router.getReachedVertices();
+            routers.release(router);
+            assertEquals(referenceSearch(streetLayer, origin), reached);
+        }
+    }
+
+    /** Copies of the street layer made for scenarios must not lend out the scratch arrays of the base layer. */
+    @Test
+    public void testScratchPoolNotSharedWithCopies () {
+        StatesAtEdges.ScratchPool pool = streetLayer.getStatesAtEdgesScratchPool();
+        assertNotSame(pool, streetLayer.clone().getStatesAtEdgesScratchPool());
+        assertSame(pool, streetLayer.getStatesAtEdgesScratchPool());
+    }
+
+    /** The contraction hierarchy must give exactly the same travel cost as searching the whole street network. */
+    @Test
+    public void testContractionHierarchy () {
+        streetLayer.buildCarContractionHierarchy();
+        Random random = new Random(42);
+        for (int i = 0; i < N_SEARCHES; i++) {
+            double[] fromTo = randomVertexPair(random);
+            assertSameWeight(search(streetLayer, StreetMode.CAR, fromTo, false),
+                    search(streetLayer, StreetMode.CAR, fromTo, true));
+        }
+    }
+
+    /** Goal direction with landmarks must only change the number of states explored, not the result. */
+    @Test
+    public void testLandmarks () {
+        streetLayer.buildLandmarks(4);
+        Landmarks landmarks = streetLayer.landmarks;
+        for (StreetMode mode : new StreetMode[] { StreetMode.WALK, StreetMode.CAR }) {
+            Random random = new Random(42);
+            for (int i = 0; i < N_SEARCHES; i++) {
+                double[] fromTo = randomVertexPair(random);
+                streetLayer.landmarks = null;
+                StreetRouter.State plainState = search(streetLayer, mode, fromTo, false);
+                streetLayer.landmarks = landmarks;
+                assertSameWeight(plainState, search(streetLayer, mode, fromTo, false));
+            }
+        }
+    }
+
+    /** @return the coordinates of two random vertices, as fromLat, fromLon, toLat, toLon. */
+    private double[] randomVertexPair (Random random) {
+        VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor();
+        vertex.seek(random.nextInt(streetLayer.getVertexCount()));
+        double fromLat = vertex.getLat(), fromLon = vertex.getLon();
+        vertex.seek(random.nextInt(streetLayer.getVertexCount()));
+        return new double[] { fromLat, fromLon, vertex.getLat(), vertex.getLon() };
+    }
+
+    private static void assertSameWeight (StreetRouter.State expected, StreetRouter.State actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertNotNull(actual);
+            assertEquals(expected.weight, actual.weight);
+        }
+    }
+
+    /** @return the state at the destination of a search between the given coordinates, or null if there is none. */
+    static StreetRouter.State search (StreetLayer streetLayer, StreetMode mode, double[] fromTo,
+                                      boolean useContractionHierarchy) {
+        StreetRouter router = new StreetRouter(streetLayer);
+        router.streetMode = mode;
+        router.useContractionHierarchy = useContractionHierarchy;
+        if (!router.setOrigin(fromTo[0], fromTo[1]) || !router.setDestination(fromTo[2], fromTo[3])) return null;
+        router.route();
+        StreetRouter.State state = router.getState(router.getDestinationSplit());
+        router.release();
+        return state;
+    }
+
+    /**
+     * A plain walk search with the same cost model as the StreetRouter, using java.util.PriorityQueue with lazy
+     * deletion of dominated states, which is how the StreetRouter used to work. It keeps one state per edge and skips
+     * states that were dominated after they were added to the queue. Walk searches are used because turn restrictions
+     * (which this search does not handle) only apply to cars.
+     */
+    static TIntIntMap referenceSearch (StreetLayer streetLayer, int origin) {
+        ProfileRequest profileRequest = new ProfileRequest();
+        TurnCostCalculator turnCostCalculator = new TurnCostCalculator(streetLayer, true);
+        TravelTimeCalculator travelTimeCalculator = new EdgeStore.DefaultTravelTimeCalculator();
+        StreetRouter.State.RoutingVariable variable = StreetRouter.State.RoutingVariable.WEIGHT;
+        TIntObjectMap<StreetRouter.State> bestStateAtEdge = new TIntObjectHashMap<>();
+        PriorityQueue<StreetRouter.State> queue = new PriorityQueue<>(
+                Comparator.comparingInt(s -> s.getRoutingVariable(variable)));
+        queue.add(new StreetRouter.State(origin, -1, StreetMode.WALK));
+        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
+        while (!queue.isEmpty()) {
+            StreetRouter.State s0 = queue.poll();
+            if (s0.backEdge >= 0 && bestStateAtEdge.get(s0.backEdge) != s0) continue;
+            streetLayer.outgoingEdges.forEach(s0.vertex, e -> {
+                edge.seek(e);
+                StreetRouter.State s1 = edge.traverse(s0, StreetMode.WALK, profileRequest, turnCostCalculator,
+                        travelTimeCalculator);
+                if (s1 == null || s1.getDurationSeconds() >= TIME_LIMIT_SECONDS) return true;
+                StreetRouter.State existing = bestStateAtEdge.get(e);
+                if (existing == null || existing.getRoutingVariable(variable) > s1.getRoutingVariable(variable)) {
+                    bestStateAtEdge.put(e, s1);
+                    queue.add(s1);
+                }
+                return true;
+            });
+        }
+        TIntIntMap result = new TIntIntHashMap();
+        bestStateAtEdge.forEachEntry((e, state) -> {
+            edge.seek(e);
+            int vertex = edge.getToVertex();
+            int value = state.getRoutingVariable(variable);
+            if (!result.containsKey(vertex) || result.get(vertex) > value) result.put(vertex, value);
+            return true;
+        });
+        return result;
+    }
+
+}